@@ -0,0 +1,591 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.breakpoint;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.SparseArray;
+
+import com.liulishuo.okdownload.core.Util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The append-only journal of the breakpoint infos.
+ * <p>
+ * Each change is appended as one record {@code [type(1)][payload size(4)][payload][crc32(4)]},
+ * and the progress of one block is a fixed-size record, so persisting the progress is just
+ * appending some bytes to the end of the file without any SQL parsing or page journaling.
+ * <p>
+ * All records are replayed on {@link #load()}, and the torn record on the tail left by a crash
+ * is dropped. Once the journal grows over the size of the last compacted one, it is compacted
+ * to the live records and replaced atomically.
+ */
+public class BreakpointJournal {
+
+    private static final String TAG = "BreakpointJournal";
+
+    static final String NAME = "okdownload-breakpoint.journal";
+    static final String COMPACT_SUFFIX = ".compact";
+
+    static final byte TYPE_INFO = 1;
+    static final byte TYPE_BLOCK = 2;
+    static final byte TYPE_REMOVE = 3;
+    static final byte TYPE_RESPONSE_FILENAME = 4;
+    static final byte TYPE_FILE_DIRTY = 5;
+    static final byte TYPE_FILE_CLEAR = 6;
+
+    // type(1) + payload size(4)
+    static final int HEADER_SIZE = 5;
+    static final int CRC_SIZE = 4;
+    // id(4) + block index(4) + current offset(8)
+    static final int BLOCK_PAYLOAD_SIZE = 16;
+    static final int BLOCK_RECORD_SIZE = HEADER_SIZE + BLOCK_PAYLOAD_SIZE + CRC_SIZE;
+
+    static final long DEFAULT_MIN_COMPACT_GROWTH = 512 * 1024;
+    private static final int MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+    private static final int COMPACT_FLUSH_SIZE = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @NonNull private final File file;
+    @NonNull private final File compactFile;
+    private final long minCompactGrowth;
+
+    // the live records, which are always the same as the result of replaying the journal.
+    private final SparseArray<byte[]> infoPayloads = new SparseArray<>();
+    private final SparseArray<long[]> blockOffsets = new SparseArray<>();
+    private final HashMap<String, String> responseFilenames = new HashMap<>();
+    private final List<Integer> dirtyIds = new ArrayList<>();
+
+    private final CRC32 crc32 = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+    private FileChannel channel;
+    private long length;
+    private long compactedLength;
+
+    public BreakpointJournal(@NonNull File dir) {
+        this(dir, DEFAULT_MIN_COMPACT_GROWTH);
+    }
+
+    BreakpointJournal(@NonNull File dir, long minCompactGrowth) {
+        this.file = new File(dir, NAME);
+        this.compactFile = new File(dir, NAME + COMPACT_SUFFIX);
+        this.minCompactGrowth = minCompactGrowth;
+    }
+
+    /**
+     * Replay the journal and open it for appending, this must be invoked before any other
+     * operation.
+     */
+    public synchronized void load() throws IOException {
+        // crashed while compacting, the journal itself is still intact.
+        if (compactFile.exists() && !compactFile.delete()) {
+            Util.w(TAG, "delete the left compact file " + compactFile + " failed");
+        }
+
+        final long validLength = file.exists() ? replay() : 0;
+
+        channel = openChannel(file);
+        final long fileLength = channel.size();
+        if (fileLength > validLength) {
+            Util.w(TAG, "drop the torn tail of journal from " + validLength + " to "
+                    + fileLength);
+            channel.truncate(validLength);
+        }
+        channel.position(validLength);
+        length = validLength;
+        compactedLength = validLength;
+        Util.d(TAG, "load journal with " + infoPayloads.size() + " infos, length "
+                + validLength);
+    }
+
+    public synchronized SparseArray<BreakpointInfo> loadToCache() {
+        final int size = infoPayloads.size();
+        final SparseArray<BreakpointInfo> infos = new SparseArray<>(size);
+        for (int i = 0; i < size; i++) {
+            final int id = infoPayloads.keyAt(i);
+            infos.put(id, decodeInfo(infoPayloads.valueAt(i), blockOffsets.get(id)));
+        }
+        return infos;
+    }
+
+    public synchronized List<Integer> loadDirtyFileList() {
+        return new ArrayList<>(dirtyIds);
+    }
+
+    public synchronized HashMap<String, String> loadResponseFilenameToMap() {
+        return new HashMap<>(responseFilenames);
+    }
+
+    public synchronized void insert(@NonNull BreakpointInfo info) throws IOException {
+        final int start = beginRecord(TYPE_INFO);
+        putInfo(info);
+        endRecord(start);
+        final byte[] payload = copyPayload(start);
+
+        append();
+        applyInfo(payload);
+        compactIfNeeded();
+    }
+
+    public synchronized void updateInfo(@NonNull BreakpointInfo info) throws IOException {
+        // not exist
+        if (infoPayloads.get(info.id) == null) return;
+
+        insert(info);
+    }
+
+    public synchronized void updateBlockIncrease(@NonNull BreakpointInfo info, int blockIndex,
+                                                 long newCurrentOffset) throws IOException {
+        if (blockOffsets.get(info.id) == null) return;
+
+        putBlockRecord(info.id, blockIndex, newCurrentOffset);
+        append();
+        applyBlock(info.id, blockIndex, newCurrentOffset);
+        compactIfNeeded();
+    }
+
+    /**
+     * Append the current offset of all increased blocks of the {@code info} with one write.
+     *
+     * @param increaseLengths the increased length of each block on its block index, the block
+     *                        with a length less than or equal to {@code 0} is skipped.
+     */
+    public synchronized void updateBlockIncrease(@NonNull BreakpointInfo info,
+                                                 @NonNull long[] increaseLengths)
+            throws IOException {
+        if (blockOffsets.get(info.id) == null) return;
+
+        final int count = increaseLengths.length;
+        for (int blockIndex = 0; blockIndex < count; blockIndex++) {
+            if (increaseLengths[blockIndex] <= 0) continue;
+            putBlockRecord(info.id, blockIndex, info.getBlock(blockIndex).getCurrentOffset());
+        }
+        if (buffer.position() == 0) return;
+
+        append();
+        for (int blockIndex = 0; blockIndex < count; blockIndex++) {
+            if (increaseLengths[blockIndex] <= 0) continue;
+            applyBlock(info.id, blockIndex, info.getBlock(blockIndex).getCurrentOffset());
+        }
+        compactIfNeeded();
+    }
+
+    public synchronized void removeInfo(int id) throws IOException {
+        if (infoPayloads.get(id) == null) return;
+
+        putIdRecord(TYPE_REMOVE, id);
+        append();
+        applyRemove(id);
+        compactIfNeeded();
+    }
+
+    public synchronized void updateFilename(@NonNull String url, @NonNull String filename)
+            throws IOException {
+        if (filename.equals(responseFilenames.get(url))) return;
+
+        final int start = beginRecord(TYPE_RESPONSE_FILENAME);
+        putString(url);
+        putString(filename);
+        endRecord(start);
+        append();
+        responseFilenames.put(url, filename);
+        compactIfNeeded();
+    }
+
+    public synchronized void markFileDirty(int id) throws IOException {
+        putIdRecord(TYPE_FILE_DIRTY, id);
+        append();
+        applyFileDirty(id);
+        compactIfNeeded();
+    }
+
+    public synchronized void markFileClear(int id) throws IOException {
+        putIdRecord(TYPE_FILE_CLEAR, id);
+        append();
+        applyFileClear(id);
+        compactIfNeeded();
+    }
+
+    public synchronized void close() {
+        if (channel == null) return;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Util.w(TAG, "close journal failed " + e);
+        }
+        channel = null;
+    }
+
+    /**
+     * Rewrite the live records to a new journal and replace the current one with it.
+     */
+    synchronized void compact() throws IOException {
+        final long originLength = length;
+        final FileChannel compactChannel = openChannel(compactFile);
+        try {
+            compactChannel.truncate(0);
+            writeLiveRecords(compactChannel);
+            compactChannel.force(true);
+        } finally {
+            buffer.clear();
+            compactChannel.close();
+        }
+
+        channel.close();
+        try {
+            if (!compactFile.renameTo(file)) {
+                throw new IOException("Rename " + compactFile + " to " + file + " failed");
+            }
+        } finally {
+            channel = openChannel(file);
+            length = channel.size();
+            channel.position(length);
+            // don't retry on each append if the rename is failed.
+            compactedLength = length;
+        }
+        Util.d(TAG, "compact journal from " + originLength + " to " + length);
+    }
+
+    long length() {
+        return length;
+    }
+
+    private void compactIfNeeded() {
+        if (length - compactedLength < Math.max(minCompactGrowth, compactedLength)) return;
+
+        try {
+            compact();
+        } catch (IOException e) {
+            // the journal is still valid, just bigger.
+            Util.w(TAG, "compact journal failed " + e);
+        }
+    }
+
+    private void writeLiveRecords(@NonNull FileChannel target) throws IOException {
+        final int infoCount = infoPayloads.size();
+        for (int i = 0; i < infoCount; i++) {
+            final int id = infoPayloads.keyAt(i);
+            final byte[] payload = infoPayloads.valueAt(i);
+            final int start = beginRecord(TYPE_INFO);
+            ensureCapacity(payload.length);
+            buffer.put(payload);
+            endRecord(start);
+
+            final long[] offsets = blockOffsets.get(id);
+            for (int blockIndex = 0; blockIndex < offsets.length; blockIndex++) {
+                putBlockRecord(id, blockIndex, offsets[blockIndex]);
+            }
+
+            if (buffer.position() >= COMPACT_FLUSH_SIZE) writeBuffer(target);
+        }
+
+        for (Map.Entry<String, String> entry : responseFilenames.entrySet()) {
+            final int start = beginRecord(TYPE_RESPONSE_FILENAME);
+            putString(entry.getKey());
+            putString(entry.getValue());
+            endRecord(start);
+        }
+
+        for (Integer id : dirtyIds) {
+            putIdRecord(TYPE_FILE_DIRTY, id);
+        }
+
+        writeBuffer(target);
+    }
+
+    private long replay() throws IOException {
+        final DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        long validLength = 0;
+        try {
+            while (true) {
+                final int type = input.read();
+                if (type < 0) break;
+
+                final int payloadSize = input.readInt();
+                if (payloadSize < 0 || payloadSize > MAX_PAYLOAD_SIZE) break;
+
+                final byte[] payload = new byte[payloadSize];
+                input.readFully(payload);
+                final int crc = input.readInt();
+
+                crc32.reset();
+                crc32.update(type);
+                crc32.update(payloadSize >>> 24);
+                crc32.update(payloadSize >>> 16);
+                crc32.update(payloadSize >>> 8);
+                crc32.update(payloadSize);
+                crc32.update(payload, 0, payloadSize);
+                if ((int) crc32.getValue() != crc) break;
+
+                if (!applyRecord((byte) type, payload)) break;
+                validLength += HEADER_SIZE + payloadSize + CRC_SIZE;
+            }
+        } catch (EOFException ignored) {
+            // the tail record is torn.
+        } finally {
+            input.close();
+        }
+
+        return validLength;
+    }
+
+    private boolean applyRecord(byte type, @NonNull byte[] payload) {
+        final ByteBuffer input = ByteBuffer.wrap(payload);
+        try {
+            switch (type) {
+                case TYPE_INFO:
+                    applyInfo(payload);
+                    break;
+                case TYPE_BLOCK:
+                    applyBlock(input.getInt(), input.getInt(), input.getLong());
+                    break;
+                case TYPE_REMOVE:
+                    applyRemove(input.getInt());
+                    break;
+                case TYPE_RESPONSE_FILENAME:
+                    responseFilenames.put(getString(input), getString(input));
+                    break;
+                case TYPE_FILE_DIRTY:
+                    applyFileDirty(input.getInt());
+                    break;
+                case TYPE_FILE_CLEAR:
+                    applyFileClear(input.getInt());
+                    break;
+                default:
+                    Util.w(TAG, "unknown record type " + type);
+                    return false;
+            }
+        } catch (BufferUnderflowException e) {
+            Util.w(TAG, "broken record with type " + type);
+            return false;
+        }
+        return true;
+    }
+
+    private void applyInfo(@NonNull byte[] payload) {
+        final BreakpointInfo info = decodeInfo(payload, null);
+        final int blockCount = info.getBlockCount();
+        final long[] offsets = new long[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            offsets[i] = info.getBlock(i).getCurrentOffset();
+        }
+        infoPayloads.put(info.id, payload);
+        blockOffsets.put(info.id, offsets);
+    }
+
+    private void applyBlock(int id, int blockIndex, long currentOffset) {
+        final long[] offsets = blockOffsets.get(id);
+        if (offsets == null || blockIndex < 0 || blockIndex >= offsets.length) return;
+        offsets[blockIndex] = currentOffset;
+    }
+
+    private void applyRemove(int id) {
+        infoPayloads.remove(id);
+        blockOffsets.remove(id);
+    }
+
+    private void applyFileDirty(int id) {
+        if (!dirtyIds.contains(id)) dirtyIds.add(id);
+    }
+
+    private void applyFileClear(int id) {
+        dirtyIds.remove(Integer.valueOf(id));
+    }
+
+    @NonNull static BreakpointInfo decodeInfo(@NonNull byte[] payload,
+                                              @Nullable long[] currentOffsets) {
+        final ByteBuffer input = ByteBuffer.wrap(payload);
+        final int id = input.getInt();
+        final String url = getString(input);
+        final String etag = getString(input);
+        final String parentPath = getString(input);
+        final String filename = getString(input);
+        final boolean taskOnlyProvidedParentPath = input.get() != 0;
+        final boolean chunked = input.get() != 0;
+
+        if (url == null || parentPath == null) throw new BufferUnderflowException();
+        final BreakpointInfo info = new BreakpointInfo(id, url, new File(parentPath), filename,
+                taskOnlyProvidedParentPath);
+        info.setEtag(etag);
+        info.setChunked(chunked);
+
+        final int blockCount = input.getInt();
+        for (int i = 0; i < blockCount; i++) {
+            final long startOffset = input.getLong();
+            final long contentLength = input.getLong();
+            long currentOffset = input.getLong();
+            if (currentOffsets != null && i < currentOffsets.length) {
+                currentOffset = currentOffsets[i];
+            }
+            info.addBlock(new BlockInfo(startOffset, contentLength, currentOffset));
+        }
+
+        return info;
+    }
+
+    private void putInfo(@NonNull BreakpointInfo info) {
+        ensureCapacity(4);
+        buffer.putInt(info.id);
+        putString(info.getUrl());
+        putString(info.getEtag());
+        putString(info.parentFile.getAbsolutePath());
+        putString(info.getFilename());
+        ensureCapacity(6);
+        buffer.put((byte) (info.isTaskOnlyProvidedParentPath() ? 1 : 0));
+        buffer.put((byte) (info.isChunked() ? 1 : 0));
+
+        final int blockCount = info.getBlockCount();
+        buffer.putInt(blockCount);
+        ensureCapacity(blockCount * 24);
+        for (int i = 0; i < blockCount; i++) {
+            final BlockInfo blockInfo = info.getBlock(i);
+            buffer.putLong(blockInfo.getStartOffset());
+            buffer.putLong(blockInfo.getContentLength());
+            buffer.putLong(blockInfo.getCurrentOffset());
+        }
+    }
+
+    private void putBlockRecord(int id, int blockIndex, long currentOffset) {
+        final int start = beginRecord(TYPE_BLOCK);
+        ensureCapacity(BLOCK_PAYLOAD_SIZE);
+        buffer.putInt(id);
+        buffer.putInt(blockIndex);
+        buffer.putLong(currentOffset);
+        endRecord(start);
+    }
+
+    private void putIdRecord(byte type, int id) {
+        final int start = beginRecord(type);
+        ensureCapacity(4);
+        buffer.putInt(id);
+        endRecord(start);
+    }
+
+    private void putString(@Nullable String value) {
+        if (value == null) {
+            ensureCapacity(4);
+            buffer.putInt(-1);
+            return;
+        }
+
+        final byte[] bytes = value.getBytes(UTF_8);
+        ensureCapacity(4 + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    @Nullable private static String getString(@NonNull ByteBuffer input) {
+        final int size = input.getInt();
+        if (size < 0) return null;
+        if (size > input.remaining()) throw new BufferUnderflowException();
+
+        final String value = new String(input.array(), input.position(), size, UTF_8);
+        input.position(input.position() + size);
+        return value;
+    }
+
+    private int beginRecord(byte type) {
+        ensureCapacity(HEADER_SIZE);
+        final int start = buffer.position();
+        buffer.put(type);
+        // the payload size is filled on end.
+        buffer.putInt(0);
+        return start;
+    }
+
+    private void endRecord(int start) {
+        final int payloadSize = buffer.position() - start - HEADER_SIZE;
+        buffer.putInt(start + 1, payloadSize);
+
+        crc32.reset();
+        crc32.update(buffer.array(), start, buffer.position() - start);
+        ensureCapacity(CRC_SIZE);
+        buffer.putInt((int) crc32.getValue());
+    }
+
+    private byte[] copyPayload(int start) {
+        final int payloadStart = start + HEADER_SIZE;
+        final int payloadSize = buffer.getInt(start + 1);
+        final byte[] payload = new byte[payloadSize];
+        System.arraycopy(buffer.array(), payloadStart, payload, 0, payloadSize);
+        return payload;
+    }
+
+    private void ensureCapacity(int size) {
+        if (buffer.remaining() >= size) return;
+
+        final ByteBuffer newBuffer = ByteBuffer.allocate(
+                Math.max(buffer.capacity() * 2, buffer.position() + size));
+        buffer.flip();
+        newBuffer.put(buffer);
+        buffer = newBuffer;
+    }
+
+    private void append() throws IOException {
+        if (channel == null) {
+            buffer.clear();
+            throw new IOException("The journal isn't loaded or has been closed!");
+        }
+
+        final int size = buffer.position();
+        try {
+            writeBuffer(channel);
+        } catch (IOException e) {
+            buffer.clear();
+            // drop the torn record, otherwise the records appended after it can't be replayed.
+            try {
+                channel.truncate(length);
+                channel.position(length);
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+        length += size;
+    }
+
+    private void writeBuffer(@NonNull FileChannel target) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // convenient for test
+    FileChannel openChannel(@NonNull File file) throws IOException {
+        return new RandomAccessFile(file, "rw").getChannel();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.breakpoint;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.liulishuo.okdownload.DownloadTask;
+import com.liulishuo.okdownload.core.Util;
+import com.liulishuo.okdownload.core.cause.EndCause;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The download store persisted on the {@link BreakpointJournal}, the infos are kept on the
+ * {@link BreakpointStoreOnCache} and each change is appended to the journal.
+ * <p>
+ * Appending to the journal is cheap enough, so there isn't a remit store for it, you can use it
+ * through {@link com.liulishuo.okdownload.OkDownload.Builder#downloadStore(DownloadStore)}.
+ */
+public class BreakpointStoreOnJournal implements DownloadStore, BatchSyncStore {
+
+    private static final String TAG = "BreakpointStoreOnJournal";
+    protected final BreakpointJournal journal;
+    protected final BreakpointStoreOnCache onCache;
+
+    BreakpointStoreOnJournal(BreakpointJournal journal, BreakpointStoreOnCache onCache) {
+        this.journal = journal;
+        this.onCache = onCache;
+    }
+
+    public BreakpointStoreOnJournal(Context context) throws IOException {
+        this(context.getApplicationContext().getFilesDir());
+    }
+
+    public BreakpointStoreOnJournal(@NonNull File dir) throws IOException {
+        this.journal = new BreakpointJournal(dir);
+        journal.load();
+        this.onCache = new BreakpointStoreOnCache(journal.loadToCache(),
+                journal.loadDirtyFileList(),
+                journal.loadResponseFilenameToMap());
+    }
+
+    @Nullable @Override public BreakpointInfo get(int id) {
+        return onCache.get(id);
+    }
+
+    @NonNull @Override public BreakpointInfo createAndInsert(@NonNull DownloadTask task)
+            throws IOException {
+        final BreakpointInfo info = onCache.createAndInsert(task);
+        journal.insert(info);
+        return info;
+    }
+
+    @Override public void onTaskStart(int id) {
+        onCache.onTaskStart(id);
+    }
+
+    @Override public void onSyncToFilesystemSuccess(@NonNull BreakpointInfo info, int blockIndex,
+                                                    long increaseLength) throws IOException {
+        onCache.onSyncToFilesystemSuccess(info, blockIndex, increaseLength);
+        final long newCurrentOffset = info.getBlock(blockIndex).getCurrentOffset();
+        journal.updateBlockIncrease(info, blockIndex, newCurrentOffset);
+    }
+
+    @Override public void onSyncToFilesystemSuccess(@NonNull BreakpointInfo info,
+                                                    @NonNull long[] increaseLengths)
+            throws IOException {
+        onCache.onSyncToFilesystemSuccess(info, increaseLengths);
+        journal.updateBlockIncrease(info, increaseLengths);
+    }
+
+    @Override public void beginSyncBatch() {
+        // each change is appended to the journal right away.
+    }
+
+    @Override public void endSyncBatch() {
+    }
+
+    @Override public boolean update(@NonNull BreakpointInfo breakpointInfo) throws IOException {
+        final boolean result = onCache.update(breakpointInfo);
+        journal.updateInfo(breakpointInfo);
+        final String filename = breakpointInfo.getFilename();
+        Util.d(TAG, "update " + breakpointInfo);
+        if (breakpointInfo.isTaskOnlyProvidedParentPath() && filename != null) {
+            journal.updateFilename(breakpointInfo.getUrl(), filename);
+        }
+        return result;
+    }
+
+    @Override
+    public void onTaskEnd(int id, @NonNull EndCause cause, @Nullable Exception exception) {
+        onCache.onTaskEnd(id, cause, exception);
+        if (cause == EndCause.COMPLETED) {
+            removeOnJournal(id);
+        }
+    }
+
+    @Nullable @Override public BreakpointInfo getAfterCompleted(int id) {
+        return null;
+    }
+
+    @Override public boolean markFileDirty(int id) {
+        if (onCache.markFileDirty(id)) {
+            try {
+                journal.markFileDirty(id);
+            } catch (IOException e) {
+                Util.w(TAG, "mark file dirty for " + id + " on journal failed " + e);
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override public boolean markFileClear(int id) {
+        if (onCache.markFileClear(id)) {
+            try {
+                journal.markFileClear(id);
+            } catch (IOException e) {
+                Util.w(TAG, "mark file clear for " + id + " on journal failed " + e);
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override public void remove(int id) {
+        onCache.remove(id);
+        removeOnJournal(id);
+    }
+
+    @Override public int findOrCreateId(@NonNull DownloadTask task) {
+        return onCache.findOrCreateId(task);
+    }
+
+    @Nullable @Override
+    public BreakpointInfo findAnotherInfoFromCompare(@NonNull DownloadTask task,
+                                                     @NonNull BreakpointInfo ignored) {
+        return onCache.findAnotherInfoFromCompare(task, ignored);
+    }
+
+    @Override public boolean isOnlyMemoryCache() {
+        return false;
+    }
+
+    @Override public boolean isFileDirty(int id) {
+        return onCache.isFileDirty(id);
+    }
+
+    @Nullable @Override public String getResponseFilename(String url) {
+        return onCache.getResponseFilename(url);
+    }
+
+    void close() {
+        journal.close();
+    }
+
+    private void removeOnJournal(int id) {
+        try {
+            journal.removeInfo(id);
+        } catch (IOException e) {
+            Util.w(TAG, "remove " + id + " on journal failed " + e);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.breakpoint;
+
+import android.util.SparseArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static com.liulishuo.okdownload.core.breakpoint.BreakpointJournal.BLOCK_RECORD_SIZE;
+import static com.liulishuo.okdownload.core.breakpoint.BreakpointJournal.COMPACT_SUFFIX;
+import static com.liulishuo.okdownload.core.breakpoint.BreakpointJournal.NAME;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.robolectric.annotation.Config.NONE;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE)
+public class BreakpointJournalTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private BreakpointJournal journal;
+
+    private BreakpointInfo insertedInfo1;
+    private BreakpointInfo insertedInfo2;
+
+    @Before
+    public void setup() throws IOException {
+        dir = folder.getRoot();
+        journal = new BreakpointJournal(dir);
+        journal.load();
+
+        final BreakpointInfo info1 = new BreakpointInfo(1, "url1", new File("p-path1"), null);
+        info1.addBlock(new BlockInfo(0, 10));
+        journal.insert(info1);
+        insertedInfo1 = info1;
+
+        final BreakpointInfo info2 = new BreakpointInfo(2, "url2", new File("p-path2"),
+                "filename2");
+        info2.setEtag("etag2");
+        info2.setChunked(true);
+        info2.addBlock(new BlockInfo(0, 20));
+        info2.addBlock(new BlockInfo(20, 20, 10));
+        journal.insert(info2);
+        insertedInfo2 = info2;
+    }
+
+    @After
+    public void tearDown() {
+        journal.close();
+    }
+
+    private BreakpointJournal reload() throws IOException {
+        journal.close();
+        journal = new BreakpointJournal(dir);
+        journal.load();
+        return journal;
+    }
+
+    @Test
+    public void insert_reload() throws IOException {
+        final SparseArray<BreakpointInfo> infos = reload().loadToCache();
+
+        assertThat(infos.size()).isEqualTo(2);
+        final BreakpointInfo info1 = infos.get(1);
+        assertThat(info1.getUrl()).isEqualTo("url1");
+        assertThat(info1.getFilename()).isNull();
+        assertThat(info1.isTaskOnlyProvidedParentPath()).isTrue();
+        assertThat(info1.parentFile.getAbsolutePath())
+                .isEqualTo(insertedInfo1.parentFile.getAbsolutePath());
+
+        final BreakpointInfo info2 = infos.get(2);
+        assertThat(info2.getFilename()).isEqualTo("filename2");
+        assertThat(info2.getEtag()).isEqualTo("etag2");
+        assertThat(info2.isChunked()).isTrue();
+        assertThat(info2.isTaskOnlyProvidedParentPath()).isFalse();
+        assertThat(info2.getBlockCount()).isEqualTo(2);
+        assertThat(info2.getBlock(1).getStartOffset()).isEqualTo(20);
+        assertThat(info2.getBlock(1).getContentLength()).isEqualTo(20);
+        assertThat(info2.getBlock(1).getCurrentOffset()).isEqualTo(10);
+    }
+
+    @Test
+    public void updateBlockIncrease() throws IOException {
+        final long length = journal.length();
+        journal.updateBlockIncrease(insertedInfo2, 1, 15);
+        // the fixed-size record.
+        assertThat(journal.length()).isEqualTo(length + BLOCK_RECORD_SIZE);
+
+        final BreakpointInfo info2 = reload().loadToCache().get(2);
+        assertThat(info2.getBlock(1).getCurrentOffset()).isEqualTo(15);
+    }
+
+    @Test
+    public void updateBlockIncrease_batch() throws IOException {
+        final BreakpointInfo info = insertedInfo2.copy();
+        info.getBlock(0).increaseCurrentOffset(3);
+        info.getBlock(1).increaseCurrentOffset(5);
+
+        final long length = journal.length();
+        // block 0 isn't synced on this time.
+        journal.updateBlockIncrease(info, new long[]{0, 5});
+        assertThat(journal.length()).isEqualTo(length + BLOCK_RECORD_SIZE);
+
+        final BreakpointInfo info2 = reload().loadToCache().get(2);
+        assertThat(info2.getBlock(0).getCurrentOffset()).isZero();
+        assertThat(info2.getBlock(1).getCurrentOffset()).isEqualTo(15);
+    }
+
+    @Test
+    public void updateBlockIncrease_notExist() throws IOException {
+        final long length = journal.length();
+        journal.updateBlockIncrease(new BreakpointInfo(3, "url3", new File("p"), null), 0, 1);
+        assertThat(journal.length()).isEqualTo(length);
+    }
+
+    @Test
+    public void updateInfo() throws IOException {
+        final BreakpointInfo info1 = journal.loadToCache().get(1);
+        info1.setEtag("new-etag");
+        journal.updateInfo(info1);
+
+        // not exist
+        journal.updateInfo(new BreakpointInfo(3, "url3", new File("p-path3"), null));
+
+        final SparseArray<BreakpointInfo> infos = reload().loadToCache();
+        assertThat(infos.size()).isEqualTo(2);
+        assertThat(infos.get(1).getEtag()).isEqualTo("new-etag");
+    }
+
+    @Test
+    public void removeInfo() throws IOException {
+        journal.removeInfo(insertedInfo2.id);
+
+        final SparseArray<BreakpointInfo> infos = reload().loadToCache();
+        assertThat(infos.size()).isEqualTo(1);
+        assertThat(infos.get(1)).isNotNull();
+    }
+
+    @Test
+    public void updateFilename() throws IOException {
+        journal.updateFilename("url1", "filename1");
+        journal.updateFilename("url1", "filename1-1");
+
+        assertThat(reload().loadResponseFilenameToMap()).hasSize(1)
+                .containsEntry("url1", "filename1-1");
+    }
+
+    @Test
+    public void markFileDirty_markFileClear() throws IOException {
+        journal.markFileDirty(1);
+        journal.markFileDirty(2);
+        journal.markFileClear(1);
+
+        assertThat(reload().loadDirtyFileList()).containsExactly(2);
+    }
+
+    @Test
+    public void load_tornTail_drop() throws IOException {
+        journal.updateBlockIncrease(insertedInfo2, 1, 15);
+        final long validLength = journal.length();
+        journal.updateBlockIncrease(insertedInfo2, 1, 18);
+        journal.close();
+
+        // crash while writing the last record.
+        final RandomAccessFile file = new RandomAccessFile(new File(dir, NAME), "rw");
+        file.setLength(validLength + BLOCK_RECORD_SIZE - 3);
+        file.close();
+
+        assertThat(reload().loadToCache().get(2).getBlock(1).getCurrentOffset()).isEqualTo(15);
+        assertThat(journal.length()).isEqualTo(validLength);
+        assertThat(new File(dir, NAME).length()).isEqualTo(validLength);
+
+        // appended records after the dropped one can be replayed.
+        journal.updateBlockIncrease(insertedInfo2, 1, 20);
+        assertThat(reload().loadToCache().get(2).getBlock(1).getCurrentOffset()).isEqualTo(20);
+    }
+
+    @Test
+    public void load_brokenRecord_drop() throws IOException {
+        final long validLength = journal.length();
+        journal.updateBlockIncrease(insertedInfo2, 1, 15);
+        journal.close();
+
+        // the last byte of the current offset is broken.
+        final RandomAccessFile file = new RandomAccessFile(new File(dir, NAME), "rw");
+        file.seek(validLength + BLOCK_RECORD_SIZE - 5);
+        file.write(0xFF);
+        file.close();
+
+        final SparseArray<BreakpointInfo> infos = reload().loadToCache();
+        assertThat(infos.size()).isEqualTo(2);
+        assertThat(infos.get(2).getBlock(1).getCurrentOffset()).isEqualTo(10);
+        assertThat(journal.length()).isEqualTo(validLength);
+    }
+
+    @Test
+    public void compact() throws IOException {
+        journal.updateFilename("url1", "filename1");
+        journal.markFileDirty(2);
+        for (int i = 11; i <= 20; i++) {
+            journal.updateBlockIncrease(insertedInfo2, 1, i);
+        }
+        journal.removeInfo(insertedInfo1.id);
+        final long length = journal.length();
+
+        journal.compact();
+        assertThat(journal.length()).isLessThan(length);
+
+        final SparseArray<BreakpointInfo> infos = reload().loadToCache();
+        assertThat(infos.size()).isEqualTo(1);
+        assertThat(infos.get(2).getBlock(1).getCurrentOffset()).isEqualTo(20);
+        assertThat(journal.loadResponseFilenameToMap()).containsEntry("url1", "filename1");
+        assertThat(journal.loadDirtyFileList()).containsExactly(2);
+    }
+
+    @Test
+    public void compact_grow() throws IOException {
+        journal.close();
+        journal = new BreakpointJournal(dir, 0);
+        journal.load();
+        final long compactedLength = journal.length();
+
+        // the journal is compacted once it grows over the last compacted one.
+        for (int i = 11; i <= 500; i++) {
+            journal.updateBlockIncrease(insertedInfo2, 1, i);
+        }
+        assertThat(journal.length()).isLessThan(compactedLength + 490 * BLOCK_RECORD_SIZE);
+
+        assertThat(reload().loadToCache().get(2).getBlock(1).getCurrentOffset()).isEqualTo(500);
+    }
+
+    @Test
+    public void load_crashOnCompact_ignoreLeftCompactFile() throws IOException {
+        journal.updateBlockIncrease(insertedInfo2, 1, 15);
+        journal.close();
+
+        // crash before the compact file replaces the journal.
+        final File compactFile = new File(dir, NAME + COMPACT_SUFFIX);
+        final FileOutputStream outputStream = new FileOutputStream(compactFile);
+        outputStream.write(new byte[]{1, 2, 3});
+        outputStream.close();
+
+        assertThat(reload().loadToCache().get(2).getBlock(1).getCurrentOffset()).isEqualTo(15);
+        assertThat(compactFile.exists()).isFalse();
+    }
+
+    @Test(expected = IOException.class)
+    public void append_closed() throws IOException {
+        journal.close();
+        journal.markFileDirty(1);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.breakpoint;
+
+import com.liulishuo.okdownload.DownloadTask;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.robolectric.RuntimeEnvironment.application;
+import static org.robolectric.annotation.Config.NONE;
+
+/**
+ * The benchmark of persisting the progress on the journal and sqlite stores, it's skipped unless
+ * running with {@code ./gradlew :journal:testDebugUnitTest -Pbenchmark}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE)
+public class BreakpointStoreBenchmarkTest {
+
+    private static final int TASK_COUNT = 20;
+    private static final int BLOCK_COUNT = 5;
+    private static final int SYNC_COUNT = 200;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setup() {
+        assumeTrue(Boolean.getBoolean("okdownload.benchmark"));
+    }
+
+    @Test
+    public void journal() throws IOException {
+        final BreakpointStoreOnJournal store = new BreakpointStoreOnJournal(folder.getRoot());
+        try {
+            run("BreakpointStoreOnJournal", store);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void sqlite() throws IOException {
+        final BreakpointStoreOnSQLite store = new BreakpointStoreOnSQLite(application);
+        try {
+            run("BreakpointStoreOnSQLite", store);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void remitSqlite() throws IOException {
+        final BreakpointStoreOnSQLite store = new BreakpointStoreOnSQLite(application);
+        try {
+            run("RemitStoreOnSQLite", (RemitStoreOnSQLite) store.createRemitSelf());
+        } finally {
+            store.close();
+        }
+    }
+
+    private <T extends DownloadStore & BatchSyncStore> void run(String name, T store)
+            throws IOException {
+        final List<DownloadTask> tasks = new ArrayList<>(TASK_COUNT);
+        for (int i = 0; i < TASK_COUNT; i++) {
+            final DownloadTask task = mock(DownloadTask.class);
+            when(task.getUrl()).thenReturn("https://jacksgong.com/" + i);
+            when(task.getParentFile()).thenReturn(new File("p-path"));
+            when(task.getFilename()).thenReturn("filename" + i);
+            tasks.add(task);
+        }
+
+        long start = System.nanoTime();
+        final List<BreakpointInfo> infos = new ArrayList<>(TASK_COUNT);
+        for (DownloadTask task : tasks) {
+            final int id = store.findOrCreateId(task);
+            when(task.getId()).thenReturn(id);
+            store.onTaskStart(id);
+            final BreakpointInfo info = store.createAndInsert(task);
+            for (int blockIndex = 0; blockIndex < BLOCK_COUNT; blockIndex++) {
+                info.addBlock(new BlockInfo(blockIndex * SYNC_COUNT, SYNC_COUNT));
+            }
+            store.update(info);
+            infos.add(info);
+        }
+        final long insertNanos = System.nanoTime() - start;
+
+        final long[] increaseLengths = new long[BLOCK_COUNT];
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            increaseLengths[i] = 1;
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < SYNC_COUNT; i++) {
+            // all tasks are synced on the same tick of the sync scheduler.
+            store.beginSyncBatch();
+            try {
+                for (BreakpointInfo info : infos) {
+                    store.onSyncToFilesystemSuccess(info, increaseLengths);
+                }
+            } finally {
+                store.endSyncBatch();
+            }
+        }
+        final long syncNanos = System.nanoTime() - start;
+
+        System.out.println(name + ": insert " + TASK_COUNT + " tasks in "
+                + insertNanos / 1000000 + "ms, sync " + SYNC_COUNT * TASK_COUNT
+                + " times with " + BLOCK_COUNT + " blocks in " + syncNanos / 1000000 + "ms ("
+                + syncNanos / 1000 / (SYNC_COUNT * TASK_COUNT) + "us per sync)");
+
+        for (BreakpointInfo info : infos) {
+            assertThat(info.getTotalOffset()).isEqualTo(SYNC_COUNT * BLOCK_COUNT);
+        }
+    }
+}
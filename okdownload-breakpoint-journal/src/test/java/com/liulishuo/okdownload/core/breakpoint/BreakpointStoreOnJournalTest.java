@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.breakpoint;
+
+import com.liulishuo.okdownload.DownloadTask;
+import com.liulishuo.okdownload.core.cause.EndCause;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.robolectric.annotation.Config.NONE;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE)
+public class BreakpointStoreOnJournalTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private BreakpointStoreOnJournal store;
+
+    private BreakpointJournal journal;
+    private BreakpointStoreOnCache onCache;
+
+    @Before
+    public void setup() throws IOException {
+        journal = spy(new BreakpointJournal(folder.getRoot()));
+        journal.load();
+        onCache = spy(new BreakpointStoreOnCache());
+        store = spy(new BreakpointStoreOnJournal(journal, onCache));
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    private static int index = 0;
+
+    private static DownloadTask mockTask() {
+        DownloadTask task = mock(DownloadTask.class);
+        doReturn(mock(DownloadTask.MockTaskForCompare.class)).when(task).mock(anyInt());
+        when(task.getUrl()).thenReturn("https://jacksgong.com/" + index++);
+        return task;
+    }
+
+    @Test
+    public void createAndInsert_onSyncToFilesystemSuccess_update() throws IOException {
+        final int id = store.findOrCreateId(mockTask());
+
+        final DownloadTask task = mock(DownloadTask.class);
+        when(task.getId()).thenReturn(id);
+        when(task.getUrl()).thenReturn("url");
+        when(task.getParentFile()).thenReturn(new File("p-path"));
+        doReturn("filename").when(task).getFilename();
+
+        store.createAndInsert(task);
+        final BreakpointInfo info = onCache.get(id);
+        assertThat(info).isNotNull();
+        verify(journal).insert(info);
+
+        info.addBlock(new BlockInfo(0, 20, 5));
+        store.onSyncToFilesystemSuccess(info, 0, 10);
+        verify(onCache).onSyncToFilesystemSuccess(info, 0, 10);
+        verify(journal).updateBlockIncrease(info, 0, 15);
+
+        final long[] increaseLengths = new long[]{5};
+        store.onSyncToFilesystemSuccess(info, increaseLengths);
+        verify(onCache).onSyncToFilesystemSuccess(info, increaseLengths);
+        verify(journal).updateBlockIncrease(info, increaseLengths);
+
+        info.setEtag("new-etag");
+        store.update(info);
+        verify(onCache).update(info);
+        verify(journal).updateInfo(info);
+    }
+
+    @Test
+    public void reload() throws IOException {
+        final int id = store.findOrCreateId(mockTask());
+        final DownloadTask task = mock(DownloadTask.class);
+        when(task.getId()).thenReturn(id);
+        when(task.getUrl()).thenReturn("url");
+        when(task.getParentFile()).thenReturn(new File("p-path"));
+        store.createAndInsert(task);
+        final BreakpointInfo info = store.get(id);
+        info.addBlock(new BlockInfo(0, 20));
+        info.setEtag("etag");
+        store.update(info);
+        store.onSyncToFilesystemSuccess(info, new long[]{8});
+        store.markFileDirty(id);
+        store.close();
+
+        store = new BreakpointStoreOnJournal(folder.getRoot());
+        final BreakpointInfo reloadInfo = store.get(id);
+        assertThat(reloadInfo).isNotNull();
+        assertThat(reloadInfo.getEtag()).isEqualTo("etag");
+        assertThat(reloadInfo.getBlock(0).getCurrentOffset()).isEqualTo(8);
+        assertThat(store.isFileDirty(id)).isTrue();
+    }
+
+    @Test
+    public void update_updateFilename() throws IOException {
+        final BreakpointInfo info = mock(BreakpointInfo.class);
+        when(info.isTaskOnlyProvidedParentPath()).thenReturn(false);
+        when(info.getUrl()).thenReturn("url");
+        when(info.getFilename()).thenReturn("filename");
+
+        store.update(info);
+        verify(journal, never()).updateFilename(eq("url"), eq("filename"));
+
+        when(info.isTaskOnlyProvidedParentPath()).thenReturn(true);
+        store.update(info);
+        verify(journal).updateFilename(eq("url"), eq("filename"));
+    }
+
+    @Test
+    public void completeDownload() throws IOException {
+        final int id = store.findOrCreateId(mock(DownloadTask.class));
+        store.onTaskEnd(id, EndCause.COMPLETED, null);
+        verify(onCache).onTaskEnd(eq(id), eq(EndCause.COMPLETED), nullable(Exception.class));
+        verify(journal).removeInfo(id);
+    }
+
+    @Test
+    public void discard() throws IOException {
+        final int id = store.findOrCreateId(mock(DownloadTask.class));
+
+        store.remove(id);
+        verify(onCache).remove(id);
+        verify(journal).removeInfo(id);
+    }
+
+    @Test
+    public void discard_journalFailed() throws IOException {
+        doThrow(IOException.class).when(journal).removeInfo(1);
+
+        store.remove(1);
+        verify(onCache).remove(1);
+    }
+
+    @Test
+    public void getAfterCompleted() {
+        assertThat(store.getAfterCompleted(1)).isNull();
+    }
+
+    @Test
+    public void markFileDirty() throws IOException {
+        doReturn(false).when(onCache).markFileDirty(1);
+        assertThat(store.markFileDirty(1)).isFalse();
+        verify(journal, never()).markFileDirty(eq(1));
+
+        doReturn(true).when(onCache).markFileDirty(1);
+        assertThat(store.markFileDirty(1)).isTrue();
+        verify(journal).markFileDirty(eq(1));
+    }
+
+    @Test
+    public void markFileClear() throws IOException {
+        doReturn(false).when(onCache).markFileClear(1);
+        assertThat(store.markFileClear(1)).isFalse();
+        verify(journal, never()).markFileClear(eq(1));
+
+        doReturn(true).when(onCache).markFileClear(1);
+        assertThat(store.markFileClear(1)).isTrue();
+        verify(journal).markFileClear(eq(1));
+    }
+
+    @Test
+    public void isOnlyMemoryCache() {
+        assertThat(store.isOnlyMemoryCache()).isFalse();
+    }
+}
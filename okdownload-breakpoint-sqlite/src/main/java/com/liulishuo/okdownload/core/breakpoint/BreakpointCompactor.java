@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.breakpoint;
+
+import android.database.SQLException;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.liulishuo.okdownload.core.Util;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prune the breakpoint infos out of the {@link RetentionPolicy} from the database on a background
+ * thread with the low priority, because the infos which are never resumed are never removed.
+ * <p>
+ * The infos of the started tasks are never pruned, and the ids of the pruned infos are kept
+ * occupied until the process restarts, because the tasks with them may be still alive.
+ */
+public class BreakpointCompactor implements Handler.Callback {
+    private static final String TAG = "BreakpointCompactor";
+
+    static final int WHAT_COMPACT = 0;
+    static final int DEFAULT_BATCH_SIZE = 100;
+
+    @NonNull private final BreakpointSQLiteHelper helper;
+    @NonNull private final BreakpointStoreOnCache onCache;
+    @NonNull private final RetentionPolicy policy;
+    private final int batchSize;
+    @NonNull private final Metrics metrics = new Metrics();
+    private final Object compactLock = new Object();
+
+    @Nullable private Handler handler;
+    private long intervalMillis;
+
+    public BreakpointCompactor(@NonNull BreakpointStoreOnSQLite store,
+                               @NonNull RetentionPolicy policy) {
+        this(store.helper, store.onCache, policy, DEFAULT_BATCH_SIZE);
+    }
+
+    BreakpointCompactor(@NonNull BreakpointSQLiteHelper helper,
+                        @NonNull BreakpointStoreOnCache onCache,
+                        @NonNull RetentionPolicy policy, int batchSize) {
+        this.helper = helper;
+        this.onCache = onCache;
+        this.policy = policy;
+        this.batchSize = batchSize;
+    }
+
+    @NonNull public RetentionPolicy getPolicy() {
+        return policy;
+    }
+
+    @NonNull public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Compact right away and then every {@code intervalMillis} on the background thread until
+     * {@link #stop()}, it's ignored if it's already started.
+     */
+    public synchronized void start(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("The interval millis " + intervalMillis
+                    + " must be positive");
+        }
+        if (handler != null) return;
+
+        this.intervalMillis = intervalMillis;
+        handler = createHandler();
+        handler.sendEmptyMessage(WHAT_COMPACT);
+    }
+
+    public synchronized void stop() {
+        if (handler == null) return;
+
+        handler.getLooper().quit();
+        handler = null;
+    }
+
+    // convenient for unit-test
+    Handler createHandler() {
+        final HandlerThread thread = new HandlerThread("OkDownload BreakpointCompactor",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+
+        return new Handler(thread.getLooper(), this);
+    }
+
+    @Override public boolean handleMessage(Message msg) {
+        try {
+            compact();
+        } catch (SQLException e) {
+            Util.w(TAG, "compact failed " + e);
+        }
+
+        synchronized (this) {
+            if (handler != null) handler.sendEmptyMessageDelayed(WHAT_COMPACT, intervalMillis);
+        }
+        return true;
+    }
+
+    /**
+     * Prune the infos out of the policy from the oldest one in batches, each batch is removed in
+     * one transaction and then the free pages are vacuumed. The dirty marks whose info doesn't
+     * exist, and the expired filenames from the response which aren't referred are pruned too.
+     */
+    public void compact() {
+        synchronized (compactLock) {
+            final long startMillis = SystemClock.uptimeMillis();
+            final long pageSize = helper.getPageSize();
+            final long pageCount = helper.getPageCount();
+            helper.enableIncrementalVacuum();
+
+            final long expiredBefore = policy.maxAgeMillis > 0
+                    ? System.currentTimeMillis() - policy.maxAgeMillis : Long.MIN_VALUE;
+            pruneInfos(expiredBefore);
+            pruneOrphanDirtyMarks();
+            if (policy.maxAgeMillis > 0) {
+                metrics.reclaimedRowCount.addAndGet(
+                        helper.removeResponseFilenames(expiredBefore));
+            }
+            helper.vacuumIncrementally();
+
+            final long reclaimedBytes = (pageCount - helper.getPageCount()) * pageSize;
+            metrics.onCompacted(Math.max(0, reclaimedBytes),
+                    SystemClock.uptimeMillis() - startMillis);
+            Util.d(TAG, "compacted " + metrics);
+        }
+    }
+
+    private void pruneInfos(long expiredBefore) {
+        int remainingCount = helper.countInfos();
+        long fromLastModified = Long.MIN_VALUE;
+        int fromId = Integer.MIN_VALUE;
+        final int[] ids = new int[batchSize];
+
+        boolean retained = false;
+        while (!retained) {
+            final boolean oversize = policy.maxBytes > 0 && getUsedBytes() > policy.maxBytes;
+            final List<BreakpointInfoRow> rows = helper.loadOldestRows(fromLastModified, fromId,
+                    policy.completedOnly, batchSize);
+
+            int count = 0;
+            for (BreakpointInfoRow row : rows) {
+                final boolean overflow = policy.maxCount > 0
+                        && remainingCount - count > policy.maxCount;
+                if (row.getLastModified() >= expiredBefore && !overflow && !oversize) {
+                    // the rest are newer.
+                    retained = true;
+                    break;
+                }
+
+                fromLastModified = row.getLastModified();
+                fromId = row.getId();
+                ids[count++] = row.getId();
+            }
+
+            if (count > 0) {
+                final int removedCount = removeIdle(ids, count);
+                metrics.reclaimedInfoCount.addAndGet(removedCount);
+                remainingCount -= removedCount;
+                helper.vacuumIncrementally();
+            }
+
+            if (rows.size() < batchSize) break;
+        }
+    }
+
+    private void pruneOrphanDirtyMarks() {
+        final List<Integer> orphanIds = helper.loadOrphanDirtyIds();
+        final int[] ids = new int[batchSize];
+        int count = 0;
+        for (Integer id : orphanIds) {
+            ids[count++] = id;
+            if (count == batchSize) {
+                removeIdle(ids, count);
+                count = 0;
+            }
+        }
+        if (count > 0) removeIdle(ids, count);
+    }
+
+    // the cache is locked until the rows are removed from the database, so the tasks can't be
+    // started meanwhile.
+    private int removeIdle(@NonNull int[] ids, int count) {
+        synchronized (onCache) {
+            int idleCount = 0;
+            for (int i = 0; i < count; i++) {
+                if (!onCache.isStarted(ids[i])) ids[idleCount++] = ids[i];
+            }
+            if (idleCount == 0) return 0;
+
+            metrics.reclaimedRowCount.addAndGet(helper.removeInfos(ids, idleCount));
+            for (int i = 0; i < idleCount; i++) {
+                onCache.discard(ids[i]);
+                onCache.markFileClear(ids[i]);
+            }
+            return idleCount;
+        }
+    }
+
+    private long getUsedBytes() {
+        return (helper.getPageCount() - helper.getFreePageCount()) * helper.getPageSize();
+    }
+
+    public static class RetentionPolicy {
+        private final long maxAgeMillis;
+        private final int maxCount;
+        private final long maxBytes;
+        private final boolean completedOnly;
+
+        /**
+         * @param maxAgeMillis  the info which isn't modified for this duration is pruned,
+         *                      {@code 0} to never prune for the age.
+         * @param maxCount      only this count of the newest infos are retained, {@code 0} for no
+         *                      limit.
+         * @param maxBytes      the oldest infos are pruned until the used size of the database
+         *                      is within this size, {@code 0} for no limit.
+         * @param completedOnly only prune the infos whose blocks are all completed, which aren't
+         *                      removed when the process is killed before the task ends.
+         */
+        public RetentionPolicy(long maxAgeMillis, int maxCount, long maxBytes,
+                               boolean completedOnly) {
+            if (maxAgeMillis < 0 || maxCount < 0 || maxBytes < 0) {
+                throw new IllegalArgumentException("The max age millis " + maxAgeMillis
+                        + ", the max count " + maxCount + " and the max bytes " + maxBytes
+                        + " can't be negative");
+            }
+
+            this.maxAgeMillis = maxAgeMillis;
+            this.maxCount = maxCount;
+            this.maxBytes = maxBytes;
+            this.completedOnly = completedOnly;
+        }
+
+        public long getMaxAgeMillis() {
+            return maxAgeMillis;
+        }
+
+        public int getMaxCount() {
+            return maxCount;
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        public boolean isCompletedOnly() {
+            return completedOnly;
+        }
+    }
+
+    /**
+     * The metrics of the rows and bytes reclaimed by this compactor.
+     */
+    public static class Metrics {
+        final AtomicLong compactedCount = new AtomicLong();
+        final AtomicLong reclaimedInfoCount = new AtomicLong();
+        final AtomicLong reclaimedRowCount = new AtomicLong();
+        final AtomicLong reclaimedBytes = new AtomicLong();
+        final AtomicLong lastCompactMillis = new AtomicLong();
+
+        void onCompacted(long reclaimedBytes, long compactMillis) {
+            compactedCount.incrementAndGet();
+            this.reclaimedBytes.addAndGet(reclaimedBytes);
+            lastCompactMillis.set(compactMillis);
+        }
+
+        public long getCompactedCount() {
+            return compactedCount.get();
+        }
+
+        /**
+         * @return the count of the pruned breakpoint infos.
+         */
+        public long getReclaimedInfoCount() {
+            return reclaimedInfoCount.get();
+        }
+
+        /**
+         * @return the count of the removed rows on all tables.
+         */
+        public long getReclaimedRowCount() {
+            return reclaimedRowCount.get();
+        }
+
+        /**
+         * @return the bytes of the database file released to the file system.
+         */
+        public long getReclaimedBytes() {
+            return reclaimedBytes.get();
+        }
+
+        public long getLastCompactMillis() {
+            return lastCompactMillis.get();
+        }
+
+        @Override public String toString() {
+            return "BreakpointCompactor.Metrics[compacted " + getCompactedCount()
+                    + ", reclaimed infos " + getReclaimedInfoCount() + " rows "
+                    + getReclaimedRowCount() + " bytes " + getReclaimedBytes() + ", last "
+                    + getLastCompactMillis() + "ms]";
+        }
+    }
+}
@@ -24,6 +24,7 @@ import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.CHUNK
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.ETAG;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.FILENAME;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.ID;
+import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.LAST_MODIFIED;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.PARENT_PATH;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.TASK_ONLY_PARENT_PATH;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.URL;
@@ -36,6 +37,7 @@ public class BreakpointInfoRow {
     private final String filename;
     private final boolean taskOnlyProvidedParentPath;
     private final boolean chunked;
+    private final long lastModified;
 
     public BreakpointInfoRow(Cursor cursor) {
         this.id = cursor.getInt(cursor.getColumnIndex(ID));
@@ -46,6 +48,7 @@ public class BreakpointInfoRow {
         this.taskOnlyProvidedParentPath = cursor.getInt(
                 cursor.getColumnIndex(TASK_ONLY_PARENT_PATH)) == 1;
         this.chunked = cursor.getInt(cursor.getColumnIndex(CHUNKED)) == 1;
+        this.lastModified = cursor.getLong(cursor.getColumnIndex(LAST_MODIFIED));
     }
 
     public int getId() {
@@ -76,6 +79,10 @@ public class BreakpointInfoRow {
         return chunked;
     }
 
+    public long getLastModified() {
+        return lastModified;
+    }
+
     public BreakpointInfo toInfo() {
         final BreakpointInfo info = new BreakpointInfo(id, url, new File(parentPath), filename,
                 taskOnlyProvidedParentPath);
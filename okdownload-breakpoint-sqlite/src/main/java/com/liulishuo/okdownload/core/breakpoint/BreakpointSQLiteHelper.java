@@ -19,18 +19,21 @@ package com.liulishuo.okdownload.core.breakpoint;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.os.Build;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.SparseArray;
 
 import com.liulishuo.okdownload.core.exception.SQLiteException;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.BLOCK_INDEX;
@@ -41,15 +44,16 @@ import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.ETAG;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.FILENAME;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.HOST_ID;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.ID;
+import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.LAST_MODIFIED;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.PARENT_PATH;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.START_OFFSET;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.TASK_ONLY_PARENT_PATH;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.URL;
 
-public class BreakpointSQLiteHelper extends SQLiteOpenHelper {
+public class BreakpointSQLiteHelper extends SQLiteOpenHelper implements BreakpointInfoLoader {
 
     private static final String NAME = "okdownload-breakpoint.db";
-    private static final int VERSION = 3;
+    private static final int VERSION = 5;
 
     private static final String RESPONSE_FILENAME_TABLE_NAME = "okdownloadResponseFilename";
     private static final String BREAKPOINT_TABLE_NAME = "breakpoint";
@@ -80,6 +84,12 @@ public class BreakpointSQLiteHelper extends SQLiteOpenHelper {
         db.execSQL(CreateTable.RESPONSE_FILENAME);
 
         db.execSQL(CreateTable.TASK_FILE_DIRTY);
+
+        db.execSQL(CreateIndex.BREAKPOINT_URL_PARENT_PATH);
+
+        db.execSQL(CreateIndex.BLOCK_HOST_ID);
+
+        db.execSQL(CreateIndex.BREAKPOINT_LAST_MODIFIED);
     }
 
     @Override
@@ -91,6 +101,21 @@ public class BreakpointSQLiteHelper extends SQLiteOpenHelper {
         if (oldVersion <= 2) {
             db.execSQL(Migration.TASK_FILE_DIRTY_NONE_TO_2);
         }
+
+        if (oldVersion <= 3) {
+            db.execSQL(Migration.BREAKPOINT_URL_PARENT_PATH_INDEX_NONE_TO_4);
+            db.execSQL(Migration.BLOCK_HOST_ID_INDEX_NONE_TO_4);
+        }
+
+        if (oldVersion <= 4) {
+            db.execSQL(Migration.BREAKPOINT_LAST_MODIFIED_NONE_TO_5);
+            db.execSQL(Migration.RESPONSE_FILENAME_LAST_MODIFIED_NONE_TO_5);
+            // the existing rows are aged from now on.
+            final Object[] now = new Object[]{System.currentTimeMillis()};
+            db.execSQL(Update.BREAKPOINT_LAST_MODIFIED, now);
+            db.execSQL(Update.RESPONSE_FILENAME_LAST_MODIFIED, now);
+            db.execSQL(Migration.BREAKPOINT_LAST_MODIFIED_INDEX_NONE_TO_5);
+        }
     }
 
     @Override
@@ -147,24 +172,92 @@ public class BreakpointSQLiteHelper extends SQLiteOpenHelper {
             if (blockCursor != null) blockCursor.close();
         }
 
-        final SparseArray<BreakpointInfo> breakpointInfoMap = new SparseArray<>();
+        final SparseArray<BreakpointInfo> breakpointInfoMap =
+                new SparseArray<>(breakpointInfoRows.size());
 
         for (BreakpointInfoRow infoRow : breakpointInfoRows) {
             final BreakpointInfo info = infoRow.toInfo();
-            final Iterator<BlockInfoRow> blockIt = blockInfoRows.iterator();
-            while (blockIt.hasNext()) {
-                final BlockInfoRow blockInfoRow = blockIt.next();
-                if (blockInfoRow.getBreakpointId() == info.id) {
-                    info.addBlock(blockInfoRow.toInfo());
-                    blockIt.remove();
-                }
-            }
             breakpointInfoMap.put(info.id, info);
         }
 
+        // the blocks are added in the order they are inserted.
+        for (BlockInfoRow blockInfoRow : blockInfoRows) {
+            final BreakpointInfo info = breakpointInfoMap.get(blockInfoRow.getBreakpointId());
+            if (info != null) info.addBlock(blockInfoRow.toInfo());
+        }
+
         return breakpointInfoMap;
     }
 
+    @NonNull @Override public int[] loadIds() {
+        Cursor cursor = null;
+        try {
+            cursor = getWritableDatabase().rawQuery(Select.ID_FROM_BREAKPOINT, null);
+            final int[] ids = new int[cursor.getCount()];
+            int count = 0;
+            while (cursor.moveToNext() && count < ids.length) {
+                ids[count++] = cursor.getInt(0);
+            }
+            return ids;
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    @Nullable @Override public BreakpointInfo load(int id) {
+        final List<BreakpointInfo> infoList = loadInfoList(Select.ALL_FROM_BREAKPOINT_BY_ID,
+                new String[]{String.valueOf(id)});
+        return infoList.isEmpty() ? null : infoList.get(0);
+    }
+
+    @NonNull @Override
+    public List<BreakpointInfo> loadSameFrom(@NonNull String url, @NonNull File parentFile) {
+        return loadInfoList(Select.ALL_FROM_BREAKPOINT_BY_URL_PARENT_PATH,
+                new String[]{url, parentFile.getAbsolutePath()});
+    }
+
+    @Nullable @Override public String loadResponseFilename(@NonNull String url) {
+        Cursor cursor = null;
+        try {
+            cursor = getWritableDatabase().rawQuery(
+                    Select.FILENAME_FROM_RESPONSE_FILENAME_BY_URL, new String[]{url});
+            if (!cursor.moveToFirst()) return null;
+            return cursor.getString(cursor.getColumnIndex(FILENAME));
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
+    // query the infos with their blocks on the indexes.
+    private List<BreakpointInfo> loadInfoList(String infoSql, String[] selectionArgs) {
+        final SQLiteDatabase db = getWritableDatabase();
+        final List<BreakpointInfo> infoList = new ArrayList<>(1);
+
+        Cursor breakpointCursor = null;
+        Cursor blockCursor = null;
+        try {
+            breakpointCursor = db.rawQuery(infoSql, selectionArgs);
+            while (breakpointCursor.moveToNext()) {
+                infoList.add(new BreakpointInfoRow(breakpointCursor).toInfo());
+            }
+
+            for (BreakpointInfo info : infoList) {
+                blockCursor = db.rawQuery(Select.ALL_FROM_BLOCK_BY_HOST_ID,
+                        new String[]{String.valueOf(info.id)});
+                while (blockCursor.moveToNext()) {
+                    info.addBlock(new BlockInfoRow(blockCursor).toInfo());
+                }
+                blockCursor.close();
+                blockCursor = null;
+            }
+        } finally {
+            if (breakpointCursor != null) breakpointCursor.close();
+            if (blockCursor != null) blockCursor.close();
+        }
+
+        return infoList;
+    }
+
     public HashMap<String, String> loadResponseFilenameToMap() {
         Cursor cursor = null;
         final SQLiteDatabase db = getWritableDatabase();
@@ -186,9 +279,10 @@ public class BreakpointSQLiteHelper extends SQLiteOpenHelper {
 
     public void updateFilename(@NonNull String url, @NonNull String filename) {
         final SQLiteDatabase db = getWritableDatabase();
-        ContentValues values = new ContentValues(2);
+        ContentValues values = new ContentValues(3);
         values.put(URL, url);
         values.put(FILENAME, filename);
+        values.put(LAST_MODIFIED, System.currentTimeMillis());
 
         Cursor c = null;
         synchronized (url.intern()) {
@@ -235,6 +329,53 @@ public class BreakpointSQLiteHelper extends SQLiteOpenHelper {
                 new String[]{Integer.toString(info.id), Integer.toString(blockIndex)});
     }
 
+    /**
+     * Update the current offset of all increased blocks of the {@code info} in one transaction
+     * with one compiled statement.
+     *
+     * @param increaseLengths the increased length of each block on its block index, the block
+     *                        with a length less than or equal to {@code 0} is skipped.
+     */
+    public void updateBlockIncrease(@NonNull BreakpointInfo info,
+                                    @NonNull long[] increaseLengths) {
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        SQLiteStatement statement = null;
+        try {
+            statement = db.compileStatement(Update.BLOCK_CURRENT_OFFSET);
+            for (int blockIndex = 0; blockIndex < increaseLengths.length; blockIndex++) {
+                if (increaseLengths[blockIndex] <= 0) continue;
+
+                statement.clearBindings();
+                statement.bindLong(1, info.getBlock(blockIndex).getCurrentOffset());
+                statement.bindLong(2, info.id);
+                statement.bindLong(3, blockIndex);
+                statement.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (statement != null) statement.close();
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Begin the transaction which holds the block updates of all tasks synced together, the
+     * transaction of {@link #updateBlockIncrease(BreakpointInfo, long[])} is nested in it.
+     */
+    public void beginSyncBatch() {
+        getWritableDatabase().beginTransaction();
+    }
+
+    public void endSyncBatch() {
+        final SQLiteDatabase db = getWritableDatabase();
+        try {
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     public void updateInfo(@NonNull BreakpointInfo info) throws IOException {
         final SQLiteDatabase db = getWritableDatabase();
         Cursor cursor = null;
@@ -266,6 +407,167 @@ public class BreakpointSQLiteHelper extends SQLiteOpenHelper {
                 new String[]{String.valueOf(breakpointId)});
     }
 
+    /**
+     * Refresh the last modified time of the info of the {@code id}, so the
+     * {@link BreakpointCompactor} retains it as a fresh one.
+     */
+    public void updateLastModified(int id) {
+        final ContentValues values = new ContentValues(1);
+        values.put(LAST_MODIFIED, System.currentTimeMillis());
+        getWritableDatabase().update(BREAKPOINT_TABLE_NAME, values, ID + " = ?",
+                new String[]{String.valueOf(id)});
+    }
+
+    public int countInfos() {
+        return (int) DatabaseUtils.longForQuery(getWritableDatabase(),
+                Select.COUNT_FROM_BREAKPOINT, null);
+    }
+
+    /**
+     * Load the rows in the order of their last modified time and id, the oldest first.
+     *
+     * @param fromLastModified the rows are after the row of this last modified time and
+     *                         {@code fromId}.
+     * @param completedOnly    only load the rows whose blocks are all completed.
+     * @param limit            the max count of the loaded rows.
+     */
+    @NonNull public List<BreakpointInfoRow> loadOldestRows(long fromLastModified, int fromId,
+                                                           boolean completedOnly, int limit) {
+        final String sql = (completedOnly ? Select.ALL_COMPLETED_FROM_BREAKPOINT_AFTER
+                : Select.ALL_FROM_BREAKPOINT_AFTER) + " LIMIT " + limit;
+        final String lastModified = String.valueOf(fromLastModified);
+        final List<BreakpointInfoRow> rows = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = getWritableDatabase().rawQuery(sql,
+                    new String[]{lastModified, lastModified, String.valueOf(fromId)});
+            while (cursor.moveToNext()) {
+                rows.add(new BreakpointInfoRow(cursor));
+            }
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+
+        return rows;
+    }
+
+    /**
+     * Remove the infos of the first {@code count} ids with their blocks and dirty marks in one
+     * transaction.
+     *
+     * @return the count of the removed rows.
+     */
+    public int removeInfos(@NonNull int[] ids, int count) {
+        final SQLiteDatabase db = getWritableDatabase();
+        int removedCount = 0;
+        db.beginTransaction();
+        SQLiteStatement breakpointStatement = null;
+        SQLiteStatement blockStatement = null;
+        SQLiteStatement dirtyStatement = null;
+        try {
+            breakpointStatement = db.compileStatement(Delete.BREAKPOINT_BY_ID);
+            blockStatement = db.compileStatement(Delete.BLOCK_BY_HOST_ID);
+            dirtyStatement = db.compileStatement(Delete.TASK_FILE_DIRTY_BY_ID);
+            for (int i = 0; i < count; i++) {
+                removedCount += executeDelete(breakpointStatement, ids[i]);
+                removedCount += executeDelete(blockStatement, ids[i]);
+                removedCount += executeDelete(dirtyStatement, ids[i]);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (breakpointStatement != null) breakpointStatement.close();
+            if (blockStatement != null) blockStatement.close();
+            if (dirtyStatement != null) dirtyStatement.close();
+            db.endTransaction();
+        }
+
+        return removedCount;
+    }
+
+    private static int executeDelete(@NonNull SQLiteStatement statement, int id) {
+        statement.bindLong(1, id);
+        return statement.executeUpdateDelete();
+    }
+
+    /**
+     * @return the ids of the dirty marks whose info doesn't exist.
+     */
+    @NonNull public List<Integer> loadOrphanDirtyIds() {
+        final List<Integer> ids = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = getWritableDatabase().rawQuery(Select.ORPHAN_ID_FROM_TASK_FILE_DIRTY, null);
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getInt(0));
+            }
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+
+        return ids;
+    }
+
+    /**
+     * Remove the filenames from the response which are modified before the
+     * {@code beforeLastModified} and whose url isn't referred by any info.
+     *
+     * @return the count of the removed rows.
+     */
+    public int removeResponseFilenames(long beforeLastModified) {
+        SQLiteStatement statement = null;
+        try {
+            statement = getWritableDatabase().compileStatement(
+                    Delete.UNREFERRED_RESPONSE_FILENAME_BEFORE);
+            statement.bindLong(1, beforeLastModified);
+            return statement.executeUpdateDelete();
+        } finally {
+            if (statement != null) statement.close();
+        }
+    }
+
+    public long getPageSize() {
+        return DatabaseUtils.longForQuery(getWritableDatabase(), Pragma.PAGE_SIZE, null);
+    }
+
+    public long getPageCount() {
+        return DatabaseUtils.longForQuery(getWritableDatabase(), Pragma.PAGE_COUNT, null);
+    }
+
+    public long getFreePageCount() {
+        return DatabaseUtils.longForQuery(getWritableDatabase(), Pragma.FREELIST_COUNT, null);
+    }
+
+    /**
+     * Turn on the incremental vacuum, the database is vacuumed once to take effect if it's off.
+     */
+    public void enableIncrementalVacuum() {
+        final SQLiteDatabase db = getWritableDatabase();
+        if (DatabaseUtils.longForQuery(db, Pragma.AUTO_VACUUM, null)
+                == Pragma.AUTO_VACUUM_INCREMENTAL) {
+            return;
+        }
+
+        db.execSQL(Pragma.AUTO_VACUUM + " = " + Pragma.AUTO_VACUUM_INCREMENTAL);
+        db.execSQL(Pragma.VACUUM);
+    }
+
+    /**
+     * Release the free pages to the file system, it takes effect only if the incremental vacuum
+     * is enabled.
+     */
+    public void vacuumIncrementally() {
+        Cursor cursor = null;
+        try {
+            cursor = getWritableDatabase().rawQuery(Pragma.INCREMENTAL_VACUUM, null);
+            // the free pages are released on each step.
+            while (cursor.moveToNext()) {
+                // no-op
+            }
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+    }
+
     private static ContentValues toValues(@NonNull BreakpointInfo info) {
         final ContentValues values = new ContentValues();
         values.put(ID, info.id);
@@ -275,6 +577,7 @@ public class BreakpointSQLiteHelper extends SQLiteOpenHelper {
         values.put(FILENAME, info.getFilename());
         values.put(TASK_ONLY_PARENT_PATH, info.isTaskOnlyProvidedParentPath() ? 1 : 0);
         values.put(CHUNKED, info.isChunked() ? 1 : 0);
+        values.put(LAST_MODIFIED, System.currentTimeMillis());
 
         return values;
     }
@@ -299,7 +602,8 @@ public class BreakpointSQLiteHelper extends SQLiteOpenHelper {
                 + PARENT_PATH + " VARCHAR NOT NULL, "
                 + FILENAME + " VARCHAR, "
                 + TASK_ONLY_PARENT_PATH + " TINYINT(1) DEFAULT 0, "
-                + CHUNKED + " TINYINT(1) DEFAULT 0)";
+                + CHUNKED + " TINYINT(1) DEFAULT 0, "
+                + LAST_MODIFIED + " INTEGER DEFAULT 0)";
 
         static final String BLOCK = "CREATE TABLE IF NOT EXISTS "
                 + BLOCK_TABLE_NAME + "( "
@@ -313,16 +617,40 @@ public class BreakpointSQLiteHelper extends SQLiteOpenHelper {
         static final String RESPONSE_FILENAME = "CREATE TABLE IF NOT EXISTS "
                 + RESPONSE_FILENAME_TABLE_NAME + "( "
                 + URL + " VARCHAR NOT NULL PRIMARY KEY, "
-                + FILENAME + " VARCHAR NOT NULL)";
+                + FILENAME + " VARCHAR NOT NULL, "
+                + LAST_MODIFIED + " INTEGER DEFAULT 0)";
 
         static final String TASK_FILE_DIRTY = "CREATE TABLE IF NOT EXISTS "
                 + TASK_FILE_DIRTY_TABLE_NAME + "( "
                 + ID + " INTEGER PRIMARY KEY)";
     }
 
+    private interface CreateIndex {
+        static final String BREAKPOINT_URL_PARENT_PATH = "CREATE INDEX IF NOT EXISTS "
+                + BREAKPOINT_TABLE_NAME + "UrlParentPath ON " + BREAKPOINT_TABLE_NAME
+                + "(" + URL + ", " + PARENT_PATH + ")";
+
+        static final String BLOCK_HOST_ID = "CREATE INDEX IF NOT EXISTS "
+                + BLOCK_TABLE_NAME + "HostId ON " + BLOCK_TABLE_NAME + "(" + HOST_ID + ")";
+
+        static final String BREAKPOINT_LAST_MODIFIED = "CREATE INDEX IF NOT EXISTS "
+                + BREAKPOINT_TABLE_NAME + "LastModified ON " + BREAKPOINT_TABLE_NAME
+                + "(" + LAST_MODIFIED + ", " + ID + ")";
+    }
+
     private interface Migration {
         static final String RESPONSE_FILENAME_1_TO_2 = CreateTable.RESPONSE_FILENAME;
         static final String TASK_FILE_DIRTY_NONE_TO_2 = CreateTable.TASK_FILE_DIRTY;
+        static final String BREAKPOINT_URL_PARENT_PATH_INDEX_NONE_TO_4 =
+                CreateIndex.BREAKPOINT_URL_PARENT_PATH;
+        static final String BLOCK_HOST_ID_INDEX_NONE_TO_4 = CreateIndex.BLOCK_HOST_ID;
+        static final String BREAKPOINT_LAST_MODIFIED_NONE_TO_5 = "ALTER TABLE "
+                + BREAKPOINT_TABLE_NAME + " ADD COLUMN " + LAST_MODIFIED + " INTEGER DEFAULT 0";
+        static final String RESPONSE_FILENAME_LAST_MODIFIED_NONE_TO_5 = "ALTER TABLE "
+                + RESPONSE_FILENAME_TABLE_NAME + " ADD COLUMN " + LAST_MODIFIED
+                + " INTEGER DEFAULT 0";
+        static final String BREAKPOINT_LAST_MODIFIED_INDEX_NONE_TO_5 =
+                CreateIndex.BREAKPOINT_LAST_MODIFIED;
     }
 
     private interface Select {
@@ -333,6 +661,61 @@ public class BreakpointSQLiteHelper extends SQLiteOpenHelper {
         static final String FILENAME_FROM_RESPONSE_FILENAME_BY_URL = "SELECT " + FILENAME + " FROM " + RESPONSE_FILENAME_TABLE_NAME
                 + " WHERE " + URL + " = ?";
         static final String ID_FROM_BREAKPOINT_BY_ID = "SELECT " + ID + " FROM " + BREAKPOINT_TABLE_NAME + " WHERE " + ID + " = ? LIMIT 1";
+        static final String ID_FROM_BREAKPOINT = "SELECT " + ID + " FROM " + BREAKPOINT_TABLE_NAME;
+        static final String ALL_FROM_BREAKPOINT_BY_ID = "SELECT * FROM " + BREAKPOINT_TABLE_NAME + " WHERE " + ID + " = ?";
+        static final String ALL_FROM_BREAKPOINT_BY_URL_PARENT_PATH = "SELECT * FROM " + BREAKPOINT_TABLE_NAME
+                + " WHERE " + URL + " = ? AND " + PARENT_PATH + " = ? ORDER BY " + ID;
+        static final String ALL_FROM_BLOCK_BY_HOST_ID = "SELECT * FROM " + BLOCK_TABLE_NAME + " WHERE " + HOST_ID + " = ? ORDER BY " + ID;
+        static final String COUNT_FROM_BREAKPOINT = "SELECT COUNT(*) FROM "
+                + BREAKPOINT_TABLE_NAME;
+        static final String AFTER_LAST_MODIFIED_ID = "(" + LAST_MODIFIED + " > ? OR ("
+                + LAST_MODIFIED + " = ? AND " + ID + " > ?))";
+        // the chunked one doesn't know whether it's completed.
+        static final String COMPLETED = CHUNKED + " = 0 AND EXISTS (SELECT 1 FROM "
+                + BLOCK_TABLE_NAME + " WHERE " + HOST_ID + " = " + BREAKPOINT_TABLE_NAME + "." + ID
+                + ") AND NOT EXISTS (SELECT 1 FROM " + BLOCK_TABLE_NAME + " WHERE " + HOST_ID
+                + " = " + BREAKPOINT_TABLE_NAME + "." + ID + " AND " + CURRENT_OFFSET + " < "
+                + CONTENT_LENGTH + ")";
+        static final String ORDER_BY_LAST_MODIFIED_ID = " ORDER BY " + LAST_MODIFIED + ", " + ID;
+        static final String ALL_FROM_BREAKPOINT_AFTER = "SELECT * FROM " + BREAKPOINT_TABLE_NAME
+                + " WHERE " + AFTER_LAST_MODIFIED_ID + ORDER_BY_LAST_MODIFIED_ID;
+        static final String ALL_COMPLETED_FROM_BREAKPOINT_AFTER = "SELECT * FROM "
+                + BREAKPOINT_TABLE_NAME + " WHERE " + AFTER_LAST_MODIFIED_ID + " AND " + COMPLETED
+                + ORDER_BY_LAST_MODIFIED_ID;
+        static final String ORPHAN_ID_FROM_TASK_FILE_DIRTY = "SELECT " + ID + " FROM "
+                + TASK_FILE_DIRTY_TABLE_NAME + " WHERE " + ID + " NOT IN (SELECT " + ID
+                + " FROM " + BREAKPOINT_TABLE_NAME + ")";
+    }
+
+    private interface Update {
+        static final String BLOCK_CURRENT_OFFSET = "UPDATE " + BLOCK_TABLE_NAME + " SET "
+                + CURRENT_OFFSET + " = ? WHERE " + HOST_ID + " = ? AND " + BLOCK_INDEX + " = ?";
+        static final String BREAKPOINT_LAST_MODIFIED = "UPDATE " + BREAKPOINT_TABLE_NAME
+                + " SET " + LAST_MODIFIED + " = ?";
+        static final String RESPONSE_FILENAME_LAST_MODIFIED = "UPDATE "
+                + RESPONSE_FILENAME_TABLE_NAME + " SET " + LAST_MODIFIED + " = ?";
+    }
+
+    private interface Delete {
+        static final String BREAKPOINT_BY_ID = "DELETE FROM " + BREAKPOINT_TABLE_NAME + " WHERE "
+                + ID + " = ?";
+        static final String BLOCK_BY_HOST_ID = "DELETE FROM " + BLOCK_TABLE_NAME + " WHERE "
+                + HOST_ID + " = ?";
+        static final String TASK_FILE_DIRTY_BY_ID = "DELETE FROM " + TASK_FILE_DIRTY_TABLE_NAME
+                + " WHERE " + ID + " = ?";
+        static final String UNREFERRED_RESPONSE_FILENAME_BEFORE = "DELETE FROM "
+                + RESPONSE_FILENAME_TABLE_NAME + " WHERE " + LAST_MODIFIED + " < ? AND " + URL
+                + " NOT IN (SELECT " + URL + " FROM " + BREAKPOINT_TABLE_NAME + ")";
+    }
+
+    private interface Pragma {
+        static final String PAGE_SIZE = "PRAGMA page_size";
+        static final String PAGE_COUNT = "PRAGMA page_count";
+        static final String FREELIST_COUNT = "PRAGMA freelist_count";
+        static final String AUTO_VACUUM = "PRAGMA auto_vacuum";
+        static final int AUTO_VACUUM_INCREMENTAL = 2;
+        static final String INCREMENTAL_VACUUM = "PRAGMA incremental_vacuum";
+        static final String VACUUM = "VACUUM";
     }
 
 }
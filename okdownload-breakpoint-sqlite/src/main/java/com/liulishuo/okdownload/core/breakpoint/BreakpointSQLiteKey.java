@@ -25,6 +25,7 @@ public interface BreakpointSQLiteKey {
     String FILENAME = "filename";
     String TASK_ONLY_PARENT_PATH = "task_only_parent_path";
     String CHUNKED = "chunked";
+    String LAST_MODIFIED = "last_modified";
 
     String HOST_ID = "breakpoint_id";
     String BLOCK_INDEX = "block_index";
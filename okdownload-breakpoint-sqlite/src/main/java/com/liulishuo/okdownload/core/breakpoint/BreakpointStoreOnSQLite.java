@@ -26,7 +26,7 @@ import com.liulishuo.okdownload.core.cause.EndCause;
 
 import java.io.IOException;
 
-public class BreakpointStoreOnSQLite implements DownloadStore {
+public class BreakpointStoreOnSQLite implements DownloadStore, BatchSyncStore {
 
     private static final String TAG = "BreakpointStoreOnSQLite";
     protected final BreakpointSQLiteHelper helper;
@@ -44,6 +44,19 @@ public class BreakpointStoreOnSQLite implements DownloadStore {
                 helper.loadResponseFilenameToMap());
     }
 
+    /**
+     * Create the store which loads the breakpoint infos from the database on demand, so the
+     * startup doesn't load all of them, only their ids are loaded up front.
+     *
+     * @param maxLoadedInfoCount the max count of the loaded infos cached in memory, besides them
+     *                           the infos of the started tasks are held until they are removed.
+     */
+    public BreakpointStoreOnSQLite(Context context, int maxLoadedInfoCount) {
+        this.helper = new BreakpointSQLiteHelper(context.getApplicationContext());
+        this.onCache = new BreakpointStoreOnCache(helper, maxLoadedInfoCount,
+                helper.loadDirtyFileList());
+    }
+
     @Nullable @Override public BreakpointInfo get(int id) {
         return onCache.get(id);
     }
@@ -57,6 +70,7 @@ public class BreakpointStoreOnSQLite implements DownloadStore {
 
     @Override public void onTaskStart(int id) {
         onCache.onTaskStart(id);
+        helper.updateLastModified(id);
     }
 
     @Override public void onSyncToFilesystemSuccess(@NonNull BreakpointInfo info, int blockIndex,
@@ -66,6 +80,21 @@ public class BreakpointStoreOnSQLite implements DownloadStore {
         helper.updateBlockIncrease(info, blockIndex, newCurrentOffset);
     }
 
+    @Override public void onSyncToFilesystemSuccess(@NonNull BreakpointInfo info,
+                                                    @NonNull long[] increaseLengths)
+            throws IOException {
+        onCache.onSyncToFilesystemSuccess(info, increaseLengths);
+        helper.updateBlockIncrease(info, increaseLengths);
+    }
+
+    @Override public void beginSyncBatch() {
+        helper.beginSyncBatch();
+    }
+
+    @Override public void endSyncBatch() {
+        helper.endSyncBatch();
+    }
+
     @Override public boolean update(@NonNull BreakpointInfo breakpointInfo) throws IOException {
         final boolean result = onCache.update(breakpointInfo);
         helper.updateInfo(breakpointInfo);
@@ -27,7 +27,8 @@ import com.liulishuo.okdownload.core.cause.EndCause;
 import java.io.IOException;
 import java.util.List;
 
-public class RemitStoreOnSQLite implements RemitSyncExecutor.RemitAgent, DownloadStore {
+public class RemitStoreOnSQLite implements RemitSyncExecutor.RemitAgent, DownloadStore,
+        BatchSyncStore {
 
     private static final String TAG = "RemitStoreOnSQLite";
 
@@ -35,7 +36,7 @@ public class RemitStoreOnSQLite implements RemitSyncExecutor.RemitAgent, Downloa
 
     @NonNull private final BreakpointStoreOnSQLite onSQLiteWrapper;
     @NonNull private final BreakpointSQLiteHelper sqLiteHelper;
-    @NonNull private final DownloadStore sqliteCache;
+    @NonNull private final BreakpointStoreOnCache sqliteCache;
 
     RemitStoreOnSQLite(@NonNull BreakpointStoreOnSQLite sqlite) {
         this.remitHelper = new RemitSyncToDBHelper(this);
@@ -46,7 +47,7 @@ public class RemitStoreOnSQLite implements RemitSyncExecutor.RemitAgent, Downloa
     }
 
     RemitStoreOnSQLite(@NonNull RemitSyncToDBHelper helper, @NonNull BreakpointStoreOnSQLite sqlite,
-                       @NonNull DownloadStore sqliteCache,
+                       @NonNull BreakpointStoreOnCache sqliteCache,
                        @NonNull BreakpointSQLiteHelper sqLiteHelper) {
         this.remitHelper = helper;
 
@@ -81,6 +82,25 @@ public class RemitStoreOnSQLite implements RemitSyncExecutor.RemitAgent, Downloa
         onSQLiteWrapper.onSyncToFilesystemSuccess(info, blockIndex, increaseLength);
     }
 
+    @Override public void onSyncToFilesystemSuccess(@NonNull BreakpointInfo info,
+                                                    @NonNull long[] increaseLengths)
+            throws IOException {
+        if (remitHelper.isNotFreeToDatabase(info.getId())) {
+            sqliteCache.onSyncToFilesystemSuccess(info, increaseLengths);
+            return;
+        }
+
+        onSQLiteWrapper.onSyncToFilesystemSuccess(info, increaseLengths);
+    }
+
+    @Override public void beginSyncBatch() {
+        onSQLiteWrapper.beginSyncBatch();
+    }
+
+    @Override public void endSyncBatch() {
+        onSQLiteWrapper.endSyncBatch();
+    }
+
     @Override public boolean update(@NonNull BreakpointInfo info) throws IOException {
         if (remitHelper.isNotFreeToDatabase(info.getId())) return sqliteCache.update(info);
 
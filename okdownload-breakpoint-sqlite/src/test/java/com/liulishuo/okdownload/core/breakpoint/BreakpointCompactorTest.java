@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.breakpoint;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.util.SparseArray;
+
+import com.liulishuo.okdownload.core.breakpoint.BreakpointCompactor.RetentionPolicy;
+import com.liulishuo.okdownload.core.cause.EndCause;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+
+import static com.liulishuo.okdownload.core.breakpoint.BreakpointCompactor.WHAT_COMPACT;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.RuntimeEnvironment.application;
+import static org.robolectric.annotation.Config.NONE;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE)
+public class BreakpointCompactorTest {
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    private BreakpointSQLiteHelper helper;
+    private BreakpointStoreOnCache onCache;
+
+    @Before
+    public void setup() {
+        helper = spy(new BreakpointSQLiteHelper(application));
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void construct_negativePolicy() {
+        new RetentionPolicy(-1, 0, 0, false);
+    }
+
+    @Test
+    public void compact_maxAge() throws IOException {
+        insert(1, 10, 5, 3);
+        insert(2, 10, 5, 2);
+        insert(3, 10, 5, 0);
+        final BreakpointCompactor compactor = createCompactor(
+                new RetentionPolicy(DAY_MILLIS, 0, 0, false), 10);
+
+        compactor.compact();
+
+        assertThat(helper.loadIds()).containsOnly(3);
+        assertThat(onCache.get(1)).isNull();
+        assertThat(onCache.get(2)).isNull();
+        assertThat(onCache.get(3)).isNotNull();
+        assertThat(compactor.getMetrics().getCompactedCount()).isEqualTo(1);
+        assertThat(compactor.getMetrics().getReclaimedInfoCount()).isEqualTo(2);
+        // the breakpoint rows with their block rows.
+        assertThat(compactor.getMetrics().getReclaimedRowCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void compact_maxCount() throws IOException {
+        insert(1, 10, 5, 1);
+        insert(2, 10, 5, 3);
+        insert(3, 10, 5, 2);
+        final BreakpointCompactor compactor = createCompactor(
+                new RetentionPolicy(0, 1, 0, false), 10);
+
+        compactor.compact();
+
+        assertThat(helper.loadIds()).containsOnly(1);
+        assertThat(compactor.getMetrics().getReclaimedInfoCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void compact_maxBytes() throws IOException {
+        insert(1, 10, 5, 1);
+        insert(2, 10, 5, 0);
+        final BreakpointCompactor compactor = createCompactor(
+                new RetentionPolicy(0, 0, 1, false), 10);
+
+        compactor.compact();
+
+        assertThat(helper.loadIds()).isEmpty();
+    }
+
+    @Test
+    public void compact_completedOnly() throws IOException {
+        insert(1, 10, 10, 3);
+        insert(2, 10, 5, 3);
+        final BreakpointCompactor compactor = createCompactor(
+                new RetentionPolicy(DAY_MILLIS, 0, 0, true), 10);
+
+        compactor.compact();
+
+        assertThat(helper.loadIds()).containsOnly(2);
+    }
+
+    @Test
+    public void compact_started() throws IOException {
+        insert(1, 10, 5, 3);
+        insert(2, 10, 5, 3);
+        final BreakpointCompactor compactor = createCompactor(
+                new RetentionPolicy(DAY_MILLIS, 0, 0, false), 10);
+        onCache.onTaskStart(1);
+
+        compactor.compact();
+        assertThat(helper.loadIds()).containsOnly(1);
+        assertThat(onCache.get(1)).isNotNull();
+
+        onCache.onTaskEnd(1, EndCause.ERROR, null);
+        compactor.compact();
+        assertThat(helper.loadIds()).isEmpty();
+    }
+
+    @Test
+    public void compact_idKept() throws IOException {
+        insert(1, 10, 5, 3);
+        final BreakpointCompactor compactor = createCompactor(
+                new RetentionPolicy(DAY_MILLIS, 0, 0, false), 10);
+
+        compactor.compact();
+
+        assertThat(helper.loadIds()).isEmpty();
+        // the alive tasks may still hold the id.
+        assertThat(onCache.allocateId()).isEqualTo(2);
+    }
+
+    @Test
+    public void compact_batches() throws IOException {
+        for (int id = 1; id <= 5; id++) {
+            insert(id, 10, 5, 3);
+        }
+        final BreakpointCompactor compactor = createCompactor(
+                new RetentionPolicy(DAY_MILLIS, 0, 0, false), 2);
+
+        compactor.compact();
+
+        assertThat(helper.loadIds()).isEmpty();
+        verify(helper, times(3)).removeInfos(any(int[].class), anyInt());
+        verify(helper).enableIncrementalVacuum();
+    }
+
+    @Test
+    public void compact_reclaimedBytes() throws IOException {
+        for (int id = 1; id <= 500; id++) {
+            insert(id, 10, 5, 3);
+        }
+        final BreakpointCompactor compactor = createCompactor(
+                new RetentionPolicy(DAY_MILLIS, 0, 0, false), 100);
+        final long pageCount = helper.getPageCount();
+
+        compactor.compact();
+
+        assertThat(helper.getPageCount()).isLessThan(pageCount);
+        assertThat(compactor.getMetrics().getReclaimedBytes()).isPositive();
+        assertThat(helper.getFreePageCount()).isZero();
+    }
+
+    @Test
+    public void compact_orphanDirtyMarks() throws IOException {
+        insert(1, 10, 5, 0);
+        helper.markFileDirty(1);
+        helper.markFileDirty(2);
+        final BreakpointCompactor compactor = createCompactor(
+                new RetentionPolicy(DAY_MILLIS, 0, 0, false), 10);
+        assertThat(onCache.isFileDirty(2)).isTrue();
+
+        compactor.compact();
+
+        assertThat(helper.loadDirtyFileList()).containsOnly(1);
+        assertThat(onCache.isFileDirty(1)).isTrue();
+        assertThat(onCache.isFileDirty(2)).isFalse();
+        assertThat(compactor.getMetrics().getReclaimedInfoCount()).isZero();
+        assertThat(compactor.getMetrics().getReclaimedRowCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void compact_responseFilenames() throws IOException {
+        insert(1, 10, 5, 0);
+        helper.updateFilename("url1", "filename1");
+        helper.updateFilename("url2", "filename2");
+        helper.updateFilename("url3", "filename3");
+        helper.getWritableDatabase().execSQL("UPDATE okdownloadResponseFilename SET "
+                + "last_modified = ? WHERE url != ?", new Object[]{daysAgo(3), "url3"});
+        final BreakpointCompactor compactor = createCompactor(
+                new RetentionPolicy(DAY_MILLIS, 0, 0, false), 10);
+
+        compactor.compact();
+
+        // the url1 is referred by the info.
+        assertThat(helper.loadResponseFilenameToMap()).containsOnlyKeys("url1", "url3");
+    }
+
+    @Test
+    public void compact_unlimited() throws IOException {
+        insert(1, 10, 5, 30);
+        final BreakpointCompactor compactor = createCompactor(
+                new RetentionPolicy(0, 0, 0, false), 10);
+
+        compactor.compact();
+
+        assertThat(helper.loadIds()).containsOnly(1);
+        assertThat(compactor.getMetrics().getReclaimedRowCount()).isZero();
+    }
+
+    @Test
+    public void startAndHandleMessage() {
+        final BreakpointCompactor compactor = spy(createCompactor(
+                new RetentionPolicy(DAY_MILLIS, 0, 0, false), 10));
+        final Handler handler = mock(Handler.class);
+        doReturn(mock(Looper.class)).when(handler).getLooper();
+        doReturn(handler).when(compactor).createHandler();
+        doNothing().when(compactor).compact();
+
+        compactor.start(1000);
+        compactor.start(1000);
+        verify(compactor).createHandler();
+        verify(handler).sendEmptyMessage(eq(WHAT_COMPACT));
+
+        compactor.handleMessage(new Message());
+        verify(compactor).compact();
+        verify(handler).sendEmptyMessageDelayed(eq(WHAT_COMPACT), eq(1000L));
+
+        compactor.stop();
+        verify(handler.getLooper()).quit();
+
+        // not scheduled anymore.
+        compactor.handleMessage(new Message());
+        verify(handler).sendEmptyMessageDelayed(eq(WHAT_COMPACT), eq(1000L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void start_invalidInterval() {
+        createCompactor(new RetentionPolicy(0, 0, 0, false), 10).start(0);
+    }
+
+    private BreakpointCompactor createCompactor(RetentionPolicy policy, int batchSize) {
+        final SparseArray<BreakpointInfo> infos = helper.loadToCache();
+        onCache = new BreakpointStoreOnCache(infos, helper.loadDirtyFileList(),
+                helper.loadResponseFilenameToMap());
+        return new BreakpointCompactor(helper, onCache, policy, batchSize);
+    }
+
+    private void insert(int id, long contentLength, long currentOffset, int days)
+            throws IOException {
+        final BreakpointInfo info = new BreakpointInfo(id, "url" + id, new File("p-path"),
+                "filename" + id);
+        info.addBlock(new BlockInfo(0, contentLength, currentOffset));
+        helper.insert(info);
+        helper.getWritableDatabase().execSQL("UPDATE breakpoint SET last_modified = ? WHERE "
+                + "id = ?", new Object[]{daysAgo(days), id});
+    }
+
+    private static long daysAgo(int days) {
+        return System.currentTimeMillis() - days * DAY_MILLIS;
+    }
+}
@@ -30,6 +30,7 @@ import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.CHUNK
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.ETAG;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.FILENAME;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.ID;
+import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.LAST_MODIFIED;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.PARENT_PATH;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.TASK_ONLY_PARENT_PATH;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.URL;
@@ -68,6 +69,9 @@ public class BreakpointInfoRowTest {
         doReturn(6).when(cursor).getColumnIndex(CHUNKED);
         doReturn(0).when(cursor).getInt(6);
 
+        doReturn(7).when(cursor).getColumnIndex(LAST_MODIFIED);
+        doReturn(100L).when(cursor).getLong(7);
+
         breakpointInfoRow = new BreakpointInfoRow(cursor);
     }
 
@@ -78,6 +82,7 @@ public class BreakpointInfoRowTest {
         assertThat(breakpointInfoRow.getEtag()).isEqualTo("etag");
         assertThat(breakpointInfoRow.getParentPath()).isEqualTo("p-path");
         assertThat(breakpointInfoRow.getFilename()).isNull();
+        assertThat(breakpointInfoRow.getLastModified()).isEqualTo(100L);
         assertThat(breakpointInfoRow.isTaskOnlyProvidedParentPath()).isTrue();
         assertThat(breakpointInfoRow.isChunked()).isFalse();
     }
@@ -38,7 +38,9 @@ import java.util.List;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteHelper.TASK_FILE_DIRTY_TABLE_NAME;
 import static com.liulishuo.okdownload.core.breakpoint.BreakpointSQLiteKey.ID;
 import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.doReturn;
@@ -53,6 +55,13 @@ import static org.robolectric.annotation.Config.NONE;
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest = NONE)
 public class BreakpointSQLiteHelperTest {
+    private static final String BREAKPOINT_URL_PARENT_PATH_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + "breakpointUrlParentPath ON breakpoint(url, parent_path)";
+    private static final String BLOCK_HOST_ID_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + "blockHostId ON block(breakpoint_id)";
+    private static final String BREAKPOINT_LAST_MODIFIED_INDEX = "CREATE INDEX IF NOT EXISTS "
+            + "breakpointLastModified ON breakpoint(last_modified, id)";
+
     private BreakpointSQLiteHelper helper;
     @Mock
     private SQLiteDatabase db;
@@ -88,13 +97,16 @@ public class BreakpointSQLiteHelperTest {
         helper.onCreate(db);
 
         ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
-        verify(db, times(4)).execSQL(captor.capture());
+        verify(db, times(7)).execSQL(captor.capture());
 
         List<String> values = captor.getAllValues();
-        assertThat(values.size()).isEqualTo(4);
+        assertThat(values.size()).isEqualTo(7);
         assertThat(values.get(3)).isEqualTo("CREATE TABLE IF NOT EXISTS "
                 + TASK_FILE_DIRTY_TABLE_NAME + "( "
                 + ID + " INTEGER PRIMARY KEY)");
+        assertThat(values.get(4)).isEqualTo(BREAKPOINT_URL_PARENT_PATH_INDEX);
+        assertThat(values.get(5)).isEqualTo(BLOCK_HOST_ID_INDEX);
+        assertThat(values.get(6)).isEqualTo(BREAKPOINT_LAST_MODIFIED_INDEX);
     }
 
     @Test
@@ -105,6 +117,171 @@ public class BreakpointSQLiteHelperTest {
                 + ID + " INTEGER PRIMARY KEY)");
     }
 
+    @Test
+    public void onUpgrade_index() {
+        helper.onUpgrade(db, 3, 4);
+
+        verify(db).execSQL(BREAKPOINT_URL_PARENT_PATH_INDEX);
+        verify(db).execSQL(BLOCK_HOST_ID_INDEX);
+        // with the migration to the version 5.
+        verify(db, times(5)).execSQL(anyString());
+    }
+
+    @Test
+    public void onUpgrade_lastModified() {
+        helper.onUpgrade(db, 4, 5);
+
+        verify(db).execSQL("ALTER TABLE breakpoint ADD COLUMN last_modified INTEGER DEFAULT 0");
+        verify(db).execSQL("ALTER TABLE okdownloadResponseFilename ADD COLUMN last_modified "
+                + "INTEGER DEFAULT 0");
+        verify(db).execSQL(eq("UPDATE breakpoint SET last_modified = ?"), any(Object[].class));
+        verify(db).execSQL(eq("UPDATE okdownloadResponseFilename SET last_modified = ?"),
+                any(Object[].class));
+        verify(db).execSQL(BREAKPOINT_LAST_MODIFIED_INDEX);
+        verify(db, times(3)).execSQL(anyString());
+    }
+
+    @Test
+    public void updateLastModified() {
+        helper.getWritableDatabase().execSQL("UPDATE breakpoint SET last_modified = 0");
+
+        helper.updateLastModified(insertedInfo2.id);
+
+        final List<BreakpointInfoRow> rows = helper.loadOldestRows(Long.MIN_VALUE,
+                Integer.MIN_VALUE, false, 10);
+        assertThat(rows).hasSize(2);
+        assertThat(rows.get(0).getId()).isEqualTo(insertedInfo1.id);
+        assertThat(rows.get(0).getLastModified()).isZero();
+        assertThat(rows.get(1).getId()).isEqualTo(insertedInfo2.id);
+        assertThat(rows.get(1).getLastModified()).isPositive();
+    }
+
+    @Test
+    public void countInfos() {
+        assertThat(helper.countInfos()).isEqualTo(2);
+    }
+
+    @Test
+    public void loadOldestRows() {
+        helper.getWritableDatabase().execSQL("UPDATE breakpoint SET last_modified = 1");
+
+        List<BreakpointInfoRow> rows = helper.loadOldestRows(Long.MIN_VALUE, Integer.MIN_VALUE,
+                false, 1);
+        assertThat(rows).hasSize(1);
+        assertThat(rows.get(0).getId()).isEqualTo(insertedInfo1.id);
+
+        // after the row on the same last modified time.
+        rows = helper.loadOldestRows(1, insertedInfo1.id, false, 1);
+        assertThat(rows).hasSize(1);
+        assertThat(rows.get(0).getId()).isEqualTo(insertedInfo2.id);
+
+        assertThat(helper.loadOldestRows(1, insertedInfo2.id, false, 1)).isEmpty();
+    }
+
+    @Test
+    public void loadOldestRows_completedOnly() throws IOException {
+        final BreakpointInfo info3 = new BreakpointInfo(3, "url3", new File("p-path3"), null);
+        info3.addBlock(new BlockInfo(0, 10, 10));
+        info3.addBlock(new BlockInfo(10, 10, 10));
+        helper.insert(info3);
+        final BreakpointInfo info4 = new BreakpointInfo(4, "url4", new File("p-path4"), null);
+        info4.setChunked(true);
+        info4.addBlock(new BlockInfo(0, 0, 0));
+        helper.insert(info4);
+
+        final List<BreakpointInfoRow> rows = helper.loadOldestRows(Long.MIN_VALUE,
+                Integer.MIN_VALUE, true, 10);
+        assertThat(rows).hasSize(1);
+        assertThat(rows.get(0).getId()).isEqualTo(info3.id);
+    }
+
+    @Test
+    public void removeInfos() {
+        helper.markFileDirty(insertedInfo2.id);
+
+        final int removedCount = helper.removeInfos(
+                new int[]{insertedInfo2.id, insertedInfo1.id}, 1);
+
+        // the breakpoint row with its two block rows and the dirty mark.
+        assertThat(removedCount).isEqualTo(4);
+        assertThat(helper.loadIds()).containsOnly(insertedInfo1.id);
+        assertThat(helper.loadDirtyFileList()).isEmpty();
+    }
+
+    @Test
+    public void loadOrphanDirtyIds() {
+        helper.markFileDirty(insertedInfo1.id);
+        helper.markFileDirty(3);
+
+        assertThat(helper.loadOrphanDirtyIds()).containsOnly(3);
+    }
+
+    @Test
+    public void removeResponseFilenames() {
+        helper.updateFilename("url1", "filename1");
+        helper.updateFilename("url3", "filename3");
+        helper.updateFilename("url4", "filename4");
+        helper.getWritableDatabase().execSQL("UPDATE okdownloadResponseFilename SET "
+                + "last_modified = 1 WHERE url != 'url4'");
+
+        // the url1 is referred by the info1, and the url4 is modified after.
+        assertThat(helper.removeResponseFilenames(2)).isEqualTo(1);
+        assertThat(helper.loadResponseFilenameToMap()).containsOnlyKeys("url1", "url4");
+    }
+
+    @Test
+    public void vacuumIncrementally() {
+        helper.enableIncrementalVacuum();
+        helper.enableIncrementalVacuum();
+        verify(helper, times(2)).enableIncrementalVacuum();
+
+        helper.removeInfo(insertedInfo1.id);
+        helper.removeInfo(insertedInfo2.id);
+        helper.vacuumIncrementally();
+
+        assertThat(helper.getFreePageCount()).isZero();
+        assertThat(helper.getPageSize()).isPositive();
+        assertThat(helper.getPageCount()).isPositive();
+    }
+
+    @Test
+    public void loadIds() {
+        assertThat(helper.loadIds()).containsOnly(insertedInfo1.id, insertedInfo2.id);
+    }
+
+    @Test
+    public void load() {
+        final BreakpointInfo info2 = helper.load(insertedInfo2.id);
+
+        assertThat(info2).isNotNull();
+        assertThat(info2.getUrl()).isEqualTo("url2");
+        assertThat(info2.getFilename()).isEqualTo("filename2");
+        assertThat(info2.getBlockCount()).isEqualTo(2);
+        assertThat(info2.getBlock(1).getStartOffset()).isEqualTo(20);
+        assertThat(info2.getBlock(1).getCurrentOffset()).isEqualTo(10);
+
+        assertThat(helper.load(3)).isNull();
+    }
+
+    @Test
+    public void loadSameFrom() {
+        final List<BreakpointInfo> infoList = helper.loadSameFrom("url1", new File("p-path1"));
+
+        assertThat(infoList).hasSize(1);
+        assertThat(infoList.get(0).id).isEqualTo(insertedInfo1.id);
+        assertThat(infoList.get(0).getBlockCount()).isEqualTo(1);
+
+        assertThat(helper.loadSameFrom("url1", new File("p-path2"))).isEmpty();
+    }
+
+    @Test
+    public void loadResponseFilename() {
+        helper.updateFilename("url1", "filename1");
+
+        assertThat(helper.loadResponseFilename("url1")).isEqualTo("filename1");
+        assertThat(helper.loadResponseFilename("url2")).isNull();
+    }
+
     @Test
     public void markFileDirty() {
         doReturn(db).when(helper).getWritableDatabase();
@@ -181,6 +358,35 @@ public class BreakpointSQLiteHelperTest {
         assertThat(info2.getBlock(1).getCurrentOffset()).isEqualTo(15);
     }
 
+    @Test
+    public void updateBlockIncrease_batch() {
+        final BreakpointInfo info = insertedInfo2.copy();
+        info.getBlock(0).increaseCurrentOffset(3);
+        info.getBlock(1).increaseCurrentOffset(5);
+
+        // block 0 isn't synced on this time.
+        helper.updateBlockIncrease(info, new long[]{0, 5});
+
+        BreakpointInfo info2 = helper.loadToCache().get(insertedInfo2.id);
+        assertThat(info2.getBlock(0).getCurrentOffset()).isZero();
+        assertThat(info2.getBlock(1).getCurrentOffset()).isEqualTo(15);
+    }
+
+    @Test
+    public void syncBatch() {
+        final BreakpointInfo info = insertedInfo2.copy();
+        info.getBlock(1).increaseCurrentOffset(5);
+
+        helper.beginSyncBatch();
+        assertThat(helper.getWritableDatabase().inTransaction()).isTrue();
+        helper.updateBlockIncrease(info, new long[]{0, 5});
+        helper.endSyncBatch();
+
+        assertThat(helper.getWritableDatabase().inTransaction()).isFalse();
+        BreakpointInfo info2 = helper.loadToCache().get(insertedInfo2.id);
+        assertThat(info2.getBlock(1).getCurrentOffset()).isEqualTo(15);
+    }
+
     @Test
     public void updateInfo() throws IOException {
         BreakpointInfo info1 = helper.loadToCache().get(insertedInfo1.id);
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.breakpoint;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.liulishuo.okdownload.core.Util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+import static org.robolectric.RuntimeEnvironment.application;
+
+/**
+ * The benchmark of the startup of the store on lots of breakpoint records, it's skipped unless
+ * running with {@code ./gradlew :okdownload-breakpoint-sqlite:testDebugUnitTest -Pbenchmark}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class BreakpointStoreOnSQLiteBenchmarkTest {
+
+    private static final int[] RECORD_COUNTS = {10000, 100000, 1000000};
+    private static final int MAX_LOADED_INFO_COUNT = 100;
+    private static final String PARENT_PATH = new File("p-path").getAbsolutePath();
+
+    @Before
+    public void setup() {
+        assumeTrue(Boolean.getBoolean("okdownload.benchmark"));
+        Util.setLogger(null);
+    }
+
+    @Test
+    public void startup() {
+        for (int recordCount : RECORD_COUNTS) {
+            insertRecords(recordCount);
+
+            long start = System.nanoTime();
+            final BreakpointStoreOnSQLite eagerStore = new BreakpointStoreOnSQLite(application);
+            assertThat(eagerStore.get(recordCount)).isNotNull();
+            final long eagerNanos = System.nanoTime() - start;
+            eagerStore.close();
+
+            start = System.nanoTime();
+            final BreakpointStoreOnSQLite lazyStore = new BreakpointStoreOnSQLite(application,
+                    MAX_LOADED_INFO_COUNT);
+            assertThat(lazyStore.get(recordCount)).isNotNull();
+            final long lazyNanos = System.nanoTime() - start;
+            lazyStore.close();
+
+            System.out.println("BreakpointStoreOnSQLite: start up with " + recordCount
+                    + " records in " + eagerNanos / 1000000 + "ms, and in "
+                    + lazyNanos / 1000000 + "ms on demand");
+        }
+    }
+
+    private static void insertRecords(int recordCount) {
+        final BreakpointSQLiteHelper helper = new BreakpointSQLiteHelper(application);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        SQLiteStatement breakpointStatement = null;
+        SQLiteStatement blockStatement = null;
+        try {
+            db.execSQL("DELETE FROM breakpoint");
+            db.execSQL("DELETE FROM block");
+            breakpointStatement = db.compileStatement("INSERT INTO breakpoint"
+                    + "(id, url, parent_path, filename) VALUES (?, ?, ?, ?)");
+            blockStatement = db.compileStatement("INSERT INTO block"
+                    + "(breakpoint_id, block_index, start_offset, content_length, current_offset)"
+                    + " VALUES (?, 0, 0, 1024, 512)");
+            for (int id = 1; id <= recordCount; id++) {
+                breakpointStatement.bindLong(1, id);
+                breakpointStatement.bindString(2, "https://jacksgong.com/" + id);
+                breakpointStatement.bindString(3, PARENT_PATH);
+                breakpointStatement.bindString(4, "filename" + id);
+                breakpointStatement.executeInsert();
+
+                blockStatement.bindLong(1, id);
+                blockStatement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (breakpointStatement != null) breakpointStatement.close();
+            if (blockStatement != null) blockStatement.close();
+            db.endTransaction();
+            helper.close();
+        }
+    }
+}
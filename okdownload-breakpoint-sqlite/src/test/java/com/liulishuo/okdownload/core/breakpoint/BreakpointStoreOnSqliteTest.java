@@ -96,6 +96,17 @@ public class BreakpointStoreOnSqliteTest {
         verify(onCache).onSyncToFilesystemSuccess(info2, 0, 10);
         verify(helper).updateBlockIncrease(info2, 0, 15);
 
+        final long[] increaseLengths = new long[]{5};
+        store.onSyncToFilesystemSuccess(info2, increaseLengths);
+        verify(onCache).onSyncToFilesystemSuccess(info2, increaseLengths);
+        verify(helper).updateBlockIncrease(info2, increaseLengths);
+        assertThat(info2.getBlock(0).getCurrentOffset()).isEqualTo(20);
+
+        store.beginSyncBatch();
+        verify(helper).beginSyncBatch();
+        store.endSyncBatch();
+        verify(helper).endSyncBatch();
+
         info2.setEtag("new-etag");
         store.update(info2);
         verify(onCache).update(info2);
@@ -118,6 +129,14 @@ public class BreakpointStoreOnSqliteTest {
         verify(helper).updateFilename(eq("url"), eq("filename"));
     }
 
+    @Test
+    public void onTaskStart() {
+        store.onTaskStart(1);
+
+        verify(onCache).onTaskStart(eq(1));
+        verify(helper).updateLastModified(eq(1));
+    }
+
     @Test
     public void completeDownload() {
         final int id = store.findOrCreateId(mock(DownloadTask.class));
@@ -170,4 +189,24 @@ public class BreakpointStoreOnSqliteTest {
         doReturn(false).when(onCache).isFileDirty(1);
         assertThat(store.isFileDirty(1)).isFalse();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void construct_lazy() throws IOException {
+        final BreakpointInfo info = new BreakpointInfo(1, "url", new File("p-path"), "filename");
+        info.addBlock(new BlockInfo(0, 10));
+        helper.insert(info);
+        helper.close();
+
+        final BreakpointStoreOnSQLite lazyStore = new BreakpointStoreOnSQLite(application, 10);
+        try {
+            // only the id is loaded up front.
+            assertThat(lazyStore.onCache.allocateId()).isEqualTo(2);
+
+            final BreakpointInfo loadedInfo = lazyStore.get(1);
+            assertThat(loadedInfo).isNotNull();
+            assertThat(loadedInfo.getBlockCount()).isEqualTo(1);
+        } finally {
+            lazyStore.close();
+        }
+    }
+}
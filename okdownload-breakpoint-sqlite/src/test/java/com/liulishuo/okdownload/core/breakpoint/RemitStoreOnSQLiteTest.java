@@ -128,6 +128,41 @@ public class RemitStoreOnSQLiteTest {
         verify(storeOnSQLite).onSyncToFilesystemSuccess(eq(info), eq(0), eq(10L));
     }
 
+    @Test
+    public void onSyncToFilesystemSuccess_batch_notFreeToDatabase() throws IOException {
+        final BreakpointInfo info = mock(BreakpointInfo.class);
+        when(info.getId()).thenReturn(1);
+        when(remitHelper.isNotFreeToDatabase(1)).thenReturn(true);
+        final long[] increaseLengths = new long[]{10};
+        doNothing().when(onCache).onSyncToFilesystemSuccess(info, increaseLengths);
+
+        store.onSyncToFilesystemSuccess(info, increaseLengths);
+        verify(onCache).onSyncToFilesystemSuccess(eq(info), eq(increaseLengths));
+        verify(helper, never()).updateBlockIncrease(eq(info), any(long[].class));
+    }
+
+    @Test
+    public void onSyncToFilesystemSuccess_batch_freeToDatabase() throws IOException {
+        final BreakpointInfo info = mock(BreakpointInfo.class);
+        when(info.getId()).thenReturn(1);
+        when(remitHelper.isNotFreeToDatabase(1)).thenReturn(false);
+        final long[] increaseLengths = new long[]{10};
+        doNothing().when(storeOnSQLite).onSyncToFilesystemSuccess(info, increaseLengths);
+
+        store.onSyncToFilesystemSuccess(info, increaseLengths);
+        verify(onCache, never()).onSyncToFilesystemSuccess(eq(info), eq(increaseLengths));
+        verify(storeOnSQLite).onSyncToFilesystemSuccess(eq(info), eq(increaseLengths));
+    }
+
+    @Test
+    public void syncBatch() {
+        store.beginSyncBatch();
+        verify(storeOnSQLite).beginSyncBatch();
+
+        store.endSyncBatch();
+        verify(storeOnSQLite).endSyncBatch();
+    }
+
     @Test
     public void update_notFreeToDatabase() throws IOException {
         final BreakpointInfo info = mock(BreakpointInfo.class);
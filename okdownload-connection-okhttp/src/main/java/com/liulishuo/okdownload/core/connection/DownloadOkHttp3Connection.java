@@ -22,6 +22,7 @@ import com.liulishuo.okdownload.RedirectUtil;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ProtocolException;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +31,7 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.BufferedSource;
 
 public class DownloadOkHttp3Connection implements DownloadConnection, DownloadConnection.Connected {
     @NonNull final OkHttpClient client;
@@ -86,10 +88,14 @@ public class DownloadOkHttp3Connection implements DownloadConnection, DownloadCo
     }
 
     @Override public InputStream getInputStream() throws IOException {
+        return body().byteStream();
+    }
+
+    @NonNull private ResponseBody body() throws IOException {
         if (response == null) throw new IOException("Please invoke execute first!");
         final ResponseBody body = response.body();
         if (body == null) throw new IOException("no body found on response!");
-        return body.byteStream();
+        return body;
     }
 
     @Override public boolean setRequestMethod(@NonNull String method) throws ProtocolException {
@@ -118,16 +124,56 @@ public class DownloadOkHttp3Connection implements DownloadConnection, DownloadCo
         return null;
     }
 
+    /**
+     * The connection whose response body is transferred from the segments of the OkHttp buffer
+     * to the output stream directly, it's created by the {@link Factory} only when
+     * {@link Factory#transferable(boolean)} is enabled.
+     */
+    static class TransferableConnection extends DownloadOkHttp3Connection
+            implements DownloadConnection.Transferable {
+
+        TransferableConnection(@NonNull OkHttpClient client, @NonNull String url) {
+            super(client, url);
+        }
+
+        @Override public int request(int byteCount) throws IOException {
+            final BufferedSource source = body().source();
+            if (!source.request(1)) return -1;
+            return (int) Math.min(source.buffer().size(), byteCount);
+        }
+
+        // the segments of the buffer are written to the out directly and recycled.
+        @Override public void transferTo(@NonNull OutputStream out, int byteCount)
+                throws IOException {
+            body().source().buffer().writeTo(out, byteCount);
+        }
+    }
+
     public static class Factory implements DownloadConnection.Factory {
 
         private OkHttpClient.Builder clientBuilder;
         private volatile OkHttpClient client;
+        private boolean transferable;
 
         public Factory setBuilder(@NonNull OkHttpClient.Builder builder) {
             this.clientBuilder = builder;
             return this;
         }
 
+        /**
+         * Transfer the segments of the response body to the output stream of the block directly,
+         * instead of copying them to the read buffer first. It's disabled by default.
+         * <p>
+         * The copy is saved only when the output stream doesn't buffer the bytes again, such as
+         * a custom {@link com.liulishuo.okdownload.core.file.DownloadOutputStream}, the default
+         * {@link com.liulishuo.okdownload.core.file.DownloadUriOutputStream} still copies them
+         * to its own buffer.
+         */
+        public Factory transferable(boolean transferable) {
+            this.transferable = transferable;
+            return this;
+        }
+
         @NonNull public OkHttpClient.Builder builder() {
             if (clientBuilder == null) clientBuilder = new OkHttpClient.Builder();
             return clientBuilder;
@@ -143,7 +189,8 @@ public class DownloadOkHttp3Connection implements DownloadConnection, DownloadCo
                 }
             }
 
-            return new DownloadOkHttp3Connection(client, url);
+            return transferable ? new TransferableConnection(client, url)
+                    : new DownloadOkHttp3Connection(client, url);
         }
     }
 }
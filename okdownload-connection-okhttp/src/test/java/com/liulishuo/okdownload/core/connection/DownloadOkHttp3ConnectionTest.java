@@ -20,6 +20,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.ProtocolException;
@@ -135,6 +136,41 @@ public class DownloadOkHttp3ConnectionTest {
         assertThat(resultInputStream).isEqualTo(expectedInputStream);
     }
 
+    @Test
+    public void create_transferable() throws IOException {
+        final DownloadOkHttp3Connection.Factory factory = new DownloadOkHttp3Connection.Factory();
+        // opt-in
+        assertThat(factory.create(URL)).isNotInstanceOf(DownloadConnection.Transferable.class);
+
+        factory.transferable(true);
+        assertThat(factory.create(URL)).isInstanceOf(DownloadConnection.Transferable.class);
+    }
+
+    @Test(expected = IOException.class)
+    public void request_responseIsNull_throwException() throws IOException {
+        new DownloadOkHttp3Connection.TransferableConnection(client, URL).request(1);
+    }
+
+    @Test
+    public void request_transferTo() throws IOException {
+        final DownloadOkHttp3Connection.TransferableConnection connection =
+                new DownloadOkHttp3Connection.TransferableConnection(client, URL);
+        final byte[] content = new byte[]{1, 2, 3, 4, 5};
+        connection.response = createResponseBuilder()
+                .body(ResponseBody.create(null, content)).build();
+
+        assertThat(connection.request(3)).isEqualTo(3);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        connection.transferTo(out, 3);
+        assertThat(out.toByteArray()).containsExactly(1, 2, 3);
+
+        assertThat(connection.request(3)).isEqualTo(2);
+        connection.transferTo(out, 2);
+        assertThat(out.toByteArray()).containsExactly(1, 2, 3, 4, 5);
+
+        assertThat(connection.request(3)).isEqualTo(-1);
+    }
+
     @Test
     public void addHeader_getRequestHeaderFiles_meet() throws IOException {
         assertThat(connection.getRequestProperty("no-exist-key")).isNull();
@@ -24,6 +24,7 @@ import com.liulishuo.okdownload.core.breakpoint.BreakpointStore;
 import com.liulishuo.okdownload.core.connection.DownloadConnection;
 import com.liulishuo.okdownload.core.dispatcher.CallbackDispatcher;
 import com.liulishuo.okdownload.core.dispatcher.DownloadDispatcher;
+import com.liulishuo.okdownload.core.dispatcher.DownloadExecutors;
 import com.liulishuo.okdownload.core.download.DownloadStrategy;
 import com.liulishuo.okdownload.core.file.DownloadOutputStream;
 import com.liulishuo.okdownload.core.file.ProcessFileStrategy;
@@ -55,6 +56,7 @@ public class TestUtils {
                 .thenReturn(mock(DownloadStrategy.ResumeAvailableResponseCheck.class));
 
         when(mockOkDownload.downloadDispatcher()).thenReturn(mock(DownloadDispatcher.class));
+        when(mockOkDownload.downloadExecutors()).thenReturn(new DownloadExecutors());
 
         final CallbackDispatcher callbackDispatcher = mock(CallbackDispatcher.class);
         doReturn(mock(DownloadListener.class)).when(callbackDispatcher).dispatch();
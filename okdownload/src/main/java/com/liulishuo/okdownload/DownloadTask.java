@@ -30,6 +30,7 @@ import com.liulishuo.okdownload.core.download.DownloadStrategy;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -68,6 +69,7 @@ public class DownloadTask extends IdentifiedTask implements Comparable<DownloadT
 
     @Nullable private final Integer connectionCount;
     @Nullable private final Boolean isPreAllocateLength;
+    @Nullable private final List<String> mirrorUrls;
 
     /**
      * if this task has already completed with
@@ -100,6 +102,19 @@ public class DownloadTask extends IdentifiedTask implements Comparable<DownloadT
                         boolean passIfAlreadyCompleted, boolean wifiRequired,
                         Boolean filenameFromResponse, @Nullable Integer connectionCount,
                         @Nullable Boolean isPreAllocateLength) {
+        this(url, uri, priority, readBufferSize, flushBufferSize, syncBufferSize,
+                syncBufferIntervalMills, autoCallbackToUIThread, minIntervalMillisCallbackProcess,
+                headerMapFields, filename, passIfAlreadyCompleted, wifiRequired,
+                filenameFromResponse, connectionCount, isPreAllocateLength, null);
+    }
+
+    public DownloadTask(String url, Uri uri, int priority, int readBufferSize, int flushBufferSize,
+                        int syncBufferSize, int syncBufferIntervalMills,
+                        boolean autoCallbackToUIThread, int minIntervalMillisCallbackProcess,
+                        Map<String, List<String>> headerMapFields, @Nullable String filename,
+                        boolean passIfAlreadyCompleted, boolean wifiRequired,
+                        Boolean filenameFromResponse, @Nullable Integer connectionCount,
+                        @Nullable Boolean isPreAllocateLength, @Nullable List<String> mirrorUrls) {
         this.url = url;
         this.uri = uri;
         this.priority = priority;
@@ -115,6 +130,8 @@ public class DownloadTask extends IdentifiedTask implements Comparable<DownloadT
         this.wifiRequired = wifiRequired;
         this.connectionCount = connectionCount;
         this.isPreAllocateLength = isPreAllocateLength;
+        this.mirrorUrls = mirrorUrls == null || mirrorUrls.isEmpty()
+                ? null : Collections.unmodifiableList(new ArrayList<>(mirrorUrls));
 
         if (Util.isUriFileScheme(uri)) {
             final File file = new File(uri.getPath());
@@ -219,6 +236,16 @@ public class DownloadTask extends IdentifiedTask implements Comparable<DownloadT
         return this.headerMapFields;
     }
 
+    /**
+     * Get the mirror urls which serve the same content as the {@link #getUrl()}.
+     *
+     * @return the mirror urls of this task, {@code null} if there isn't any mirror.
+     * @see Builder#setMirrorUrls(List)
+     */
+    @Nullable public List<String> getMirrorUrls() {
+        return mirrorUrls;
+    }
+
     /**
      * This id can be used on {@link BreakpointStore}
      */
@@ -603,7 +630,7 @@ public class DownloadTask extends IdentifiedTask implements Comparable<DownloadT
     }
 
     public Builder toBuilder() {
-        return toBuilder(this.url, this.uri);
+        return toBuilder(this.url, this.uri).setMirrorUrls(mirrorUrls);
     }
 
     /**
@@ -708,6 +735,7 @@ public class DownloadTask extends IdentifiedTask implements Comparable<DownloadT
         private Boolean isFilenameFromResponse;
         private Integer connectionCount;
         private Boolean isPreAllocateLength;
+        private List<String> mirrorUrls;
 
         /**
          * Set whether need to pre allocate length for the file after get the resource-length from
@@ -787,6 +815,25 @@ public class DownloadTask extends IdentifiedTask implements Comparable<DownloadT
             return this;
         }
 
+        /**
+         * Set the mirror urls which serve the same content as the url of this task.
+         * <p>
+         * Each block connects to the url which has the highest measured throughput, and the
+         * mirror is verified with the length and the etag of the resource by the block which
+         * selects it first, only the verified mirrors are used. The mirrors are only used when the
+         * task is downloaded with more than one block.
+         * <p>
+         * Another url is used only if the block fails to connect to its url. If the block fails
+         * while fetching from its url, it doesn't fail over to another url but the task ends with
+         * the error as without mirrors, and it will resume from the breakpoint on next start.
+         *
+         * @param mirrorUrls the mirror urls of the resource.
+         */
+        public Builder setMirrorUrls(@Nullable List<String> mirrorUrls) {
+            this.mirrorUrls = mirrorUrls;
+            return this;
+        }
+
         /**
          * Add the request header for this task.
          *
@@ -917,7 +964,7 @@ public class DownloadTask extends IdentifiedTask implements Comparable<DownloadT
                     syncBufferSize, syncBufferIntervalMillis,
                     autoCallbackToUIThread, minIntervalMillisCallbackProcess,
                     headerMapFields, filename, passIfAlreadyCompleted, isWifiRequired,
-                    isFilenameFromResponse, connectionCount, isPreAllocateLength);
+                    isFilenameFromResponse, connectionCount, isPreAllocateLength, mirrorUrls);
         }
     }
 
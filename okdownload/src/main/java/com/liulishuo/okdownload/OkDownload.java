@@ -25,9 +25,12 @@ import com.liulishuo.okdownload.core.Util;
 import com.liulishuo.okdownload.core.breakpoint.BreakpointStore;
 import com.liulishuo.okdownload.core.breakpoint.DownloadStore;
 import com.liulishuo.okdownload.core.connection.DownloadConnection;
+import com.liulishuo.okdownload.core.dispatcher.BandwidthScheduler;
 import com.liulishuo.okdownload.core.dispatcher.CallbackDispatcher;
 import com.liulishuo.okdownload.core.dispatcher.DownloadDispatcher;
+import com.liulishuo.okdownload.core.dispatcher.DownloadExecutors;
 import com.liulishuo.okdownload.core.download.DownloadStrategy;
+import com.liulishuo.okdownload.core.file.ByteArrayPool;
 import com.liulishuo.okdownload.core.file.DownloadOutputStream;
 import com.liulishuo.okdownload.core.file.DownloadUriOutputStream;
 import com.liulishuo.okdownload.core.file.ProcessFileStrategy;
@@ -44,16 +47,20 @@ public class OkDownload {
     private final DownloadOutputStream.Factory outputStreamFactory;
     private final ProcessFileStrategy processFileStrategy;
     private final DownloadStrategy downloadStrategy;
+    private final DownloadExecutors downloadExecutors;
+    private final ByteArrayPool bufferPool;
 
     private final Context context;
 
     @Nullable DownloadMonitor monitor;
+    @Nullable private volatile BandwidthScheduler bandwidthScheduler;
 
     OkDownload(Context context, DownloadDispatcher downloadDispatcher,
                CallbackDispatcher callbackDispatcher, DownloadStore store,
                DownloadConnection.Factory connectionFactory,
                DownloadOutputStream.Factory outputStreamFactory,
-               ProcessFileStrategy processFileStrategy, DownloadStrategy downloadStrategy) {
+               ProcessFileStrategy processFileStrategy, DownloadStrategy downloadStrategy,
+               DownloadExecutors downloadExecutors, ByteArrayPool bufferPool) {
         this.context = context;
         this.downloadDispatcher = downloadDispatcher;
         this.callbackDispatcher = callbackDispatcher;
@@ -62,6 +69,8 @@ public class OkDownload {
         this.outputStreamFactory = outputStreamFactory;
         this.processFileStrategy = processFileStrategy;
         this.downloadStrategy = downloadStrategy;
+        this.downloadExecutors = downloadExecutors;
+        this.bufferPool = bufferPool;
 
         this.downloadDispatcher.setDownloadStore(Util.createRemitDatabase(store));
     }
@@ -80,6 +89,10 @@ public class OkDownload {
 
     public DownloadStrategy downloadStrategy() { return downloadStrategy; }
 
+    public DownloadExecutors downloadExecutors() { return downloadExecutors; }
+
+    public ByteArrayPool bufferPool() { return bufferPool; }
+
     public Context context() { return this.context; }
 
     public void setMonitor(@Nullable DownloadMonitor monitor) {
@@ -90,6 +103,18 @@ public class OkDownload {
         return monitor;
     }
 
+    /**
+     * Set the scheduler to share the bandwidth across the tasks, {@code null} to fetch without
+     * any limit.
+     */
+    public void setBandwidthScheduler(@Nullable BandwidthScheduler bandwidthScheduler) {
+        this.bandwidthScheduler = bandwidthScheduler;
+    }
+
+    @Nullable public BandwidthScheduler getBandwidthScheduler() {
+        return bandwidthScheduler;
+    }
+
     public static OkDownload with() {
         if (singleton == null) {
             synchronized (OkDownload.class) {
@@ -125,7 +150,10 @@ public class OkDownload {
         private ProcessFileStrategy processFileStrategy;
         private DownloadStrategy downloadStrategy;
         private DownloadOutputStream.Factory outputStreamFactory;
+        private DownloadExecutors downloadExecutors;
+        private ByteArrayPool bufferPool;
         private DownloadMonitor monitor;
+        private BandwidthScheduler bandwidthScheduler;
         private final Context context;
 
         public Builder(@NonNull Context context) {
@@ -167,11 +195,26 @@ public class OkDownload {
             return this;
         }
 
+        public Builder downloadExecutors(DownloadExecutors downloadExecutors) {
+            this.downloadExecutors = downloadExecutors;
+            return this;
+        }
+
+        public Builder bufferPool(ByteArrayPool bufferPool) {
+            this.bufferPool = bufferPool;
+            return this;
+        }
+
         public Builder monitor(DownloadMonitor monitor) {
             this.monitor = monitor;
             return this;
         }
 
+        public Builder bandwidthScheduler(BandwidthScheduler bandwidthScheduler) {
+            this.bandwidthScheduler = bandwidthScheduler;
+            return this;
+        }
+
         public OkDownload build() {
             if (downloadDispatcher == null) {
                 downloadDispatcher = new DownloadDispatcher();
@@ -201,11 +244,20 @@ public class OkDownload {
                 downloadStrategy = new DownloadStrategy();
             }
 
+            if (downloadExecutors == null) {
+                downloadExecutors = new DownloadExecutors();
+            }
+
+            if (bufferPool == null) {
+                bufferPool = new ByteArrayPool();
+            }
+
             OkDownload okDownload = new OkDownload(context, downloadDispatcher, callbackDispatcher,
                     downloadStore, connectionFactory, outputStreamFactory, processFileStrategy,
-                    downloadStrategy);
+                    downloadStrategy, downloadExecutors, bufferPool);
 
             okDownload.setMonitor(monitor);
+            okDownload.setBandwidthScheduler(bandwidthScheduler);
 
             Util.d("OkDownload", "downloadStore[" + downloadStore + "] connectionFactory["
                     + connectionFactory);
@@ -26,12 +26,15 @@ import com.liulishuo.okdownload.core.cause.ResumeFailedCause;
 import com.liulishuo.okdownload.core.listener.assist.ListenerAssist;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 public class UnifiedListenerManager {
 
-    final SparseArray<ArrayList<DownloadListener>> realListenerMap;
+    // the listeners of each task are an immutable array, and the map is copied and swapped on
+    // each attach and detach, so the host listener dispatches without any lock or allocation.
+    volatile SparseArray<DownloadListener[]> realListenerMap;
     final List<Integer> autoRemoveListenerIdList = new ArrayList<>();
 
     public UnifiedListenerManager() {
@@ -39,7 +42,9 @@ public class UnifiedListenerManager {
     }
 
     public synchronized void detachListener(int id) {
-        realListenerMap.remove(id);
+        if (realListenerMap.get(id) == null) return;
+
+        putListeners(id, null);
     }
 
     public synchronized void addAutoRemoveListenersWhenTaskEnd(int id) {
@@ -52,50 +57,86 @@ public class UnifiedListenerManager {
     }
 
     public synchronized void detachListener(DownloadListener listener) {
-        final int count = realListenerMap.size();
-
-        final List<Integer> needRemoveKeyList = new ArrayList<>();
-        for (int i = 0; i < count; i++) {
-            final List<DownloadListener> listenerList = realListenerMap.valueAt(i);
-            if (listenerList == null) continue;
-            listenerList.remove(listener);
-
-            if (listenerList.isEmpty()) needRemoveKeyList.add(realListenerMap.keyAt(i));
+        SparseArray<DownloadListener[]> copied = null;
+        final SparseArray<DownloadListener[]> listenerMap = realListenerMap;
+        for (int i = 0; i < listenerMap.size(); i++) {
+            final DownloadListener[] listeners = listenerMap.valueAt(i);
+            final int index = indexOf(listeners, listener);
+            if (index < 0) continue;
+
+            if (copied == null) copied = listenerMap.clone();
+            final DownloadListener[] remaining = remove(listeners, index);
+            if (remaining == null) {
+                copied.remove(listenerMap.keyAt(i));
+            } else {
+                copied.put(listenerMap.keyAt(i), remaining);
+            }
         }
 
-        for (int key : needRemoveKeyList) {
-            realListenerMap.remove(key);
-        }
+        if (copied != null) realListenerMap = copied;
     }
 
     public synchronized boolean detachListener(@NonNull DownloadTask task,
                                                DownloadListener listener) {
         final int id = task.getId();
-        final List<DownloadListener> listenerList = realListenerMap.get(id);
+        final DownloadListener[] listeners = realListenerMap.get(id);
 
-        if (listenerList == null) return false;
+        final int index = indexOf(listeners, listener);
+        if (index < 0) return false;
 
-        boolean result = listenerList.remove(listener);
-        if (listenerList.isEmpty()) realListenerMap.remove(id);
-
-        return result;
+        putListeners(id, remove(listeners, index));
+        return true;
     }
 
     public synchronized void attachListener(@NonNull DownloadTask task,
                                             @NonNull DownloadListener listener) {
         final int id = task.getId();
-        ArrayList<DownloadListener> listenerList = realListenerMap.get(id);
-        if (listenerList == null) {
-            listenerList = new ArrayList<>();
-            realListenerMap.put(id, listenerList);
+        final DownloadListener[] listeners = realListenerMap.get(id);
+        if (indexOf(listeners, listener) >= 0) return;
+
+        final DownloadListener[] added;
+        if (listeners == null) {
+            added = new DownloadListener[]{listener};
+        } else {
+            added = Arrays.copyOf(listeners, listeners.length + 1);
+            added[listeners.length] = listener;
         }
+        putListeners(id, added);
 
-        if (!listenerList.contains(listener)) {
-            listenerList.add(listener);
-            if (listener instanceof ListenerAssist) {
-                ((ListenerAssist) listener).setAlwaysRecoverAssistModelIfNotSet(true);
-            }
+        if (listener instanceof ListenerAssist) {
+            ((ListenerAssist) listener).setAlwaysRecoverAssistModelIfNotSet(true);
+        }
+    }
+
+    // swap the map with the copied one whose listeners of the id are replaced, null to remove.
+    private void putListeners(int id, @Nullable DownloadListener[] listeners) {
+        final SparseArray<DownloadListener[]> copied = realListenerMap.clone();
+        if (listeners == null) {
+            copied.remove(id);
+        } else {
+            copied.put(id, listeners);
         }
+        realListenerMap = copied;
+    }
+
+    private static int indexOf(@Nullable DownloadListener[] listeners,
+                               DownloadListener listener) {
+        if (listeners == null) return -1;
+
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) return i;
+        }
+        return -1;
+    }
+
+    @Nullable private static DownloadListener[] remove(@NonNull DownloadListener[] listeners,
+                                                       int index) {
+        if (listeners.length == 1) return null;
+
+        final DownloadListener[] remaining = new DownloadListener[listeners.length - 1];
+        System.arraycopy(listeners, 0, remaining, 0, index);
+        System.arraycopy(listeners, index + 1, remaining, index, remaining.length - index);
+        return remaining;
     }
 
     /**
@@ -146,11 +187,10 @@ public class UnifiedListenerManager {
 
     final DownloadListener hostListener = new DownloadListener() {
         @Override public void taskStart(@NonNull DownloadTask task) {
-            final DownloadListener[] listeners = getThreadSafeArray(task, realListenerMap);
+            final DownloadListener[] listeners = realListenerMap.get(task.getId());
             if (listeners == null) return;
 
             for (final DownloadListener realOne : listeners) {
-                if (realOne == null) continue;
                 realOne.taskStart(task);
             }
         }
@@ -158,11 +198,10 @@ public class UnifiedListenerManager {
         @Override
         public void connectTrialStart(@NonNull DownloadTask task,
                                       @NonNull Map<String, List<String>> requestHeaderFields) {
-            final DownloadListener[] listeners = getThreadSafeArray(task, realListenerMap);
+            final DownloadListener[] listeners = realListenerMap.get(task.getId());
             if (listeners == null) return;
 
             for (final DownloadListener realOne : listeners) {
-                if (realOne == null) continue;
                 realOne.connectTrialStart(task, requestHeaderFields);
             }
         }
@@ -170,11 +209,10 @@ public class UnifiedListenerManager {
         @Override
         public void connectTrialEnd(@NonNull DownloadTask task, int responseCode,
                                     @NonNull Map<String, List<String>> responseHeaderFields) {
-            final DownloadListener[] listeners = getThreadSafeArray(task, realListenerMap);
+            final DownloadListener[] listeners = realListenerMap.get(task.getId());
             if (listeners == null) return;
 
             for (final DownloadListener realOne : listeners) {
-                if (realOne == null) continue;
                 realOne.connectTrialEnd(task, responseCode, responseHeaderFields);
             }
         }
@@ -182,11 +220,10 @@ public class UnifiedListenerManager {
         @Override
         public void downloadFromBeginning(@NonNull DownloadTask task, @NonNull BreakpointInfo info,
                                           @NonNull ResumeFailedCause cause) {
-            final DownloadListener[] listeners = getThreadSafeArray(task, realListenerMap);
+            final DownloadListener[] listeners = realListenerMap.get(task.getId());
             if (listeners == null) return;
 
             for (final DownloadListener realOne : listeners) {
-                if (realOne == null) continue;
                 realOne.downloadFromBeginning(task, info, cause);
             }
 
@@ -194,22 +231,20 @@ public class UnifiedListenerManager {
 
         @Override public void downloadFromBreakpoint(@NonNull DownloadTask task,
                                                      @NonNull BreakpointInfo info) {
-            final DownloadListener[] listeners = getThreadSafeArray(task, realListenerMap);
+            final DownloadListener[] listeners = realListenerMap.get(task.getId());
             if (listeners == null) return;
 
             for (final DownloadListener realOne : listeners) {
-                if (realOne == null) continue;
                 realOne.downloadFromBreakpoint(task, info);
             }
         }
 
         @Override public void connectStart(@NonNull DownloadTask task, int blockIndex,
                                            @NonNull Map<String, List<String>> requestHeaderFields) {
-            final DownloadListener[] listeners = getThreadSafeArray(task, realListenerMap);
+            final DownloadListener[] listeners = realListenerMap.get(task.getId());
             if (listeners == null) return;
 
             for (final DownloadListener realOne : listeners) {
-                if (realOne == null) continue;
                 realOne.connectStart(task, blockIndex, requestHeaderFields);
             }
         }
@@ -217,22 +252,20 @@ public class UnifiedListenerManager {
         @Override
         public void connectEnd(@NonNull DownloadTask task, int blockIndex, int responseCode,
                                @NonNull Map<String, List<String>> responseHeaderFields) {
-            final DownloadListener[] listeners = getThreadSafeArray(task, realListenerMap);
+            final DownloadListener[] listeners = realListenerMap.get(task.getId());
             if (listeners == null) return;
 
             for (final DownloadListener realOne : listeners) {
-                if (realOne == null) continue;
                 realOne.connectEnd(task, blockIndex, responseCode, responseHeaderFields);
             }
         }
 
         @Override
         public void fetchStart(@NonNull DownloadTask task, int blockIndex, long contentLength) {
-            final DownloadListener[] listeners = getThreadSafeArray(task, realListenerMap);
+            final DownloadListener[] listeners = realListenerMap.get(task.getId());
             if (listeners == null) return;
 
             for (final DownloadListener realOne : listeners) {
-                if (realOne == null) continue;
                 realOne.fetchStart(task, blockIndex, contentLength);
             }
 
@@ -240,22 +273,20 @@ public class UnifiedListenerManager {
 
         @Override
         public void fetchProgress(@NonNull DownloadTask task, int blockIndex, long increaseBytes) {
-            final DownloadListener[] listeners = getThreadSafeArray(task, realListenerMap);
+            final DownloadListener[] listeners = realListenerMap.get(task.getId());
             if (listeners == null) return;
 
             for (final DownloadListener realOne : listeners) {
-                if (realOne == null) continue;
                 realOne.fetchProgress(task, blockIndex, increaseBytes);
             }
         }
 
         @Override
         public void fetchEnd(@NonNull DownloadTask task, int blockIndex, long contentLength) {
-            final DownloadListener[] listeners = getThreadSafeArray(task, realListenerMap);
+            final DownloadListener[] listeners = realListenerMap.get(task.getId());
             if (listeners == null) return;
 
             for (final DownloadListener realOne : listeners) {
-                if (realOne == null) continue;
                 realOne.fetchEnd(task, blockIndex, contentLength);
             }
         }
@@ -263,28 +294,18 @@ public class UnifiedListenerManager {
         @Override
         public void taskEnd(@NonNull DownloadTask task, @NonNull EndCause cause,
                             @Nullable Exception realCause) {
-            final DownloadListener[] listeners = getThreadSafeArray(task, realListenerMap);
+            final DownloadListener[] listeners = realListenerMap.get(task.getId());
             if (listeners == null) return;
 
             for (final DownloadListener realOne : listeners) {
-                if (realOne == null) continue;
                 realOne.taskEnd(task, cause, realCause);
             }
 
-            if (autoRemoveListenerIdList.contains(task.getId())) {
-                detachListener(task.getId());
+            synchronized (UnifiedListenerManager.this) {
+                if (autoRemoveListenerIdList.contains(task.getId())) {
+                    detachListener(task.getId());
+                }
             }
         }
     };
-
-    private static DownloadListener[] getThreadSafeArray(DownloadTask task,
-                                                         SparseArray<ArrayList<DownloadListener>>
-                                                                 realListenerMap) {
-        final ArrayList<DownloadListener> listenerList = realListenerMap.get(task.getId());
-        if (listenerList == null || listenerList.size() <= 0) return null;
-
-        final DownloadListener[] copyList = new DownloadListener[listenerList.size()];
-        listenerList.toArray(copyList);
-        return copyList;
-    }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.breakpoint;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * The optional ability of a {@link DownloadStore} to persist the synced lengths in batch.
+ * <p>
+ * The store which doesn't implement this interface is called with
+ * {@link DownloadStore#onSyncToFilesystemSuccess(BreakpointInfo, int, long)} for each synced
+ * block instead.
+ */
+public interface BatchSyncStore {
+
+    /**
+     * Persist the increased lengths of all blocks synced to the filesystem at once, this is
+     * called one time for each sync of the task instead of one time for each block.
+     *
+     * @param increaseLengths the increased length of each block on its block index, the block
+     *                        with a length less than or equal to {@code 0} isn't changed.
+     */
+    void onSyncToFilesystemSuccess(@NonNull BreakpointInfo info, @NonNull long[] increaseLengths)
+            throws IOException;
+
+    /**
+     * Begin the batch of the synced lengths of several tasks which are synced together, all
+     * {@link #onSyncToFilesystemSuccess(BreakpointInfo, long[])} invoked before
+     * {@link #endSyncBatch()} on the same thread can be persisted in one transaction.
+     */
+    void beginSyncBatch();
+
+    /**
+     * End the batch began with {@link #beginSyncBatch()}, it is invoked even if some of the
+     * tasks in this batch failed to persist.
+     *
+     * @throws IOException if the batch can't be committed.
+     */
+    void endSyncBatch() throws IOException;
+}
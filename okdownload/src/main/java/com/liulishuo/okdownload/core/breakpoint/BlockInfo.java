@@ -25,8 +25,9 @@ import static com.liulishuo.okdownload.core.Util.CHUNKED_CONTENT_LENGTH;
 public class BlockInfo {
     @IntRange(from = 0)
     private final long startOffset;
+    // only shrunk when the tail of this block is split to another block.
     @IntRange(from = 0)
-    private final long contentLength;
+    private volatile long contentLength;
     private final AtomicLong currentOffset;
 
     public BlockInfo(long startOffset, long contentLength) {
@@ -68,6 +69,14 @@ public class BlockInfo {
         this.currentOffset.addAndGet(increaseLength);
     }
 
+    void shrinkContentLength(@IntRange(from = 0) long contentLength) {
+        if (contentLength < currentOffset.get() || contentLength > this.contentLength) {
+            throw new IllegalArgumentException("Can't shrink " + this + " to " + contentLength);
+        }
+
+        this.contentLength = contentLength;
+    }
+
     public void resetBlock() {
         this.currentOffset.set(0);
     }
@@ -24,8 +24,8 @@ import com.liulishuo.okdownload.core.Util;
 import com.liulishuo.okdownload.core.download.DownloadStrategy;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class BreakpointInfo {
     final int id;
@@ -45,7 +45,7 @@ public class BreakpointInfo {
         this.id = id;
         this.url = url;
         this.parentFile = parentFile;
-        this.blockInfoList = new ArrayList<>();
+        this.blockInfoList = new CopyOnWriteArrayList<>();
 
         if (Util.isEmpty(filename)) {
             filenameHolder = new DownloadStrategy.FilenameHolder();
@@ -62,7 +62,7 @@ public class BreakpointInfo {
         this.id = id;
         this.url = url;
         this.parentFile = parentFile;
-        this.blockInfoList = new ArrayList<>();
+        this.blockInfoList = new CopyOnWriteArrayList<>();
 
         if (Util.isEmpty(filename)) {
             filenameHolder = new DownloadStrategy.FilenameHolder();
@@ -85,6 +85,28 @@ public class BreakpointInfo {
         this.blockInfoList.add(blockInfo);
     }
 
+    /**
+     * Split the range of the block on {@code blockIndex} from {@code splitOffset} to a new block
+     * appended to this info.
+     * <p>
+     * The new block is added before the original block is shrunk, so this info never misses the
+     * split range even it is persisted during splitting.
+     *
+     * @return the index of the new block.
+     */
+    public int splitBlock(int blockIndex, long splitOffset) {
+        final BlockInfo blockInfo = blockInfoList.get(blockIndex);
+        final long rangeRight = blockInfo.getRangeRight();
+        if (splitOffset <= blockInfo.getRangeLeft() || splitOffset > rangeRight) {
+            throw new IllegalArgumentException("Can't split " + blockInfo + " from "
+                    + splitOffset);
+        }
+
+        blockInfoList.add(new BlockInfo(splitOffset, rangeRight + 1 - splitOffset));
+        blockInfo.shrinkContentLength(splitOffset - blockInfo.getStartOffset());
+        return blockInfoList.size() - 1;
+    }
+
     public boolean isChunked() {
         return this.chunked;
     }
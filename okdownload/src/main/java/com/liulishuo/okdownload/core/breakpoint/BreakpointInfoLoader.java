@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.breakpoint;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Load the persisted breakpoint infos on demand, so {@link BreakpointStoreOnCache} doesn't have
+ * to hold all of them in memory.
+ */
+public interface BreakpointInfoLoader {
+
+    /**
+     * @return the ids of all persisted infos, they are loaded once to allocate the new ids.
+     */
+    @NonNull int[] loadIds();
+
+    /**
+     * @return the persisted info with its blocks, {@code null} if it doesn't exist.
+     */
+    @Nullable BreakpointInfo load(int id);
+
+    /**
+     * @return the persisted infos with their blocks whose url is the {@code url} and parent path
+     * is the {@code parentFile}.
+     */
+    @NonNull List<BreakpointInfo> loadSameFrom(@NonNull String url, @NonNull File parentFile);
+
+    /**
+     * @return the persisted filename from the response of the {@code url}, {@code null} if it
+     * doesn't exist.
+     */
+    @Nullable String loadResponseFilename(@NonNull String url);
+}
@@ -18,6 +18,7 @@ package com.liulishuo.okdownload.core.breakpoint;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.LruCache;
 import android.util.SparseArray;
 
 import com.liulishuo.okdownload.DownloadTask;
@@ -26,20 +27,35 @@ import com.liulishuo.okdownload.core.cause.EndCause;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 
-public class BreakpointStoreOnCache implements DownloadStore {
+public class BreakpointStoreOnCache implements DownloadStore, BatchSyncStore {
     private final SparseArray<BreakpointInfo> storedInfos;
     private final HashMap<String, String> responseFilenameMap;
 
     @NonNull private final KeyToIdMap keyToIdMap;
 
     private final SparseArray<IdentifiedTask> unStoredTasks;
-    private final List<Integer> sortedOccupiedIds;
+    private final IdAllocator idAllocator;
     private final List<Integer> fileDirtyList;
 
+    // the ids of the stored infos by their url and parent path, and the ids of the unstored tasks
+    // by their url, so the identity of the task is resolved without comparing with all of them.
+    @NonNull private final IdentityIndex storedIndex = new IdentityIndex();
+    @NonNull private final IdentityIndex unStoredIndex = new IdentityIndex();
+
+    // only for the store which loads the infos on demand, the loaded infos which aren't started
+    // yet are cached on the loadedInfos, and the removedIds are the removed infos whose
+    // persisted ones may not be removed yet.
+    @Nullable private final BreakpointInfoLoader loader;
+    @Nullable private final LruCache<Integer, BreakpointInfo> loadedInfos;
+    @Nullable private final BitSet removedIds;
+
+    // the ids of the started tasks which aren't ended yet.
+    @NonNull private final BitSet startedIds = new BitSet();
+
     public BreakpointStoreOnCache() {
         this(new SparseArray<BreakpointInfo>(), new ArrayList<Integer>(),
                 new HashMap<String, String>());
@@ -49,37 +65,106 @@ public class BreakpointStoreOnCache implements DownloadStore {
                            List<Integer> fileDirtyList,
                            HashMap<String, String> responseFilenameMap,
                            SparseArray<IdentifiedTask> unStoredTasks,
-                           List<Integer> sortedOccupiedIds,
+                           IdAllocator idAllocator,
                            KeyToIdMap keyToIdMap) {
+        this(storedInfos, fileDirtyList, responseFilenameMap, unStoredTasks, idAllocator,
+                keyToIdMap, null, 0);
+    }
+
+    BreakpointStoreOnCache(SparseArray<BreakpointInfo> storedInfos,
+                           List<Integer> fileDirtyList,
+                           HashMap<String, String> responseFilenameMap,
+                           SparseArray<IdentifiedTask> unStoredTasks,
+                           IdAllocator idAllocator,
+                           KeyToIdMap keyToIdMap,
+                           @Nullable BreakpointInfoLoader loader,
+                           int maxLoadedInfoCount) {
         this.unStoredTasks = unStoredTasks;
         this.fileDirtyList = fileDirtyList;
         this.storedInfos = storedInfos;
         this.responseFilenameMap = responseFilenameMap;
-        this.sortedOccupiedIds = sortedOccupiedIds;
+        this.idAllocator = idAllocator;
         this.keyToIdMap = keyToIdMap;
+
+        this.loader = loader;
+        if (loader != null) {
+            if (maxLoadedInfoCount <= 0) {
+                throw new IllegalArgumentException("The max loaded info count "
+                        + maxLoadedInfoCount + " must be positive");
+            }
+            this.loadedInfos = new LruCache<>(maxLoadedInfoCount);
+            this.removedIds = new BitSet();
+        } else {
+            this.loadedInfos = null;
+            this.removedIds = null;
+        }
+
+        buildIndex();
     }
 
     public BreakpointStoreOnCache(SparseArray<BreakpointInfo> storedInfos,
                                   List<Integer> fileDirtyList,
                                   HashMap<String, String> responseFilenameMap) {
-        this.unStoredTasks = new SparseArray<>();
-        this.storedInfos = storedInfos;
-        this.fileDirtyList = fileDirtyList;
-        this.responseFilenameMap = responseFilenameMap;
-        this.keyToIdMap = new KeyToIdMap();
+        this(storedInfos, fileDirtyList, responseFilenameMap, new SparseArray<IdentifiedTask>(),
+                new IdAllocator(), new KeyToIdMap());
 
         final int count = storedInfos.size();
-
-        sortedOccupiedIds = new ArrayList<>(count);
         for (int i = 0; i < count; i++) {
-            sortedOccupiedIds.add(storedInfos.valueAt(i).id);
+            idAllocator.occupy(storedInfos.valueAt(i).id);
+        }
+    }
+
+    /**
+     * Create the store which loads the infos from the {@code loader} on demand instead of holding
+     * all of them in memory, only the ids of the infos are loaded up front.
+     * <p>
+     * At most {@code maxLoadedInfoCount} loaded infos are cached, besides them the infos of the
+     * started tasks are held until they are removed, because their progress may be only in
+     * memory.
+     */
+    public BreakpointStoreOnCache(@NonNull BreakpointInfoLoader loader, int maxLoadedInfoCount,
+                                  List<Integer> fileDirtyList) {
+        this(new SparseArray<BreakpointInfo>(), fileDirtyList, new HashMap<String, String>(),
+                new SparseArray<IdentifiedTask>(), new IdAllocator(), new KeyToIdMap(), loader,
+                maxLoadedInfoCount);
+
+        for (int id : loader.loadIds()) {
+            idAllocator.occupy(id);
+        }
+    }
+
+    private void buildIndex() {
+        for (int i = 0; i < storedInfos.size(); i++) {
+            addStoredIndex(storedInfos.keyAt(i), storedInfos.valueAt(i));
+        }
+        for (int i = 0; i < unStoredTasks.size(); i++) {
+            addUnStoredIndex(unStoredTasks.keyAt(i), unStoredTasks.valueAt(i));
         }
-        Collections.sort(sortedOccupiedIds);
     }
 
     @Override
     public BreakpointInfo get(int id) {
-        return storedInfos.get(id);
+        final BreakpointInfo info = storedInfos.get(id);
+        if (info != null || loader == null) return info;
+
+        return getLoaded(id);
+    }
+
+    @Nullable private synchronized BreakpointInfo getLoaded(int id) {
+        final BreakpointInfo storedInfo = storedInfos.get(id);
+        if (storedInfo != null) return storedInfo;
+        if (isRemoved(id)) return null;
+
+        BreakpointInfo info = loadedInfos.get(id);
+        if (info == null) {
+            info = loader.load(id);
+            if (info != null) loadedInfos.put(id, info);
+        }
+        return info;
+    }
+
+    private boolean isRemoved(int id) {
+        return id >= 0 && removedIds.get(id);
     }
 
     @NonNull @Override
@@ -89,13 +174,32 @@ public class BreakpointStoreOnCache implements DownloadStore {
         BreakpointInfo newInfo = new BreakpointInfo(id, task.getUrl(), task.getParentFile(),
                 task.getFilename());
         synchronized (this) {
+            removeStoredIndex(id, storedInfos.get(id));
             storedInfos.put(id, newInfo);
+            addStoredIndex(id, newInfo);
+
+            removeUnStoredIndex(id, unStoredTasks.get(id));
             unStoredTasks.remove(id);
+
+            if (loadedInfos != null) loadedInfos.remove(id);
         }
         return newInfo;
     }
 
     @Override public void onTaskStart(int id) {
+        synchronized (this) {
+            if (id >= 0) startedIds.set(id);
+
+            // the started one is held on the stored infos, so it's never evicted.
+            if (loader == null || storedInfos.get(id) != null || isRemoved(id)) return;
+
+            BreakpointInfo info = loadedInfos.remove(id);
+            if (info == null) info = loader.load(id);
+            if (info == null) return;
+
+            storedInfos.put(id, info);
+            addStoredIndex(id, info);
+        }
     }
 
     @Override public void onSyncToFilesystemSuccess(@NonNull BreakpointInfo info, int blockIndex,
@@ -106,6 +210,26 @@ public class BreakpointStoreOnCache implements DownloadStore {
         onCacheOne.getBlock(blockIndex).increaseCurrentOffset(increaseLength);
     }
 
+    @Override public void onSyncToFilesystemSuccess(@NonNull BreakpointInfo info,
+                                                    @NonNull long[] increaseLengths)
+            throws IOException {
+        final BreakpointInfo onCacheOne = this.storedInfos.get(info.id);
+        if (info != onCacheOne) throw new IOException("Info not on store!");
+
+        for (int blockIndex = 0; blockIndex < increaseLengths.length; blockIndex++) {
+            final long increaseLength = increaseLengths[blockIndex];
+            if (increaseLength <= 0) continue;
+            onCacheOne.getBlock(blockIndex).increaseCurrentOffset(increaseLength);
+        }
+    }
+
+    @Override public void beginSyncBatch() {
+        // nothing to batch on the cache.
+    }
+
+    @Override public void endSyncBatch() {
+    }
+
     @Override
     public boolean update(@NonNull BreakpointInfo breakpointInfo) {
         final String filename = breakpointInfo.getFilename();
@@ -119,16 +243,25 @@ public class BreakpointStoreOnCache implements DownloadStore {
 
             // replace
             synchronized (this) {
-                this.storedInfos.put(breakpointInfo.id, breakpointInfo.copy());
+                final BreakpointInfo copied = breakpointInfo.copy();
+                removeStoredIndex(breakpointInfo.id, this.storedInfos.get(breakpointInfo.id));
+                this.storedInfos.put(breakpointInfo.id, copied);
+                addStoredIndex(breakpointInfo.id, copied);
             }
             return true;
         }
 
+        // the loaded one is outdated.
+        if (loadedInfos != null) loadedInfos.remove(breakpointInfo.id);
         return false;
     }
 
     @Override
     public void onTaskEnd(int id, @NonNull EndCause cause, @Nullable Exception exception) {
+        synchronized (this) {
+            if (id >= 0) startedIds.clear(id);
+        }
+
         if (cause == EndCause.COMPLETED) {
             remove(id);
         }
@@ -158,9 +291,33 @@ public class BreakpointStoreOnCache implements DownloadStore {
     }
 
     @Override public synchronized void remove(int id) {
+        removeStoredIndex(id, storedInfos.get(id));
         storedInfos.remove(id);
-        if (unStoredTasks.get(id) == null) sortedOccupiedIds.remove(Integer.valueOf(id));
+        if (unStoredTasks.get(id) == null) idAllocator.release(id);
         keyToIdMap.remove(id);
+
+        if (loader != null) {
+            loadedInfos.remove(id);
+            if (id >= 0) removedIds.set(id);
+        }
+    }
+
+    synchronized boolean isStarted(int id) {
+        return id >= 0 && startedIds.get(id);
+    }
+
+    /**
+     * Discard the info of the {@code id} without releasing its id, because the tasks with the id
+     * may be still alive, and the new info of them is created with the same id.
+     */
+    synchronized void discard(int id) {
+        removeStoredIndex(id, storedInfos.get(id));
+        storedInfos.remove(id);
+
+        if (loader != null) {
+            loadedInfos.remove(id);
+            if (id >= 0) removedIds.set(id);
+        }
     }
 
     @Override
@@ -168,23 +325,35 @@ public class BreakpointStoreOnCache implements DownloadStore {
         final Integer candidate = keyToIdMap.get(task);
         if (candidate != null) return candidate;
 
-        final int size = storedInfos.size();
-        for (int i = 0; i < size; i++) {
-            final BreakpointInfo info = storedInfos.valueAt(i);
-            if (info != null && info.isSameFrom(task)) {
-                return info.id;
+        final List<Integer> storedIds = storedIndex.get(
+                IdentityIndex.generateKey(task.getUrl(), task.getParentFile()));
+        if (storedIds != null) {
+            for (Integer storedId : storedIds) {
+                final BreakpointInfo info = storedInfos.get(storedId);
+                if (info != null && info.isSameFrom(task)) {
+                    return info.id;
+                }
             }
         }
 
-        final int unStoredSize = unStoredTasks.size();
-        for (int i = 0; i < unStoredSize; i++) {
-            final IdentifiedTask another = unStoredTasks.valueAt(i);
-            if (another == null) continue;
-            if (another.compareIgnoreId(task)) return another.getId();
+        if (loader != null) {
+            final BreakpointInfo loadedInfo = findLoadedSameFrom(task, null);
+            if (loadedInfo != null) return loadedInfo.id;
+        }
+
+        final List<Integer> unStoredIds = unStoredIndex.get(String.valueOf(task.getUrl()));
+        if (unStoredIds != null) {
+            for (Integer unStoredId : unStoredIds) {
+                final IdentifiedTask another = unStoredTasks.get(unStoredId);
+                if (another == null) continue;
+                if (another.compareIgnoreId(task)) return another.getId();
+            }
         }
 
         final int id = allocateId();
-        unStoredTasks.put(id, task.mock(id));
+        final IdentifiedTask unStoredTask = task.mock(id);
+        unStoredTasks.put(id, unStoredTask);
+        addUnStoredIndex(id, unStoredTask);
         keyToIdMap.add(task, id);
         return id;
     }
@@ -193,13 +362,19 @@ public class BreakpointStoreOnCache implements DownloadStore {
     @Override
     public BreakpointInfo findAnotherInfoFromCompare(@NonNull DownloadTask task,
                                                      @NonNull BreakpointInfo ignored) {
-        final SparseArray<BreakpointInfo> clonedMap;
+        final List<BreakpointInfo> candidates = new ArrayList<>();
         synchronized (this) {
-            clonedMap = storedInfos.clone();
+            final List<Integer> storedIds = storedIndex.get(
+                    IdentityIndex.generateKey(task.getUrl(), task.getParentFile()));
+            if (storedIds != null) {
+                for (Integer storedId : storedIds) {
+                    final BreakpointInfo info = storedInfos.get(storedId);
+                    if (info != null) candidates.add(info);
+                }
+            }
         }
-        final int size = clonedMap.size();
-        for (int i = 0; i < size; i++) {
-            final BreakpointInfo info = clonedMap.valueAt(i);
+
+        for (BreakpointInfo info : candidates) {
             if (info == ignored) continue;
 
             if (info.isSameFrom(task)) {
@@ -207,70 +382,81 @@ public class BreakpointStoreOnCache implements DownloadStore {
             }
         }
 
+        if (loader != null) return findLoadedSameFrom(task, ignored);
         return null;
     }
 
-    @Override public boolean isOnlyMemoryCache() {
-        return true;
-    }
+    // the persisted ones which aren't on the stored infos.
+    @Nullable private synchronized BreakpointInfo findLoadedSameFrom(
+            @NonNull DownloadTask task, @Nullable BreakpointInfo ignored) {
+        final List<BreakpointInfo> infoList = loader.loadSameFrom(task.getUrl(),
+                task.getParentFile());
+        for (BreakpointInfo info : infoList) {
+            final int id = info.id;
+            if (storedInfos.get(id) != null || isRemoved(id)) continue;
+
+            BreakpointInfo loadedInfo = loadedInfos.get(id);
+            if (loadedInfo == null) {
+                loadedInfo = info;
+                loadedInfos.put(id, info);
+            }
 
-    @Override public boolean isFileDirty(int id) {
-        return fileDirtyList.contains(id);
-    }
+            if (loadedInfo == ignored) continue;
+            if (loadedInfo.isSameFrom(task)) return loadedInfo;
+        }
 
-    @Nullable @Override public String getResponseFilename(String url) {
-        return responseFilenameMap.get(url);
+        return null;
     }
 
-    public static final int FIRST_ID = 1;
+    private void addStoredIndex(int id, @Nullable BreakpointInfo info) {
+        if (info == null) return;
+        storedIndex.add(IdentityIndex.generateKey(info.getUrl(), info.parentFile), id);
+    }
 
-    synchronized int allocateId() {
-        int newId = 0;
+    private void removeStoredIndex(int id, @Nullable BreakpointInfo info) {
+        if (info == null) return;
+        storedIndex.remove(IdentityIndex.generateKey(info.getUrl(), info.parentFile), id);
+    }
 
-        int index = 0;
+    // the task isn't compared by its parent path only, the same provided path is the same task
+    // too, so the unstored tasks are indexed by their url.
+    private void addUnStoredIndex(int id, @Nullable IdentifiedTask task) {
+        if (task == null) return;
+        unStoredIndex.add(String.valueOf(task.getUrl()), id);
+    }
 
-        int preId = 0;
-        int curId;
+    private void removeUnStoredIndex(int id, @Nullable IdentifiedTask task) {
+        if (task == null) return;
+        unStoredIndex.remove(String.valueOf(task.getUrl()), id);
+    }
 
-        for (int i = 0; i < sortedOccupiedIds.size(); i++) {
-            final Integer curIdObj = sortedOccupiedIds.get(i);
-            if (curIdObj == null) {
-                index = i;
-                newId = preId + 1;
-                break;
-            }
+    @Override public boolean isOnlyMemoryCache() {
+        return true;
+    }
 
-            curId = curIdObj;
-            if (preId == 0) {
-                if (curId != FIRST_ID) {
-                    newId = FIRST_ID;
-                    index = 0;
-                    break;
-                }
-                preId = curId;
-                continue;
-            }
+    @Override public boolean isFileDirty(int id) {
+        return fileDirtyList.contains(id);
+    }
 
-            if (curId != preId + 1) {
-                newId = preId + 1;
-                index = i;
-                break;
-            }
+    @Nullable @Override public String getResponseFilename(String url) {
+        final String filename = responseFilenameMap.get(url);
+        if (filename != null || loader == null || url == null) return filename;
 
-            preId = curId;
-        }
+        return loadResponseFilename(url);
+    }
 
-        if (newId == 0) {
-            if (sortedOccupiedIds.isEmpty()) {
-                newId = FIRST_ID;
-            } else {
-                newId = sortedOccupiedIds.get(sortedOccupiedIds.size() - 1) + 1;
-                index = sortedOccupiedIds.size();
-            }
+    @Nullable private synchronized String loadResponseFilename(@NonNull String url) {
+        String filename = responseFilenameMap.get(url);
+        if (filename == null) {
+            filename = loader.loadResponseFilename(url);
+            if (filename != null) responseFilenameMap.put(url, filename);
         }
+        return filename;
+    }
 
-        sortedOccupiedIds.add(index, newId);
+    public static final int FIRST_ID = 1;
 
-        return newId;
+    synchronized int allocateId() {
+        return idAllocator.allocate();
     }
 }
\ No newline at end of file
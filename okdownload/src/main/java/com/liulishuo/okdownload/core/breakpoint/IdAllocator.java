@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.breakpoint;
+
+import java.util.BitSet;
+
+/**
+ * Allocate the lowest free id from {@link BreakpointStoreOnCache#FIRST_ID}.
+ * <p>
+ * The occupied ids are bits on a bitset, and the ids below the next free hint are all occupied,
+ * so the allocation only scans from the hint. It isn't thread-safe.
+ */
+class IdAllocator {
+
+    private final BitSet occupiedIds = new BitSet();
+    private int nextFreeHint = BreakpointStoreOnCache.FIRST_ID;
+
+    /**
+     * Mark the {@code id} restored from the store as occupied.
+     */
+    void occupy(int id) {
+        if (id < BreakpointStoreOnCache.FIRST_ID) return;
+
+        occupiedIds.set(id);
+    }
+
+    int allocate() {
+        final int id = occupiedIds.nextClearBit(nextFreeHint);
+        occupiedIds.set(id);
+        nextFreeHint = id + 1;
+        return id;
+    }
+
+    void release(int id) {
+        if (id < BreakpointStoreOnCache.FIRST_ID) return;
+
+        occupiedIds.clear(id);
+        if (id < nextFreeHint) nextFreeHint = id;
+    }
+
+    boolean isOccupied(int id) {
+        return id >= BreakpointStoreOnCache.FIRST_ID && occupiedIds.get(id);
+    }
+
+    int getOccupiedCount() {
+        return occupiedIds.cardinality();
+    }
+}
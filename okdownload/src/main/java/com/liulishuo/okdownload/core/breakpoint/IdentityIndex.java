@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.breakpoint;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The ids indexed by the identity of the tasks, such as their url and parent path.
+ * <p>
+ * The key is only a hint to narrow down the candidates, so the candidates still have to be
+ * compared with the task. The ids of each key are in ascending order.
+ */
+class IdentityIndex {
+
+    private static final char SEPARATOR = '\u0000';
+
+    @NonNull private final HashMap<String, List<Integer>> keyToIdsMap;
+
+    IdentityIndex() {
+        this(new HashMap<String, List<Integer>>());
+    }
+
+    IdentityIndex(@NonNull HashMap<String, List<Integer>> keyToIdsMap) {
+        this.keyToIdsMap = keyToIdsMap;
+    }
+
+    void add(@NonNull String key, int id) {
+        List<Integer> ids = keyToIdsMap.get(key);
+        if (ids == null) {
+            ids = new ArrayList<>(1);
+            keyToIdsMap.put(key, ids);
+        }
+
+        final int index = Collections.binarySearch(ids, id);
+        if (index < 0) ids.add(-index - 1, id);
+    }
+
+    void remove(@NonNull String key, int id) {
+        final List<Integer> ids = keyToIdsMap.get(key);
+        if (ids == null) return;
+
+        ids.remove(Integer.valueOf(id));
+        if (ids.isEmpty()) keyToIdsMap.remove(key);
+    }
+
+    @Nullable List<Integer> get(@NonNull String key) {
+        return keyToIdsMap.get(key);
+    }
+
+    int keyCount() {
+        return keyToIdsMap.size();
+    }
+
+    static String generateKey(String url, File path) {
+        return url + SEPARATOR + path;
+    }
+}
@@ -21,6 +21,7 @@ import android.support.annotation.Nullable;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.ProtocolException;
 import java.net.URLConnection;
 import java.util.List;
@@ -103,6 +104,30 @@ public interface DownloadConnection {
         String getRedirectLocation();
     }
 
+    /**
+     * The optional capacity of the {@link Connected}, whose response body can be transferred from
+     * the buffer of the connection to the file directly, instead of being copied to the read buffer
+     * through the {@link Connected#getInputStream()} first.
+     * <p>
+     * It shares the same response body with the {@link Connected#getInputStream()}.
+     */
+    interface Transferable {
+        /**
+         * Block until at least one byte of the response body is buffered.
+         *
+         * @param byteCount the maximum count of the bytes to transfer at once.
+         * @return the count of the buffered bytes which can be transferred, not more than the
+         * {@code byteCount}; {@code -1} if the response body is exhausted.
+         */
+        int request(int byteCount) throws IOException;
+
+        /**
+         * Transfer the {@code byteCount} bytes which are buffered on {@link #request(int)} to the
+         * {@code out}, they are consumed from the response body.
+         */
+        void transferTo(@NonNull OutputStream out, int byteCount) throws IOException;
+    }
+
     interface Factory {
         DownloadConnection create(String url) throws IOException;
     }
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.dispatcher;
+
+import android.support.annotation.NonNull;
+
+import com.liulishuo.okdownload.DownloadTask;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Share the bandwidth across the fetching tasks with the weights derived from their priorities.
+ * <p>
+ * Each task has its own token bucket whose rate is the weighted share of the
+ * {@code maxBytesPerSecond} among the active tasks, and the task is paced once the bytes it
+ * fetched are over its bucket. The share over the cap of a task is redistributed to the others,
+ * and the task which doesn't fetch anything for the {@code idleMillis} isn't active anymore, so
+ * its share is redistributed too.
+ * <p>
+ * You can provide it on
+ * {@link com.liulishuo.okdownload.OkDownload.Builder#bandwidthScheduler(BandwidthScheduler)}.
+ */
+public class BandwidthScheduler {
+
+    private static final long DEFAULT_IDLE_MILLIS = 500;
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long maxBytesPerSecond;
+    private final long taskMaxBytesPerSecond;
+    private final long idleNanos;
+
+    // guarded by this scheduler.
+    private final Map<Integer, TaskBucket> bucketMap = new HashMap<>();
+    private final List<TaskBucket> activeBuckets = new ArrayList<>();
+
+    /**
+     * @param maxBytesPerSecond     the bytes per second of all tasks, {@code 0} for unlimited,
+     *                              then the tasks are only limited by their own caps.
+     * @param taskMaxBytesPerSecond the bytes per second of each task, {@code 0} for unlimited.
+     */
+    public BandwidthScheduler(long maxBytesPerSecond, long taskMaxBytesPerSecond) {
+        this(maxBytesPerSecond, taskMaxBytesPerSecond, DEFAULT_IDLE_MILLIS);
+    }
+
+    public BandwidthScheduler(long maxBytesPerSecond, long taskMaxBytesPerSecond,
+                              long idleMillis) {
+        if (maxBytesPerSecond < 0 || taskMaxBytesPerSecond < 0) {
+            throw new IllegalArgumentException("The max bytes per second can't be negative");
+        }
+        if (idleMillis <= 0) {
+            throw new IllegalArgumentException("The idle millis " + idleMillis
+                    + " must be positive");
+        }
+
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.taskMaxBytesPerSecond = taskMaxBytesPerSecond;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+    }
+
+    public long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    public long getTaskMaxBytesPerSecond() {
+        return taskMaxBytesPerSecond;
+    }
+
+    /**
+     * The weight of the {@code task} to share the bandwidth, the task with the higher priority
+     * shares more. The default weight is {@code priority + 1} and at least {@code 1}.
+     */
+    protected int weightOf(@NonNull DownloadTask task) {
+        return Math.max(task.getPriority(), 0) + 1;
+    }
+
+    /**
+     * The cap of the bytes per second of the {@code task}, {@code 0} for unlimited.
+     */
+    protected long maxBytesPerSecondOf(@NonNull DownloadTask task) {
+        return taskMaxBytesPerSecond;
+    }
+
+    /**
+     * The {@code task} has fetched the {@code fetchedBytes}, wait until they are within its
+     * bucket.
+     */
+    public void consume(@NonNull DownloadTask task, int fetchedBytes)
+            throws InterruptedException {
+        final long waitNanos = reserve(task, fetchedBytes);
+        if (waitNanos > 0) sleep(waitNanos);
+    }
+
+    /**
+     * @return the nanoseconds to wait until the {@code fetchedBytes} are within the bucket of the
+     * {@code task}.
+     */
+    synchronized long reserve(@NonNull DownloadTask task, int fetchedBytes) {
+        final long now = nowNanos();
+        expireIdleBuckets(now);
+        final TaskBucket bucket = obtainBucket(task, now);
+
+        final long bytesPerSecond = rateOf(bucket);
+        if (bytesPerSecond <= 0) {
+            // unlimited.
+            bucket.freeNanos = now;
+            return 0;
+        }
+
+        // the idle time isn't saved as the burst.
+        final long start = Math.max(bucket.freeNanos, now);
+        bucket.freeNanos = start + fetchedBytes * NANOS_PER_SECOND / bytesPerSecond;
+        return bucket.freeNanos - now;
+    }
+
+    /**
+     * @return the bytes per second the {@code task} shares currently, {@code 0} for unlimited.
+     */
+    synchronized long getBytesPerSecond(@NonNull DownloadTask task) {
+        final long now = nowNanos();
+        expireIdleBuckets(now);
+        final TaskBucket bucket = bucketMap.get(task.getId());
+        if (bucket == null) return 0;
+
+        return rateOf(bucket);
+    }
+
+    synchronized int getActiveTaskCount() {
+        expireIdleBuckets(nowNanos());
+        return bucketMap.size();
+    }
+
+    private TaskBucket obtainBucket(@NonNull DownloadTask task, long now) {
+        TaskBucket bucket = bucketMap.get(task.getId());
+        if (bucket == null) {
+            bucket = new TaskBucket(weightOf(task), maxBytesPerSecondOf(task), now);
+            bucketMap.put(task.getId(), bucket);
+        }
+        bucket.lastFetchNanos = now;
+        return bucket;
+    }
+
+    private void expireIdleBuckets(long now) {
+        final Iterator<TaskBucket> iterator = bucketMap.values().iterator();
+        while (iterator.hasNext()) {
+            final TaskBucket bucket = iterator.next();
+            // the task which is still paced is active.
+            if (now - Math.max(bucket.lastFetchNanos, bucket.freeNanos) > idleNanos) {
+                iterator.remove();
+            }
+        }
+    }
+
+    // the max bytes per second is filled by the weights of the active tasks, the task whose cap is
+    // less than its share takes its cap and the remaining is shared by the others.
+    private long rateOf(@NonNull TaskBucket bucket) {
+        if (maxBytesPerSecond <= 0) return bucket.maxBytesPerSecond;
+
+        activeBuckets.clear();
+        activeBuckets.addAll(bucketMap.values());
+
+        long remainingBytesPerSecond = maxBytesPerSecond;
+        long remainingWeight = 0;
+        for (TaskBucket activeBucket : activeBuckets) {
+            remainingWeight += activeBucket.weight;
+        }
+
+        boolean capped = true;
+        while (capped && !activeBuckets.isEmpty()) {
+            capped = false;
+            final Iterator<TaskBucket> iterator = activeBuckets.iterator();
+            while (iterator.hasNext()) {
+                final TaskBucket activeBucket = iterator.next();
+                final long cap = activeBucket.maxBytesPerSecond;
+                if (cap <= 0
+                        || cap >= remainingBytesPerSecond * activeBucket.weight / remainingWeight) {
+                    continue;
+                }
+
+                if (activeBucket == bucket) return cap;
+                remainingBytesPerSecond -= cap;
+                remainingWeight -= activeBucket.weight;
+                iterator.remove();
+                capped = true;
+            }
+        }
+
+        // at least one byte per second, so it isn't mistaken as unlimited.
+        return Math.max(remainingBytesPerSecond * bucket.weight / remainingWeight, 1);
+    }
+
+    // convenient for unit-test.
+    long nowNanos() {
+        return System.nanoTime();
+    }
+
+    // convenient for unit-test.
+    void sleep(long nanos) throws InterruptedException {
+        TimeUnit.NANOSECONDS.sleep(nanos);
+    }
+
+    @Override public String toString() {
+        return "BandwidthScheduler[max " + maxBytesPerSecond + "B/s, task max "
+                + taskMaxBytesPerSecond + "B/s]";
+    }
+
+    private static class TaskBucket {
+        final int weight;
+        final long maxBytesPerSecond;
+
+        // the time when the fetched bytes are all within the bucket.
+        long freeNanos;
+        long lastFetchNanos;
+
+        TaskBucket(int weight, long maxBytesPerSecond, long now) {
+            this.weight = weight;
+            this.maxBytesPerSecond = maxBytesPerSecond;
+            this.freeNanos = now;
+            this.lastFetchNanos = now;
+        }
+    }
+}
@@ -40,6 +40,9 @@ import java.util.Map;
 public class CallbackDispatcher {
     private static final String TAG = "CallbackDispatcher";
 
+    // one frame on 60fps.
+    public static final long FRAME_INTERVAL_MILLIS = 16;
+
     // Just transmit to the main looper.
     private final DownloadListener transmit;
 
@@ -55,6 +58,25 @@ public class CallbackDispatcher {
         this.transmit = new DefaultTransmitListener(uiHandler);
     }
 
+    /**
+     * Coalesce the {@code fetchProgress} callbacks of the tasks which are called back on the UI
+     * thread, the increased bytes of each block are accumulated and delivered with one message
+     * on each {@code coalesceProgressIntervalMillis}, such as {@link #FRAME_INTERVAL_MILLIS}.
+     * <p>
+     * The total increased bytes of each block is still exact, and they are always delivered
+     * before the {@code fetchEnd} of the block and the {@code taskEnd} of the task.
+     */
+    public CallbackDispatcher(long coalesceProgressIntervalMillis) {
+        if (coalesceProgressIntervalMillis < 0) {
+            throw new IllegalArgumentException("The coalesce progress interval "
+                    + coalesceProgressIntervalMillis + " can't be negative");
+        }
+
+        this.uiHandler = new Handler(Looper.getMainLooper());
+        this.transmit = new DefaultTransmitListener(uiHandler,
+                new ProgressCoalescer(uiHandler, coalesceProgressIntervalMillis));
+    }
+
     public boolean isFetchProcessMoment(DownloadTask task) {
         final long minInterval = task.getMinIntervalMillisCallbackProcess();
         final long now = SystemClock.uptimeMillis();
@@ -183,9 +205,16 @@ public class CallbackDispatcher {
 
     static class DefaultTransmitListener implements DownloadListener {
         @NonNull private final Handler uiHandler;
+        @Nullable private final ProgressCoalescer progressCoalescer;
 
         DefaultTransmitListener(@NonNull Handler uiHandler) {
+            this(uiHandler, null);
+        }
+
+        DefaultTransmitListener(@NonNull Handler uiHandler,
+                                @Nullable ProgressCoalescer progressCoalescer) {
             this.uiHandler = uiHandler;
+            this.progressCoalescer = progressCoalescer;
         }
 
         @Override
@@ -328,6 +357,11 @@ public class CallbackDispatcher {
             }
 
             if (task.isAutoCallbackToUIThread()) {
+                if (progressCoalescer != null) {
+                    progressCoalescer.add(task, blockIndex, increaseBytes);
+                    return;
+                }
+
                 uiHandler.post(new Runnable() {
                     @Override public void run() {
                         task.getListener().fetchProgress(task, blockIndex, increaseBytes);
@@ -343,6 +377,7 @@ public class CallbackDispatcher {
                              final long contentLength) {
             Util.d(TAG, "fetchEnd: " + task.getId());
             if (task.isAutoCallbackToUIThread()) {
+                if (progressCoalescer != null) progressCoalescer.flush(task, false);
                 uiHandler.post(new Runnable() {
                     @Override public void run() {
                         task.getListener().fetchEnd(task, blockIndex, contentLength);
@@ -362,6 +397,7 @@ public class CallbackDispatcher {
             }
             inspectTaskEnd(task, cause, realCause);
             if (task.isAutoCallbackToUIThread()) {
+                if (progressCoalescer != null) progressCoalescer.flush(task, true);
                 uiHandler.post(new Runnable() {
                     @Override public void run() {
                         task.getListener().taskEnd(task, cause, realCause);
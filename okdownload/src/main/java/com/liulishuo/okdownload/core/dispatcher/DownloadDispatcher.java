@@ -35,16 +35,25 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
+/**
+ * Admit the download calls to run, at most {@link #maxParallelRunningCount} async calls run at
+ * the same time and the others wait on the ready queue by their priorities.
+ * <p>
+ * Only the status queries, {@link #isRunning(DownloadTask)}, {@link #isPending(DownloadTask)}
+ * and {@link #findSameTask(DownloadTask)}, are lock-free, so polling the status never waits for
+ * enqueueing, canceling or finishing lots of tasks. The admission itself, enqueue, cancel, finish
+ * and promoting the ready calls, is still serialized on this dispatcher, because inspecting the
+ * same task and the busy file has to be atomic with admitting the call.
+ */
 public class DownloadDispatcher {
 
     private static final String TAG = "DownloadDispatcher";
@@ -52,15 +61,15 @@ public class DownloadDispatcher {
     @SuppressFBWarnings(value = "IS", justification = "Not so urgency")
     int maxParallelRunningCount = 5;
 
-    // for sort performance(not need to copy one array), using ArrayList instead of deque(for add
-    // on top, remove on bottom).
-    private final List<DownloadCall> readyAsyncCalls;
+    // the priority queue, and all calls are indexed by the id, url and file of their tasks, so
+    // enqueue, cancel and the status query don't need to scan or re-sort all calls.
+    private final IndexedDownloadCalls readyAsyncCalls;
 
-    private final List<DownloadCall> runningAsyncCalls;
-    private final List<DownloadCall> runningSyncCalls;
+    private final IndexedDownloadCalls runningAsyncCalls;
+    private final IndexedDownloadCalls runningSyncCalls;
 
     // for enqueueing task during task is finishing
-    private final List<DownloadCall> finishingCalls;
+    private final IndexedDownloadCalls finishingCalls;
 
     // for the case of tasks has been cancelled but didn't remove from runningAsyncCalls list yet.
     private final AtomicInteger flyingCanceledAsyncCallCount = new AtomicInteger();
@@ -73,15 +82,25 @@ public class DownloadDispatcher {
     @SuppressFBWarnings(value = "IS", justification = "Not so urgency")
     private DownloadStore store;
 
+    @Nullable private volatile PreemptionPolicy preemptionPolicy;
+    // the running calls paused for the urgent calls, they are canceled and enqueued again once
+    // they are finished.
+    private final IndexedDownloadCalls pausedCalls = IndexedDownloadCalls.ordered();
+    // guarded by this dispatcher.
+    private final Map<DownloadCall, Long> readyMillisMap = new HashMap<>();
+    private final Map<DownloadCall, Long> runningMillisMap = new HashMap<>();
+    private final Map<Integer, Integer> preemptedCountMap = new HashMap<>();
+    private final Metrics metrics = new Metrics();
+
     public DownloadDispatcher() {
-        this(new ArrayList<DownloadCall>(), new ArrayList<DownloadCall>(),
-                new ArrayList<DownloadCall>(), new ArrayList<DownloadCall>());
+        this(IndexedDownloadCalls.prioritized(), IndexedDownloadCalls.ordered(),
+                IndexedDownloadCalls.ordered(), IndexedDownloadCalls.ordered());
     }
 
-    DownloadDispatcher(List<DownloadCall> readyAsyncCalls,
-                       List<DownloadCall> runningAsyncCalls,
-                       List<DownloadCall> runningSyncCalls,
-                       List<DownloadCall> finishingCalls) {
+    DownloadDispatcher(IndexedDownloadCalls readyAsyncCalls,
+                       IndexedDownloadCalls runningAsyncCalls,
+                       IndexedDownloadCalls runningSyncCalls,
+                       IndexedDownloadCalls finishingCalls) {
         this.readyAsyncCalls = readyAsyncCalls;
         this.runningAsyncCalls = runningAsyncCalls;
         this.runningSyncCalls = runningSyncCalls;
@@ -92,11 +111,25 @@ public class DownloadDispatcher {
         this.store = store;
     }
 
+    /**
+     * Set the policy to pause the running call with the lower priority for the enqueued call with
+     * the higher priority when there isn't any idle slot, {@code null} to never preempt.
+     */
+    public void setPreemptionPolicy(@Nullable PreemptionPolicy preemptionPolicy) {
+        this.preemptionPolicy = preemptionPolicy;
+    }
+
+    @Nullable public PreemptionPolicy getPreemptionPolicy() {
+        return preemptionPolicy;
+    }
+
+    @NonNull public Metrics getMetrics() {
+        return metrics;
+    }
+
     synchronized ExecutorService getExecutorService() {
         if (executorService == null) {
-            executorService = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
-                    60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
-                    Util.threadFactory("OkDownload Download", false));
+            executorService = OkDownload.with().downloadExecutors().dispatchExecutor();
         }
 
         return executorService;
@@ -121,7 +154,6 @@ public class DownloadDispatcher {
         Collections.addAll(taskList, tasks);
         if (taskList.size() > 1) Collections.sort(taskList);
 
-        final int originReadyAsyncCallSize = readyAsyncCalls.size();
         try {
             OkDownload.with().downloadStrategy().inspectNetworkAvailable();
 
@@ -141,7 +173,6 @@ public class DownloadDispatcher {
             final Collection<DownloadTask> errorList = new ArrayList<>(taskList);
             OkDownload.with().callbackDispatcher().endTasksWithError(errorList, e);
         }
-        if (originReadyAsyncCallSize != readyAsyncCalls.size()) Collections.sort(readyAsyncCalls);
 
         Util.d(TAG, "end enqueueLocked for bunch task: " + tasks.length + " consume "
                 + (SystemClock.uptimeMillis() - startTime) + "ms");
@@ -152,22 +183,79 @@ public class DownloadDispatcher {
         if (inspectCompleted(task)) return;
         if (inspectForConflict(task)) return;
 
-        final int originReadyAsyncCallSize = readyAsyncCalls.size();
         enqueueIgnorePriority(task);
-        if (originReadyAsyncCallSize != readyAsyncCalls.size()) Collections.sort(readyAsyncCalls);
     }
 
     private synchronized void enqueueIgnorePriority(DownloadTask task) {
         final DownloadCall call = DownloadCall.create(task, true, store);
-        if (runningAsyncSize() < maxParallelRunningCount) {
+        if (runningAsyncSize() < maxParallelRunningCount || preemptFor(call)) {
             runningAsyncCalls.add(call);
-            getExecutorService().execute(call);
+            executeAsyncCall(call, null);
         } else {
-            // priority
+            // ordered by priority on adding
             readyAsyncCalls.add(call);
+            readyMillisMap.put(call, nowMillis());
         }
     }
 
+    private synchronized void executeAsyncCall(@NonNull DownloadCall call,
+                                               @Nullable Long readyMillis) {
+        final long now = nowMillis();
+        runningMillisMap.put(call, now);
+        metrics.onAdmitted(readyMillis == null ? 0 : now - readyMillis);
+        getExecutorService().execute(call);
+    }
+
+    // pause the running call with the lowest priority for the urgent call, the paused call keeps
+    // its breakpoint through canceling, and it's enqueued again once it's finished.
+    private synchronized boolean preemptFor(@NonNull DownloadCall urgentCall) {
+        final PreemptionPolicy policy = this.preemptionPolicy;
+        if (policy == null) return false;
+
+        final int priority = urgentCall.task.getPriority();
+        // only preempt for the head of the ready queue, otherwise the urgent call would run ahead
+        // of the ready call with the higher or the same priority.
+        final DownloadCall readyHead = readyAsyncCalls.peek();
+        if (readyHead != null && readyHead.task.getPriority() >= priority) return false;
+
+        final long now = nowMillis();
+        DownloadCall pausedCall = null;
+        long pausedCallStartMillis = 0;
+        for (DownloadCall call : runningAsyncCalls) {
+            if (call.isCanceled() || call.isFinishing()) continue;
+
+            final int runningPriority = call.task.getPriority();
+            if ((long) priority - runningPriority < policy.getMinPriorityGap()) continue;
+
+            // the hysteresis, so the calls don't pause each other back and forth.
+            final Long startMillis = runningMillisMap.get(call);
+            final long start = startMillis == null ? 0 : startMillis;
+            if (now - start < policy.getMinRunningMillis()) continue;
+            if (getPreemptedCount(call.task) >= policy.getMaxPreemptedCount()) continue;
+
+            if (pausedCall == null || runningPriority < pausedCall.task.getPriority()
+                    || (runningPriority == pausedCall.task.getPriority()
+                    && start > pausedCallStartMillis)) {
+                pausedCall = call;
+                pausedCallStartMillis = start;
+            }
+        }
+
+        if (pausedCall == null || !pausedCall.cancel()) return false;
+
+        final int id = pausedCall.task.getId();
+        pausedCalls.add(pausedCall);
+        preemptedCountMap.put(id, getPreemptedCount(pausedCall.task) + 1);
+        metrics.preemptedCount.incrementAndGet();
+        Util.d(TAG, "pause task " + id + " for the urgent task " + urgentCall.task.getId());
+        return true;
+    }
+
+    private int getPreemptedCount(@NonNull DownloadTask task) {
+        final Integer count = preemptedCountMap.get(task.getId());
+        return count == null ? 0 : count;
+    }
+
     public void execute(DownloadTask task) {
         Util.d(TAG, "execute: " + task);
         final DownloadCall call;
@@ -258,31 +346,33 @@ public class DownloadDispatcher {
     private synchronized void filterCanceledCalls(@NonNull IdentifiedTask task,
                                                   @NonNull List<DownloadCall> needCallbackCalls,
                                                   @NonNull List<DownloadCall> needCancelCalls) {
-        for (Iterator<DownloadCall> i = readyAsyncCalls.iterator(); i.hasNext(); ) {
-            DownloadCall call = i.next();
-            if (call.task == task || call.task.getId() == task.getId()) {
-                if (call.isCanceled() || call.isFinishing()) return;
-
-                i.remove();
-                needCallbackCalls.add(call);
-                return;
-            }
+        final int id = task.getId();
+        for (DownloadCall call : readyAsyncCalls.getSameIdCalls(id)) {
+            if (call.isCanceled() || call.isFinishing()) return;
+
+            readyAsyncCalls.remove(call);
+            readyMillisMap.remove(call);
+            needCallbackCalls.add(call);
+            return;
         }
 
-        for (DownloadCall call : runningAsyncCalls) {
-            if (call.task == task || call.task.getId() == task.getId()) {
-                needCallbackCalls.add(call);
-                needCancelCalls.add(call);
-                return;
-            }
+        for (DownloadCall call : pausedCalls.getSameIdCalls(id)) {
+            // the paused call has been canceled, it's just not enqueued again.
+            pausedCalls.remove(call);
+            needCallbackCalls.add(call);
+            return;
         }
 
-        for (DownloadCall call : runningSyncCalls) {
-            if (call.task == task || call.task.getId() == task.getId()) {
-                needCallbackCalls.add(call);
-                needCancelCalls.add(call);
-                return;
-            }
+        for (DownloadCall call : runningAsyncCalls.getSameIdCalls(id)) {
+            needCallbackCalls.add(call);
+            needCancelCalls.add(call);
+            return;
+        }
+
+        for (DownloadCall call : runningSyncCalls.getSameIdCalls(id)) {
+            needCallbackCalls.add(call);
+            needCancelCalls.add(call);
+            return;
         }
     }
 
@@ -314,54 +404,54 @@ public class DownloadDispatcher {
         }
     }
 
+    // the status queries don't lock the dispatcher, they read the indexes of the calls directly,
+    // so the polling of the status never waits for enqueueing or canceling lots of tasks.
     @Nullable
-    public synchronized DownloadTask findSameTask(DownloadTask task) {
+    public DownloadTask findSameTask(DownloadTask task) {
         Util.d(TAG, "findSameTask: " + task.getId());
-        for (DownloadCall call : readyAsyncCalls) {
+        for (DownloadCall call : readyAsyncCalls.getSameTaskCalls(task)) {
             if (call.isCanceled()) continue;
-            if (call.equalsTask(task)) return call.task;
+            return call.task;
         }
 
-        for (DownloadCall call : runningAsyncCalls) {
+        for (DownloadCall call : runningAsyncCalls.getSameTaskCalls(task)) {
             if (call.isCanceled()) continue;
-            if (call.equalsTask(task)) return call.task;
+            return call.task;
         }
 
-        for (DownloadCall call : runningSyncCalls) {
+        for (DownloadCall call : runningSyncCalls.getSameTaskCalls(task)) {
             if (call.isCanceled()) continue;
-            if (call.equalsTask(task)) return call.task;
+            return call.task;
+        }
+
+        for (DownloadCall call : pausedCalls.getSameTaskCalls(task)) {
+            return call.task;
         }
 
         return null;
     }
 
-    public synchronized boolean isRunning(DownloadTask task) {
+    public boolean isRunning(DownloadTask task) {
         Util.d(TAG, "isRunning: " + task.getId());
-        for (DownloadCall call : runningSyncCalls) {
-            if (call.isCanceled()) continue;
-            if (call.equalsTask(task)) {
-                return true;
-            }
+        for (DownloadCall call : runningSyncCalls.getSameTaskCalls(task)) {
+            if (!call.isCanceled()) return true;
         }
 
-        for (DownloadCall call : runningAsyncCalls) {
-            if (call.isCanceled()) continue;
-            if (call.equalsTask(task)) {
-                return true;
-            }
+        for (DownloadCall call : runningAsyncCalls.getSameTaskCalls(task)) {
+            if (!call.isCanceled()) return true;
         }
 
         return false;
     }
 
-    public synchronized boolean isPending(DownloadTask task) {
+    public boolean isPending(DownloadTask task) {
         Util.d(TAG, "isPending: " + task.getId());
-        for (DownloadCall call : readyAsyncCalls) {
-            if (call.isCanceled()) continue;
-            if (call.equalsTask(task)) return true;
+        for (DownloadCall call : readyAsyncCalls.getSameTaskCalls(task)) {
+            if (!call.isCanceled()) return true;
         }
 
-        return false;
+        // the paused call is pending until it's enqueued again.
+        return !pausedCalls.getSameTaskCalls(task).isEmpty();
     }
 
     // this method convenient for unit-test.
@@ -376,7 +466,7 @@ public class DownloadDispatcher {
 
     public synchronized void finish(DownloadCall call) {
         final boolean asyncExecuted = call.asyncExecuted;
-        final Collection<DownloadCall> calls;
+        final IndexedDownloadCalls calls;
         if (finishingCalls.contains(call)) {
             calls = finishingCalls;
         } else if (asyncExecuted) {
@@ -386,31 +476,37 @@ public class DownloadDispatcher {
         }
         if (!calls.remove(call)) throw new AssertionError("Call wasn't in-flight!");
         if (asyncExecuted && call.isCanceled()) flyingCanceledAsyncCallCount.decrementAndGet();
+        runningMillisMap.remove(call);
+        if (pausedCalls.remove(call)) {
+            enqueuePausedCall(call);
+        } else if (asyncExecuted) {
+            preemptedCountMap.remove(call.task.getId());
+        }
         if (asyncExecuted) processCalls();
     }
 
+    private synchronized void enqueuePausedCall(@NonNull DownloadCall pausedCall) {
+        final DownloadCall call = DownloadCall.create(pausedCall.task, true, store);
+        readyAsyncCalls.add(call);
+        readyMillisMap.put(call, nowMillis());
+        metrics.resumedCount.incrementAndGet();
+        Util.d(TAG, "enqueue the paused task " + call.task.getId() + " again");
+    }
+
     public synchronized boolean isFileConflictAfterRun(@NonNull DownloadTask task) {
         Util.d(TAG, "is file conflict after run: " + task.getId());
         final File file = task.getFile();
         if (file == null) return false;
 
         // Other one is running, cancel the current task.
-        for (DownloadCall syncCall : runningSyncCalls) {
+        for (DownloadCall syncCall : runningSyncCalls.getSameFileCalls(file)) {
             if (syncCall.isCanceled() || syncCall.task == task) continue;
-
-            final File otherFile = syncCall.task.getFile();
-            if (otherFile != null && file.equals(otherFile)) {
-                return true;
-            }
+            return true;
         }
 
-        for (DownloadCall asyncCall : runningAsyncCalls) {
+        for (DownloadCall asyncCall : runningAsyncCalls.getSameFileCalls(file)) {
             if (asyncCall.isCanceled() || asyncCall.task == task) continue;
-
-            final File otherFile = asyncCall.task.getFile();
-            if (otherFile != null && file.equals(otherFile)) {
-                return true;
-            }
+            return true;
         }
 
         return false;
@@ -425,7 +521,22 @@ public class DownloadDispatcher {
                                        @Nullable Collection<DownloadTask> fileBusyList) {
         return inspectForConflict(task, readyAsyncCalls, sameTaskList, fileBusyList)
                 || inspectForConflict(task, runningAsyncCalls, sameTaskList, fileBusyList)
-                || inspectForConflict(task, runningSyncCalls, sameTaskList, fileBusyList);
+                || inspectForConflict(task, runningSyncCalls, sameTaskList, fileBusyList)
+                || inspectForPausedConflict(task, sameTaskList);
+    }
+
+    // the paused call is canceled, but its task is still pending.
+    private boolean inspectForPausedConflict(@NonNull DownloadTask task,
+                                             @Nullable Collection<DownloadTask> sameTaskList) {
+        if (pausedCalls.getSameTaskCalls(task).isEmpty()) return false;
+
+        if (sameTaskList != null) {
+            sameTaskList.add(task);
+        } else {
+            OkDownload.with().callbackDispatcher().dispatch()
+                    .taskEnd(task, EndCause.SAME_TASK_BUSY, null);
+        }
+        return true;
     }
 
     boolean inspectCompleted(@NonNull DownloadTask task) {
@@ -456,43 +567,42 @@ public class DownloadDispatcher {
     }
 
     boolean inspectForConflict(@NonNull DownloadTask task,
-                               @NonNull Collection<DownloadCall> calls,
+                               @NonNull IndexedDownloadCalls calls,
                                @Nullable Collection<DownloadTask> sameTaskList,
                                @Nullable Collection<DownloadTask> fileBusyList) {
         final CallbackDispatcher callbackDispatcher = OkDownload.with().callbackDispatcher();
-        final Iterator<DownloadCall> iterator = calls.iterator();
-        while (iterator.hasNext()) {
-            DownloadCall call = iterator.next();
+        for (DownloadCall call : calls.getSameTaskCalls(task)) {
             if (call.isCanceled()) continue;
 
-            if (call.equalsTask(task)) {
-                if (call.isFinishing()) {
-                    Util.d(TAG, "task: " + task.getId()
-                            + " is finishing, move it to finishing list");
-                    finishingCalls.add(call);
-                    iterator.remove();
-                    return false;
-                }
+            if (call.isFinishing()) {
+                Util.d(TAG, "task: " + task.getId()
+                        + " is finishing, move it to finishing list");
+                finishingCalls.add(call);
+                calls.remove(call);
+                return false;
+            }
 
-                if (sameTaskList != null) {
-                    sameTaskList.add(task);
-                } else {
-                    callbackDispatcher.dispatch()
-                            .taskEnd(task, EndCause.SAME_TASK_BUSY, null);
-                }
-                return true;
+            if (sameTaskList != null) {
+                sameTaskList.add(task);
+            } else {
+                callbackDispatcher.dispatch()
+                        .taskEnd(task, EndCause.SAME_TASK_BUSY, null);
             }
+            return true;
+        }
 
-            final File file = call.getFile();
-            final File taskFile = task.getFile();
-            if (file != null && taskFile != null && file.equals(taskFile)) {
-                if (fileBusyList != null) {
-                    fileBusyList.add(task);
-                } else {
-                    callbackDispatcher.dispatch().taskEnd(task, EndCause.FILE_BUSY, null);
-                }
-                return true;
+        final File taskFile = task.getFile();
+        if (taskFile == null) return false;
+
+        for (DownloadCall call : calls.getSameFileCalls(taskFile)) {
+            if (call.isCanceled()) continue;
+
+            if (fileBusyList != null) {
+                fileBusyList.add(task);
+            } else {
+                callbackDispatcher.dispatch().taskEnd(task, EndCause.FILE_BUSY, null);
             }
+            return true;
         }
 
         return false;
@@ -503,25 +613,32 @@ public class DownloadDispatcher {
         if (runningAsyncSize() >= maxParallelRunningCount) return;
         if (readyAsyncCalls.isEmpty()) return;
 
-        for (Iterator<DownloadCall> i = readyAsyncCalls.iterator(); i.hasNext(); ) {
-            DownloadCall call = i.next();
-
-            i.remove();
-
+        DownloadCall call;
+        while ((call = readyAsyncCalls.peek()) != null) {
             final DownloadTask task = call.task;
             if (isFileConflictAfterRun(task)) {
+                readyAsyncCalls.remove(call);
+                readyMillisMap.remove(call);
                 OkDownload.with().callbackDispatcher().dispatch().taskEnd(task, EndCause.FILE_BUSY,
                         null);
                 continue;
             }
 
+            // add to running before removing from ready, so it's always pending or running for
+            // the status queries.
             runningAsyncCalls.add(call);
-            getExecutorService().execute(call);
+            readyAsyncCalls.remove(call);
+            executeAsyncCall(call, readyMillisMap.remove(call));
 
             if (runningAsyncSize() >= maxParallelRunningCount) return;
         }
     }
 
+    // convenient for unit-test.
+    long nowMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
     private int runningAsyncSize() {
         return runningAsyncCalls.size() - flyingCanceledAsyncCallCount.get();
     }
@@ -536,4 +653,112 @@ public class DownloadDispatcher {
         maxParallelRunningCount = Math.max(1, maxParallelRunningCount);
         dispatcher.maxParallelRunningCount = maxParallelRunningCount;
     }
+
+    public static class PreemptionPolicy {
+        private static final int DEFAULT_MIN_PRIORITY_GAP = 1;
+        private static final long DEFAULT_MIN_RUNNING_MILLIS = 3000;
+        private static final int DEFAULT_MAX_PREEMPTED_COUNT = 3;
+
+        private final int minPriorityGap;
+        private final long minRunningMillis;
+        private final int maxPreemptedCount;
+
+        public PreemptionPolicy() {
+            this(DEFAULT_MIN_PRIORITY_GAP, DEFAULT_MIN_RUNNING_MILLIS,
+                    DEFAULT_MAX_PREEMPTED_COUNT);
+        }
+
+        /**
+         * @param minPriorityGap    the running call is paused only when the priority of the
+         *                          urgent call is higher than its priority by this gap at least.
+         * @param minRunningMillis  the running call isn't paused until it has run for this
+         *                          duration, including the call enqueued again after paused.
+         * @param maxPreemptedCount the task isn't paused anymore once it has been paused for this
+         *                          count, so the task with the low priority isn't starved.
+         */
+        public PreemptionPolicy(int minPriorityGap, long minRunningMillis,
+                                int maxPreemptedCount) {
+            if (minPriorityGap <= 0) {
+                throw new IllegalArgumentException("The min priority gap " + minPriorityGap
+                        + " must be positive");
+            }
+            if (minRunningMillis < 0 || maxPreemptedCount < 0) {
+                throw new IllegalArgumentException("The min running millis "
+                        + minRunningMillis + " and the max preempted count "
+                        + maxPreemptedCount + " can't be negative");
+            }
+
+            this.minPriorityGap = minPriorityGap;
+            this.minRunningMillis = minRunningMillis;
+            this.maxPreemptedCount = maxPreemptedCount;
+        }
+
+        public int getMinPriorityGap() {
+            return minPriorityGap;
+        }
+
+        public long getMinRunningMillis() {
+            return minRunningMillis;
+        }
+
+        public int getMaxPreemptedCount() {
+            return maxPreemptedCount;
+        }
+    }
+
+    /**
+     * The metrics of the asynchronous calls admitted to run by this dispatcher.
+     */
+    public static class Metrics {
+        final AtomicLong admittedCount = new AtomicLong();
+        final AtomicLong totalWaitMillis = new AtomicLong();
+        final AtomicLong maxWaitMillis = new AtomicLong();
+        final AtomicLong preemptedCount = new AtomicLong();
+        final AtomicLong resumedCount = new AtomicLong();
+
+        void onAdmitted(long waitMillis) {
+            admittedCount.incrementAndGet();
+            totalWaitMillis.addAndGet(waitMillis);
+            long max;
+            do {
+                max = maxWaitMillis.get();
+            } while (waitMillis > max && !maxWaitMillis.compareAndSet(max, waitMillis));
+        }
+
+        public long getAdmittedCount() {
+            return admittedCount.get();
+        }
+
+        /**
+         * @return the average milliseconds the calls waited on the ready queue.
+         */
+        public long getAverageWaitMillis() {
+            final long count = admittedCount.get();
+            return count == 0 ? 0 : totalWaitMillis.get() / count;
+        }
+
+        public long getMaxWaitMillis() {
+            return maxWaitMillis.get();
+        }
+
+        /**
+         * @return the count of the running calls paused for the urgent calls.
+         */
+        public long getPreemptedCount() {
+            return preemptedCount.get();
+        }
+
+        /**
+         * @return the count of the paused calls enqueued again.
+         */
+        public long getResumedCount() {
+            return resumedCount.get();
+        }
+
+        @Override public String toString() {
+            return "DownloadDispatcher.Metrics[admitted " + getAdmittedCount() + ", wait avg "
+                    + getAverageWaitMillis() + "ms max " + getMaxWaitMillis() + "ms, preempted "
+                    + getPreemptedCount() + ", resumed " + getResumedCount() + "]";
+        }
+    }
 }
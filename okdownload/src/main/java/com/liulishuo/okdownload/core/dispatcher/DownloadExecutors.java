@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.dispatcher;
+
+import android.support.annotation.NonNull;
+
+import com.liulishuo.okdownload.core.Util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The thread pools used by OkDownload:
+ * <ul>
+ * <li>dispatch: runs the download call of each task enqueued through the
+ * {@link DownloadDispatcher}.</li>
+ * <li>block: fetches each block of the task.</li>
+ * <li>file io: flushes and syncs the output streams, persists the progress and releases the
+ * connections of the blocks.</li>
+ * </ul>
+ * The default pools are unbounded, you can use {@link Builder} to bound them and provide it on
+ * {@link com.liulishuo.okdownload.OkDownload.Builder#downloadExecutors(DownloadExecutors)}.
+ */
+public class DownloadExecutors {
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    @NonNull private final ThreadPoolExecutor dispatchExecutor;
+    @NonNull private final ThreadPoolExecutor blockExecutor;
+    @NonNull private final ThreadPoolExecutor fileIoExecutor;
+
+    public DownloadExecutors() {
+        this(unbounded("OkDownload Download"),
+                unbounded("OkDownload Block"),
+                unbounded("OkDownload file io"));
+    }
+
+    DownloadExecutors(@NonNull ThreadPoolExecutor dispatchExecutor,
+                      @NonNull ThreadPoolExecutor blockExecutor,
+                      @NonNull ThreadPoolExecutor fileIoExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+        this.blockExecutor = blockExecutor;
+        this.fileIoExecutor = fileIoExecutor;
+    }
+
+    @NonNull public ExecutorService dispatchExecutor() { return dispatchExecutor; }
+
+    @NonNull public ExecutorService blockExecutor() { return blockExecutor; }
+
+    @NonNull public ExecutorService fileIoExecutor() { return fileIoExecutor; }
+
+    public int getDispatchThreadCount() { return dispatchExecutor.getPoolSize(); }
+
+    public int getBlockThreadCount() { return blockExecutor.getPoolSize(); }
+
+    public int getFileIoThreadCount() { return fileIoExecutor.getPoolSize(); }
+
+    public int getDispatchQueueDepth() { return dispatchExecutor.getQueue().size(); }
+
+    public int getBlockQueueDepth() { return blockExecutor.getQueue().size(); }
+
+    public int getFileIoQueueDepth() { return fileIoExecutor.getQueue().size(); }
+
+    @Override public String toString() {
+        return "DownloadExecutors{dispatch[" + getDispatchThreadCount() + ", "
+                + getDispatchQueueDepth() + "] block[" + getBlockThreadCount() + ", "
+                + getBlockQueueDepth() + "] fileIo[" + getFileIoThreadCount() + ", "
+                + getFileIoQueueDepth() + "]}";
+    }
+
+    private static ThreadPoolExecutor unbounded(String name) {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                Util.threadFactory(name, false));
+    }
+
+    private static ThreadPoolExecutor bounded(String name, int threadCount,
+                                              LinkedBlockingQueue<Runnable> queue,
+                                              RejectedExecutionHandler rejectedHandler) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, Util.threadFactory(name, false),
+                rejectedHandler);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Build the bounded thread pools, the default thread counts are sized against the count of
+     * the available processors.
+     * <p>
+     * The block pool has a bounded queue, once it is full the caller thread(the download call)
+     * fetches the block itself, so there is back-pressure on the download calls instead of
+     * creating more threads.
+     * <p>
+     * The sync loop for all tasks holds one file io thread while there is any task running, and
+     * the others are used to cancel tasks and release the connections, so the file io thread
+     * count should be at least 2.
+     */
+    public static class Builder {
+        public static final int DEFAULT_BLOCK_QUEUE_CAPACITY = 64;
+
+        private int dispatchThreadCount;
+        private int blockThreadCount;
+        private int fileIoThreadCount;
+        private int blockQueueCapacity = DEFAULT_BLOCK_QUEUE_CAPACITY;
+
+        public Builder() {
+            final int processorCount = Runtime.getRuntime().availableProcessors();
+            this.dispatchThreadCount = Math.max(5, processorCount);
+            this.blockThreadCount = Math.max(8, processorCount * 4);
+            this.fileIoThreadCount = Math.max(2, processorCount / 2);
+        }
+
+        /**
+         * @param dispatchThreadCount the max count of the download calls run at the same time.
+         */
+        public Builder dispatchThreadCount(int dispatchThreadCount) {
+            this.dispatchThreadCount = dispatchThreadCount;
+            return this;
+        }
+
+        /**
+         * @param blockThreadCount the max count of the blocks fetched at the same time over all
+         *                         tasks.
+         */
+        public Builder blockThreadCount(int blockThreadCount) {
+            this.blockThreadCount = blockThreadCount;
+            return this;
+        }
+
+        /**
+         * @param fileIoThreadCount the max count of threads for the sync loop, canceling tasks and
+         *                          releasing the connections.
+         */
+        public Builder fileIoThreadCount(int fileIoThreadCount) {
+            this.fileIoThreadCount = fileIoThreadCount;
+            return this;
+        }
+
+        /**
+         * @param blockQueueCapacity the max count of blocks waiting for the block thread.
+         */
+        public Builder blockQueueCapacity(int blockQueueCapacity) {
+            this.blockQueueCapacity = blockQueueCapacity;
+            return this;
+        }
+
+        public DownloadExecutors build() {
+            if (dispatchThreadCount <= 0 || blockThreadCount <= 0 || fileIoThreadCount < 2
+                    || blockQueueCapacity <= 0) {
+                throw new IllegalArgumentException("file io thread count must be at least 2,"
+                        + " the others must be positive: dispatch[" + dispatchThreadCount + "] block["
+                        + blockThreadCount + "] fileIo[" + fileIoThreadCount + "] blockQueue["
+                        + blockQueueCapacity + "]");
+            }
+
+            return new DownloadExecutors(
+                    bounded("OkDownload Download", dispatchThreadCount,
+                            new LinkedBlockingQueue<Runnable>(),
+                            new ThreadPoolExecutor.AbortPolicy()),
+                    bounded("OkDownload Block", blockThreadCount,
+                            new LinkedBlockingQueue<Runnable>(blockQueueCapacity),
+                            new ThreadPoolExecutor.CallerRunsPolicy()),
+                    bounded("OkDownload file io", fileIoThreadCount,
+                            new LinkedBlockingQueue<Runnable>(),
+                            new ThreadPoolExecutor.AbortPolicy()));
+        }
+    }
+}
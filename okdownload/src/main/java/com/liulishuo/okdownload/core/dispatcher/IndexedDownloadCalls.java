@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.dispatcher;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.liulishuo.okdownload.DownloadTask;
+import com.liulishuo.okdownload.core.download.DownloadCall;
+
+import java.io.File;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The download calls indexed by the task id, url and file, so looking up the same task or the
+ * same file on the dispatcher doesn't need to scan all calls.
+ * <p>
+ * The calls are iterated in the order of adding, or in the order of priority for the
+ * {@link #prioritized()} one which is used as the ready queue.
+ * <p>
+ * Modifying and iterating should be guarded by the lock of the dispatcher, but
+ * {@link #getSameTaskCalls(DownloadTask)} and {@link #getSameIdCalls(int)} can be invoked without
+ * it, so querying the status of a task never blocks on the dispatcher.
+ */
+class IndexedDownloadCalls extends AbstractCollection<DownloadCall> {
+
+    @NonNull private final Set<DownloadCall> calls;
+
+    // the buckets are replaced instead of modified, so they can be read without the lock.
+    private final Map<Integer, DownloadCall[]> idIndex = new ConcurrentHashMap<>();
+    private final Map<String, DownloadCall[]> urlIndex = new ConcurrentHashMap<>();
+    private final Map<File, List<DownloadCall>> fileIndex = new HashMap<>();
+    // the file of the task isn't known until the filename is got from the response.
+    private final Set<DownloadCall> unknownFileCalls = new LinkedHashSet<>();
+
+    // the sequence of adding for the calls with the same priority.
+    @Nullable private final Map<DownloadCall, Long> sequences;
+    private long nextSequence;
+
+    private IndexedDownloadCalls(@NonNull Set<DownloadCall> calls,
+                                 @Nullable Map<DownloadCall, Long> sequences) {
+        this.calls = calls;
+        this.sequences = sequences;
+    }
+
+    /**
+     * @return the calls iterated in the order of adding.
+     */
+    static IndexedDownloadCalls ordered() {
+        return new IndexedDownloadCalls(new LinkedHashSet<DownloadCall>(), null);
+    }
+
+    /**
+     * @return the calls iterated from the highest priority, the calls with the same priority are
+     * iterated in the order of adding.
+     */
+    static IndexedDownloadCalls prioritized() {
+        final Map<DownloadCall, Long> sequences = new HashMap<>();
+        final Set<DownloadCall> calls = new TreeSet<>(new Comparator<DownloadCall>() {
+            @Override public int compare(DownloadCall lhs, DownloadCall rhs) {
+                final int result = lhs.compareTo(rhs);
+                if (result != 0) return result;
+
+                final long lhsSequence = sequences.get(lhs);
+                final long rhsSequence = sequences.get(rhs);
+                return lhsSequence < rhsSequence ? -1 : (lhsSequence == rhsSequence ? 0 : 1);
+            }
+        });
+        return new IndexedDownloadCalls(calls, sequences);
+    }
+
+    @Override public boolean add(DownloadCall call) {
+        if (sequences != null) {
+            if (sequences.containsKey(call)) return false;
+            sequences.put(call, nextSequence++);
+        }
+
+        if (!calls.add(call)) return false;
+
+        final DownloadTask task = call.task;
+        addTo(idIndex, task.getId(), call);
+        final String url = task.getUrl();
+        if (url != null) addTo(urlIndex, url, call);
+        final File file = call.getFile();
+        if (file == null) {
+            unknownFileCalls.add(call);
+        } else {
+            addToList(fileIndex, file, call);
+        }
+        return true;
+    }
+
+    @Override public boolean remove(Object o) {
+        if (!contains(o)) return false;
+
+        final DownloadCall call = (DownloadCall) o;
+        calls.remove(call);
+        unindex(call);
+        return true;
+    }
+
+    @Override public boolean contains(Object o) {
+        if (!(o instanceof DownloadCall)) return false;
+        if (sequences != null) return sequences.containsKey(o);
+        return calls.contains(o);
+    }
+
+    @Override public void clear() {
+        calls.clear();
+        idIndex.clear();
+        urlIndex.clear();
+        fileIndex.clear();
+        unknownFileCalls.clear();
+        if (sequences != null) sequences.clear();
+    }
+
+    @Override public int size() {
+        return calls.size();
+    }
+
+    @NonNull @Override public Iterator<DownloadCall> iterator() {
+        final Iterator<DownloadCall> iterator = calls.iterator();
+        return new Iterator<DownloadCall>() {
+            private DownloadCall last;
+
+            @Override public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override public DownloadCall next() {
+                last = iterator.next();
+                return last;
+            }
+
+            @Override public void remove() {
+                iterator.remove();
+                unindex(last);
+            }
+        };
+    }
+
+    /**
+     * @return the first call without removing it.
+     */
+    @Nullable DownloadCall peek() {
+        if (calls.isEmpty()) return null;
+        return calls.iterator().next();
+    }
+
+    /**
+     * @return the calls which {@link DownloadCall#equalsTask(DownloadTask)} the {@code task}.
+     */
+    @NonNull List<DownloadCall> getSameTaskCalls(@NonNull DownloadTask task) {
+        final int id = task.getId();
+        final DownloadCall[] sameIdCalls = idIndex.get(id);
+        // the task is equal to another one with the same id or the same url.
+        final String url = task.getUrl();
+        final DownloadCall[] sameUrlCalls = url == null ? null : urlIndex.get(url);
+        if (sameIdCalls == null && sameUrlCalls == null) return Collections.emptyList();
+
+        final List<DownloadCall> result = new ArrayList<>(1);
+        if (sameIdCalls != null) {
+            for (DownloadCall call : sameIdCalls) {
+                if (call.equalsTask(task)) result.add(call);
+            }
+        }
+        if (sameUrlCalls != null) {
+            for (DownloadCall call : sameUrlCalls) {
+                // has been inspected on the same id calls.
+                if (call.task.getId() == id) continue;
+                if (call.equalsTask(task)) result.add(call);
+            }
+        }
+
+        return result;
+    }
+
+    @NonNull List<DownloadCall> getSameIdCalls(int id) {
+        final DownloadCall[] sameIdCalls = idIndex.get(id);
+        if (sameIdCalls == null) return Collections.emptyList();
+        return Arrays.asList(sameIdCalls);
+    }
+
+    /**
+     * @return the calls whose file is equal to the {@code file}.
+     */
+    @NonNull List<DownloadCall> getSameFileCalls(@NonNull File file) {
+        if (!unknownFileCalls.isEmpty()) indexKnownFileCalls();
+
+        final List<DownloadCall> sameFileCalls = fileIndex.get(file);
+        if (sameFileCalls == null) return Collections.emptyList();
+        return new ArrayList<>(sameFileCalls);
+    }
+
+    private void indexKnownFileCalls() {
+        for (Iterator<DownloadCall> i = unknownFileCalls.iterator(); i.hasNext(); ) {
+            final DownloadCall call = i.next();
+            final File file = call.getFile();
+            if (file == null) continue;
+
+            i.remove();
+            addToList(fileIndex, file, call);
+        }
+    }
+
+    private void unindex(@NonNull DownloadCall call) {
+        final DownloadTask task = call.task;
+        removeFrom(idIndex, task.getId(), call);
+        final String url = task.getUrl();
+        if (url != null) removeFrom(urlIndex, url, call);
+        if (!unknownFileCalls.remove(call)) {
+            final File file = call.getFile();
+            if (file != null) removeFromList(fileIndex, file, call);
+        }
+        if (sequences != null) sequences.remove(call);
+    }
+
+    private static <K> void addTo(@NonNull Map<K, DownloadCall[]> index, @NonNull K key,
+                                  @NonNull DownloadCall call) {
+        final DownloadCall[] bucket = index.get(key);
+        if (bucket == null) {
+            index.put(key, new DownloadCall[]{call});
+            return;
+        }
+
+        final DownloadCall[] newBucket = Arrays.copyOf(bucket, bucket.length + 1);
+        newBucket[bucket.length] = call;
+        index.put(key, newBucket);
+    }
+
+    private static <K> void removeFrom(@NonNull Map<K, DownloadCall[]> index, @NonNull K key,
+                                       @NonNull DownloadCall call) {
+        final DownloadCall[] bucket = index.get(key);
+        if (bucket == null) return;
+
+        int position = -1;
+        for (int i = 0; i < bucket.length; i++) {
+            if (bucket[i] == call) {
+                position = i;
+                break;
+            }
+        }
+        if (position < 0) return;
+
+        if (bucket.length == 1) {
+            index.remove(key);
+            return;
+        }
+
+        final DownloadCall[] newBucket = new DownloadCall[bucket.length - 1];
+        System.arraycopy(bucket, 0, newBucket, 0, position);
+        System.arraycopy(bucket, position + 1, newBucket, position,
+                bucket.length - position - 1);
+        index.put(key, newBucket);
+    }
+
+    private static <K> void addToList(@NonNull Map<K, List<DownloadCall>> index, K key,
+                                      @NonNull DownloadCall call) {
+        List<DownloadCall> bucket = index.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<>(1);
+            index.put(key, bucket);
+        }
+        bucket.add(call);
+    }
+
+    private static <K> void removeFromList(@NonNull Map<K, List<DownloadCall>> index, K key,
+                                           @NonNull DownloadCall call) {
+        final List<DownloadCall> bucket = index.get(key);
+        if (bucket == null) return;
+
+        bucket.remove(call);
+        if (bucket.isEmpty()) index.remove(key);
+    }
+}
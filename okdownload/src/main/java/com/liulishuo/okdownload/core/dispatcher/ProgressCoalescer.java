@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.dispatcher;
+
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.SparseArray;
+
+import com.liulishuo.okdownload.DownloadTask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulate the increased bytes of each block of the tasks which are called back on the UI
+ * thread, and deliver them with one message posted to the UI thread on each interval, instead of
+ * one message for each progress.
+ * <p>
+ * The increased bytes of the task are delivered before its {@code fetchEnd} and {@code taskEnd}
+ * through {@link #flush(DownloadTask, boolean)}, so the total bytes of each block are exact on
+ * these callbacks.
+ */
+class ProgressCoalescer {
+
+    @NonNull private final Handler uiHandler;
+    private final long intervalMillis;
+
+    // the progresses of each task are indexed by the block index, the map and the arrays are
+    // copied and swapped only on the first progress of each block and the end of the task, so
+    // adding the increased bytes after that has no lock, boxing or allocation. The task is only
+    // removed once it is end, so the increased bytes are never added to a removed one.
+    volatile SparseArray<TaskProgress> taskProgressMap = new SparseArray<>();
+    private final AtomicBoolean drainPosted = new AtomicBoolean(false);
+
+    private final Runnable drainRunnable = new Runnable() {
+        @Override public void run() {
+            // the later progress posts the next drain.
+            drainPosted.set(false);
+            final SparseArray<TaskProgress> taskProgressMap = ProgressCoalescer.this
+                    .taskProgressMap;
+            for (int i = 0; i < taskProgressMap.size(); i++) {
+                for (BlockProgress progress : taskProgressMap.valueAt(i).blocks) {
+                    if (progress != null) progress.deliver();
+                }
+            }
+        }
+    };
+
+    ProgressCoalescer(@NonNull Handler uiHandler, long intervalMillis) {
+        this.uiHandler = uiHandler;
+        this.intervalMillis = intervalMillis;
+    }
+
+    long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    void add(@NonNull DownloadTask task, int blockIndex, long increaseBytes) {
+        final TaskProgress taskProgress = taskProgressMap.get(task.getId());
+        BlockProgress progress = taskProgress == null ? null : taskProgress.get(blockIndex);
+        if (progress == null) progress = obtainProgress(task, blockIndex);
+        progress.pendingBytes.addAndGet(increaseBytes);
+
+        if (drainPosted.compareAndSet(false, true)) {
+            uiHandler.postDelayed(drainRunnable, intervalMillis);
+        }
+    }
+
+    private synchronized BlockProgress obtainProgress(@NonNull DownloadTask task,
+                                                      int blockIndex) {
+        final int id = task.getId();
+        TaskProgress taskProgress = taskProgressMap.get(id);
+        if (taskProgress == null) {
+            taskProgress = new TaskProgress();
+            final SparseArray<TaskProgress> copied = taskProgressMap.clone();
+            copied.put(id, taskProgress);
+            taskProgressMap = copied;
+        }
+
+        BlockProgress progress = taskProgress.get(blockIndex);
+        if (progress == null) {
+            progress = new BlockProgress(task, blockIndex);
+            taskProgress.put(blockIndex, progress);
+        }
+        return progress;
+    }
+
+    /**
+     * Post the increased bytes of the {@code task} which aren't delivered yet, it must be called
+     * before posting the other callbacks of the {@code task}.
+     *
+     * @param end whether the task is end, then its progresses are removed.
+     */
+    void flush(@NonNull DownloadTask task, boolean end) {
+        final int id = task.getId();
+        final TaskProgress taskProgress = end ? removeTask(id) : taskProgressMap.get(id);
+        if (taskProgress == null) return;
+
+        List<BlockProgress> flushList = null;
+        for (BlockProgress progress : taskProgress.blocks) {
+            if (progress == null) continue;
+
+            final long bytes = progress.pendingBytes.getAndSet(0);
+            if (bytes == 0) continue;
+
+            if (flushList == null) flushList = new ArrayList<>();
+            flushList.add(new BlockProgress(progress.task, progress.blockIndex, bytes));
+        }
+
+        if (flushList == null) return;
+
+        final List<BlockProgress> finalFlushList = flushList;
+        uiHandler.post(new Runnable() {
+            @Override public void run() {
+                for (BlockProgress progress : finalFlushList) {
+                    progress.deliver();
+                }
+            }
+        });
+    }
+
+    @Nullable private synchronized TaskProgress removeTask(int id) {
+        final TaskProgress taskProgress = taskProgressMap.get(id);
+        if (taskProgress == null) return null;
+
+        final SparseArray<TaskProgress> copied = taskProgressMap.clone();
+        copied.remove(id);
+        taskProgressMap = copied;
+        return taskProgress;
+    }
+
+    int pendingCount() {
+        final SparseArray<TaskProgress> taskProgressMap = this.taskProgressMap;
+        int count = 0;
+        for (int i = 0; i < taskProgressMap.size(); i++) {
+            for (BlockProgress progress : taskProgressMap.valueAt(i).blocks) {
+                if (progress != null) count++;
+            }
+        }
+        return count;
+    }
+
+    // the progresses of the blocks of one task, the array is replaced instead of modified, so it
+    // can be read without the lock.
+    static class TaskProgress {
+        volatile BlockProgress[] blocks = new BlockProgress[0];
+
+        @Nullable BlockProgress get(int blockIndex) {
+            final BlockProgress[] blocks = this.blocks;
+            return blockIndex < blocks.length ? blocks[blockIndex] : null;
+        }
+
+        // guarded by the coalescer.
+        void put(int blockIndex, @NonNull BlockProgress progress) {
+            final BlockProgress[] copied = Arrays.copyOf(blocks,
+                    Math.max(blocks.length, blockIndex + 1));
+            copied[blockIndex] = progress;
+            blocks = copied;
+        }
+    }
+
+    private static class BlockProgress {
+        @NonNull final DownloadTask task;
+        final int blockIndex;
+        final AtomicLong pendingBytes;
+
+        BlockProgress(@NonNull DownloadTask task, int blockIndex) {
+            this(task, blockIndex, 0);
+        }
+
+        BlockProgress(@NonNull DownloadTask task, int blockIndex, long pendingBytes) {
+            this.task = task;
+            this.blockIndex = blockIndex;
+            this.pendingBytes = new AtomicLong(pendingBytes);
+        }
+
+        void deliver() {
+            final long bytes = pendingBytes.getAndSet(0);
+            if (bytes != 0) task.getListener().fetchProgress(task, blockIndex, bytes);
+        }
+    }
+}
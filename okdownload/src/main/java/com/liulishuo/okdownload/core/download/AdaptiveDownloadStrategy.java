@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.download;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+
+import com.liulishuo.okdownload.DownloadTask;
+import com.liulishuo.okdownload.core.Util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The download strategy which learns the block count from the throughput of each host instead of
+ * the fixed thresholds of the content length.
+ * <p>
+ * It starts with a few blocks for a host, and adds one more block for the next task on the host
+ * once the aggregate throughput is still scaling with the blocks. As soon as the throughput
+ * plateaus, the block count with the best throughput is used for all later tasks on the host.
+ * <p>
+ * You can use it through
+ * {@link com.liulishuo.okdownload.OkDownload.Builder#downloadStrategy(DownloadStrategy)}.
+ */
+public class AdaptiveDownloadStrategy extends DownloadStrategy {
+
+    private static final String TAG = "AdaptiveDownloadStrategy";
+
+    private static final int DEFAULT_INITIAL_BLOCK_COUNT = 2;
+    private static final int DEFAULT_MAX_BLOCK_COUNT = 8;
+    private static final long DEFAULT_MIN_BLOCK_LENGTH = 512 * 1024; // 512KiB
+    private static final long DEFAULT_MIN_SAMPLE_BYTES = 1024 * 1024; // 1MiB
+    private static final float DEFAULT_MIN_GAIN_RATIO = 0.1f;
+    static final int MAX_HOST_COUNT = 64;
+
+    private final int initialBlockCount;
+    private final int maxBlockCount;
+    private final long minBlockLength;
+    private final long minSampleBytes;
+    private final float minGainRatio;
+
+    // the host least recently downloaded from is forgotten once there are too many hosts.
+    private final Map<String, HostThroughput> hostThroughputMap =
+            new LinkedHashMap<String, HostThroughput>(16, 0.75f, true) {
+                @Override protected boolean removeEldestEntry(
+                        Map.Entry<String, HostThroughput> eldest) {
+                    return size() > MAX_HOST_COUNT;
+                }
+            };
+
+    public AdaptiveDownloadStrategy() {
+        this(DEFAULT_INITIAL_BLOCK_COUNT, DEFAULT_MAX_BLOCK_COUNT, DEFAULT_MIN_BLOCK_LENGTH,
+                DEFAULT_MIN_SAMPLE_BYTES, DEFAULT_MIN_GAIN_RATIO);
+    }
+
+    /**
+     * @param initialBlockCount the block count for the first task on a host.
+     * @param maxBlockCount     the block count never grows over this one.
+     * @param minBlockLength    each block is at least this length, so the small file is
+     *                          downloaded with fewer blocks.
+     * @param minSampleBytes    the throughput of the task which downloads fewer bytes than this
+     *                          one is too noisy to learn from.
+     * @param minGainRatio      adding one more block is treated as scaling only when the
+     *                          throughput increases more than this ratio.
+     */
+    public AdaptiveDownloadStrategy(int initialBlockCount, int maxBlockCount,
+                                    long minBlockLength, long minSampleBytes,
+                                    float minGainRatio) {
+        if (initialBlockCount < 1 || maxBlockCount < initialBlockCount) {
+            throw new IllegalArgumentException("The initial block count " + initialBlockCount
+                    + " must be in [1, " + maxBlockCount + "]");
+        }
+
+        this.initialBlockCount = initialBlockCount;
+        this.maxBlockCount = maxBlockCount;
+        this.minBlockLength = minBlockLength;
+        this.minSampleBytes = minSampleBytes;
+        this.minGainRatio = minGainRatio;
+    }
+
+    @Override public int determineBlockCount(@NonNull DownloadTask task, long totalLength) {
+        if (task.getSetConnectionCount() != null) return task.getSetConnectionCount();
+
+        final long lengthLimit = Math.max(1, totalLength / minBlockLength);
+        final int blockCount = getHostThroughput(task).getBlockCount();
+        return (int) Math.min(blockCount, lengthLimit);
+    }
+
+    @Override public void inspectThroughput(@NonNull DownloadTask task, int blockCount,
+                                            long increaseBytes, long bytesPerSecond) {
+        if (increaseBytes < minSampleBytes || bytesPerSecond <= 0) return;
+
+        final HostThroughput hostThroughput = getHostThroughput(task);
+        hostThroughput.onSample(blockCount, bytesPerSecond);
+        Util.d(TAG, "inspect throughput " + bytesPerSecond + " with " + blockCount
+                + " blocks for " + task.getId() + " " + hostThroughput);
+    }
+
+    @NonNull HostThroughput getHostThroughput(@NonNull DownloadTask task) {
+        final String host = getHost(task.getUrl());
+        synchronized (hostThroughputMap) {
+            HostThroughput hostThroughput = hostThroughputMap.get(host);
+            if (hostThroughput == null) {
+                hostThroughput = new HostThroughput(initialBlockCount, maxBlockCount,
+                        minGainRatio);
+                hostThroughputMap.put(host, hostThroughput);
+            }
+            return hostThroughput;
+        }
+    }
+
+    @NonNull private static String getHost(@NonNull String url) {
+        final String host = Uri.parse(url).getHost();
+        return host == null ? url : host;
+    }
+
+    static class HostThroughput {
+        private final int maxBlockCount;
+        private final float minGainRatio;
+
+        private int probingBlockCount;
+        private int bestBlockCount;
+        private long bestBytesPerSecond;
+        private boolean settled;
+
+        HostThroughput(int initialBlockCount, int maxBlockCount, float minGainRatio) {
+            this.maxBlockCount = maxBlockCount;
+            this.minGainRatio = minGainRatio;
+            this.probingBlockCount = initialBlockCount;
+            this.bestBlockCount = initialBlockCount;
+        }
+
+        synchronized int getBlockCount() {
+            return settled ? bestBlockCount : probingBlockCount;
+        }
+
+        synchronized boolean isSettled() {
+            return settled;
+        }
+
+        synchronized void onSample(int blockCount, long bytesPerSecond) {
+            // the sample is limited by the length or is from the stale block count.
+            if (blockCount != getBlockCount()) return;
+
+            if (settled) {
+                // keep up with the current network.
+                bestBytesPerSecond = bytesPerSecond;
+                return;
+            }
+
+            if (bestBytesPerSecond == 0
+                    || bytesPerSecond > bestBytesPerSecond * (1 + minGainRatio)) {
+                // still scaling
+                bestBlockCount = blockCount;
+                bestBytesPerSecond = bytesPerSecond;
+                if (blockCount >= maxBlockCount) {
+                    settled = true;
+                } else {
+                    probingBlockCount = blockCount + 1;
+                }
+            } else {
+                // plateau
+                settled = true;
+            }
+        }
+
+        @Override public synchronized String toString() {
+            return "HostThroughput[best " + bestBlockCount + " blocks with "
+                    + bestBytesPerSecond + "B/s, probing " + probingBlockCount
+                    + ", settled " + settled + "]";
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.download;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.liulishuo.okdownload.DownloadTask;
+import com.liulishuo.okdownload.core.Util;
+import com.liulishuo.okdownload.core.breakpoint.BreakpointInfo;
+import com.liulishuo.okdownload.core.breakpoint.DownloadStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Split the block which has the largest remaining range for the chain which finishes early, so
+ * its connection isn't idle while the slow block drags the whole task out.
+ * <p>
+ * The split block is appended to the info and persisted through
+ * {@link DownloadStore#update(BreakpointInfo)}, so the download can be resumed with the split
+ * layout.
+ * <p>
+ * Once there isn't any block worth splitting, the remaining range of the straggler block is
+ * hedged with the {@link DownloadStrategy.HedgePolicy}.
+ */
+class BlockSplitter {
+
+    private static final String TAG = "BlockSplitter";
+
+    @NonNull private final DownloadTask task;
+    @NonNull private final BreakpointInfo info;
+    @NonNull private final DownloadCache cache;
+    @NonNull private final DownloadStore store;
+
+    private final long minSplitLength;
+    private final int maxSplitCount;
+    @Nullable private final DownloadStrategy.HedgePolicy hedgePolicy;
+
+    private final List<DownloadChain> chainList = new ArrayList<>();
+    private final List<DownloadChain> hedgedChainList = new ArrayList<>();
+    private int splitCount;
+
+    BlockSplitter(@NonNull DownloadTask task, @NonNull BreakpointInfo info,
+                  @NonNull DownloadCache cache, @NonNull DownloadStore store,
+                  long minSplitLength, int maxSplitCount) {
+        this(task, info, cache, store, minSplitLength, maxSplitCount, null);
+    }
+
+    BlockSplitter(@NonNull DownloadTask task, @NonNull BreakpointInfo info,
+                  @NonNull DownloadCache cache, @NonNull DownloadStore store,
+                  long minSplitLength, int maxSplitCount,
+                  @Nullable DownloadStrategy.HedgePolicy hedgePolicy) {
+        this.task = task;
+        this.info = info;
+        this.cache = cache;
+        this.store = store;
+        this.minSplitLength = minSplitLength;
+        this.maxSplitCount = maxSplitCount;
+        this.hedgePolicy = hedgePolicy;
+    }
+
+    boolean isHedgeEnabled() {
+        return hedgePolicy != null && hedgePolicy.getMaxHedgeCount() > 0;
+    }
+
+    /**
+     * @return the maximum count of the blocks appended to the info by splitting and hedging.
+     */
+    int getMaxAddedBlockCount() {
+        return maxSplitCount + (isHedgeEnabled() ? hedgePolicy.getMaxHedgeCount() : 0);
+    }
+
+    synchronized void register(@NonNull DownloadChain chain) {
+        chainList.add(chain);
+        chain.setBlockSplitter(this);
+    }
+
+    /**
+     * Split the latter half of the remaining range from the block which has the largest remaining
+     * range.
+     *
+     * @return the chain to download the split block, or {@code null} if there isn't any block
+     * worth splitting.
+     */
+    @Nullable synchronized DownloadChain split() {
+        if (splitCount >= maxSplitCount || cache.isInterrupt()) return null;
+        // the split block is appended to the info.
+        if (!cache.getOutputStream().canAddRequireStreamBlock(info.getBlockCount())) return null;
+
+        DownloadChain largestChain = null;
+        long largestRemainingLength = 0;
+        for (DownloadChain chain : chainList) {
+            final long remainingLength = chain.getRemainingFetchLength();
+            if (remainingLength > largestRemainingLength) {
+                largestChain = chain;
+                largestRemainingLength = remainingLength;
+            }
+        }
+        if (largestChain == null) return null;
+
+        final int blockIndex = largestChain.splitRemaining(minSplitLength);
+        if (blockIndex < 0) return null;
+        splitCount++;
+
+        if (!cache.getOutputStream().addRequireStreamBlock(blockIndex)) {
+            // the output stream has been canceled after the check above, the task is going to
+            // end, so the split layout isn't persisted and the split block isn't fetched.
+            return null;
+        }
+        updateStore();
+
+        Util.d(TAG, "split block(" + largestChain.getBlockIndex() + ") to block(" + blockIndex
+                + ") " + info.getBlock(blockIndex) + " on " + task.getId());
+
+        final DownloadChain chain = DownloadChain.createChain(blockIndex, task, info, cache,
+                store);
+        chainList.add(chain);
+        return chain;
+    }
+
+    /**
+     * Hedge the remaining range of the slowest block once the task is almost done, and that
+     * block is far slower than its siblings.
+     *
+     * @return the hedged fetch for the remaining range of the straggler block, or {@code null} if
+     * there isn't any straggler block.
+     */
+    @Nullable synchronized HedgedFetch hedge() {
+        final DownloadStrategy.HedgePolicy hedgePolicy = this.hedgePolicy;
+        if (hedgePolicy == null || hedgedChainList.size() >= hedgePolicy.getMaxHedgeCount()
+                || cache.isInterrupt()) {
+            return null;
+        }
+
+        if (!hedgePolicy.isProgressEnough(info.getTotalOffset(), info.getTotalLength())) {
+            return null;
+        }
+
+        DownloadChain slowestChain = null;
+        long slowestBytesPerSecond = Long.MAX_VALUE;
+        long allBytesPerSecond = 0;
+        int measuredCount = 0;
+        for (DownloadChain chain : chainList) {
+            final long bytesPerSecond = chain.getFetchBytesPerSecond();
+            if (bytesPerSecond < 0) continue;
+
+            allBytesPerSecond += bytesPerSecond;
+            measuredCount++;
+            if (bytesPerSecond < slowestBytesPerSecond && !hedgedChainList.contains(chain)
+                    && hedgePolicy.isHedgeable(chain.getRemainingFetchLength())) {
+                slowestChain = chain;
+                slowestBytesPerSecond = bytesPerSecond;
+            }
+        }
+        if (slowestChain == null || measuredCount <= 1) return null;
+
+        final long siblingBytesPerSecond = (allBytesPerSecond - slowestBytesPerSecond)
+                / (measuredCount - 1);
+        if (!hedgePolicy.isStraggler(slowestBytesPerSecond, siblingBytesPerSecond)) return null;
+
+        final long rangeLeft = slowestChain.getFetchOffset();
+        final long rangeRight = rangeLeft + slowestChain.getRemainingFetchLength() - 1;
+        hedgedChainList.add(slowestChain);
+
+        Util.d(TAG, "hedge block(" + slowestChain.getBlockIndex() + ") [" + rangeLeft + ", "
+                + rangeRight + "] with " + slowestBytesPerSecond + "B/s, siblings "
+                + siblingBytesPerSecond + "B/s on " + task.getId());
+        return new HedgedFetch(task, info, cache, this, slowestChain, rangeLeft, rangeRight);
+    }
+
+    /**
+     * Hand over the remaining range of the straggler block to a new block for the hedged fetch
+     * which wins.
+     *
+     * @return the index of the new block on the info, or {@code -1} if the straggler block wins.
+     */
+    synchronized int handOver(@NonNull DownloadChain stragglerChain, long deliveredOffset) {
+        if (cache.isInterrupt()) return -1;
+        // the hand over block is appended to the info.
+        if (!cache.getOutputStream().canAddRequireStreamBlock(info.getBlockCount())) return -1;
+
+        final int blockIndex = stragglerChain.handOverRemaining(deliveredOffset);
+        if (blockIndex < 0) return -1;
+
+        if (!cache.getOutputStream().addRequireStreamBlock(blockIndex)) {
+            // the output stream has been canceled.
+            return -1;
+        }
+        updateStore();
+
+        Util.d(TAG, "hand over block(" + stragglerChain.getBlockIndex() + ") to block("
+                + blockIndex + ") " + info.getBlock(blockIndex) + " on " + task.getId());
+        return blockIndex;
+    }
+
+    private void updateStore() {
+        try {
+            if (!store.update(info)) {
+                Util.w(TAG, "Update store failed after splitting on " + task.getId());
+            }
+        } catch (Exception e) {
+            // the original layout on the store is still valid to resume, the bytes of the split
+            // block will be downloaded again on the original block then.
+            Util.w(TAG, "Update store failed after splitting on " + task.getId() + " " + e);
+        }
+    }
+}
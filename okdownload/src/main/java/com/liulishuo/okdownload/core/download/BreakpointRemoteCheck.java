@@ -23,6 +23,7 @@ import com.liulishuo.okdownload.DownloadTask;
 import com.liulishuo.okdownload.OkDownload;
 import com.liulishuo.okdownload.core.breakpoint.BreakpointInfo;
 import com.liulishuo.okdownload.core.cause.ResumeFailedCause;
+import com.liulishuo.okdownload.core.connection.DownloadConnection;
 import com.liulishuo.okdownload.core.exception.FileBusyAfterRunException;
 import com.liulishuo.okdownload.core.exception.ServerCanceledException;
 
@@ -39,6 +40,7 @@ public class BreakpointRemoteCheck {
     private boolean resumable;
     ResumeFailedCause failedCause;
     private long instanceLength;
+    @Nullable private DownloadConnection trialFetchConnection;
 
     @NonNull private final DownloadTask task;
     @NonNull private final BreakpointInfo info;
@@ -91,6 +93,16 @@ public class BreakpointRemoteCheck {
         return instanceLength;
     }
 
+    /**
+     * Take the trial connection whose response is the whole resource, see
+     * {@link ConnectTrial#takeTrialFetchConnection()}.
+     */
+    @Nullable public DownloadConnection takeTrialFetchConnection() {
+        final DownloadConnection connection = trialFetchConnection;
+        trialFetchConnection = null;
+        return connection;
+    }
+
     public void check() throws IOException {
         // local etag
         final DownloadStrategy downloadStrategy = OkDownload.with().downloadStrategy();
@@ -99,6 +111,20 @@ public class BreakpointRemoteCheck {
         ConnectTrial connectTrial = createConnectTrial();
         connectTrial.executeTrial();
 
+        // the connection is released if the response can't be fetched.
+        final DownloadConnection trialFetchConnection = connectTrial.takeTrialFetchConnection();
+        boolean isChecked = false;
+        try {
+            check(downloadStrategy, connectTrial);
+            isChecked = true;
+        } finally {
+            if (!isChecked && trialFetchConnection != null) trialFetchConnection.release();
+        }
+        this.trialFetchConnection = trialFetchConnection;
+    }
+
+    private void check(@NonNull DownloadStrategy downloadStrategy,
+                       @NonNull ConnectTrial connectTrial) throws IOException {
         // single/multi
         final boolean isAcceptRange = connectTrial.isAcceptRange();
         final boolean isChunked = connectTrial.isChunked();
@@ -126,10 +152,12 @@ public class BreakpointRemoteCheck {
         this.failedCause = resumeFailedCause;
         this.instanceLength = instanceLength;
         this.acceptRange = isAcceptRange;
+        if (resumeFailedCause != null) downloadStrategy.invalidateConnectTrial(task.getUrl());
 
         //3. check whether server cancelled.
         if (!isTrialSpecialPass(responseCode, instanceLength, resumable)
                 && downloadStrategy.isServerCanceled(responseCode, info.getTotalOffset() != 0)) {
+            downloadStrategy.invalidateConnectTrial(task.getUrl());
             throw new ServerCanceledException(responseCode, info.getTotalOffset());
         }
     }
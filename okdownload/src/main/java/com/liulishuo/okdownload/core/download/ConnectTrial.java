@@ -62,6 +62,7 @@ public class ConnectTrial {
     @Nullable private String responseEtag;
     @Nullable private String responseFilename;
     private int responseCode;
+    @Nullable private DownloadConnection trialFetchConnection;
 
     public ConnectTrial(@NonNull DownloadTask task, @NonNull BreakpointInfo info) {
         this.task = task;
@@ -72,14 +73,32 @@ public class ConnectTrial {
         OkDownload.with().downloadStrategy().inspectNetworkOnWifi(task);
         OkDownload.with().downloadStrategy().inspectNetworkAvailable();
 
+        // the trial result is cached by the url, but the response may vary with the user
+        // headers, such as the authorization and the cookies.
+        final Map<String, List<String>> userHeader = task.getHeaderMapFields();
+        final ConnectTrialCache trialCache = userHeader == null || userHeader.isEmpty()
+                ? OkDownload.with().downloadStrategy().connectTrialCache() : null;
+        if (trialCache != null) {
+            final ConnectTrialCache.Result result = trialCache.get(task.getUrl());
+            if (result != null) {
+                restoreFromCache(result);
+                return;
+            }
+        }
+
+        // fetch the whole resource on the trial if it's downloaded from the beginning.
+        final long trialFetchMaxLength = info.getTotalOffset() == 0
+                ? OkDownload.with().downloadStrategy().trialFetchMaxLength(task) : 0;
+        final boolean isTrialFetch = trialFetchMaxLength > 0;
+
         DownloadConnection connection = OkDownload.with().connectionFactory().create(task.getUrl());
         boolean isNeedTrialHeadMethod;
+        boolean isKeepConnection = false;
         try {
             if (!Util.isEmpty(info.getEtag())) {
                 connection.addHeader(IF_MATCH, info.getEtag());
             }
-            connection.addHeader(RANGE, "bytes=0-0");
-            final Map<String, List<String>> userHeader = task.getHeaderMapFields();
+            connection.addHeader(RANGE, isTrialFetch ? "bytes=0-" : "bytes=0-0");
             if (userHeader != null)  Util.addUserRequestHeaderField(userHeader, connection);
 
             final DownloadListener listener = OkDownload.with().callbackDispatcher().dispatch();
@@ -93,7 +112,8 @@ public class ConnectTrial {
 
             this.responseCode = connected.getResponseCode();
             this.acceptRange = isAcceptRange(connected);
-            this.instanceLength = findInstanceLength(connected);
+            this.instanceLength = isTrialFetch
+                    ? findTrialFetchInstanceLength(connected) : findInstanceLength(connected);
             this.responseEtag = findEtag(connected);
             this.responseFilename = findFilename(connected);
             Map<String, List<String>> responseHeader = connected.getResponseHeaderFields();
@@ -102,13 +122,51 @@ public class ConnectTrial {
 
             isNeedTrialHeadMethod = isNeedTrialHeadMethodForInstanceLength(instanceLength,
                     connected);
+
+            if (isTrialFetch && isTrialFetchable(trialFetchMaxLength)) {
+                this.trialFetchConnection = new TrialFetchConnection(connection, connected);
+                isKeepConnection = true;
+            }
         } finally {
-            connection.release();
+            if (!isKeepConnection) connection.release();
         }
 
         if (isNeedTrialHeadMethod) {
             trialHeadMethodForInstanceLength();
         }
+
+        if (trialCache != null && isCacheable()) {
+            trialCache.put(task.getUrl(), new ConnectTrialCache.Result(responseCode, acceptRange,
+                    instanceLength, responseEtag, responseFilename, task.getRedirectLocation()));
+        }
+    }
+
+    private void restoreFromCache(@NonNull ConnectTrialCache.Result result) {
+        Util.d(TAG, "task[" + task.getId() + "] trial result is restored from the cache");
+        task.setRedirectLocation(result.getRedirectLocation());
+        this.responseCode = result.getResponseCode();
+        this.acceptRange = result.isAcceptRange();
+        this.instanceLength = result.getInstanceLength();
+        this.responseEtag = result.getResponseEtag();
+        this.responseFilename = result.getResponseFilename();
+    }
+
+    // only the trial response which the download can go on with is cached.
+    private boolean isCacheable() {
+        return (responseCode == HttpURLConnection.HTTP_OK
+                || responseCode == HttpURLConnection.HTTP_PARTIAL) && !isEtagOverdue();
+    }
+
+    /**
+     * Take the connection whose response is the whole resource, it's kept only if the resource is
+     * fetched on the trial, see {@link DownloadStrategy#trialFetchMaxLength(DownloadTask)}.
+     *
+     * @return the connection which should be released by the taker, {@code null} if there isn't.
+     */
+    @Nullable public DownloadConnection takeTrialFetchConnection() {
+        final DownloadConnection connection = trialFetchConnection;
+        trialFetchConnection = null;
+        return connection;
     }
 
     /**
@@ -175,6 +233,17 @@ public class ConnectTrial {
         return info.getEtag() != null && !info.getEtag().equals(responseEtag);
     }
 
+    private boolean isTrialFetchable(long trialFetchMaxLength) {
+        if (responseCode != HttpURLConnection.HTTP_OK
+                && responseCode != HttpURLConnection.HTTP_PARTIAL) {
+            return false;
+        }
+        if (isEtagOverdue()) return false;
+
+        // the chunked resource is always downloaded with one block.
+        return isChunked() || instanceLength <= trialFetchMaxLength;
+    }
+
     private static boolean isAcceptRange(@NonNull DownloadConnection.Connected connected)
             throws IOException {
         if (connected.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) return true;
@@ -254,6 +323,19 @@ public class ConnectTrial {
         return CHUNKED_CONTENT_LENGTH;
     }
 
+    // the response of the whole resource without the range provides its length on the
+    // Content-Length directly.
+    private static long findTrialFetchInstanceLength(DownloadConnection.Connected connected)
+            throws IOException {
+        final long instanceLength = findInstanceLength(connected);
+        if (instanceLength != CHUNKED_CONTENT_LENGTH) return instanceLength;
+        if (connected.getResponseCode() != HttpURLConnection.HTTP_OK) return instanceLength;
+
+        final String contentLengthField = connected.getResponseHeaderField(CONTENT_LENGTH);
+        if (contentLengthField == null || contentLengthField.length() <= 0) return instanceLength;
+        return Util.parseContentLength(contentLengthField);
+    }
+
     boolean isNeedTrialHeadMethodForInstanceLength(
             long oldInstanceLength, @NonNull DownloadConnection.Connected connected) {
         if (oldInstanceLength != CHUNKED_CONTENT_LENGTH) {
@@ -316,7 +398,7 @@ public class ConnectTrial {
         return transferEncoding != null && transferEncoding.equals(VALUE_CHUNKED);
     }
 
-    private static long parseContentRangeFoInstanceLength(@Nullable String contentRange) {
+    static long parseContentRangeFoInstanceLength(@Nullable String contentRange) {
         if (contentRange == null) return CHUNKED_CONTENT_LENGTH;
 
         final String[] session = contentRange.split("/");
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.download;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The bounded LRU cache of the {@link ConnectTrial} results keyed by the url, so the task whose
+ * url is trialed recently doesn't need the trial connection again.
+ * <p>
+ * The result expires after the {@code ttlMillis}, and it's invalidated once the response of the
+ * url is found precondition failed or server canceled.
+ */
+public class ConnectTrialCache {
+
+    private static final int DEFAULT_MAX_SIZE = 64;
+    private static final long DEFAULT_TTL_MILLIS = 60 * 1000; // 1 minute
+
+    private final int maxSize;
+    private final long ttlMillis;
+
+    // guarded by this cache.
+    private final LinkedHashMap<String, Result> resultMap;
+
+    public ConnectTrialCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL_MILLIS);
+    }
+
+    public ConnectTrialCache(final int maxSize, long ttlMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The max size " + maxSize + " must be positive");
+        }
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("The ttl " + ttlMillis + " must be positive");
+        }
+
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.resultMap = new LinkedHashMap<String, Result>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * @return the result of the {@code url} which isn't expired, {@code null} if there isn't.
+     */
+    @Nullable public synchronized Result get(@NonNull String url) {
+        final Result result = resultMap.get(url);
+        if (result == null) return null;
+
+        if (nowMillis() - result.cachedMillis >= ttlMillis) {
+            resultMap.remove(url);
+            return null;
+        }
+
+        return result;
+    }
+
+    public synchronized void put(@NonNull String url, @NonNull Result result) {
+        result.cachedMillis = nowMillis();
+        resultMap.put(url, result);
+    }
+
+    public synchronized void invalidate(@NonNull String url) {
+        resultMap.remove(url);
+    }
+
+    public synchronized void clear() {
+        resultMap.clear();
+    }
+
+    public synchronized int size() {
+        return resultMap.size();
+    }
+
+    // convenient for unit-test.
+    long nowMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
+    public static class Result {
+        final int responseCode;
+        final boolean acceptRange;
+        final long instanceLength;
+        @Nullable final String responseEtag;
+        @Nullable final String responseFilename;
+        @Nullable final String redirectLocation;
+
+        long cachedMillis;
+
+        public Result(int responseCode, boolean acceptRange, long instanceLength,
+                      @Nullable String responseEtag, @Nullable String responseFilename,
+                      @Nullable String redirectLocation) {
+            this.responseCode = responseCode;
+            this.acceptRange = acceptRange;
+            this.instanceLength = instanceLength;
+            this.responseEtag = responseEtag;
+            this.responseFilename = responseFilename;
+            this.redirectLocation = redirectLocation;
+        }
+
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        public boolean isAcceptRange() {
+            return acceptRange;
+        }
+
+        public long getInstanceLength() {
+            return instanceLength;
+        }
+
+        @Nullable public String getResponseEtag() {
+            return responseEtag;
+        }
+
+        @Nullable public String getResponseFilename() {
+            return responseFilename;
+        }
+
+        @Nullable public String getRedirectLocation() {
+            return redirectLocation;
+        }
+    }
+}
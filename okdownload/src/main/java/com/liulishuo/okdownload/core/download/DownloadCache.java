@@ -17,6 +17,7 @@
 package com.liulishuo.okdownload.core.download;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.liulishuo.okdownload.core.Util;
 import com.liulishuo.okdownload.core.cause.ResumeFailedCause;
@@ -33,6 +34,7 @@ import java.net.SocketException;
 public class DownloadCache {
     private String redirectLocation;
     private final MultiPointOutputStream outputStream;
+    @Nullable private volatile MirrorSelector mirrorSelector;
 
     private volatile boolean preconditionFailed;
     private volatile boolean userCanceled;
@@ -63,6 +65,14 @@ public class DownloadCache {
         return redirectLocation;
     }
 
+    void setMirrorSelector(@Nullable MirrorSelector mirrorSelector) {
+        this.mirrorSelector = mirrorSelector;
+    }
+
+    @Nullable MirrorSelector getMirrorSelector() {
+        return mirrorSelector;
+    }
+
     boolean isPreconditionFailed() {
         return preconditionFailed;
     }
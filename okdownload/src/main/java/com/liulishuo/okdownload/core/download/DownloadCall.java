@@ -22,6 +22,7 @@ import android.support.annotation.Nullable;
 
 import com.liulishuo.okdownload.DownloadTask;
 import com.liulishuo.okdownload.OkDownload;
+import com.liulishuo.okdownload.SpeedCalculator;
 import com.liulishuo.okdownload.core.NamedRunnable;
 import com.liulishuo.okdownload.core.Util;
 import com.liulishuo.okdownload.core.breakpoint.BlockInfo;
@@ -29,6 +30,7 @@ import com.liulishuo.okdownload.core.breakpoint.BreakpointInfo;
 import com.liulishuo.okdownload.core.breakpoint.DownloadStore;
 import com.liulishuo.okdownload.core.cause.EndCause;
 import com.liulishuo.okdownload.core.cause.ResumeFailedCause;
+import com.liulishuo.okdownload.core.connection.DownloadConnection;
 import com.liulishuo.okdownload.core.file.MultiPointOutputStream;
 import com.liulishuo.okdownload.core.file.ProcessFileStrategy;
 
@@ -38,19 +40,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 public class DownloadCall extends NamedRunnable implements Comparable<DownloadCall> {
-    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
-            60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
-            Util.threadFactory("OkDownload Block", false));
-
     private static final String TAG = "DownloadCall";
 
     static final int MAX_COUNT_RETRY_FOR_PRECONDITION_FAILED = 1;
@@ -64,6 +58,9 @@ public class DownloadCall extends NamedRunnable implements Comparable<DownloadCa
 
     volatile Thread currentThread;
     @NonNull private final DownloadStore store;
+    // the trial connection whose response is the whole resource, it's only used on the call
+    // thread.
+    @Nullable private DownloadConnection trialFetchConnection;
 
     private DownloadCall(DownloadTask task, boolean asyncExecuted, @NonNull DownloadStore store) {
         this(task, asyncExecuted, new ArrayList<DownloadChain>(), store);
@@ -183,6 +180,7 @@ public class DownloadCall extends NamedRunnable implements Comparable<DownloadCa
                 break;
             }
             cache.setRedirectLocation(task.getRedirectLocation());
+            trialFetchConnection = remoteCheck.takeTrialFetchConnection();
 
             // 3. waiting for file lock release after file path is confirmed.
             fileStrategy.getFileLock().waitForRelease(task.getFile().getAbsolutePath());
@@ -235,6 +233,7 @@ public class DownloadCall extends NamedRunnable implements Comparable<DownloadCa
                 retry = false;
             }
         } while (retry);
+        releaseTrialFetchConnection();
 
         // finish
         finishing = true;
@@ -320,9 +319,92 @@ public class DownloadCall extends NamedRunnable implements Comparable<DownloadCa
             return;
         }
 
-        cache.getOutputStream().setRequireStreamBlocks(blockIndexList);
+        // the only block fetches the response of the trial connection instead of connecting.
+        if (trialFetchConnection != null && blockChainList.size() == 1
+                && isFetchFromBeginning(info, blockChainList.get(0).getBlockIndex())) {
+            blockChainList.get(0).setConnection(trialFetchConnection);
+            trialFetchConnection = null;
+        } else {
+            releaseTrialFetchConnection();
+        }
+
+        final BlockSplitter blockSplitter = createBlockSplitter(cache, info,
+                blockChainList.size());
+        if (blockSplitter == null) {
+            cache.getOutputStream().setRequireStreamBlocks(blockIndexList);
+        } else {
+            for (DownloadChain chain : blockChainList) {
+                blockSplitter.register(chain);
+            }
+            cache.getOutputStream().setRequireStreamBlocks(blockIndexList,
+                    blockSplitter.getMaxAddedBlockCount());
+        }
+
+        cache.setMirrorSelector(createMirrorSelector(cache, info, blockChainList.size()));
+        if (canceled) return;
+
+        final SpeedCalculator speedCalculator = new SpeedCalculator();
+        final long offsetBeforeStart = info.getTotalOffset();
+        speedCalculator.downloading(0);
 
         startBlocks(blockChainList);
+
+        if (canceled || cache.isInterrupt() || blockChainList.isEmpty()) return;
+
+        final long increaseBytes = info.getTotalOffset() - offsetBeforeStart;
+        speedCalculator.downloading(increaseBytes);
+        speedCalculator.endTask();
+        OkDownload.with().downloadStrategy().inspectThroughput(task, blockChainList.size(),
+                increaseBytes, speedCalculator.getBytesPerSecondFromBegin());
+    }
+
+    private static boolean isFetchFromBeginning(@NonNull BreakpointInfo info, int blockIndex) {
+        if (info.getBlockCount() != 1 || blockIndex != 0) return false;
+
+        final BlockInfo blockInfo = info.getBlock(0);
+        return blockInfo.getRangeLeft() == 0 && blockInfo.getCurrentOffset() == 0;
+    }
+
+    private void releaseTrialFetchConnection() {
+        if (trialFetchConnection == null) return;
+
+        trialFetchConnection.release();
+        trialFetchConnection = null;
+    }
+
+    // convenient for unit-test
+    @Nullable BlockSplitter createBlockSplitter(@NonNull DownloadCache cache,
+                                                @NonNull BreakpointInfo info,
+                                                int chainCount) {
+        // there isn't any other connection to steal the range for the only one.
+        if (chainCount <= 1 || info.isChunked()) return null;
+
+        final DownloadStrategy strategy = OkDownload.with().downloadStrategy();
+        final long minSplitLength = strategy.minSplitBlockLength(task);
+        final int maxSplitCount = minSplitLength > 0
+                ? Math.max(strategy.maxSplitBlockCount(task), 0) : 0;
+        final DownloadStrategy.HedgePolicy hedgePolicy = strategy.hedgePolicy(task);
+        if (maxSplitCount == 0 && (hedgePolicy == null || hedgePolicy.getMaxHedgeCount() <= 0)) {
+            return null;
+        }
+
+        return new BlockSplitter(task, info, cache, store, minSplitLength, maxSplitCount,
+                hedgePolicy);
+    }
+
+    // convenient for unit-test
+    @Nullable MirrorSelector createMirrorSelector(@NonNull DownloadCache cache,
+                                                  @NonNull BreakpointInfo info,
+                                                  int chainCount) {
+        // the mirrors are only used to fetch the blocks in parallel.
+        if (chainCount <= 1 || info.isChunked()) return null;
+
+        final List<String> mirrorUrls = task.getMirrorUrls();
+        if (mirrorUrls == null || mirrorUrls.isEmpty()) return null;
+
+        final String redirectLocation = cache.getRedirectLocation();
+        return MirrorSelector.create(task, info,
+                redirectLocation != null ? redirectLocation : info.getUrl());
     }
 
     @Override
@@ -387,7 +469,7 @@ public class DownloadCall extends NamedRunnable implements Comparable<DownloadCa
     }
 
     Future<?> submitChain(DownloadChain chain) {
-        return EXECUTOR.submit(chain);
+        return OkDownload.with().downloadExecutors().blockExecutor().submit(chain);
     }
 
     public boolean equalsTask(@NonNull DownloadTask task) {
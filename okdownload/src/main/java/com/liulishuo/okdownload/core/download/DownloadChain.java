@@ -21,12 +21,17 @@ import android.support.annotation.Nullable;
 
 import com.liulishuo.okdownload.DownloadTask;
 import com.liulishuo.okdownload.OkDownload;
+import com.liulishuo.okdownload.SpeedCalculator;
 import com.liulishuo.okdownload.core.Util;
+import com.liulishuo.okdownload.core.breakpoint.BlockInfo;
 import com.liulishuo.okdownload.core.breakpoint.BreakpointInfo;
 import com.liulishuo.okdownload.core.breakpoint.DownloadStore;
 import com.liulishuo.okdownload.core.connection.DownloadConnection;
 import com.liulishuo.okdownload.core.dispatcher.CallbackDispatcher;
 import com.liulishuo.okdownload.core.exception.InterruptException;
+import com.liulishuo.okdownload.core.exception.NetworkPolicyException;
+import com.liulishuo.okdownload.core.exception.ResumeFailedException;
+import com.liulishuo.okdownload.core.file.ByteArrayPool;
 import com.liulishuo.okdownload.core.file.MultiPointOutputStream;
 import com.liulishuo.okdownload.core.interceptor.BreakpointInterceptor;
 import com.liulishuo.okdownload.core.interceptor.FetchDataInterceptor;
@@ -38,17 +43,11 @@ import com.liulishuo.okdownload.core.interceptor.connect.HeaderInterceptor;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-public class DownloadChain implements Runnable {
+import static com.liulishuo.okdownload.core.Util.CHUNKED_CONTENT_LENGTH;
 
-    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
-            60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
-            Util.threadFactory("OkDownload Cancel Block", false));
+public class DownloadChain implements Runnable {
 
     private static final String TAG = "DownloadChain";
 
@@ -63,9 +62,25 @@ public class DownloadChain implements Runnable {
     int connectIndex = 0;
     int fetchIndex = 0;
 
-    private long responseContentLength;
+    private volatile long responseContentLength;
     private volatile DownloadConnection connection;
 
+    // guarded by this chain, the fetched bytes are limited to the range of the block after the
+    // block is split by the block splitter.
+    private long fetchStartOffset;
+    private long fetchedLength;
+    private boolean fetching;
+    private boolean split;
+    private boolean handedOver;
+    // only measure the speed when the straggler block may be hedged.
+    @Nullable private SpeedCalculator fetchSpeedCalculator;
+
+    @Nullable private BlockSplitter blockSplitter;
+
+    // guarded by this chain, the source of the mirror selector this block connects to.
+    @Nullable private MirrorSelector.Source source;
+    private long sourceStartMillis;
+
     long noCallbackIncreaseBytes;
     volatile Thread currentThread;
 
@@ -98,6 +113,10 @@ public class DownloadChain implements Runnable {
         this.responseContentLength = responseContentLength;
     }
 
+    void setBlockSplitter(@Nullable BlockSplitter blockSplitter) {
+        this.blockSplitter = blockSplitter;
+    }
+
     public void cancel() {
         if (finished.get() || this.currentThread == null) return;
 
@@ -136,13 +155,37 @@ public class DownloadChain implements Runnable {
         return this.connection;
     }
 
-    @NonNull public synchronized DownloadConnection getConnectionOrCreate() throws IOException {
+    @NonNull public DownloadConnection getConnectionOrCreate() throws IOException {
         if (cache.isInterrupt()) throw InterruptException.SIGNAL;
 
+        selectSource();
+        return createConnectionIfNeed();
+    }
+
+    // the mirror may be verified on selecting, so select it without holding this chain.
+    private void selectSource() {
+        final MirrorSelector mirrorSelector = cache.getMirrorSelector();
+        if (mirrorSelector == null) return;
+
+        synchronized (this) {
+            if (connection != null || source != null) return;
+        }
+
+        final MirrorSelector.Source selectedSource = mirrorSelector.select();
+        synchronized (this) {
+            source = selectedSource;
+            sourceStartMillis = mirrorSelector.nowMillis();
+        }
+    }
+
+    @NonNull private synchronized DownloadConnection createConnectionIfNeed() throws IOException {
         if (connection == null) {
             final String url;
+            final MirrorSelector mirrorSelector = cache.getMirrorSelector();
             final String redirectLocation = cache.getRedirectLocation();
-            if (redirectLocation != null) {
+            if (mirrorSelector != null && source != null) {
+                url = source.getUrl();
+            } else if (redirectLocation != null) {
                 url = redirectLocation;
             } else {
                 url = info.getUrl();
@@ -155,6 +198,34 @@ public class DownloadChain implements Runnable {
         return connection;
     }
 
+    /**
+     * Disable the source this block failed to connect to, and connect to another source next
+     * time if there is.
+     *
+     * @return {@code true} if this block can connect to another source.
+     */
+    public synchronized boolean failoverSource(@NonNull IOException e) {
+        final MirrorSelector mirrorSelector = cache.getMirrorSelector();
+        if (mirrorSelector == null || source == null) return false;
+        if (e instanceof InterruptException || e instanceof NetworkPolicyException) return false;
+        // the resource of the task has been changed, so the mirrors are expired too.
+        if (source.isPrimary() && e instanceof ResumeFailedException) return false;
+
+        Util.d(TAG, "block[" + blockIndex + "] failed on " + source.getUrl() + " " + e);
+        final boolean hasAnotherSource = mirrorSelector.failover(source);
+        source = null;
+        return hasAnotherSource;
+    }
+
+    synchronized void releaseSource() {
+        final MirrorSelector mirrorSelector = cache.getMirrorSelector();
+        if (mirrorSelector == null || source == null) return;
+
+        mirrorSelector.release(source, fetchedLength,
+                mirrorSelector.nowMillis() - sourceStartMillis);
+        source = null;
+    }
+
     public void increaseCallbackBytes(long increaseBytes) {
         this.noCallbackIncreaseBytes += increaseBytes;
     }
@@ -184,18 +255,149 @@ public class DownloadChain implements Runnable {
 
         dispatcher.dispatch().fetchStart(task, blockIndex, getResponseContentLength());
         // fetch chain
+        final ByteArrayPool bufferPool = OkDownload.with().bufferPool();
+        final byte[] readBuffer = bufferPool.acquire(task.getReadBufferSize());
+        final DownloadConnection.Transferable transferable =
+                connected instanceof DownloadConnection.Transferable
+                        ? (DownloadConnection.Transferable) connected : null;
         final FetchDataInterceptor fetchDataInterceptor =
                 new FetchDataInterceptor(blockIndex, connected.getInputStream(),
-                        getOutputStream(), task);
+                        getOutputStream(), task, readBuffer, transferable);
         fetchInterceptorList.add(retryInterceptor);
         fetchInterceptorList.add(breakpointInterceptor);
         fetchInterceptorList.add(fetchDataInterceptor);
 
         fetchIndex = 0;
-        final long totalFetchedBytes = processFetch();
+        startFetch(info.getBlock(blockIndex).getRangeLeft());
+        final long totalFetchedBytes;
+        try {
+            totalFetchedBytes = processFetch();
+        } finally {
+            endFetch();
+            releaseSource();
+            // the fetch data interceptor is never used after the fetch chain is finished.
+            bufferPool.release(readBuffer);
+        }
         dispatcher.dispatch().fetchEnd(task, blockIndex, totalFetchedBytes);
     }
 
+    synchronized void startFetch(long fetchStartOffset) {
+        this.fetchStartOffset = fetchStartOffset;
+        this.fetchedLength = 0;
+        this.fetching = true;
+
+        final BlockSplitter blockSplitter = this.blockSplitter;
+        if (blockSplitter != null && blockSplitter.isHedgeEnabled()) {
+            fetchSpeedCalculator = new SpeedCalculator();
+            fetchSpeedCalculator.downloading(0);
+        }
+    }
+
+    synchronized void endFetch() {
+        this.fetching = false;
+        if (fetchSpeedCalculator != null) fetchSpeedCalculator.endTask();
+    }
+
+    /**
+     * Accept the bytes fetched from the response, the bytes out of the range of the block are
+     * dropped once the tail of the block has been split to another block.
+     *
+     * @return the length of the bytes can be written to the block.
+     */
+    public synchronized int acceptFetchLength(int fetchLength) {
+        if (split) {
+            final long remainLength = responseContentLength - fetchedLength;
+            if (fetchLength > remainLength) fetchLength = (int) Math.max(remainLength, 0);
+        }
+
+        fetchedLength += fetchLength;
+        if (fetchSpeedCalculator != null) fetchSpeedCalculator.downloading(fetchLength);
+        return fetchLength;
+    }
+
+    /**
+     * @return {@code true} if the remaining range of this block has been handed over to the
+     * hedged fetch, so the failure of reading on the released connection is expected.
+     */
+    public synchronized boolean isHandedOver() {
+        return handedOver;
+    }
+
+    /**
+     * @return the average speed of fetching this block from the beginning, or {@code -1} if the
+     * speed isn't measured.
+     */
+    synchronized long getFetchBytesPerSecond() {
+        if (fetchSpeedCalculator == null) return -1;
+        return fetchSpeedCalculator.getBytesPerSecondFromBegin();
+    }
+
+    /**
+     * @return the offset of the next byte to fetch on this block.
+     */
+    synchronized long getFetchOffset() {
+        return fetchStartOffset + fetchedLength;
+    }
+
+    /**
+     * @return the length of the range which isn't fetched yet, it's {@code 0} if this chain isn't
+     * fetching or the response is chunked.
+     */
+    synchronized long getRemainingFetchLength() {
+        if (!fetching || responseContentLength == CHUNKED_CONTENT_LENGTH) return 0;
+        return responseContentLength - fetchedLength;
+    }
+
+    /**
+     * Split the latter half of the remaining range of this block to a new block.
+     *
+     * @param minSplitLength the minimum length of the split range.
+     * @return the index of the new block on the info, or {@code -1} if the remaining range is
+     * too small to split.
+     */
+    synchronized int splitRemaining(long minSplitLength) {
+        final long splitLength = getRemainingFetchLength() / 2;
+        if (splitLength <= 0 || splitLength < minSplitLength) return -1;
+
+        // the response must be just the range of the block.
+        final long fetchRangeRight = fetchStartOffset + responseContentLength - 1;
+        if (fetchRangeRight != info.getBlock(blockIndex).getRangeRight()) return -1;
+
+        final int splitBlockIndex = info.splitBlock(blockIndex,
+                fetchRangeRight + 1 - splitLength);
+        responseContentLength -= splitLength;
+        split = true;
+        return splitBlockIndex;
+    }
+
+    /**
+     * Hand over the remaining range of this block to a new block, once the hedged fetch has
+     * delivered the bytes over the offset this block reached.
+     *
+     * @param deliveredOffset the offset of the next byte the hedged fetch is going to deliver.
+     * @return the index of the new block on the info, or {@code -1} if this block has reached the
+     * delivered offset or the remaining range can't be handed over.
+     */
+    synchronized int handOverRemaining(long deliveredOffset) {
+        if (getRemainingFetchLength() <= 0) return -1;
+
+        final long fetchOffset = fetchStartOffset + fetchedLength;
+        if (fetchOffset >= deliveredOffset) return -1;
+
+        // the response must be just the range of the block.
+        final long fetchRangeRight = fetchStartOffset + responseContentLength - 1;
+        final BlockInfo blockInfo = info.getBlock(blockIndex);
+        if (fetchRangeRight != blockInfo.getRangeRight()) return -1;
+        // the block can't be empty.
+        if (fetchOffset <= blockInfo.getRangeLeft()) return -1;
+
+        final int handOverBlockIndex = info.splitBlock(blockIndex, fetchOffset);
+        responseContentLength = fetchedLength;
+        split = true;
+        handedOver = true;
+        return handOverBlockIndex;
+    }
+
     public void resetConnectForRetry() {
         connectIndex = 1;
         releaseConnection();
@@ -245,16 +447,44 @@ public class DownloadChain implements Runnable {
 
         try {
             start();
+            stealBlocks();
         } catch (IOException ignored) {
             // interrupt.
         } finally {
             finished.set(true);
+            releaseSource();
             releaseConnectionAsync();
         }
     }
 
+    // run the blocks split from the other running blocks and then the hedged fetches of the
+    // straggler blocks on this thread until there is nothing to steal, this chain isn't finished
+    // until then so it can be canceled as usual.
+    void stealBlocks() {
+        final BlockSplitter blockSplitter = this.blockSplitter;
+        if (blockSplitter == null) return;
+
+        while (true) {
+            final DownloadChain stolenChain = blockSplitter.split();
+            if (stolenChain != null) {
+                releaseConnection();
+                stolenChain.run();
+            } else {
+                final HedgedFetch hedgedFetch = blockSplitter.hedge();
+                if (hedgedFetch == null) return;
+
+                releaseConnection();
+                hedgedFetch.run();
+            }
+
+            if (cache.isInterrupt()) return;
+        }
+    }
+
     void releaseConnectionAsync() {
-        EXECUTOR.execute(releaseConnectionRunnable);
+        // not on the block pool, the release mustn't wait behind the fetching blocks on a bounded
+        // one while holding the socket.
+        OkDownload.with().downloadExecutors().fileIoExecutor().execute(releaseConnectionRunnable);
     }
 
     private final Runnable releaseConnectionRunnable = new Runnable() {
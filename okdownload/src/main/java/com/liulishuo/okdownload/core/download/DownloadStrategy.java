@@ -61,6 +61,9 @@ public class DownloadStrategy {
     // 4 connection: [50MB, 100MB)
     private static final long FOUR_CONNECTION_UPPER_LIMIT = 100 * 1024 * 1024; // 100MiB
 
+    private static final long MIN_SPLIT_BLOCK_LENGTH = 1024 * 1024; // 1MiB
+    private static final int MAX_SPLIT_BLOCK_COUNT = 8;
+
     public ResumeAvailableResponseCheck resumeAvailableResponseCheck(
             DownloadConnection.Connected connected,
             int blockIndex,
@@ -90,6 +93,103 @@ public class DownloadStrategy {
         return 5;
     }
 
+    /**
+     * Inspect the throughput of the blocks of the {@code task} which are downloaded at the same
+     * time without any error, it's ignored on this strategy.
+     *
+     * @param blockCount     the count of the blocks(connections) downloaded at the same time.
+     * @param increaseBytes  the bytes downloaded on this time.
+     * @param bytesPerSecond the aggregate throughput of all these blocks.
+     * @see AdaptiveDownloadStrategy
+     */
+    public void inspectThroughput(@NonNull DownloadTask task, int blockCount,
+                                  long increaseBytes, long bytesPerSecond) {
+    }
+
+    /**
+     * Once a block of the {@code task} finishes, its connection steals the half of the remaining
+     * range from the block which has the largest remaining range, so the slow block doesn't drag
+     * the whole task out.
+     * <p>
+     * It's disabled by default, because splitting changes the block layout of the
+     * {@link com.liulishuo.okdownload.core.breakpoint.BreakpointInfo} during downloading: the
+     * split blocks are appended after the original blocks out of the order of the file, and they
+     * are persisted to the store, called back to the listeners and resumed from as the other
+     * blocks. You can enable it by overriding this method with the minimum length, such as
+     * {@code 1024 * 1024}, and providing the strategy on
+     * {@link com.liulishuo.okdownload.OkDownload.Builder#downloadStrategy(DownloadStrategy)}.
+     *
+     * @return the minimum length of the stolen range, the block with the less remaining range
+     * isn't split, and return {@code 0} to never split blocks.
+     */
+    public long minSplitBlockLength(@NonNull DownloadTask task) {
+        return 0;
+    }
+
+    /**
+     * @return the maximum count of the blocks split from the running blocks of the {@code task}
+     * on one time of downloading, it's only used when {@link #minSplitBlockLength(DownloadTask)}
+     * is more than {@code 0}.
+     */
+    public int maxSplitBlockCount(@NonNull DownloadTask task) {
+        return MAX_SPLIT_BLOCK_COUNT;
+    }
+
+    /**
+     * Once a block of the {@code task} finishes and there isn't any range worth splitting, its
+     * connection requests the remaining range of the straggler block once more, the first
+     * connection delivers the range wins and the other one is cancelled.
+     * <p>
+     * It's disabled by default, because each hedge sends one more ranged request to the server
+     * and downloads the hedged range once more. You can enable it by overriding this method
+     * with a {@link HedgePolicy}, and providing the strategy on
+     * {@link com.liulishuo.okdownload.OkDownload.Builder#downloadStrategy(DownloadStrategy)}.
+     *
+     * @return the policy to decide which block is the straggler, or {@code null} to never hedge
+     * the straggler block.
+     */
+    @Nullable public HedgePolicy hedgePolicy(@NonNull DownloadTask task) {
+        return null;
+    }
+
+    /**
+     * Get the max instance length of the resource which is fetched on the trial connection
+     * directly: the trial connection requests the whole resource instead of the range 0-0, and the
+     * only block of the task fetches its response instead of connecting again.
+     * <p>
+     * The larger resource found on the trial connection is still downloaded with the blocks.
+     *
+     * @return {@code 0} to always trial with the range 0-0.
+     */
+    public long trialFetchMaxLength(@NonNull DownloadTask task) {
+        return 0;
+    }
+
+    /**
+     * Get the cache of the trial connection results, which is consulted before the trial
+     * connection of each task without the custom request headers.
+     * <p>
+     * It's disabled by default. The task whose trial result is restored from the cache doesn't
+     * connect on the trial, so {@link com.liulishuo.okdownload.DownloadListener#connectTrialStart}
+     * and {@link com.liulishuo.okdownload.DownloadListener#connectTrialEnd} aren't called back for
+     * it. You can enable it by overriding this method to return the same
+     * {@link ConnectTrialCache} each time.
+     *
+     * @return {@code null} to always trial the connection.
+     */
+    @Nullable public ConnectTrialCache connectTrialCache() {
+        return null;
+    }
+
+    /**
+     * Invalidate the cached trial result of the {@code url}, because its response is found
+     * precondition failed or server canceled.
+     */
+    public void invalidateConnectTrial(@NonNull String url) {
+        final ConnectTrialCache cache = connectTrialCache();
+        if (cache != null) cache.invalidate(url);
+    }
+
     public long reuseIdledSameInfoThresholdBytes() {
         return 10240;
     }
@@ -272,6 +372,87 @@ public class DownloadStrategy {
         }
     }
 
+    /**
+     * The policy of hedging the straggler block.
+     * <p>
+     * Each running hedge holds one read buffer with the
+     * {@link DownloadTask#getReadBufferSize()} borrowed from the
+     * {@link com.liulishuo.okdownload.OkDownload#bufferPool()}, so the memory scales with the read
+     * buffer size times the count of the concurrent hedges, at most {@link #getMaxHedgeCount()}
+     * for each task, rather than with the {@link #getMaxHedgeLength()}.
+     */
+    public static class HedgePolicy {
+        private static final float DEFAULT_MIN_PROGRESS = 0.95f;
+        private static final float DEFAULT_MAX_SPEED_RATIO = 0.25f;
+        private static final long DEFAULT_MAX_HEDGE_LENGTH = 2 * MIN_SPLIT_BLOCK_LENGTH;
+        private static final int DEFAULT_MAX_HEDGE_COUNT = 2;
+
+        private final float minProgress;
+        private final float maxSpeedRatio;
+        private final long maxHedgeLength;
+        private final int maxHedgeCount;
+
+        public HedgePolicy() {
+            this(DEFAULT_MIN_PROGRESS, DEFAULT_MAX_SPEED_RATIO, DEFAULT_MAX_HEDGE_LENGTH,
+                    DEFAULT_MAX_HEDGE_COUNT);
+        }
+
+        /**
+         * @param minProgress    the straggler block is hedged only when the progress of the task
+         *                       reaches this ratio.
+         * @param maxSpeedRatio  the block is the straggler only when its speed is less than this
+         *                       ratio of the average speed of its sibling blocks.
+         * @param maxHedgeLength the remaining range longer than this one isn't hedged, because
+         *                       the hedged range is downloaded once more.
+         * @param maxHedgeCount  the maximum count of the hedged blocks on one time of
+         *                       downloading.
+         */
+        public HedgePolicy(float minProgress, float maxSpeedRatio, long maxHedgeLength,
+                           int maxHedgeCount) {
+            if (minProgress < 0 || minProgress > 1) {
+                throw new IllegalArgumentException("The min progress " + minProgress
+                        + " must be in [0, 1]");
+            }
+            if (maxHedgeLength <= 0 || maxHedgeLength > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("The max hedge length " + maxHedgeLength
+                        + " must be in (0, " + Integer.MAX_VALUE + "]");
+            }
+
+            this.minProgress = minProgress;
+            this.maxSpeedRatio = maxSpeedRatio;
+            this.maxHedgeLength = maxHedgeLength;
+            this.maxHedgeCount = maxHedgeCount;
+        }
+
+        public float getMinProgress() {
+            return minProgress;
+        }
+
+        public float getMaxSpeedRatio() {
+            return maxSpeedRatio;
+        }
+
+        public long getMaxHedgeLength() {
+            return maxHedgeLength;
+        }
+
+        public int getMaxHedgeCount() {
+            return maxHedgeCount;
+        }
+
+        public boolean isProgressEnough(long totalOffset, long totalLength) {
+            return totalLength > 0 && totalOffset >= totalLength * minProgress;
+        }
+
+        public boolean isStraggler(long bytesPerSecond, long siblingBytesPerSecond) {
+            return bytesPerSecond < siblingBytesPerSecond * maxSpeedRatio;
+        }
+
+        public boolean isHedgeable(long remainingLength) {
+            return remainingLength > 0 && remainingLength <= maxHedgeLength;
+        }
+    }
+
     public static class ResumeAvailableResponseCheck {
         @NonNull private DownloadConnection.Connected connected;
         @NonNull private BreakpointInfo info;
@@ -294,6 +475,7 @@ public class DownloadStrategy {
                             info, newEtag);
             if (resumeFailedCause != null) {
                 // resume failed, relaunch from beginning.
+                OkDownload.with().downloadStrategy().invalidateConnectTrial(info.getUrl());
                 throw new ResumeFailedException(resumeFailedCause);
             }
 
@@ -301,6 +483,7 @@ public class DownloadStrategy {
                     .isServerCanceled(code, blockInfo.getCurrentOffset() != 0);
             if (isServerCancelled) {
                 // server cancelled, end task.
+                OkDownload.with().downloadStrategy().invalidateConnectTrial(info.getUrl());
                 throw new ServerCanceledException(code, blockInfo.getCurrentOffset());
             }
         }
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.download;
+
+import android.support.annotation.NonNull;
+
+import com.liulishuo.okdownload.DownloadTask;
+import com.liulishuo.okdownload.OkDownload;
+import com.liulishuo.okdownload.core.Util;
+import com.liulishuo.okdownload.core.breakpoint.BreakpointInfo;
+import com.liulishuo.okdownload.core.connection.DownloadConnection;
+import com.liulishuo.okdownload.core.dispatcher.CallbackDispatcher;
+import com.liulishuo.okdownload.core.file.ByteArrayPool;
+import com.liulishuo.okdownload.core.file.MultiPointOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+
+import static com.liulishuo.okdownload.core.Util.CONTENT_LENGTH;
+import static com.liulishuo.okdownload.core.Util.IF_MATCH;
+import static com.liulishuo.okdownload.core.Util.RANGE;
+import static com.liulishuo.okdownload.core.Util.USER_AGENT;
+
+/**
+ * Request the remaining range of the straggler block once more on another connection.
+ * <p>
+ * The bytes are read through one read buffer borrowed from the
+ * {@link com.liulishuo.okdownload.OkDownload#bufferPool()}, and dropped until this connection
+ * delivers the bytes over the offset the straggler block reached, then the remaining range of the
+ * straggler block is handed over to a new block for this connection, and the connection of the
+ * straggler block is released. If the straggler block reaches its end first, this fetch stops.
+ */
+class HedgedFetch {
+
+    private static final String TAG = "HedgedFetch";
+
+    @NonNull private final DownloadTask task;
+    @NonNull private final BreakpointInfo info;
+    @NonNull private final DownloadCache cache;
+    @NonNull private final BlockSplitter blockSplitter;
+    @NonNull private final DownloadChain stragglerChain;
+
+    private final long rangeLeft;
+    private final long rangeRight;
+
+    // the index of the block handed over to this fetch, or -1 if it doesn't win yet.
+    private int blockIndex = -1;
+    private long noCallbackIncreaseBytes;
+
+    HedgedFetch(@NonNull DownloadTask task, @NonNull BreakpointInfo info,
+                @NonNull DownloadCache cache, @NonNull BlockSplitter blockSplitter,
+                @NonNull DownloadChain stragglerChain, long rangeLeft, long rangeRight) {
+        this.task = task;
+        this.info = info;
+        this.cache = cache;
+        this.blockSplitter = blockSplitter;
+        this.stragglerChain = stragglerChain;
+        this.rangeLeft = rangeLeft;
+        this.rangeRight = rangeRight;
+    }
+
+    @NonNull DownloadChain getStragglerChain() {
+        return stragglerChain;
+    }
+
+    long getRangeLeft() {
+        return rangeLeft;
+    }
+
+    long getRangeRight() {
+        return rangeRight;
+    }
+
+    void run() {
+        DownloadConnection connection = null;
+        try {
+            connection = createConnection();
+            fetch(connection);
+        } catch (IOException e) {
+            if (blockIndex < 0) {
+                // the straggler block is still in charge of the range.
+                Util.d(TAG, "hedged fetch failed on " + task.getId() + " " + e);
+            } else {
+                cache.catchException(e);
+            }
+        } finally {
+            if (connection != null) connection.release();
+        }
+    }
+
+    @NonNull DownloadConnection createConnection() throws IOException {
+        final String redirectLocation = cache.getRedirectLocation();
+        final String url = redirectLocation != null ? redirectLocation : info.getUrl();
+        final DownloadConnection connection = OkDownload.with().connectionFactory().create(url);
+
+        final Map<String, List<String>> userHeader = task.getHeaderMapFields();
+        if (userHeader != null) Util.addUserRequestHeaderField(userHeader, connection);
+        if (userHeader == null || !userHeader.containsKey(USER_AGENT)) {
+            Util.addDefaultUserAgent(connection);
+        }
+        connection.addHeader(RANGE, "bytes=" + rangeLeft + "-" + rangeRight);
+        final String etag = info.getEtag();
+        if (!Util.isEmpty(etag)) connection.addHeader(IF_MATCH, etag);
+        return connection;
+    }
+
+    private void fetch(@NonNull DownloadConnection connection) throws IOException {
+        final long length = rangeRight - rangeLeft + 1;
+        final DownloadConnection.Connected connected = connection.execute();
+        if (connected.getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+                || Util.parseContentLength(connected.getResponseHeaderField(CONTENT_LENGTH))
+                != length) {
+            Util.d(TAG, "the response of the hedged fetch isn't the range on " + task.getId()
+                    + " " + connected.getResponseCode());
+            return;
+        }
+
+        final ByteArrayPool bufferPool = OkDownload.with().bufferPool();
+        final byte[] buffer = bufferPool.acquire(task.getReadBufferSize());
+        try {
+            fetch(connected.getInputStream(), buffer, length);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+
+    private void fetch(@NonNull InputStream inputStream, @NonNull byte[] buffer, long length)
+            throws IOException {
+        long fetchedLength = 0;
+        while (fetchedLength < length && !cache.isInterrupt()) {
+            final int readLength = inputStream.read(buffer, 0,
+                    (int) Math.min(buffer.length, length - fetchedLength));
+            if (readLength == -1) break;
+
+            final long readRangeLeft = rangeLeft + fetchedLength;
+            fetchedLength += readLength;
+            if (blockIndex < 0) {
+                // the straggler block reached its end first.
+                if (stragglerChain.getRemainingFetchLength() <= 0) return;
+                // the bytes read before are dropped, so the range can only be handed over on the
+                // bytes on the buffer.
+                if (stragglerChain.getFetchOffset() < readRangeLeft) return;
+
+                blockIndex = blockSplitter.handOver(stragglerChain, rangeLeft + fetchedLength);
+                if (blockIndex < 0) continue;
+
+                // the connection of the straggler block may be blocked on reading.
+                stragglerChain.releaseConnection();
+                final long blockRangeLeft = info.getBlock(blockIndex).getRangeLeft();
+                final int handOverOffset = (int) (blockRangeLeft - readRangeLeft);
+                OkDownload.with().callbackDispatcher().dispatch()
+                        .fetchStart(task, blockIndex, rangeRight + 1 - blockRangeLeft);
+                write(buffer, handOverOffset, readLength - handOverOffset);
+            } else {
+                write(buffer, 0, readLength);
+            }
+        }
+
+        if (blockIndex < 0) return;
+
+        if (fetchedLength < length) {
+            if (cache.isInterrupt()) return;
+            throw new IOException("The hedged fetch is finished on " + fetchedLength
+                    + " but the range length is " + length);
+        }
+
+        flushNoCallbackIncreaseBytes();
+        cache.getOutputStream().done(blockIndex);
+        final long blockLength = info.getBlock(blockIndex).getContentLength();
+        OkDownload.with().callbackDispatcher().dispatch().fetchEnd(task, blockIndex, blockLength);
+    }
+
+    private void write(byte[] buffer, int offset, int length) throws IOException {
+        final MultiPointOutputStream outputStream = cache.getOutputStream();
+        outputStream.write(blockIndex, buffer, offset, length);
+
+        noCallbackIncreaseBytes += length;
+        final CallbackDispatcher dispatcher = OkDownload.with().callbackDispatcher();
+        if (dispatcher.isFetchProcessMoment(task)) flushNoCallbackIncreaseBytes();
+    }
+
+    private void flushNoCallbackIncreaseBytes() {
+        if (noCallbackIncreaseBytes == 0) return;
+
+        OkDownload.with().callbackDispatcher().dispatch()
+                .fetchProgress(task, blockIndex, noCallbackIncreaseBytes);
+        noCallbackIncreaseBytes = 0;
+    }
+}
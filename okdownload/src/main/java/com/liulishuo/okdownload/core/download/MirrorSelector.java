@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.download;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.liulishuo.okdownload.DownloadTask;
+import com.liulishuo.okdownload.OkDownload;
+import com.liulishuo.okdownload.core.Util;
+import com.liulishuo.okdownload.core.breakpoint.BreakpointInfo;
+import com.liulishuo.okdownload.core.connection.DownloadConnection;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.liulishuo.okdownload.core.Util.CONTENT_RANGE;
+import static com.liulishuo.okdownload.core.Util.ETAG;
+import static com.liulishuo.okdownload.core.Util.IF_MATCH;
+import static com.liulishuo.okdownload.core.Util.RANGE;
+import static com.liulishuo.okdownload.core.Util.USER_AGENT;
+
+/**
+ * Assign the blocks of the task across the url of the task and its mirrors.
+ * <p>
+ * The block connects to the source with the highest measured throughput shared by the blocks
+ * already connected to it, the source which isn't measured yet is preferred so each source is
+ * measured. The source is disabled once a block fails to connect to it.
+ * <p>
+ * The mirror is verified on the thread of the block which selects it first, so the mirrors are
+ * verified in parallel by the blocks instead of one after another before starting the blocks.
+ */
+class MirrorSelector {
+
+    private static final String TAG = "MirrorSelector";
+
+    @NonNull private final DownloadTask task;
+    @NonNull private final BreakpointInfo info;
+
+    // the first one is the url of the task.
+    @NonNull private final List<Source> sourceList;
+
+    MirrorSelector(@NonNull DownloadTask task, @NonNull BreakpointInfo info,
+                   @NonNull List<String> urlList) {
+        if (urlList.isEmpty()) throw new IllegalArgumentException("There isn't any url!");
+
+        this.task = task;
+        this.info = info;
+        final List<Source> sourceList = new ArrayList<>(urlList.size());
+        for (int i = 0; i < urlList.size(); i++) {
+            sourceList.add(new Source(urlList.get(i), i == 0));
+        }
+        this.sourceList = Collections.unmodifiableList(sourceList);
+    }
+
+    @NonNull List<Source> getSourceList() {
+        return sourceList;
+    }
+
+    /**
+     * Select the source for a new block, it should be returned through
+     * {@link #release(Source, long, long)} or {@link #failover(Source)}.
+     * <p>
+     * If the selected mirror isn't verified yet, it's verified on this thread, and another source
+     * is selected if it isn't verified.
+     */
+    @NonNull Source select() {
+        while (true) {
+            final Source source;
+            synchronized (this) {
+                source = selectLocked();
+                if (source.verified) return source;
+                // the other blocks select another source in the meantime.
+                source.verifying = true;
+            }
+
+            final String verifiedUrl = verify(source);
+            synchronized (this) {
+                source.verifying = false;
+                if (verifiedUrl != null) {
+                    source.url = verifiedUrl;
+                    source.verified = true;
+                    return source;
+                }
+
+                if (source.activeCount > 0) source.activeCount--;
+                source.failed = true;
+                Util.d(TAG, "disable the mirror " + source.url);
+            }
+        }
+    }
+
+    @NonNull private Source selectLocked() {
+        Source bestSource = null;
+        long bestScore = -1;
+        for (Source source : sourceList) {
+            if (source.failed || source.verifying) continue;
+
+            final long score = source.score();
+            if (score > bestScore) {
+                bestSource = source;
+                bestScore = score;
+            }
+        }
+
+        // every source is failed, the url of the task is still the last resort.
+        if (bestSource == null) bestSource = sourceList.get(0);
+
+        bestSource.activeCount++;
+        return bestSource;
+    }
+
+    /**
+     * The block has fetched {@code fetchedBytes} from the {@code source} within the
+     * {@code elapsedMillis}.
+     */
+    synchronized void release(@NonNull Source source, long fetchedBytes, long elapsedMillis) {
+        if (source.activeCount > 0) source.activeCount--;
+        if (fetchedBytes <= 0) return;
+
+        source.fetchedBytes += fetchedBytes;
+        source.fetchMillis += Math.max(elapsedMillis, 1);
+    }
+
+    /**
+     * The block failed on the {@code source}, so the {@code source} is disabled.
+     *
+     * @return {@code true} if there is another source for the block.
+     */
+    synchronized boolean failover(@NonNull Source source) {
+        if (source.activeCount > 0) source.activeCount--;
+        source.failed = true;
+        Util.d(TAG, "disable the source " + source.url);
+
+        for (Source another : sourceList) {
+            if (!another.failed) return true;
+        }
+        return false;
+    }
+
+    // convenient for unit-test.
+    long nowMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
+    // convenient for unit-test.
+    @Nullable String verify(@NonNull Source source) {
+        return verifyMirror(task, info, source.url);
+    }
+
+    /**
+     * Create the selector with the {@code primaryUrl} and the mirrors of the {@code task}, the
+     * mirrors are verified once they are selected.
+     *
+     * @return the selector, {@code null} if there isn't any mirror.
+     */
+    @Nullable static MirrorSelector create(@NonNull DownloadTask task,
+                                           @NonNull BreakpointInfo info,
+                                           @NonNull String primaryUrl) {
+        final List<String> mirrorUrls = task.getMirrorUrls();
+        if (mirrorUrls == null || mirrorUrls.isEmpty()) return null;
+
+        final List<String> urlList = new ArrayList<>(mirrorUrls.size() + 1);
+        urlList.add(primaryUrl);
+        for (String mirrorUrl : mirrorUrls) {
+            if (!urlList.contains(mirrorUrl)) urlList.add(mirrorUrl);
+        }
+
+        if (urlList.size() <= 1) return null;
+        Util.d(TAG, "task[" + task.getId() + "] fetch from " + urlList);
+        return new MirrorSelector(task, info, urlList);
+    }
+
+    /**
+     * Request the first byte of the resource from the {@code mirrorUrl}, the mirror is verified
+     * only if its instance length and etag are the same as the {@code info}.
+     *
+     * @return the url to connect for the mirror, {@code null} if the mirror isn't verified.
+     */
+    @Nullable static String verifyMirror(@NonNull DownloadTask task,
+                                         @NonNull BreakpointInfo info,
+                                         @NonNull String mirrorUrl) {
+        DownloadConnection connection = null;
+        try {
+            connection = OkDownload.with().connectionFactory().create(mirrorUrl);
+
+            final Map<String, List<String>> userHeader = task.getHeaderMapFields();
+            if (userHeader != null) Util.addUserRequestHeaderField(userHeader, connection);
+            if (userHeader == null || !userHeader.containsKey(USER_AGENT)) {
+                Util.addDefaultUserAgent(connection);
+            }
+            connection.addHeader(RANGE, "bytes=0-0");
+            final String etag = info.getEtag();
+            if (!Util.isEmpty(etag)) connection.addHeader(IF_MATCH, etag);
+
+            final DownloadConnection.Connected connected = connection.execute();
+            final int responseCode = connected.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                Util.d(TAG, "mirror " + mirrorUrl + " doesn't accept range " + responseCode);
+                return null;
+            }
+
+            final long instanceLength = ConnectTrial.parseContentRangeFoInstanceLength(
+                    connected.getResponseHeaderField(CONTENT_RANGE));
+            if (instanceLength != info.getTotalLength()) {
+                Util.d(TAG, "mirror " + mirrorUrl + " has another length " + instanceLength);
+                return null;
+            }
+
+            if (!Util.isEmpty(etag) && !etag.equals(connected.getResponseHeaderField(ETAG))) {
+                Util.d(TAG, "mirror " + mirrorUrl + " has another etag");
+                return null;
+            }
+
+            final String redirectLocation = connected.getRedirectLocation();
+            return redirectLocation != null ? redirectLocation : mirrorUrl;
+        } catch (IOException e) {
+            Util.d(TAG, "verify mirror " + mirrorUrl + " failed " + e);
+            return null;
+        } finally {
+            if (connection != null) connection.release();
+        }
+    }
+
+    static class Source {
+        final boolean primary;
+
+        // guarded by the selector.
+        // the redirect location of the mirror once it's verified.
+        @NonNull String url;
+        // the url of the task is verified by the trial connection.
+        boolean verified;
+        boolean verifying;
+        int activeCount;
+        long fetchedBytes;
+        long fetchMillis;
+        boolean failed;
+
+        Source(@NonNull String url, boolean primary) {
+            this.url = url;
+            this.primary = primary;
+            this.verified = primary;
+        }
+
+        @NonNull String getUrl() {
+            return url;
+        }
+
+        boolean isPrimary() {
+            return primary;
+        }
+
+        long getBytesPerSecond() {
+            if (fetchMillis <= 0) return -1;
+            return fetchedBytes * 1000 / fetchMillis;
+        }
+
+        // the throughput shared by the blocks once another block joins this source.
+        long score() {
+            final long bytesPerSecond = getBytesPerSecond();
+            if (bytesPerSecond < 0) return Long.MAX_VALUE / (activeCount + 1);
+            return bytesPerSecond / (activeCount + 1);
+        }
+    }
+}
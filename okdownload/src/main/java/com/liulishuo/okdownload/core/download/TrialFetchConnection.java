@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.download;
+
+import android.support.annotation.NonNull;
+
+import com.liulishuo.okdownload.core.connection.DownloadConnection;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The trial connection whose response is the whole resource, it's handed over to the only block
+ * of the task, so the block fetches the response body instead of connecting again.
+ * <p>
+ * The request has been sent on the trial, so the headers added by the block are ignored, and
+ * {@link #execute()} returns the response of the trial.
+ */
+class TrialFetchConnection implements DownloadConnection {
+
+    @NonNull private final DownloadConnection connection;
+    @NonNull private final DownloadConnection.Connected connected;
+
+    TrialFetchConnection(@NonNull DownloadConnection connection,
+                         @NonNull DownloadConnection.Connected connected) {
+        this.connection = connection;
+        this.connected = connected;
+    }
+
+    @Override public void addHeader(String name, String value) {
+        // the request has been sent.
+    }
+
+    @Override public boolean setRequestMethod(@NonNull String method) {
+        return false;
+    }
+
+    @Override public Connected execute() throws IOException {
+        return connected;
+    }
+
+    @Override public void release() {
+        connection.release();
+    }
+
+    @Override public Map<String, List<String>> getRequestProperties() {
+        return connection.getRequestProperties();
+    }
+
+    @Override public String getRequestProperty(String key) {
+        return connection.getRequestProperty(key);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.file;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The fixed-size bit set which can be set from different threads without lock.
+ */
+class AtomicBitSet {
+    private final AtomicLongArray words;
+    private final int size;
+
+    AtomicBitSet(int size) {
+        this.size = size;
+        this.words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    void set(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " size " + size);
+        }
+
+        final int wordIndex = index >>> 6;
+        final long bit = 1L << index;
+        long word;
+        do {
+            word = words.get(wordIndex);
+            if ((word & bit) != 0) return;
+        } while (!words.compareAndSet(wordIndex, word, word | bit));
+    }
+
+    boolean get(int index) {
+        if (index < 0 || index >= size) return false;
+        return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    int cardinality() {
+        int count = 0;
+        final int length = words.length();
+        for (int i = 0; i < length; i++) {
+            count += Long.bitCount(words.get(i));
+        }
+        return count;
+    }
+
+    int size() {
+        return size;
+    }
+}
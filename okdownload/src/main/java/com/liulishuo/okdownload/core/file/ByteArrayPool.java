@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.file;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The pool of the read buffers of the connections and the flush buffers of the output streams,
+ * so downloading a lot of small files doesn't allocate new buffers for each block.
+ * <p>
+ * The buffers are pooled by their exact size, because each size is used as the exact length of
+ * reading or buffering. The released buffer is dropped once the pooled bytes reach the
+ * {@code maxPoolBytes}.
+ * <p>
+ * You can provide it on
+ * {@link com.liulishuo.okdownload.OkDownload.Builder#bufferPool(ByteArrayPool)}.
+ */
+public class ByteArrayPool {
+
+    private static final long DEFAULT_MAX_POOL_BYTES = 1024 * 1024; // 1MiB
+
+    private final long maxPoolBytes;
+
+    // guarded by this pool.
+    private final Map<Integer, ArrayDeque<byte[]>> sizeClassMap = new HashMap<>();
+    private long pooledBytes;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public ByteArrayPool() {
+        this(DEFAULT_MAX_POOL_BYTES);
+    }
+
+    /**
+     * @param maxPoolBytes the maximum bytes of all pooled buffers, {@code 0} to never pool.
+     */
+    public ByteArrayPool(long maxPoolBytes) {
+        if (maxPoolBytes < 0) {
+            throw new IllegalArgumentException("The max pool bytes " + maxPoolBytes
+                    + " can't be negative");
+        }
+        this.maxPoolBytes = maxPoolBytes;
+    }
+
+    /**
+     * Borrow a buffer with the {@code size}, it should be returned through
+     * {@link #release(byte[])} once it isn't used anymore.
+     */
+    @NonNull public byte[] acquire(int size) {
+        synchronized (this) {
+            final ArrayDeque<byte[]> buffers = sizeClassMap.get(size);
+            if (buffers != null && !buffers.isEmpty()) {
+                pooledBytes -= size;
+                hitCount.incrementAndGet();
+                return buffers.pop();
+            }
+        }
+
+        missCount.incrementAndGet();
+        return new byte[size];
+    }
+
+    /**
+     * Return the {@code buffer} to this pool, the {@code buffer} can't be used anymore.
+     *
+     * @return {@code true} if the buffer is pooled, {@code false} if it's dropped because the
+     * pool is full.
+     */
+    public synchronized boolean release(@NonNull byte[] buffer) {
+        final int size = buffer.length;
+        if (size == 0 || pooledBytes + size > maxPoolBytes) return false;
+
+        ArrayDeque<byte[]> buffers = sizeClassMap.get(size);
+        if (buffers == null) {
+            buffers = new ArrayDeque<>();
+            sizeClassMap.put(size, buffers);
+        }
+        buffers.push(buffer);
+        pooledBytes += size;
+        return true;
+    }
+
+    public long getMaxPoolBytes() {
+        return maxPoolBytes;
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    /**
+     * @return the count of the buffers acquired from the pooled ones.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the count of the buffers allocated because there isn't any pooled one.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public synchronized void clear() {
+        sizeClassMap.clear();
+        pooledBytes = 0;
+    }
+
+    @Override public String toString() {
+        return "ByteArrayPool[pooled " + getPooledBytes() + "/" + maxPoolBytes + " bytes, hit "
+                + getHitCount() + ", miss " + getMissCount() + "]";
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.file;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The output stream which writes directly to the {@link FileChannel} of the target file with
+ * the positional {@link FileChannel#write(ByteBuffer, long)}, so there isn't any user-space
+ * buffer and the position of the shared file descriptor is never moved, which lets each block
+ * write to its own range concurrently.
+ */
+public class DownloadFileChannelOutputStream implements DownloadOutputStream {
+
+    @NonNull final FileChannel channel;
+    @NonNull final ParcelFileDescriptor pdf;
+    @NonNull final FileOutputStream fos;
+
+    private long position;
+
+    public DownloadFileChannelOutputStream(Context context, Uri uri) throws
+            FileNotFoundException {
+        final ParcelFileDescriptor pdf = context.getContentResolver().openFileDescriptor(uri, "rw");
+        if (pdf == null) throw new FileNotFoundException("result of " + uri + " is null!");
+        this.pdf = pdf;
+
+        this.fos = new FileOutputStream(pdf.getFileDescriptor());
+        this.channel = fos.getChannel();
+    }
+
+    DownloadFileChannelOutputStream(@NonNull FileChannel channel,
+                                    @NonNull ParcelFileDescriptor pdf,
+                                    @NonNull FileOutputStream fos) {
+        this.channel = channel;
+        this.pdf = pdf;
+        this.fos = fos;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        fos.close();
+        pdf.close();
+    }
+
+    @Override
+    public void flushAndSync() throws IOException {
+        // there isn't any buffer on user-space, so only need to sync to the disk.
+        channel.force(false);
+    }
+
+    @Override
+    public void seek(long offset) {
+        this.position = offset;
+    }
+
+    @Override
+    public void setLength(long newLength) {
+        DownloadUriOutputStream.allocateLength(pdf.getFileDescriptor(), newLength);
+    }
+
+    long getPosition() {
+        return position;
+    }
+
+    public static class Factory implements DownloadOutputStream.Factory {
+
+        @Override
+        public DownloadOutputStream create(Context context, File file, int flushBufferSize) throws
+                FileNotFoundException {
+            return new DownloadFileChannelOutputStream(context, Uri.fromFile(file));
+        }
+
+        @Override
+        public DownloadOutputStream create(Context context, Uri uri, int flushBufferSize) throws
+                FileNotFoundException {
+            return new DownloadFileChannelOutputStream(context, uri);
+        }
+
+        @Override public boolean supportSeek() {
+            return true;
+        }
+    }
+}
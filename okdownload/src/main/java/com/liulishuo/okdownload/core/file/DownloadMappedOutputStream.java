@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.file;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.liulishuo.okdownload.core.Util;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The output stream which maps a window of the target file from the current position of the
+ * block and writes the bytes straight into the mapped region, so there isn't any
+ * {@code write} system call and the dirty pages are flushed by {@link MappedByteBuffer#force()}.
+ * <p>
+ * Only the region which has been allocated on the file is mapped, so this is effective only when
+ * the length is pre-allocated(see {@link ProcessFileStrategy#isPreAllocateLength}) and the
+ * response isn't chunked, otherwise the bytes are written positional through the channel.
+ */
+public class DownloadMappedOutputStream implements DownloadOutputStream {
+
+    private static final String TAG = "DownloadMappedOutputStream";
+
+    @NonNull final RandomAccessFile randomAccessFile;
+    @NonNull final FileChannel channel;
+    private final int windowSize;
+
+    private long position;
+
+    @Nullable volatile MappedByteBuffer window;
+    long windowStart;
+    volatile boolean windowDirty;
+    volatile boolean channelDirty;
+
+    public DownloadMappedOutputStream(@NonNull File file, int windowSize)
+            throws FileNotFoundException {
+        this(new RandomAccessFile(file, "rw"), windowSize);
+    }
+
+    DownloadMappedOutputStream(@NonNull RandomAccessFile randomAccessFile, int windowSize) {
+        this.randomAccessFile = randomAccessFile;
+        this.channel = randomAccessFile.getChannel();
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            final MappedByteBuffer window = windowOnPosition();
+            if (window == null) {
+                // out of the allocated region, write through the channel.
+                writeToChannel(b, off, len);
+                return;
+            }
+
+            final int length = Math.min(len, window.remaining());
+            window.put(b, off, length);
+            windowDirty = true;
+            position += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushAndSync();
+        } finally {
+            // there isn't a public way to unmap, the mapped region is released on gc.
+            window = null;
+            channel.close();
+            randomAccessFile.close();
+        }
+    }
+
+    @Override
+    public synchronized void flushAndSync() throws IOException {
+        // clear the dirty flag before force, so the bytes written during the force are forced
+        // on the next time.
+        final MappedByteBuffer window = this.window;
+        if (window != null && windowDirty) {
+            windowDirty = false;
+            window.force();
+        }
+
+        if (channelDirty) {
+            channelDirty = false;
+            channel.force(false);
+        }
+    }
+
+    @Override
+    public void seek(long offset) {
+        this.position = offset;
+    }
+
+    @Override
+    public void setLength(long newLength) throws IOException {
+        DownloadUriOutputStream.allocateLength(randomAccessFile.getFD(), newLength);
+    }
+
+    long getPosition() {
+        return position;
+    }
+
+    @Nullable MappedByteBuffer windowOnPosition() throws IOException {
+        final MappedByteBuffer window = this.window;
+        if (window != null && window.hasRemaining()
+                && windowStart + window.position() == position) {
+            return window;
+        }
+
+        return nextWindow();
+    }
+
+    // the lock is only required when the window is changed, to make sure the flushAndSync on the
+    // sync thread can't return before the replaced window is forced.
+    @Nullable private synchronized MappedByteBuffer nextWindow() throws IOException {
+        // the current window is full or the position is moved, force the dirty pages of it
+        // before mapping the next one.
+        final MappedByteBuffer window = this.window;
+        if (window != null && windowDirty) {
+            windowDirty = false;
+            window.force();
+        }
+        this.window = null;
+
+        final long allocatedLength = channel.size();
+        if (position >= allocatedLength) return null;
+
+        final long size = Math.min(windowSize, allocatedLength - position);
+        final MappedByteBuffer newWindow = channel.map(FileChannel.MapMode.READ_WRITE,
+                position, size);
+        this.window = newWindow;
+        this.windowStart = position;
+        Util.d(TAG, "map window [" + position + ", " + (position + size) + ")");
+        return newWindow;
+    }
+
+    private void writeToChannel(byte[] b, int off, int len) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channelDirty = true;
+    }
+
+    public static class Factory implements DownloadOutputStream.Factory {
+
+        public static final int DEFAULT_WINDOW_SIZE = 4 * 1024 * 1024;
+
+        private final int windowSize;
+        private final DownloadOutputStream.Factory fallbackFactory;
+
+        public Factory() {
+            this(DEFAULT_WINDOW_SIZE);
+        }
+
+        /**
+         * @param windowSize the max size of each mapped region for one block.
+         */
+        public Factory(int windowSize) {
+            this.windowSize = windowSize;
+            this.fallbackFactory = new DownloadFileChannelOutputStream.Factory();
+        }
+
+        @Override
+        public DownloadOutputStream create(Context context, File file, int flushBufferSize) throws
+                FileNotFoundException {
+            return new DownloadMappedOutputStream(file, windowSize);
+        }
+
+        @Override
+        public DownloadOutputStream create(Context context, Uri uri, int flushBufferSize) throws
+                FileNotFoundException {
+            // only the file on the filesystem can be opened as readable and writable channel
+            // which is required by mapping.
+            final String path = uri.getPath();
+            if (Util.isUriFileScheme(uri) && path != null) {
+                return new DownloadMappedOutputStream(new File(path), windowSize);
+            }
+
+            return fallbackFactory.create(context, uri, flushBufferSize);
+        }
+
+        @Override public boolean supportSeek() {
+            return true;
+        }
+    }
+}
@@ -21,13 +21,16 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.system.ErrnoException;
 import android.system.Os;
 import android.system.OsConstants;
+import com.liulishuo.okdownload.OkDownload;
 import com.liulishuo.okdownload.core.Util;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -42,13 +45,25 @@ public class DownloadUriOutputStream implements DownloadOutputStream {
 
     public DownloadUriOutputStream(Context context, Uri uri, int bufferSize) throws
             FileNotFoundException {
+        this(context, uri, bufferSize, null);
+    }
+
+    /**
+     * @param bufferPool the pool to borrow the flush buffer from, it's returned on
+     *                   {@link #close()}; {@code null} to allocate a new one.
+     */
+    public DownloadUriOutputStream(Context context, Uri uri, int bufferSize,
+                                   @Nullable ByteArrayPool bufferPool)
+            throws FileNotFoundException {
         final ParcelFileDescriptor pdf = context.getContentResolver().openFileDescriptor(uri, "rw");
         if (pdf == null) throw new FileNotFoundException("result of " + uri + " is null!");
         this.pdf = pdf;
 
         this.fos = new FileOutputStream(pdf.getFileDescriptor());
         this.channel = fos.getChannel();
-        this.out = new BufferedOutputStream(fos, bufferSize);
+        this.out = bufferPool == null
+                ? new BufferedOutputStream(fos, bufferSize)
+                : new PooledBufferedOutputStream(fos, bufferSize, bufferPool);
     }
 
     DownloadUriOutputStream(@NonNull FileChannel channel, @NonNull ParcelFileDescriptor pdf,
@@ -84,17 +99,21 @@ public class DownloadUriOutputStream implements DownloadOutputStream {
     }
     @Override
     public void setLength(long newLength) {
+        allocateLength(pdf.getFileDescriptor(), newLength);
+    }
+
+    static void allocateLength(@NonNull FileDescriptor fd, long newLength) {
         final String tag = "DownloadUriOutputStream";
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             try {
-                Os.posix_fallocate(pdf.getFileDescriptor(), 0, newLength);
+                Os.posix_fallocate(fd, 0, newLength);
             } catch (Throwable e) {
                 if (e instanceof ErrnoException) {
                     if (((ErrnoException) e).errno == OsConstants.ENOSYS
                             || ((ErrnoException) e).errno == OsConstants.ENOTSUP) {
                         Util.w(tag, "fallocate() not supported; falling back to ftruncate()");
                         try {
-                            Os.ftruncate(pdf.getFileDescriptor(), newLength);
+                            Os.ftruncate(fd, newLength);
                         } catch (Throwable e1) {
                             Util.w(tag, "It can't pre-allocate length(" + newLength + ") on the sdk"
                                     + " version(" + Build.VERSION.SDK_INT + "), because of " + e1);
@@ -117,13 +136,15 @@ public class DownloadUriOutputStream implements DownloadOutputStream {
         @Override
         public DownloadOutputStream create(Context context, File file, int flushBufferSize) throws
                 FileNotFoundException {
-            return new DownloadUriOutputStream(context, Uri.fromFile(file), flushBufferSize);
+            return new DownloadUriOutputStream(context, Uri.fromFile(file), flushBufferSize,
+                    OkDownload.with().bufferPool());
         }
 
         @Override
         public DownloadOutputStream create(Context context, Uri uri, int flushBufferSize) throws
                 FileNotFoundException {
-            return new DownloadUriOutputStream(context, uri, flushBufferSize);
+            return new DownloadUriOutputStream(context, uri, flushBufferSize,
+                    OkDownload.with().bufferPool());
         }
 
         @Override public boolean supportSeek() {
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.file;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.liulishuo.okdownload.OkDownload;
+import com.liulishuo.okdownload.core.Util;
+import com.liulishuo.okdownload.core.breakpoint.BatchSyncStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The only one sync loop for all running {@link MultiPointOutputStream}s.
+ * <p>
+ * On each tick, all output streams which reach their sync deadline are flushed and synced to
+ * the filesystem first, and then all synced lengths are persisted to the store in one batch if
+ * the store is a {@link BatchSyncStore}, so there isn't one parked thread and one uncoordinated
+ * fsync storm for each task.
+ */
+public class FileSyncScheduler {
+
+    private static final String TAG = "FileSyncScheduler";
+    private static final long FAILED_TICK_PARK_MILLS = 1000;
+
+    // the output streams which have been written and not finished yet.
+    @NonNull private final Set<MultiPointOutputStream> streams;
+
+    // only accessed on the sync loop.
+    private final List<MultiPointOutputStream> dueStreams = new ArrayList<>();
+
+    private boolean running;
+    volatile Thread runThread;
+
+    FileSyncScheduler(@NonNull Set<MultiPointOutputStream> streams) {
+        this.streams = streams;
+    }
+
+    FileSyncScheduler() {
+        this(Collections.newSetFromMap(
+                new ConcurrentHashMap<MultiPointOutputStream, Boolean>()));
+    }
+
+    /**
+     * Start syncing the {@code stream} periodically until all of its blocks are finished or it is
+     * removed.
+     */
+    public void schedule(@NonNull MultiPointOutputStream stream) {
+        streams.add(stream);
+        synchronized (this) {
+            if (!running) {
+                running = true;
+                executeLoop();
+                return;
+            }
+        }
+        wakeUp();
+    }
+
+    public void remove(@NonNull MultiPointOutputStream stream) {
+        streams.remove(stream);
+        // the waiters of this stream won't be woken by the loop any more.
+        stream.onUnscheduled();
+    }
+
+    /**
+     * Let the sync loop inspect all streams right now, such as there is a sync request.
+     */
+    public void wakeUp() {
+        final Thread thread = runThread;
+        if (thread != null) unparkThread(thread);
+    }
+
+    void runLoop() {
+        runThread = Thread.currentThread();
+        Util.d(TAG, "sync loop started");
+        while (true) {
+            long nextParkMills;
+            try {
+                nextParkMills = tick(now());
+            } catch (RuntimeException e) {
+                // this loop is shared by all tasks, so it must not die for anyone of them.
+                Util.w(TAG, "Sync loop tick failed with cause: " + e);
+                nextParkMills = FAILED_TICK_PARK_MILLS;
+            }
+
+            synchronized (this) {
+                // the stream scheduled after this check starts a new loop.
+                if (streams.isEmpty()) {
+                    runThread = null;
+                    running = false;
+                    Util.d(TAG, "sync loop stopped");
+                    return;
+                }
+            }
+
+            parkThread(nextParkMills);
+        }
+    }
+
+    /**
+     * Sync all output streams which reach their deadline.
+     *
+     * @return the milliseconds to the nearest deadline of the left output streams.
+     */
+    long tick(long now) {
+        long nextParkMills = Long.MAX_VALUE;
+        final List<MultiPointOutputStream> dueStreams = this.dueStreams;
+
+        for (MultiPointOutputStream stream : streams) {
+            final long delay = stream.getNextSyncDelay(now);
+            if (delay <= 0) {
+                dueStreams.add(stream);
+            } else {
+                nextParkMills = Math.min(nextParkMills, delay);
+            }
+        }
+
+        if (dueStreams.isEmpty()) return nextParkMills;
+
+        try {
+            // the bytes written before the waiters come are flushed on this tick.
+            for (MultiPointOutputStream stream : dueStreams) {
+                stream.prepareSync();
+            }
+
+            // flush and sync all output streams first, and then persist all synced lengths.
+            for (MultiPointOutputStream stream : dueStreams) {
+                try {
+                    stream.flushStreams();
+                } catch (RuntimeException e) {
+                    onSyncFailed(stream, e);
+                }
+            }
+
+            persistSyncedLengths(dueStreams);
+
+            for (MultiPointOutputStream stream : dueStreams) {
+                if (stream.syncException != null || stream.isNoMoreStreamOnSync()) {
+                    remove(stream);
+                } else {
+                    nextParkMills = Math.min(nextParkMills, stream.getSyncIntervalMills());
+                }
+            }
+        } finally {
+            for (MultiPointOutputStream stream : dueStreams) {
+                stream.completeSync();
+            }
+            dueStreams.clear();
+        }
+
+        return nextParkMills;
+    }
+
+    /**
+     * Persist the synced lengths of all {@code dueStreams}, the ones on the same
+     * {@link BatchSyncStore} are persisted in one batch of it, such as one transaction of the
+     * database for all tasks of this tick.
+     */
+    private static void persistSyncedLengths(@NonNull List<MultiPointOutputStream> dueStreams) {
+        // all tasks share the one store of OkDownload in general.
+        BatchSyncStore batchStore = null;
+        for (MultiPointOutputStream stream : dueStreams) {
+            if (stream.getStore() instanceof BatchSyncStore) {
+                batchStore = (BatchSyncStore) stream.getStore();
+                break;
+            }
+        }
+
+        if (batchStore != null) {
+            try {
+                batchStore.beginSyncBatch();
+            } catch (RuntimeException e) {
+                Util.w(TAG, "Begin the sync batch failed with cause: " + e);
+                batchStore = null;
+            }
+        }
+
+        try {
+            for (MultiPointOutputStream stream : dueStreams) {
+                if (stream.syncException != null) continue;
+
+                try {
+                    stream.persistSyncedLength();
+                } catch (IOException e) {
+                    onSyncFailed(stream, e);
+                } catch (RuntimeException e) {
+                    // such as the SQLiteFullException from the store.
+                    onSyncFailed(stream, e);
+                }
+            }
+        } finally {
+            if (batchStore != null) endSyncBatch(batchStore, dueStreams);
+        }
+    }
+
+    private static void endSyncBatch(@NonNull BatchSyncStore batchStore,
+                                     @NonNull List<MultiPointOutputStream> dueStreams) {
+        Exception exception;
+        try {
+            batchStore.endSyncBatch();
+            return;
+        } catch (IOException e) {
+            exception = e;
+        } catch (RuntimeException e) {
+            exception = e;
+        }
+
+        // the lengths persisted in this batch aren't committed.
+        for (MultiPointOutputStream stream : dueStreams) {
+            if (stream.getStore() == batchStore && stream.syncException == null) {
+                onSyncFailed(stream, exception);
+            }
+        }
+    }
+
+    // the failure is only for this stream, it is raised on its own blocks.
+    private static void onSyncFailed(@NonNull MultiPointOutputStream stream,
+                                     @NonNull Exception e) {
+        stream.syncException = e instanceof IOException ? (IOException) e : new IOException(e);
+        Util.w(TAG, "Sync to breakpoint-store for " + stream + " failed with cause: " + e);
+    }
+
+    // convenient for test
+    void executeLoop() {
+        OkDownload.with().downloadExecutors().fileIoExecutor().execute(new Runnable() {
+            @Override public void run() {
+                runLoop();
+            }
+        });
+    }
+
+    // convenient for test
+    void parkThread(long milliseconds) {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(milliseconds));
+    }
+
+    // convenient for test
+    void unparkThread(Thread thread) {
+        LockSupport.unpark(thread);
+    }
+
+    // convenient for test
+    long now() {
+        return SystemClock.uptimeMillis();
+    }
+}
@@ -21,48 +21,52 @@ import android.os.StatFs;
 import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.util.SparseArray;
 
 import com.liulishuo.okdownload.DownloadTask;
 import com.liulishuo.okdownload.OkDownload;
 import com.liulishuo.okdownload.core.Util;
+import com.liulishuo.okdownload.core.breakpoint.BatchSyncStore;
 import com.liulishuo.okdownload.core.breakpoint.BlockInfo;
 import com.liulishuo.okdownload.core.breakpoint.BreakpointInfo;
 import com.liulishuo.okdownload.core.breakpoint.DownloadStore;
+import com.liulishuo.okdownload.core.connection.DownloadConnection;
 import com.liulishuo.okdownload.core.cause.EndCause;
+import com.liulishuo.okdownload.core.exception.InterruptException;
 import com.liulishuo.okdownload.core.exception.PreAllocateException;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 public class MultiPointOutputStream {
     private static final String TAG = "MultiPointOutputStream";
-    private static final ExecutorService FILE_IO_EXECUTOR = new ThreadPoolExecutor(0,
-            Integer.MAX_VALUE,
-            60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
-            Util.threadFactory("OkDownload file io", false));
 
-    final SparseArray<DownloadOutputStream> outputStreamMap = new SparseArray<>();
+    // the states of each block are indexed by the block index, so there is no boxing or
+    // allocation on writing and syncing. They are sized with the block count on constructing, and
+    // may only be enlarged once by the first setRequireStreamBlocks before any block is written.
+    volatile AtomicReferenceArray<DownloadOutputStream> outputStreams;
+    volatile AtomicLongArray noSyncLengths;
+    volatile AtomicBitSet noMoreStreamBlocks;
+    private volatile long[] increaseLengths;
+    // the output stream of one block is only written, flushed or closed by one thread at a time.
+    private volatile Object[] blockLocks;
 
-    final SparseArray<AtomicLong> noSyncLengthMap = new SparseArray<>();
     final AtomicLong allNoSyncLength = new AtomicLong();
     final AtomicLong lastSyncTimestamp = new AtomicLong();
-    boolean canceled = false;
+    volatile boolean canceled = false;
 
     private final int flushBufferSize;
     private final int syncBufferSize;
@@ -73,23 +77,28 @@ public class MultiPointOutputStream {
     private final boolean supportSeek;
     private final boolean isPreAllocateLength;
 
-    volatile Future syncFuture;
-    volatile Thread runSyncThread;
-    final SparseArray<Thread> parkedRunBlockThreadMap = new SparseArray<>();
+    @NonNull private final FileSyncScheduler syncScheduler;
+    final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // the waiter for the next sync, it is woken by the sync scheduler after the sync.
+    final AtomicReference<FutureTask<Object>> syncWaiter = new AtomicReference<>();
+
+    // only accessed on the sync loop.
+    private FutureTask<Object> takenSyncWaiter;
+    private boolean noMoreStreamOnSync;
+    private boolean flushSucceeded;
 
-    @NonNull private final Runnable syncRunnable;
     private String path;
 
-    IOException syncException;
-    @NonNull ArrayList<Integer> noMoreStreamList;
+    volatile IOException syncException;
 
     @SuppressFBWarnings("IS2_INCONSISTENT_SYNC")
-    List<Integer> requireStreamBlocks;
+    volatile List<Integer> requireStreamBlocks;
 
     MultiPointOutputStream(@NonNull final DownloadTask task,
                            @NonNull BreakpointInfo info,
                            @NonNull DownloadStore store,
-                           @Nullable Runnable syncRunnable) {
+                           @NonNull FileSyncScheduler syncScheduler) {
         this.task = task;
         this.flushBufferSize = task.getFlushBufferSize();
         this.syncBufferSize = task.getSyncBufferSize();
@@ -100,18 +109,8 @@ public class MultiPointOutputStream {
         this.supportSeek = OkDownload.with().outputStreamFactory().supportSeek();
         this.isPreAllocateLength = OkDownload.with().processFileStrategy()
                 .isPreAllocateLength(task);
-        this.noMoreStreamList = new ArrayList<>();
-
-        if (syncRunnable == null) {
-            this.syncRunnable = new Runnable() {
-                @Override
-                public void run() {
-                    runSyncDelayException();
-                }
-            };
-        } else {
-            this.syncRunnable = syncRunnable;
-        }
+        this.syncScheduler = syncScheduler;
+        sizeBlockStates(info.getBlockCount());
 
         final File file = task.getFile();
         if (file != null) this.path = file.getAbsolutePath();
@@ -120,27 +119,59 @@ public class MultiPointOutputStream {
     public MultiPointOutputStream(@NonNull DownloadTask task,
                                   @NonNull BreakpointInfo info,
                                   @NonNull DownloadStore store) {
-        this(task, info, store, null);
+        this(task, info, store, OkDownload.with().processFileStrategy().getSyncScheduler());
     }
 
-    public synchronized void write(int blockIndex, byte[] bytes, int length) throws IOException {
+    public void write(int blockIndex, byte[] bytes, int length) throws IOException {
+        write(blockIndex, bytes, 0, length);
+    }
+
+    public void write(int blockIndex, byte[] bytes, int offset, int length) throws IOException {
         // if this task has been canceled, there is no need to write because of the output stream
         // has been closed and there is no need to create a new output stream if this is a first
         // write of this task block
         if (canceled) return;
 
-        outputStream(blockIndex).write(bytes, 0, length);
+        // each block owns its output stream, so blocks write to their own streams concurrently.
+        DownloadOutputStream outputStream = outputStreams.get(blockIndex);
+        if (outputStream == null) outputStream = outputStream(blockIndex);
+        synchronized (blockLocks[blockIndex]) {
+            // the output stream has been closed by the cancel.
+            if (canceled) return;
+            outputStream.write(bytes, offset, length);
+
+            // because we add the length value after flush and sync,
+            // so the length only possible less than or equal to the real persist length.
+            allNoSyncLength.addAndGet(length);
+            noSyncLengths.addAndGet(blockIndex, length);
+        }
+
+        inspectAndPersist();
+    }
+
+    /**
+     * Write the {@code length} bytes buffered on the {@code source} to the output stream of the
+     * block directly, without copying them to the read buffer first.
+     */
+    public void write(int blockIndex, @NonNull DownloadConnection.Transferable source, int length)
+            throws IOException {
+        if (canceled) return;
+
+        DownloadOutputStream outputStream = outputStreams.get(blockIndex);
+        if (outputStream == null) outputStream = outputStream(blockIndex);
+        synchronized (blockLocks[blockIndex]) {
+            if (canceled) return;
+            source.transferTo(new TransferOutputStream(outputStream), length);
 
-        // because we add the length value after flush and sync,
-        // so the length only possible less than or equal to the real persist length.
-        allNoSyncLength.addAndGet(length);
-        noSyncLengthMap.get(blockIndex).addAndGet(length);
+            allNoSyncLength.addAndGet(length);
+            noSyncLengths.addAndGet(blockIndex, length);
+        }
 
         inspectAndPersist();
     }
 
     public void cancelAsync() {
-        FILE_IO_EXECUTOR.execute(new Runnable() {
+        OkDownload.with().downloadExecutors().fileIoExecutor().execute(new Runnable() {
             @Override public void run() {
                 cancel();
             }
@@ -151,22 +182,23 @@ public class MultiPointOutputStream {
         if (requireStreamBlocks == null) return;
         if (canceled) return;
         canceled = true;
-        // must ensure sync thread is finished, then can invoke 'ensureSync(true, -1)'
-        // in try block, otherwise, try block will be blocked in 'ensureSync(true, -1)' and
-        // codes in finally block will not be invoked
-        noMoreStreamList.addAll(requireStreamBlocks);
+        for (Integer blockIndex : requireStreamBlocks) {
+            noMoreStreamBlocks.set(blockIndex);
+        }
         try {
             if (allNoSyncLength.get() <= 0) return;
-            if (syncFuture != null && !syncFuture.isDone()) {
+            if (scheduled.get()) {
                 inspectValidPath();
                 OkDownload.with().processFileStrategy().getFileLock().increaseLock(path);
                 try {
-                    ensureSync(true, -1);
+                    ensureSync();
                 } finally {
                     OkDownload.with().processFileStrategy().getFileLock().decreaseLock(path);
                 }
             }
         } finally {
+            syncScheduler.remove(this);
+
             // close all output stream.
             for (Integer blockIndex : requireStreamBlocks) {
                 try {
@@ -182,79 +214,61 @@ public class MultiPointOutputStream {
         }
     }
 
-    final StreamsState doneState = new StreamsState();
-
     public void done(int blockIndex) throws IOException {
-        noMoreStreamList.add(blockIndex);
+        noMoreStreamBlocks.set(blockIndex);
 
         try {
             if (syncException != null) throw syncException;
 
-            if (syncFuture != null && !syncFuture.isDone()) {
-                final AtomicLong noSyncLength = noSyncLengthMap.get(blockIndex);
-                if (noSyncLength != null && noSyncLength.get() > 0) {
-                    inspectStreamState(doneState);
-                    final boolean isNoMoreStream = doneState.isNoMoreStream;
-
-                    // ensure this block is synced.
-                    ensureSync(isNoMoreStream, blockIndex);
+            if (scheduled.get()) {
+                // ensure this block is synced.
+                if (noSyncLengths.get(blockIndex) > 0) {
+                    ensureSync();
+                    // the sync this block waited for may fail.
+                    if (syncException != null) throw syncException;
                 }
             } else {
-                if (syncFuture == null) {
-                    Util.d(TAG, "OutputStream done but no need to ensure sync, because the "
-                            + "sync job not run yet. task[" + task.getId()
-                            + "] block[" + blockIndex + "]");
-                } else {
-                    Util.d(TAG, "OutputStream done but no need to ensure sync, because the "
-                            + "syncFuture.isDone[" + syncFuture.isDone() + "] task[" + task.getId()
-                            + "] block[" + blockIndex + "]");
-
-                }
+                Util.d(TAG, "OutputStream done but no need to ensure sync, because the "
+                        + "sync job not run yet. task[" + task.getId()
+                        + "] block[" + blockIndex + "]");
             }
-
         } finally {
             close(blockIndex);
         }
     }
 
-    void ensureSync(boolean isNoMoreStream, int blockIndex) {
-        // sync job not run yet.
-        if (syncFuture == null || syncFuture.isDone()) return;
-
-        if (!isNoMoreStream) {
-            parkedRunBlockThreadMap.put(blockIndex, Thread.currentThread());
+    /**
+     * Request the sync scheduler to sync this output stream right now, and block until the bytes
+     * written before are synced.
+     */
+    void ensureSync() {
+        final Future future = requestSync();
+        try {
+            future.get();
+        } catch (InterruptedException ignored) {
+        } catch (ExecutionException ignored) {
         }
+    }
 
-        if (runSyncThread != null) {
-            unparkThread(runSyncThread);
-        } else {
-            // wait for runSyncThread is valid.
-            while (true) {
-                if (isRunSyncThreadValid()) {
-                    unparkThread(runSyncThread);
-                    break;
-                } else {
-                    parkThread(25);
-                }
-            }
+    Future requestSync() {
+        FutureTask<Object> waiter;
+        while ((waiter = syncWaiter.get()) == null) {
+            syncWaiter.compareAndSet(null, new FutureTask<>(EMPTY_RUNNABLE, null));
         }
 
-        if (isNoMoreStream) {
-            unparkThread(runSyncThread);
-            try {
-                syncFuture.get();
-            } catch (InterruptedException ignored) {
-            } catch (ExecutionException ignored) {
-            }
+        if (scheduled.get()) {
+            syncScheduler.wakeUp();
         } else {
-            parkThread();
+            // has been removed from the sync scheduler, nobody wakes the waiter up any more.
+            completeSyncWaiter();
         }
+        return waiter;
     }
 
-    // convenient for test
-    boolean isRunSyncThreadValid() {
-        return runSyncThread != null;
-    }
+    private static final Runnable EMPTY_RUNNABLE = new Runnable() {
+        @Override public void run() {
+        }
+    };
 
     public void inspectComplete(int blockIndex) throws IOException {
         final BlockInfo blockInfo = info.getBlock(blockIndex);
@@ -267,239 +281,234 @@ public class MultiPointOutputStream {
 
     void inspectAndPersist() throws IOException {
         if (syncException != null) throw syncException;
-        if (syncFuture == null) {
-            synchronized (syncRunnable) {
-                if (syncFuture == null) {
-                    syncFuture = executeSyncRunnableAsync();
-                }
-            }
+        if (!scheduled.get() && scheduled.compareAndSet(false, true)) {
+            syncScheduler.schedule(this);
         }
     }
 
     synchronized void close(int blockIndex) throws IOException {
-        final DownloadOutputStream outputStream = outputStreamMap.get(blockIndex);
-        if (outputStream != null) {
-            outputStream.close();
-            outputStreamMap.remove(blockIndex);
-            Util.d(TAG, "OutputStream close task[" + task.getId() + "] block[" + blockIndex + "]");
+        // wait for the write or the sync on this output stream.
+        synchronized (blockLocks[blockIndex]) {
+            final DownloadOutputStream outputStream = outputStreams.get(blockIndex);
+            if (outputStream != null) {
+                outputStream.close();
+                outputStreams.set(blockIndex, null);
+                Util.d(TAG, "OutputStream close task[" + task.getId() + "] block[" + blockIndex
+                        + "]");
+            }
         }
     }
 
-    // convenient for test
-    void parkThread(long milliseconds) {
-        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(milliseconds));
-    }
-
-    void parkThread() {
-        LockSupport.park();
+    boolean isNoMoreStream() {
+        final List<Integer> requireStreamBlocks = this.requireStreamBlocks;
+        return requireStreamBlocks != null
+                && noMoreStreamBlocks.cardinality() >= requireStreamBlocks.size();
     }
 
-    // convenient for test
-    void unparkThread(Thread thread) {
-        LockSupport.unpark(thread);
+    public synchronized void setRequireStreamBlocks(List<Integer> requireStreamBlocks) {
+        setRequireStreamBlocks(requireStreamBlocks, 0);
     }
 
-    // convenient for test
-    Future executeSyncRunnableAsync() {
-        return FILE_IO_EXECUTOR.submit(syncRunnable);
-    }
-
-    void inspectStreamState(StreamsState state) {
-        state.newNoMoreStreamBlockList.clear();
-
-        @SuppressWarnings("unchecked")
-        final List<Integer> clonedList = (List<Integer>) noMoreStreamList.clone();
-        final Set<Integer> uniqueBlockList = new HashSet<>(clonedList);
-        final int noMoreStreamBlockCount = uniqueBlockList.size();
-        if (noMoreStreamBlockCount != requireStreamBlocks.size()) {
-            Util.d(TAG, "task[" + task.getId() + "] current need fetching block count "
-                    + requireStreamBlocks.size() + " is not equal to no more stream block count "
-                    + noMoreStreamBlockCount);
-            state.isNoMoreStream = false;
-        } else {
-            Util.d(TAG, "task[" + task.getId() + "] current need fetching block count "
-                    + requireStreamBlocks.size() + " is equal to no more stream block count "
-                    + noMoreStreamBlockCount);
-            state.isNoMoreStream = true;
+    /**
+     * @param splitBlockCount the count of the blocks which may be split from the running blocks
+     *                        and added through {@link #addRequireStreamBlock(int)}, the states of
+     *                        blocks are sized up front for them.
+     * @throws IllegalStateException if the states of blocks need to be enlarged after they have
+     *                               been required or written, the states recorded would be lost.
+     */
+    public synchronized void setRequireStreamBlocks(List<Integer> requireStreamBlocks,
+                                                    int splitBlockCount) {
+        int blockCount = info.getBlockCount();
+        for (Integer blockIndex : requireStreamBlocks) {
+            if (blockIndex >= blockCount) blockCount = blockIndex + 1;
         }
-
-        final SparseArray<DownloadOutputStream> streamMap = outputStreamMap.clone();
-        final int size = streamMap.size();
-        for (int i = 0; i < size; i++) {
-            final int blockIndex = streamMap.keyAt(i);
-            if (noMoreStreamList.contains(blockIndex)
-                    && !state.noMoreStreamBlockList.contains(blockIndex)) {
-                // blockIndex indicate this block is no more stream.
-                // and this is new one
-                state.noMoreStreamBlockList.add(blockIndex);
-                state.newNoMoreStreamBlockList.add(blockIndex);
+        blockCount += splitBlockCount;
+
+        if (blockCount > noSyncLengths.length()) {
+            if (this.requireStreamBlocks != null || !firstOutputStream
+                    || allNoSyncLength.get() != 0) {
+                throw new IllegalStateException("Can't resize the states of blocks from "
+                        + noSyncLengths.length() + " to " + blockCount + " after they are used"
+                        + " on task[" + task.getId() + "]");
             }
+            sizeBlockStates(blockCount);
         }
-    }
 
-    public void setRequireStreamBlocks(List<Integer> requireStreamBlocks) {
         this.requireStreamBlocks = requireStreamBlocks;
     }
 
-    public void catchBlockConnectException(int blockIndex) {
-        noMoreStreamList.add(blockIndex);
+    /**
+     * Require the stream for the block which is split from a running block.
+     *
+     * @return {@code false} if there isn't room for this block or this output stream has been
+     * canceled.
+     */
+    public synchronized boolean addRequireStreamBlock(int blockIndex) {
+        if (!canAddRequireStreamBlock(blockIndex)) return false;
+
+        final List<Integer> requireStreamBlocks = new ArrayList<>(this.requireStreamBlocks);
+        requireStreamBlocks.add(blockIndex);
+        this.requireStreamBlocks = requireStreamBlocks;
+        return true;
     }
 
-    static class StreamsState {
-        boolean isNoMoreStream;
-
-        List<Integer> noMoreStreamBlockList = new ArrayList<>();
-
-        // the new no more stream block list to last inspect.
-        List<Integer> newNoMoreStreamBlockList = new ArrayList<>();
-
-        boolean isStreamsEndOrChanged() {
-            return isNoMoreStream || newNoMoreStreamBlockList.size() > 0;
-        }
+    /**
+     * @return whether the block on {@code blockIndex} can be added through
+     * {@link #addRequireStreamBlock(int)} right now, so the running block isn't split for the
+     * block which can't be written.
+     */
+    public synchronized boolean canAddRequireStreamBlock(int blockIndex) {
+        return !canceled && requireStreamBlocks != null && blockIndex < noSyncLengths.length();
     }
 
-    StreamsState state = new StreamsState();
-
-    void runSyncDelayException() {
-        try {
-            runSync();
-        } catch (IOException e) {
-            syncException = e;
-            Util.w(TAG, "Sync to breakpoint-store for task[" + task.getId() + "] "
-                    + "failed with cause: " + e);
+    private void sizeBlockStates(int blockCount) {
+        this.outputStreams = new AtomicReferenceArray<>(blockCount);
+        this.noSyncLengths = new AtomicLongArray(blockCount);
+        this.noMoreStreamBlocks = new AtomicBitSet(blockCount);
+        this.increaseLengths = new long[blockCount];
+        final Object[] blockLocks = new Object[blockCount];
+        for (int blockIndex = 0; blockIndex < blockCount; blockIndex++) {
+            blockLocks[blockIndex] = new Object();
         }
+        this.blockLocks = blockLocks;
     }
 
-    void runSync() throws IOException {
-        Util.d(TAG, "OutputStream start flush looper task[" + task.getId() + "] with "
-                + "syncBufferIntervalMills[" + syncBufferIntervalMills + "] " + "syncBufferSize["
-                + syncBufferSize + "]");
-        runSyncThread = Thread.currentThread();
-
-        long nextParkMills = syncBufferIntervalMills;
-
-        flushProcess();
-
-        while (true) {
-            parkThread(nextParkMills);
-
-            inspectStreamState(state);
-
-            // if is no more stream, we will flush all data and quit.
-            if (state.isStreamsEndOrChanged()) {
-                Util.d(TAG, "runSync state change isNoMoreStream[" + state.isNoMoreStream + "]"
-                        + " newNoMoreStreamBlockList[" + state.newNoMoreStreamBlockList + "]");
-                if (allNoSyncLength.get() > 0) {
-                    flushProcess();
-                }
+    public void catchBlockConnectException(int blockIndex) {
+        noMoreStreamBlocks.set(blockIndex);
+    }
 
-                for (Integer blockIndex : state.newNoMoreStreamBlockList) {
-                    final Thread parkedThread = parkedRunBlockThreadMap.get(blockIndex);
-                    parkedRunBlockThreadMap.remove(blockIndex);
-                    if (parkedThread != null) unparkThread(parkedThread);
-                }
+    @NonNull DownloadStore getStore() {
+        return store;
+    }
 
-                if (state.isNoMoreStream) {
-                    final int size = parkedRunBlockThreadMap.size();
-                    for (int i = 0; i < size; i++) {
-                        final Thread parkedThread = parkedRunBlockThreadMap.valueAt(i);
-                        if (parkedThread != null) unparkThread(parkedThread);
-                    }
-                    parkedRunBlockThreadMap.clear();
-                    break;
-                } else {
-                    continue;
-                }
-            }
+    int getSyncIntervalMills() {
+        return syncBufferIntervalMills;
+    }
 
-            if (isNoNeedFlushForLength()) {
-                nextParkMills = syncBufferIntervalMills;
-                continue;
-            }
+    /**
+     * @return the milliseconds to the time this output stream needs to be synced, it is
+     * required to sync right now if the value is not more than 0.
+     */
+    long getNextSyncDelay(long now) {
+        // requested by the waiter or need to sync the tail bytes and leave the scheduler.
+        if (syncWaiter.get() != null || isNoMoreStream()) return 0;
 
-            nextParkMills = getNextParkMillisecond();
-            if (nextParkMills > 0) {
-                continue;
-            }
+        if (allNoSyncLength.get() < syncBufferSize) return syncBufferIntervalMills;
 
-            flushProcess();
-            nextParkMills = syncBufferIntervalMills;
-        }
+        return syncBufferIntervalMills - (now - lastSyncTimestamp.get());
+    }
 
-        Util.d(TAG, "OutputStream stop flush looper task[" + task.getId() + "]");
+    void onUnscheduled() {
+        scheduled.set(false);
+        completeSyncWaiter();
     }
 
-    // convenient for test.
-    boolean isNoNeedFlushForLength() {
-        return allNoSyncLength.get() < syncBufferSize;
+    private void completeSyncWaiter() {
+        final FutureTask<Object> waiter = syncWaiter.getAndSet(null);
+        if (waiter != null) waiter.run();
     }
 
-    // convenient for test.
-    long getNextParkMillisecond() {
-        long farToLastSyncMills = now() - lastSyncTimestamp.get();
-        return syncBufferIntervalMills - farToLastSyncMills;
+    // the methods below are invoked on the sync loop of the sync scheduler.
+
+    void prepareSync() {
+        // the waiter set its block as no more stream before waiting, so inspect after taking it.
+        takenSyncWaiter = syncWaiter.getAndSet(null);
+        noMoreStreamOnSync = isNoMoreStream();
     }
 
-    // convenient for test.
-    long now() {
-        return SystemClock.uptimeMillis();
+    /**
+     * @return whether all blocks had been finished before this sync, so there isn't any byte
+     * need to sync after this sync.
+     */
+    boolean isNoMoreStreamOnSync() {
+        return noMoreStreamOnSync;
     }
 
-    void flushProcess() throws IOException {
-        boolean success;
-        final int size;
-        synchronized (noSyncLengthMap) {
-            // make sure the length of noSyncLengthMap is equal to outputStreamMap
-            size = noSyncLengthMap.size();
-        }
+    void completeSync() {
+        final FutureTask<Object> waiter = takenSyncWaiter;
+        takenSyncWaiter = null;
+        if (waiter != null) waiter.run();
+    }
 
-        final SparseArray<Long> increaseLengthMap = new SparseArray<>(size);
+    void flushStreams() {
+        final long[] increaseLengths = this.increaseLengths;
+        final int size = increaseLengths.length;
 
         try {
-            for (int i = 0; i < size; i++) {
-                final int blockIndex = outputStreamMap.keyAt(i);
-                // because we get no sync length value before flush and sync,
-                // so the length only possible less than or equal to the real persist
-                // length.
-                final long noSyncLength = noSyncLengthMap.get(blockIndex).get();
-                if (noSyncLength > 0) {
-                    increaseLengthMap.put(blockIndex, noSyncLength);
-                    final DownloadOutputStream outputStream = outputStreamMap
-                            .get(blockIndex);
-                    outputStream.flushAndSync();
+            for (int blockIndex = 0; blockIndex < size; blockIndex++) {
+                // the block thread may be writing, so flush between its writes.
+                synchronized (blockLocks[blockIndex]) {
+                    // because we get no sync length value before flush and sync,
+                    // so the length only possible less than or equal to the real persist
+                    // length.
+                    final long noSyncLength = noSyncLengths.get(blockIndex);
+                    final DownloadOutputStream outputStream = outputStreams.get(blockIndex);
+                    if (noSyncLength > 0 && outputStream != null) {
+                        increaseLengths[blockIndex] = noSyncLength;
+                        outputStream.flushAndSync();
+                    } else {
+                        increaseLengths[blockIndex] = 0;
+                    }
                 }
             }
-            success = true;
+            flushSucceeded = true;
         } catch (IOException ex) {
             Util.w(TAG, "OutputStream flush and sync data to filesystem failed " + ex);
-            success = false;
+            flushSucceeded = false;
         }
+    }
+
+    void persistSyncedLength() throws IOException {
+        if (!flushSucceeded) return;
+        flushSucceeded = false;
 
-        if (success) {
-            final int increaseLengthSize = increaseLengthMap.size();
-            long allIncreaseLength = 0;
-            for (int i = 0; i < increaseLengthSize; i++) {
-                final int blockIndex = increaseLengthMap.keyAt(i);
-                final long noSyncLength = increaseLengthMap.valueAt(i);
-                store.onSyncToFilesystemSuccess(info, blockIndex, noSyncLength);
-                allIncreaseLength += noSyncLength;
-                noSyncLengthMap.get(blockIndex).addAndGet(-noSyncLength);
-                Util.d(TAG, "OutputStream sync success (" + task.getId() + ") "
-                        + "block(" + blockIndex + ") " + " syncLength(" + noSyncLength + ")"
-                        + " currentOffset(" + info.getBlock(blockIndex).getCurrentOffset()
-                        + ")");
+        final long[] increaseLengths = this.increaseLengths;
+        final int size = increaseLengths.length;
+        if (store instanceof BatchSyncStore) {
+            // persist all blocks of this sync at once.
+            ((BatchSyncStore) store).onSyncToFilesystemSuccess(info, increaseLengths);
+        } else {
+            for (int blockIndex = 0; blockIndex < size; blockIndex++) {
+                final long noSyncLength = increaseLengths[blockIndex];
+                if (noSyncLength > 0) {
+                    store.onSyncToFilesystemSuccess(info, blockIndex, noSyncLength);
+                }
             }
-            allNoSyncLength.addAndGet(-allIncreaseLength);
-            lastSyncTimestamp.set(SystemClock.uptimeMillis());
         }
+
+        // no log for each synced block, it would allocate on each tick of the sync loop.
+        long allIncreaseLength = 0;
+        for (int blockIndex = 0; blockIndex < size; blockIndex++) {
+            final long noSyncLength = increaseLengths[blockIndex];
+            if (noSyncLength <= 0) continue;
+
+            allIncreaseLength += noSyncLength;
+            noSyncLengths.addAndGet(blockIndex, -noSyncLength);
+        }
+        allNoSyncLength.addAndGet(-allIncreaseLength);
+        lastSyncTimestamp.set(SystemClock.uptimeMillis());
+    }
+
+    void flushProcess() throws IOException {
+        flushStreams();
+        persistSyncedLength();
+    }
+
+    @Override public String toString() {
+        return "MultiPointOutputStream@" + Integer.toHexString(hashCode()) + " task["
+                + task.getId() + "]";
     }
 
     private volatile boolean firstOutputStream = true;
 
     synchronized DownloadOutputStream outputStream(int blockIndex) throws IOException {
-        DownloadOutputStream outputStream = outputStreamMap.get(blockIndex);
+        DownloadOutputStream outputStream = outputStreams.get(blockIndex);
 
         if (outputStream == null) {
+            // write isn't guarded by the lock any more, so the output stream must not be
+            // created again after all output streams are closed by the cancel.
+            if (canceled) throw InterruptException.SIGNAL;
+
             @NonNull final Uri uri;
             final boolean isFileScheme = Util.isUriFileScheme(task.getUri());
             if (isFileScheme) {
@@ -553,11 +562,7 @@ public class MultiPointOutputStream {
                 }
             }
 
-            synchronized (noSyncLengthMap) {
-                // make sure the length of noSyncLengthMap is equal to outputStreamMap
-                outputStreamMap.put(blockIndex, outputStream);
-                noSyncLengthMap.put(blockIndex, new AtomicLong());
-            }
+            outputStreams.set(blockIndex, outputStream);
 
             firstOutputStream = false;
         }
@@ -575,4 +580,21 @@ public class MultiPointOutputStream {
     private void inspectValidPath() {
         if (path == null && task.getFile() != null) path = task.getFile().getAbsolutePath();
     }
+
+    // the transferable source writes its buffered bytes to the output stream of the block.
+    private static class TransferOutputStream extends OutputStream {
+        @NonNull private final DownloadOutputStream outputStream;
+
+        TransferOutputStream(@NonNull DownloadOutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        @Override public void write(int b) throws IOException {
+            outputStream.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            outputStream.write(b, off, len);
+        }
+    }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.file;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The buffered output stream whose buffer is borrowed from the {@link ByteArrayPool} and returned
+ * once it's closed.
+ */
+class PooledBufferedOutputStream extends BufferedOutputStream {
+
+    private static final byte[] CLOSED_BUFFER = new byte[0];
+
+    @NonNull private final ByteArrayPool pool;
+
+    PooledBufferedOutputStream(@NonNull OutputStream out, int size,
+                               @NonNull ByteArrayPool pool) {
+        // the placeholder buffer is replaced with the pooled one at once.
+        super(out, 1);
+        this.pool = pool;
+        this.buf = pool.acquire(size);
+    }
+
+    @Override public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            synchronized (this) {
+                if (buf != CLOSED_BUFFER) {
+                    pool.release(buf);
+                    buf = CLOSED_BUFFER;
+                    count = 0;
+                }
+            }
+        }
+    }
+}
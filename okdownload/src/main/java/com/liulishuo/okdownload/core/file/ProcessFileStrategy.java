@@ -28,6 +28,7 @@ import java.io.IOException;
 
 public class ProcessFileStrategy {
     private final FileLock fileLock = new FileLock();
+    private final FileSyncScheduler syncScheduler = new FileSyncScheduler();
 
     @NonNull public MultiPointOutputStream createProcessStream(@NonNull DownloadTask task,
                                                                @NonNull BreakpointInfo info,
@@ -54,6 +55,10 @@ public class ProcessFileStrategy {
         return fileLock;
     }
 
+    @NonNull public FileSyncScheduler getSyncScheduler() {
+        return syncScheduler;
+    }
+
     public boolean isPreAllocateLength(@NonNull DownloadTask task) {
         // if support seek, enable pre-allocate length.
         boolean supportSeek = OkDownload.with().outputStreamFactory().supportSeek();
@@ -122,10 +122,11 @@ public class BreakpointInterceptor implements Interceptor.Connect, Interceptor.F
             // local persist data check.
             outputStream.inspectComplete(blockIndex);
 
-            // response content length check.
-            if (fetchLength != contentLength) {
+            // response content length check, it has been shrunk if the block is split.
+            final long fetchContentLength = chain.getResponseContentLength();
+            if (fetchLength != fetchContentLength) {
                 throw new IOException("Fetch-length isn't equal to the response content-length, "
-                        + fetchLength + "!= " + contentLength);
+                        + fetchLength + "!= " + fetchContentLength);
             }
         }
 
@@ -17,9 +17,12 @@
 package com.liulishuo.okdownload.core.interceptor;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.liulishuo.okdownload.DownloadTask;
 import com.liulishuo.okdownload.OkDownload;
+import com.liulishuo.okdownload.core.connection.DownloadConnection;
+import com.liulishuo.okdownload.core.dispatcher.BandwidthScheduler;
 import com.liulishuo.okdownload.core.dispatcher.CallbackDispatcher;
 import com.liulishuo.okdownload.core.download.DownloadChain;
 import com.liulishuo.okdownload.core.exception.InterruptException;
@@ -31,6 +34,7 @@ import java.io.InputStream;
 public class FetchDataInterceptor implements Interceptor.Fetch {
 
     private final InputStream inputStream;
+    @Nullable private final DownloadConnection.Transferable transferable;
 
     private final byte[] readBuffer;
     private final MultiPointOutputStream outputStream;
@@ -42,9 +46,35 @@ public class FetchDataInterceptor implements Interceptor.Fetch {
                                 @NonNull InputStream inputStream,
                                 @NonNull MultiPointOutputStream outputStream,
                                 DownloadTask task) {
+        this(blockIndex, inputStream, outputStream, task, new byte[task.getReadBufferSize()]);
+    }
+
+    /**
+     * @param readBuffer the buffer with the read buffer size of the {@code task}, it's borrowed
+     *                   from the {@link com.liulishuo.okdownload.core.file.ByteArrayPool} and
+     *                   returned by the chain once the fetching is finished.
+     */
+    public FetchDataInterceptor(int blockIndex,
+                                @NonNull InputStream inputStream,
+                                @NonNull MultiPointOutputStream outputStream,
+                                DownloadTask task, @NonNull byte[] readBuffer) {
+        this(blockIndex, inputStream, outputStream, task, readBuffer, null);
+    }
+
+    /**
+     * @param transferable the response body of the {@code inputStream} which can be transferred
+     *                     to the {@code outputStream} directly, then the {@code readBuffer} is
+     *                     only used to limit the bytes transferred at once.
+     */
+    public FetchDataInterceptor(int blockIndex,
+                                @NonNull InputStream inputStream,
+                                @NonNull MultiPointOutputStream outputStream,
+                                DownloadTask task, @NonNull byte[] readBuffer,
+                                @Nullable DownloadConnection.Transferable transferable) {
         this.blockIndex = blockIndex;
         this.inputStream = inputStream;
-        this.readBuffer = new byte[task.getReadBufferSize()];
+        this.transferable = transferable;
+        this.readBuffer = readBuffer;
         this.outputStream = outputStream;
 
         this.task = task;
@@ -59,13 +89,43 @@ public class FetchDataInterceptor implements Interceptor.Fetch {
 
         OkDownload.with().downloadStrategy().inspectNetworkOnWifi(chain.getTask());
         // fetch
-        int fetchLength = inputStream.read(readBuffer);
+        int fetchLength;
+        try {
+            fetchLength = transferable != null
+                    ? transferable.request(readBuffer.length)
+                    : inputStream.read(readBuffer);
+        } catch (IOException e) {
+            // the connection is released after the remaining range is handed over to the hedged
+            // fetch.
+            if (chain.isHandedOver()) return -1;
+            throw e;
+        }
         if (fetchLength == -1) {
             return fetchLength;
         }
 
+        // the tail of this block may have been split to another block.
+        fetchLength = chain.acceptFetchLength(fetchLength);
+        if (fetchLength == 0) {
+            return -1;
+        }
+
+        // the fetched bytes are paced by the bandwidth shared with the other tasks.
+        final BandwidthScheduler bandwidthScheduler = OkDownload.with().getBandwidthScheduler();
+        if (bandwidthScheduler != null) {
+            try {
+                bandwidthScheduler.consume(task, fetchLength);
+            } catch (InterruptedException e) {
+                throw InterruptException.SIGNAL;
+            }
+        }
+
         // write to file
-        outputStream.write(blockIndex, readBuffer, fetchLength);
+        if (transferable != null) {
+            outputStream.write(blockIndex, transferable, fetchLength);
+        } else {
+            outputStream.write(blockIndex, readBuffer, fetchLength);
+        }
 
         chain.increaseCallbackBytes(fetchLength);
         if (this.dispatcher.isFetchProcessMoment(task)) {
@@ -44,6 +44,12 @@ public class RetryInterceptor implements Interceptor.Connect, Interceptor.Fetch
                     continue;
                 }
 
+                if (chain.failoverSource(e)) {
+                    // connect to another mirror of the resource.
+                    chain.resetConnectForRetry();
+                    continue;
+                }
+
                 chain.getCache().catchException(e);
                 chain.getOutputStream().catchBlockConnectException(chain.getBlockIndex());
                 throw e;
@@ -67,8 +67,9 @@ public class Listener4Assist<T extends Listener4Assist.Listener4Model> implement
         final Listener4Model model = modelHandler.getOrRecoverModel(task, task.getInfo());
         if (model == null) return;
 
+        // the block split from the running block isn't on the map yet.
         final long blockCurrentOffset = model.blockCurrentOffsetMap
-                .get(blockIndex) + increaseBytes;
+                .get(blockIndex, 0L) + increaseBytes;
         model.blockCurrentOffsetMap.put(blockIndex, blockCurrentOffset);
         model.currentOffset += increaseBytes;
 
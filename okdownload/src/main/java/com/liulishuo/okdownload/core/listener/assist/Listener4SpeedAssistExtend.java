@@ -52,7 +52,7 @@ public class Listener4SpeedAssistExtend implements Listener4Assist.AssistExtend,
                                                    @NonNull Listener4Assist.Listener4Model model) {
         final Listener4SpeedModel speedModel = (Listener4SpeedModel) model;
 
-        speedModel.blockSpeeds.get(blockIndex).downloading(increaseBytes);
+        speedModel.getOrCreateBlockSpeed(blockIndex).downloading(increaseBytes);
         speedModel.taskSpeed.downloading(increaseBytes);
 
         if (callback != null) {
@@ -68,7 +68,7 @@ public class Listener4SpeedAssistExtend implements Listener4Assist.AssistExtend,
                                               Listener4Assist.Listener4Model model) {
         final Listener4SpeedModel speedModel = (Listener4SpeedModel) model;
 
-        speedModel.blockSpeeds.get(blockIndex).endTask();
+        speedModel.getOrCreateBlockSpeed(blockIndex).endTask();
 
         if (callback != null) {
             callback.blockEnd(task, blockIndex, model.info.getBlock(blockIndex),
@@ -113,6 +113,16 @@ public class Listener4SpeedAssistExtend implements Listener4Assist.AssistExtend,
             return blockSpeeds.get(blockIndex);
         }
 
+        // the block split from the running block isn't on the speeds yet.
+        @NonNull SpeedCalculator getOrCreateBlockSpeed(int blockIndex) {
+            SpeedCalculator blockSpeed = blockSpeeds.get(blockIndex);
+            if (blockSpeed == null) {
+                blockSpeed = new SpeedCalculator();
+                blockSpeeds.put(blockIndex, blockSpeed);
+            }
+            return blockSpeed;
+        }
+
         public Listener4SpeedModel(int id) {
             super(id);
         }
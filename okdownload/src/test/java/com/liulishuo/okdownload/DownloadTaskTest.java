@@ -38,6 +38,9 @@ import org.robolectric.annotation.Config;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -106,6 +109,25 @@ public class DownloadTaskTest {
         assertThat(builder.build().getHeaderMapFields()).isEqualTo(headerMap);
     }
 
+    @Test
+    public void setMirrorUrls() {
+        final Uri mockFileUri = mock(Uri.class);
+        when(mockFileUri.getScheme()).thenReturn(ContentResolver.SCHEME_FILE);
+        when(mockFileUri.getPath()).thenReturn("mock path");
+        final DownloadTask.Builder builder = new DownloadTask.Builder("mock url", mockFileUri);
+        assertThat(builder.build().getMirrorUrls()).isNull();
+
+        builder.setMirrorUrls(Collections.<String>emptyList());
+        assertThat(builder.build().getMirrorUrls()).isNull();
+
+        final List<String> mirrorUrls = new ArrayList<>(Arrays.asList("mirror1", "mirror2"));
+        builder.setMirrorUrls(mirrorUrls);
+        final DownloadTask task = builder.build();
+        mirrorUrls.clear();
+        assertThat(task.getMirrorUrls()).containsExactly("mirror1", "mirror2");
+        assertThat(task.toBuilder().build().getMirrorUrls()).containsExactly("mirror1", "mirror2");
+    }
+
     private final String parentPath = "./p-path/";
     private final String filename = "filename";
 
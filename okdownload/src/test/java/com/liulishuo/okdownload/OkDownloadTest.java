@@ -6,9 +6,12 @@ import com.liulishuo.okdownload.core.breakpoint.BreakpointStoreOnCache;
 import com.liulishuo.okdownload.core.breakpoint.DownloadStore;
 import com.liulishuo.okdownload.core.connection.DownloadConnection;
 import com.liulishuo.okdownload.core.connection.DownloadUrlConnection;
+import com.liulishuo.okdownload.core.dispatcher.BandwidthScheduler;
 import com.liulishuo.okdownload.core.dispatcher.CallbackDispatcher;
 import com.liulishuo.okdownload.core.dispatcher.DownloadDispatcher;
+import com.liulishuo.okdownload.core.dispatcher.DownloadExecutors;
 import com.liulishuo.okdownload.core.download.DownloadStrategy;
+import com.liulishuo.okdownload.core.file.ByteArrayPool;
 import com.liulishuo.okdownload.core.file.DownloadOutputStream;
 import com.liulishuo.okdownload.core.file.ProcessFileStrategy;
 
@@ -51,6 +54,8 @@ public class OkDownloadTest {
                 .isInstanceOf(DownloadOutputStream.Factory.class);
         assertThat(okDownload.processFileStrategy()).isInstanceOf(ProcessFileStrategy.class);
         assertThat(okDownload.downloadStrategy()).isInstanceOf(DownloadStrategy.class);
+        assertThat(okDownload.downloadExecutors()).isInstanceOf(DownloadExecutors.class);
+        assertThat(okDownload.bufferPool()).isInstanceOf(ByteArrayPool.class);
     }
 
     @Test
@@ -64,7 +69,10 @@ public class OkDownloadTest {
                 mock(DownloadOutputStream.Factory.class);
         final ProcessFileStrategy mockProcessFileStrategy = mock(ProcessFileStrategy.class);
         final DownloadStrategy mockDownloadStrategy = mock(DownloadStrategy.class);
+        final DownloadExecutors mockDownloadExecutors = mock(DownloadExecutors.class);
         final DownloadMonitor mockMonitor = mock(DownloadMonitor.class);
+        final ByteArrayPool bufferPool = new ByteArrayPool();
+        final BandwidthScheduler bandwidthScheduler = new BandwidthScheduler(1024, 0);
 
         OkDownload.Builder builder =
                 new OkDownload.Builder(application)
@@ -75,6 +83,9 @@ public class OkDownloadTest {
                         .outputStreamFactory(mockOutputFactory)
                         .processFileStrategy(mockProcessFileStrategy)
                         .downloadStrategy(mockDownloadStrategy)
+                        .downloadExecutors(mockDownloadExecutors)
+                        .bufferPool(bufferPool)
+                        .bandwidthScheduler(bandwidthScheduler)
                         .monitor(mockMonitor);
 
         OkDownload okDownload = builder.build();
@@ -86,7 +97,10 @@ public class OkDownloadTest {
         assertThat(okDownload.outputStreamFactory()).isEqualTo(mockOutputFactory);
         assertThat(okDownload.processFileStrategy()).isEqualTo(mockProcessFileStrategy);
         assertThat(okDownload.downloadStrategy()).isEqualTo(mockDownloadStrategy);
+        assertThat(okDownload.downloadExecutors()).isEqualTo(mockDownloadExecutors);
+        assertThat(okDownload.bufferPool()).isEqualTo(bufferPool);
         assertThat(okDownload.monitor).isEqualTo(mockMonitor);
+        assertThat(okDownload.getBandwidthScheduler()).isEqualTo(bandwidthScheduler);
     }
 
     @Test(expected = IllegalStateException.class)
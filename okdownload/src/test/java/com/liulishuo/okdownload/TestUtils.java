@@ -25,9 +25,11 @@ import com.liulishuo.okdownload.core.breakpoint.BreakpointStore;
 import com.liulishuo.okdownload.core.connection.DownloadConnection;
 import com.liulishuo.okdownload.core.dispatcher.CallbackDispatcher;
 import com.liulishuo.okdownload.core.dispatcher.DownloadDispatcher;
+import com.liulishuo.okdownload.core.dispatcher.DownloadExecutors;
 import com.liulishuo.okdownload.core.download.DownloadCache;
 import com.liulishuo.okdownload.core.download.DownloadChain;
 import com.liulishuo.okdownload.core.download.DownloadStrategy;
+import com.liulishuo.okdownload.core.file.ByteArrayPool;
 import com.liulishuo.okdownload.core.file.DownloadOutputStream;
 import com.liulishuo.okdownload.core.file.ProcessFileStrategy;
 
@@ -61,6 +63,8 @@ public class TestUtils {
                 .thenReturn(mock(DownloadStrategy.ResumeAvailableResponseCheck.class));
 
         when(mockOkDownload.downloadDispatcher()).thenReturn(mock(DownloadDispatcher.class));
+        when(mockOkDownload.downloadExecutors()).thenReturn(new DownloadExecutors());
+        when(mockOkDownload.bufferPool()).thenReturn(new ByteArrayPool());
 
         final CallbackDispatcher callbackDispatcher = mock(CallbackDispatcher.class);
         doReturn(mock(DownloadListener.class)).when(callbackDispatcher).dispatch();
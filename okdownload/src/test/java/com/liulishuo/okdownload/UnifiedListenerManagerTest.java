@@ -16,6 +16,8 @@
 
 package com.liulishuo.okdownload;
 
+import android.util.SparseArray;
+
 import com.liulishuo.okdownload.core.breakpoint.BreakpointInfo;
 import com.liulishuo.okdownload.core.cause.EndCause;
 import com.liulishuo.okdownload.core.cause.ResumeFailedCause;
@@ -28,7 +30,6 @@ import org.mockito.Mock;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -59,24 +60,48 @@ public class UnifiedListenerManagerTest {
 
     @Test
     public void detachListener() {
-        final ArrayList<DownloadListener> list = new ArrayList<>();
-        list.add(listener);
-        listenerManager.realListenerMap.put(1, list);
+        listenerManager.realListenerMap.put(1, new DownloadListener[]{listener});
 
         final DownloadTask task = mockTask(1);
-        listenerManager.detachListener(task, listener);
+        assertThat(listenerManager.detachListener(task, listener)).isTrue();
+        assertThat(listenerManager.detachListener(task, listener)).isFalse();
 
         assertThat(listenerManager.realListenerMap.size()).isZero();
 
         // detach by listener ignore host task.
-        list.add(listener);
-        listenerManager.realListenerMap.put(2, list);
+        listenerManager.realListenerMap.put(2, new DownloadListener[]{listener});
         assertThat(listenerManager.realListenerMap.size()).isEqualTo(1);
 
         listenerManager.detachListener(listener);
         assertThat(listenerManager.realListenerMap.size()).isZero();
     }
 
+    @Test
+    public void detachListener_copyOnWrite() {
+        final DownloadListener listener1 = mock(DownloadListener.class);
+        final DownloadListener[] listeners = new DownloadListener[]{listener, listener1};
+        listenerManager.realListenerMap.put(1, listeners);
+        listenerManager.realListenerMap.put(2, new DownloadListener[]{listener1});
+        final SparseArray<DownloadListener[]> listenerMap = listenerManager.realListenerMap;
+
+        listenerManager.detachListener(mockTask(1), listener);
+        assertThat(listenerManager.realListenerMap.get(1)).containsExactly(listener1);
+
+        listenerManager.detachListener(listener1);
+        assertThat(listenerManager.realListenerMap.size()).isZero();
+
+        // the dispatching ones are never changed.
+        assertThat(listeners).containsExactly(listener, listener1);
+        assertThat(listenerMap.size()).isEqualTo(2);
+        assertThat(listenerMap.get(1)).isSameAs(listeners);
+
+        // nothing is copied if the listener isn't attached.
+        final SparseArray<DownloadListener[]> emptyMap = listenerManager.realListenerMap;
+        listenerManager.detachListener(listener);
+        listenerManager.detachListener(1);
+        assertThat(listenerManager.realListenerMap).isSameAs(emptyMap);
+    }
+
     @Test
     public void attachListener() {
         final DownloadTask task = mockTask(2);
@@ -85,9 +110,16 @@ public class UnifiedListenerManagerTest {
         assertThat(listenerManager.realListenerMap.size()).isEqualTo(1);
         assertThat(listenerManager.realListenerMap.get(2)).containsExactly(listener);
 
+        final DownloadListener[] listeners = listenerManager.realListenerMap.get(2);
+        listenerManager.attachListener(task, listener);
+        assertThat(listenerManager.realListenerMap.get(2)).isSameAs(listeners);
+
         final DownloadListener1 listener1 = mock(DownloadListener1.class);
         listenerManager.attachListener(task, listener1);
         verify(listener1).setAlwaysRecoverAssistModelIfNotSet(eq(true));
+        assertThat(listenerManager.realListenerMap.get(2)).containsExactly(listener, listener1);
+        // the attached ones are never changed.
+        assertThat(listeners).containsExactly(listener);
     }
 
     @Test
@@ -123,10 +155,7 @@ public class UnifiedListenerManagerTest {
     public void hostListener() {
         final DownloadListener listener1 = mock(DownloadListener.class);
         final DownloadListener listener2 = mock(DownloadListener.class);
-        final ArrayList<DownloadListener> list = new ArrayList<>();
-        list.add(listener1);
-        list.add(listener2);
-        listenerManager.realListenerMap.put(1, list);
+        listenerManager.realListenerMap.put(1, new DownloadListener[]{listener1, listener2});
 
         final Map<String, List<String>> headerFields = mock(Map.class);
         final BreakpointInfo info = mock(BreakpointInfo.class);
@@ -197,10 +226,10 @@ public class UnifiedListenerManagerTest {
 
     @Test
     public void taskEnd_detachListener() {
+        // the host listener swaps the map of the real one instead of the spied one.
+        listenerManager = new UnifiedListenerManager();
         final DownloadListener listener1 = mock(DownloadListener.class);
-        final ArrayList<DownloadListener> list = new ArrayList<>();
-        list.add(listener1);
-        listenerManager.realListenerMap.put(1, list);
+        listenerManager.realListenerMap.put(1, new DownloadListener[]{listener1});
 
         final DownloadTask task = mockTask(1);
         final DownloadListener listener = listenerManager.hostListener;
@@ -212,9 +241,8 @@ public class UnifiedListenerManagerTest {
 
     @Test
     public void detachListener_taskId() {
-        final ArrayList<DownloadListener> listenerList = new ArrayList<>();
-        listenerList.add(mock(DownloadListener.class));
-        listenerManager.realListenerMap.put(1, listenerList);
+        listenerManager.realListenerMap.put(1,
+                new DownloadListener[]{mock(DownloadListener.class)});
 
         listenerManager.detachListener(1);
         assertThat(listenerManager.realListenerMap.size()).isZero();
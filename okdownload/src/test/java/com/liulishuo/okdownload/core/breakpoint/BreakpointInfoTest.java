@@ -80,6 +80,43 @@ public class BreakpointInfoTest {
         assertThat(info.getTotalLength()).isEqualTo(94);
     }
 
+    @Test
+    public void splitBlock() {
+        BreakpointInfo info = new BreakpointInfo(0, "", new File(""), null);
+        info.addBlock(new BlockInfo(0, 10));
+        info.addBlock(new BlockInfo(10, 90, 20));
+
+        assertThat(info.splitBlock(1, 60)).isEqualTo(2);
+
+        assertThat(info.getBlockCount()).isEqualTo(3);
+        final BlockInfo splitBlock = info.getBlock(1);
+        assertThat(splitBlock.getStartOffset()).isEqualTo(10);
+        assertThat(splitBlock.getContentLength()).isEqualTo(50);
+        assertThat(splitBlock.getCurrentOffset()).isEqualTo(20);
+        final BlockInfo newBlock = info.getBlock(2);
+        assertThat(newBlock.getStartOffset()).isEqualTo(60);
+        assertThat(newBlock.getContentLength()).isEqualTo(40);
+        assertThat(newBlock.getCurrentOffset()).isZero();
+        assertThat(info.getTotalLength()).isEqualTo(100);
+        assertThat(info.getTotalOffset()).isEqualTo(20);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void splitBlock_beforeRangeLeft() {
+        BreakpointInfo info = new BreakpointInfo(0, "", new File(""), null);
+        info.addBlock(new BlockInfo(10, 90, 20));
+
+        info.splitBlock(0, 30);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void splitBlock_outOfRange() {
+        BreakpointInfo info = new BreakpointInfo(0, "", new File(""), null);
+        info.addBlock(new BlockInfo(10, 90, 20));
+
+        info.splitBlock(0, 100);
+    }
+
     @Test
     public void isSameFrom() {
         BreakpointInfo info = new BreakpointInfo(1, "url", new File("p-path"), "filename");
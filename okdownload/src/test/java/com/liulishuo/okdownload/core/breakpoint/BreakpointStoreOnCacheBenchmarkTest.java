@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.breakpoint;
+
+import android.util.SparseArray;
+
+import com.liulishuo.okdownload.DownloadTask;
+import com.liulishuo.okdownload.core.Util;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static com.liulishuo.okdownload.TestUtils.mockOkDownload;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The benchmark of resolving the identity of the tasks on lots of breakpoint records, it's skipped
+ * unless running with {@code ./gradlew :okdownload:testDebugUnitTest -Pbenchmark}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class BreakpointStoreOnCacheBenchmarkTest {
+
+    private static final int RECORD_COUNT = 100000;
+    private static final String PARENT_PATH = "p-path";
+
+    private BreakpointStoreOnCache store;
+
+    @Before
+    public void setup() throws IOException {
+        assumeTrue(Boolean.getBoolean("okdownload.benchmark"));
+        mockOkDownload();
+        Util.setLogger(null);
+
+        final SparseArray<BreakpointInfo> storedInfos = new SparseArray<>(RECORD_COUNT);
+        final File parentFile = new DownloadTask.Builder(url(0), PARENT_PATH, filename(0))
+                .build().getParentFile();
+        for (int i = 1; i <= RECORD_COUNT; i++) {
+            storedInfos.put(i, new BreakpointInfo(i, url(i), parentFile, filename(i)));
+        }
+        store = new BreakpointStoreOnCache(storedInfos, new ArrayList<Integer>(),
+                new HashMap<String, String>());
+    }
+
+    @Test
+    public void findOrCreateId() {
+        final DownloadTask[] storedTasks = new DownloadTask[RECORD_COUNT];
+        final DownloadTask[] newTasks = new DownloadTask[RECORD_COUNT];
+        for (int i = 1; i <= RECORD_COUNT; i++) {
+            storedTasks[i - 1] = new DownloadTask.Builder(url(i), PARENT_PATH, filename(i))
+                    .build();
+            newTasks[i - 1] = new DownloadTask.Builder(url(i), PARENT_PATH, "new-" + filename(i))
+                    .build();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 1; i <= RECORD_COUNT; i++) {
+            assertThat(store.findOrCreateId(storedTasks[i - 1])).isEqualTo(i);
+        }
+        final long storedNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (DownloadTask task : newTasks) {
+            assertThat(store.findOrCreateId(task)).isGreaterThan(RECORD_COUNT);
+        }
+        final long newNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 1; i <= RECORD_COUNT; i++) {
+            assertThat(store.findAnotherInfoFromCompare(storedTasks[i - 1], store.get(i)))
+                    .isNull();
+        }
+        final long compareNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        // the ids of the removed records are allocated again from the lowest one.
+        for (int i = 1; i <= RECORD_COUNT; i += 2) {
+            store.remove(i);
+        }
+        for (int i = 1; i <= RECORD_COUNT; i += 2) {
+            assertThat(store.allocateId()).isEqualTo(i);
+        }
+        final long reallocateNanos = System.nanoTime() - start;
+
+        System.out.println("BreakpointStoreOnCache: resolve " + RECORD_COUNT
+                + " stored tasks in " + storedNanos / 1000000 + "ms, allocate " + RECORD_COUNT
+                + " new tasks in " + newNanos / 1000000 + "ms, compare them in "
+                + compareNanos / 1000000 + "ms, remove and reallocate half of them in "
+                + reallocateNanos / 1000000 + "ms");
+    }
+
+    private static String url(int i) {
+        return "https://jacksgong.com/" + i;
+    }
+
+    private static String filename(int i) {
+        return "filename" + i;
+    }
+}
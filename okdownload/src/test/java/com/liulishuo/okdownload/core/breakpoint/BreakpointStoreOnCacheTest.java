@@ -34,16 +34,19 @@ import org.robolectric.annotation.Config;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 
 import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -65,7 +68,7 @@ public class BreakpointStoreOnCacheTest {
 
     private SparseArray<BreakpointInfo> storedInfos;
     private SparseArray<IdentifiedTask> unStoredTasks;
-    private List<Integer> sortedOccupiedIds;
+    private IdAllocator idAllocator;
 
     @Before
     public void setup() {
@@ -73,7 +76,7 @@ public class BreakpointStoreOnCacheTest {
 
         storedInfos = new SparseArray<>();
         unStoredTasks = new SparseArray<>();
-        sortedOccupiedIds = new ArrayList<>();
+        idAllocator = new IdAllocator();
 
         storeOnCache = new BreakpointStoreOnCache();
     }
@@ -122,6 +125,31 @@ public class BreakpointStoreOnCacheTest {
         storeOnCache.onSyncToFilesystemSuccess(mock(BreakpointInfo.class), 0, 1);
     }
 
+    @Test
+    public void onSyncToFilesystemSuccess_batch() throws IOException {
+        createAndInsert();
+
+        final BreakpointInfo info = storeOnCache.get(insertedId);
+        final BlockInfo blockInfo0 = new BlockInfo(0, 10, 0);
+        final BlockInfo blockInfo1 = new BlockInfo(10, 10, 2);
+        info.addBlock(blockInfo0);
+        info.addBlock(blockInfo1);
+
+        storeOnCache.onSyncToFilesystemSuccess(info, new long[]{0, 3});
+
+        assertThat(blockInfo0.getCurrentOffset()).isZero();
+        assertThat(blockInfo1.getCurrentOffset()).isEqualTo(5);
+    }
+
+    @Test
+    public void onSyncToFilesystemSuccess_batch_infoNotEqual() throws IOException {
+        createAndInsert();
+
+        thrown.expect(IOException.class);
+        thrown.expectMessage("Info not on store!");
+        storeOnCache.onSyncToFilesystemSuccess(mock(BreakpointInfo.class), new long[]{1});
+    }
+
     @Test
     public void update() {
         createAndInsert();
@@ -147,12 +175,6 @@ public class BreakpointStoreOnCacheTest {
     public void unStoredTasks() {
         final SparseArray<IdentifiedTask> unStoredTasks = new SparseArray<>();
         final SparseArray<BreakpointInfo> storedInfos = new SparseArray<>();
-        storeOnCache = new BreakpointStoreOnCache(storedInfos,
-                new ArrayList<Integer>(),
-                new HashMap<String, String>(),
-                unStoredTasks,
-                new ArrayList<Integer>(),
-                keyToIdMap);
 
         DownloadTask task = mock(DownloadTask.class);
         when(keyToIdMap.get(task)).thenReturn(null);
@@ -160,6 +182,14 @@ public class BreakpointStoreOnCacheTest {
         unStoredTasks.put(task.getId(), task);
         doReturn(true).when(task).compareIgnoreId(task);
 
+        // the index is built on construct.
+        storeOnCache = new BreakpointStoreOnCache(storedInfos,
+                new ArrayList<Integer>(),
+                new HashMap<String, String>(),
+                unStoredTasks,
+                new IdAllocator(),
+                keyToIdMap);
+
         assertThat(storeOnCache.findOrCreateId(task)).isEqualTo(insertedId);
         storeOnCache.createAndInsert(task);
         assertThat(unStoredTasks.size()).isZero();
@@ -170,18 +200,19 @@ public class BreakpointStoreOnCacheTest {
     public void findAnotherInfoFromCompare() {
         final SparseArray<IdentifiedTask> unStoredTasks = new SparseArray<>();
         final SparseArray<BreakpointInfo> storedInfos = new SparseArray<>();
-        storeOnCache = new BreakpointStoreOnCache(storedInfos,
-                new ArrayList<Integer>(),
-                new HashMap<String, String>(),
-                unStoredTasks,
-                new ArrayList<Integer>(),
-                keyToIdMap);
 
         final BreakpointInfo info1 = mock(BreakpointInfo.class);
         final BreakpointInfo info2 = mock(BreakpointInfo.class);
         final DownloadTask task = mock(DownloadTask.class);
 
         storedInfos.put(insertedId, info1);
+        // the index is built on construct.
+        storeOnCache = new BreakpointStoreOnCache(storedInfos,
+                new ArrayList<Integer>(),
+                new HashMap<String, String>(),
+                unStoredTasks,
+                new IdAllocator(),
+                keyToIdMap);
 
         doReturn(true).when(info1).isSameFrom(task);
         doReturn(false).when(info2).isSameFrom(task);
@@ -194,39 +225,51 @@ public class BreakpointStoreOnCacheTest {
 
     @Test
     public void allocateId() {
-        final List<Integer> sortedOccupiedIds = new ArrayList<>();
+        final IdAllocator idAllocator = new IdAllocator();
         storeOnCache = new BreakpointStoreOnCache(new SparseArray<BreakpointInfo>(),
                 new ArrayList<Integer>(),
                 new HashMap<String, String>(),
                 new SparseArray<IdentifiedTask>(),
-                sortedOccupiedIds,
+                idAllocator,
                 keyToIdMap);
 
         assertThat(storeOnCache.allocateId()).isEqualTo(1);
         //when
-        sortedOccupiedIds.add(3);
-        sortedOccupiedIds.add(5);
-        sortedOccupiedIds.add(6);
-        sortedOccupiedIds.add(7);
+        idAllocator.occupy(3);
+        idAllocator.occupy(5);
+        idAllocator.occupy(6);
+        idAllocator.occupy(7);
 
 
         assertThat(storeOnCache.allocateId()).isEqualTo(2);
-        assertThat(sortedOccupiedIds).containsExactly(1, 2, 3, 5, 6, 7);
-        assertThat(sortedOccupiedIds.get(1)).isEqualTo(2);
+        assertThat(idAllocator.getOccupiedCount()).isEqualTo(6);
         assertThat(storeOnCache.allocateId()).isEqualTo(4);
         assertThat(storeOnCache.allocateId()).isEqualTo(8);
 
-        assertThat(sortedOccupiedIds).containsExactly(1, 2, 3, 4, 5, 6, 7, 8);
+        assertThat(idAllocator.getOccupiedCount()).isEqualTo(8);
         storeOnCache.remove(6);
-        assertThat(sortedOccupiedIds).containsExactly(1, 2, 3, 4, 5, 7, 8);
+        assertThat(idAllocator.isOccupied(6)).isFalse();
+        assertThat(idAllocator.getOccupiedCount()).isEqualTo(7);
         assertThat(storeOnCache.allocateId()).isEqualTo(6);
 
-        assertThat(sortedOccupiedIds).containsExactly(1, 2, 3, 4, 5, 6, 7, 8);
+        assertThat(idAllocator.getOccupiedCount()).isEqualTo(8);
         storeOnCache.onTaskEnd(1, EndCause.COMPLETED, null);
-        assertThat(sortedOccupiedIds).containsExactly(2, 3, 4, 5, 6, 7, 8);
+        assertThat(idAllocator.isOccupied(1)).isFalse();
         assertThat(storeOnCache.allocateId()).isEqualTo(1);
     }
 
+    @Test
+    public void allocateId_restored() {
+        final SparseArray<BreakpointInfo> storedInfos = new SparseArray<>();
+        storedInfos.put(1, new BreakpointInfo(1, "url", new File("/p-path/"), "filename1"));
+        storedInfos.put(3, new BreakpointInfo(3, "url", new File("/p-path/"), "filename3"));
+        storeOnCache = new BreakpointStoreOnCache(storedInfos, new ArrayList<Integer>(),
+                new HashMap<String, String>());
+
+        assertThat(storeOnCache.allocateId()).isEqualTo(2);
+        assertThat(storeOnCache.allocateId()).isEqualTo(4);
+    }
+
     @Test
     public void urlFileNameMap() {
         final HashMap<String, String> urlFilenameMap = new HashMap<>();
@@ -241,7 +284,7 @@ public class BreakpointStoreOnCacheTest {
                 new ArrayList<Integer>(),
                 urlFilenameMap,
                 new SparseArray<IdentifiedTask>(),
-                new ArrayList<Integer>(),
+                new IdAllocator(),
                 keyToIdMap);
         assertThat(storeOnCache.getResponseFilename(url1)).isEqualTo(filename1);
         assertThat(storeOnCache.getResponseFilename(url2)).isNull();
@@ -267,7 +310,7 @@ public class BreakpointStoreOnCacheTest {
                 new ArrayList<Integer>(),
                 new HashMap<String, String>(),
                 new SparseArray<IdentifiedTask>(),
-                new ArrayList<Integer>(),
+                new IdAllocator(),
                 keyToIdMap));
 
         doNothing().when(cache).remove(1);
@@ -284,7 +327,7 @@ public class BreakpointStoreOnCacheTest {
                 new ArrayList<Integer>(),
                 new HashMap<String, String>(),
                 new SparseArray<IdentifiedTask>(),
-                new ArrayList<Integer>(),
+                new IdAllocator(),
                 keyToIdMap));
 
         doNothing().when(cache).remove(1);
@@ -307,20 +350,52 @@ public class BreakpointStoreOnCacheTest {
                 new ArrayList<Integer>(),
                 new HashMap<String, String>(),
                 unStoredTasks,
-                sortedOccupiedIds,
+                idAllocator,
                 keyToIdMap));
 
         storedInfos.put(1, info);
-        sortedOccupiedIds.add(1);
+        idAllocator.occupy(1);
 
         cache.remove(1);
 
         assertThat(storedInfos.size()).isZero();
-        assertThat(sortedOccupiedIds).isEmpty();
+        assertThat(idAllocator.isOccupied(1)).isFalse();
 
         verify(keyToIdMap).remove(eq(1));
     }
 
+    @Test
+    public void isStarted() {
+        assertThat(storeOnCache.isStarted(1)).isFalse();
+
+        storeOnCache.onTaskStart(1);
+        assertThat(storeOnCache.isStarted(1)).isTrue();
+
+        storeOnCache.onTaskEnd(1, EndCause.ERROR, null);
+        assertThat(storeOnCache.isStarted(1)).isFalse();
+    }
+
+    @Test
+    public void discard() {
+        final BreakpointStoreOnCache cache = new BreakpointStoreOnCache(
+                storedInfos,
+                new ArrayList<Integer>(),
+                new HashMap<String, String>(),
+                unStoredTasks,
+                idAllocator,
+                keyToIdMap);
+
+        storedInfos.put(1, info);
+        idAllocator.occupy(1);
+
+        cache.discard(1);
+
+        assertThat(storedInfos.size()).isZero();
+        // the alive tasks may still hold the id.
+        assertThat(idAllocator.isOccupied(1)).isTrue();
+        verify(keyToIdMap, never()).remove(eq(1));
+    }
+
     @Test
     public void findOrCreateId() {
         final BreakpointStoreOnCache cache = spy(new BreakpointStoreOnCache(
@@ -328,7 +403,7 @@ public class BreakpointStoreOnCacheTest {
                 new ArrayList<Integer>(),
                 new HashMap<String, String>(),
                 unStoredTasks,
-                sortedOccupiedIds,
+                idAllocator,
                 keyToIdMap));
 
         when(keyToIdMap.get(task)).thenReturn(null);
@@ -342,6 +417,191 @@ public class BreakpointStoreOnCacheTest {
         verify(keyToIdMap, never()).add(eq(task), eq(2));
     }
 
+    @Test
+    public void findOrCreateId_indexed() {
+        createAndInsert();
+
+        final DownloadTask sameTask = mockTask("url", "/p-path/", "filename");
+        assertThat(storeOnCache.findOrCreateId(sameTask)).isEqualTo(insertedId);
+
+        final DownloadTask anotherTask = mockTask("url", "/another-path/", "filename");
+        assertThat(storeOnCache.findOrCreateId(anotherTask)).isNotEqualTo(insertedId);
+    }
+
+    @Test
+    public void update_reindexed() {
+        createAndInsert();
+        final DownloadTask task = mockTask("url", "/p-path/", "filename");
+        final DownloadTask newUrlTask = mockTask("new-url", "/p-path/", "filename");
+        final BreakpointInfo ignored = mock(BreakpointInfo.class);
+
+        storeOnCache.update(new BreakpointInfo(insertedId, "new-url", new File("/p-path/"),
+                "filename"));
+
+        assertThat(storeOnCache.findAnotherInfoFromCompare(task, ignored)).isNull();
+        assertThat(storeOnCache.findAnotherInfoFromCompare(newUrlTask, ignored).id)
+                .isEqualTo(insertedId);
+    }
+
+    @Test
+    public void remove_unindexed() {
+        createAndInsert();
+        final DownloadTask task = mockTask("url", "/p-path/", "filename");
+        assertThat(storeOnCache.findAnotherInfoFromCompare(task, mock(BreakpointInfo.class)))
+                .isNotNull();
+
+        storeOnCache.remove(insertedId);
+
+        assertThat(storeOnCache.findAnotherInfoFromCompare(task, mock(BreakpointInfo.class)))
+                .isNull();
+    }
+
+    private static DownloadTask mockTask(String url, String parentPath, String filename) {
+        final DownloadTask task = mock(DownloadTask.class);
+        when(task.getUrl()).thenReturn(url);
+        when(task.getParentFile()).thenReturn(new File(parentPath));
+        when(task.getFilename()).thenReturn(filename);
+        return task;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void construct_lazy_invalidMaxLoadedInfoCount() {
+        new BreakpointStoreOnCache(mock(BreakpointInfoLoader.class), 0,
+                new ArrayList<Integer>());
+    }
+
+    @Test
+    public void allocateId_lazy() {
+        final BreakpointInfoLoader loader = mock(BreakpointInfoLoader.class);
+        when(loader.loadIds()).thenReturn(new int[]{1, 2});
+
+        storeOnCache = new BreakpointStoreOnCache(loader, 10, new ArrayList<Integer>());
+
+        assertThat(storeOnCache.allocateId()).isEqualTo(3);
+    }
+
+    @Test
+    public void get_lazy() {
+        final BreakpointInfoLoader loader = mockLoader();
+        final BreakpointInfo info = new BreakpointInfo(1, "url", new File("/p-path/"), "filename");
+        when(loader.load(1)).thenReturn(info);
+        storeOnCache = new BreakpointStoreOnCache(loader, 10, new ArrayList<Integer>());
+
+        assertThat(storeOnCache.get(1)).isEqualTo(info);
+        assertThat(storeOnCache.get(1)).isEqualTo(info);
+        assertThat(storeOnCache.get(2)).isNull();
+        verify(loader).load(1);
+    }
+
+    @Test
+    public void get_lazy_evicted() {
+        final BreakpointInfoLoader loader = mockLoader();
+        when(loader.load(1)).thenReturn(
+                new BreakpointInfo(1, "url1", new File("/p-path/"), "filename"));
+        when(loader.load(2)).thenReturn(
+                new BreakpointInfo(2, "url2", new File("/p-path/"), "filename"));
+        storeOnCache = new BreakpointStoreOnCache(loader, 1, new ArrayList<Integer>());
+
+        storeOnCache.get(1);
+        storeOnCache.get(2);
+        storeOnCache.get(1);
+
+        verify(loader, times(2)).load(1);
+    }
+
+    @Test
+    public void onTaskStart_lazy_held() throws IOException {
+        final BreakpointInfoLoader loader = mockLoader();
+        final BreakpointInfo info = new BreakpointInfo(1, "url1", new File("/p-path/"), "filename");
+        info.addBlock(new BlockInfo(0, 10));
+        when(loader.load(1)).thenReturn(info);
+        when(loader.load(2)).thenReturn(
+                new BreakpointInfo(2, "url2", new File("/p-path/"), "filename"));
+        storeOnCache = new BreakpointStoreOnCache(loader, 1, new ArrayList<Integer>());
+
+        storeOnCache.onTaskStart(1);
+        // the started one isn't evicted by the loaded one.
+        storeOnCache.get(2);
+
+        assertThat(storeOnCache.get(1)).isEqualTo(info);
+        verify(loader).load(1);
+        storeOnCache.onSyncToFilesystemSuccess(info, 0, 5);
+        assertThat(info.getBlock(0).getCurrentOffset()).isEqualTo(5);
+    }
+
+    @Test
+    public void findOrCreateId_lazy() {
+        final BreakpointInfoLoader loader = mockLoader();
+        final File parentFile = new File("/p-path/");
+        final BreakpointInfo info = new BreakpointInfo(3, "url", parentFile, "filename");
+        when(loader.loadSameFrom("url", parentFile)).thenReturn(Collections.singletonList(info));
+        storeOnCache = new BreakpointStoreOnCache(loader, 10, new ArrayList<Integer>());
+
+        final DownloadTask task = mockTask("url", "/p-path/", "filename");
+        assertThat(storeOnCache.findOrCreateId(task)).isEqualTo(3);
+        assertThat(storeOnCache.get(3)).isEqualTo(info);
+        verify(loader, never()).load(3);
+
+        assertThat(storeOnCache.findAnotherInfoFromCompare(task, info)).isNull();
+        assertThat(storeOnCache.findAnotherInfoFromCompare(task, mock(BreakpointInfo.class)))
+                .isEqualTo(info);
+    }
+
+    @Test
+    public void remove_lazy() {
+        final BreakpointInfoLoader loader = mockLoader();
+        final File parentFile = new File("/p-path/");
+        final BreakpointInfo info = new BreakpointInfo(1, "url", parentFile, "filename");
+        when(loader.load(1)).thenReturn(info);
+        when(loader.loadSameFrom("url", parentFile)).thenReturn(Collections.singletonList(info));
+        storeOnCache = new BreakpointStoreOnCache(loader, 10, new ArrayList<Integer>());
+        assertThat(storeOnCache.get(1)).isEqualTo(info);
+
+        storeOnCache.remove(1);
+
+        // the persisted one may not be removed yet.
+        assertThat(storeOnCache.get(1)).isNull();
+        assertThat(storeOnCache.findAnotherInfoFromCompare(
+                mockTask("url", "/p-path/", "filename"), mock(BreakpointInfo.class))).isNull();
+        verify(loader).load(1);
+    }
+
+    @Test
+    public void discard_lazy() {
+        final BreakpointInfoLoader loader = mockLoader();
+        final BreakpointInfo info = new BreakpointInfo(1, "url", new File("/p-path/"),
+                "filename");
+        when(loader.loadIds()).thenReturn(new int[]{1});
+        when(loader.load(1)).thenReturn(info);
+        storeOnCache = new BreakpointStoreOnCache(loader, 10, new ArrayList<Integer>());
+        assertThat(storeOnCache.get(1)).isEqualTo(info);
+
+        storeOnCache.discard(1);
+
+        assertThat(storeOnCache.get(1)).isNull();
+        assertThat(storeOnCache.allocateId()).isNotEqualTo(1);
+    }
+
+    @Test
+    public void getResponseFilename_lazy() {
+        final BreakpointInfoLoader loader = mockLoader();
+        when(loader.loadResponseFilename("url")).thenReturn("filename");
+        storeOnCache = new BreakpointStoreOnCache(loader, 10, new ArrayList<Integer>());
+
+        assertThat(storeOnCache.getResponseFilename("url")).isEqualTo("filename");
+        assertThat(storeOnCache.getResponseFilename("url")).isEqualTo("filename");
+        assertThat(storeOnCache.getResponseFilename("another-url")).isNull();
+        verify(loader).loadResponseFilename("url");
+    }
+
+    private static BreakpointInfoLoader mockLoader() {
+        final BreakpointInfoLoader loader = mock(BreakpointInfoLoader.class);
+        when(loader.loadIds()).thenReturn(new int[0]);
+        when(loader.loadSameFrom(any(String.class), any(File.class)))
+                .thenReturn(Collections.<BreakpointInfo>emptyList());
+        return loader;
+    }
+
     @Test
     public void getAfterCompleted() {
         assertThat(storeOnCache.getAfterCompleted(1)).isNull();
@@ -355,7 +615,7 @@ public class BreakpointStoreOnCacheTest {
                 fileDirtyList,
                 new HashMap<String, String>(),
                 new SparseArray<IdentifiedTask>(),
-                new ArrayList<Integer>(),
+                new IdAllocator(),
                 keyToIdMap));
 
         assertThat(cache.markFileDirty(1)).isTrue();
@@ -376,7 +636,7 @@ public class BreakpointStoreOnCacheTest {
                 fileDirtyList,
                 new HashMap<String, String>(),
                 new SparseArray<IdentifiedTask>(),
-                new ArrayList<Integer>(),
+                new IdAllocator(),
                 keyToIdMap));
 
         assertThat(cache.markFileClear(1)).isTrue();
@@ -394,7 +654,7 @@ public class BreakpointStoreOnCacheTest {
                 fileDirtyList,
                 new HashMap<String, String>(),
                 new SparseArray<IdentifiedTask>(),
-                new ArrayList<Integer>(),
+                new IdAllocator(),
                 keyToIdMap));
 
         assertThat(cache.isFileDirty(1)).isTrue();
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.breakpoint;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class IdAllocatorTest {
+
+    private IdAllocator allocator;
+
+    @Before
+    public void setup() {
+        allocator = new IdAllocator();
+    }
+
+    @Test
+    public void allocate() {
+        assertThat(allocator.allocate()).isEqualTo(BreakpointStoreOnCache.FIRST_ID);
+        assertThat(allocator.allocate()).isEqualTo(2);
+        assertThat(allocator.allocate()).isEqualTo(3);
+        assertThat(allocator.getOccupiedCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void allocate_lowestReleased() {
+        for (int i = 0; i < 5; i++) allocator.allocate();
+
+        allocator.release(4);
+        allocator.release(2);
+
+        assertThat(allocator.allocate()).isEqualTo(2);
+        assertThat(allocator.allocate()).isEqualTo(4);
+        assertThat(allocator.allocate()).isEqualTo(6);
+    }
+
+    @Test
+    public void occupy() {
+        allocator.occupy(1);
+        allocator.occupy(2);
+        allocator.occupy(100);
+
+        assertThat(allocator.isOccupied(100)).isTrue();
+        assertThat(allocator.allocate()).isEqualTo(3);
+
+        // the invalid id is ignored.
+        allocator.occupy(0);
+        allocator.occupy(-1);
+        assertThat(allocator.isOccupied(0)).isFalse();
+        assertThat(allocator.getOccupiedCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void release() {
+        allocator.allocate();
+        allocator.release(1);
+        allocator.release(1);
+        allocator.release(-1);
+
+        assertThat(allocator.isOccupied(1)).isFalse();
+        assertThat(allocator.getOccupiedCount()).isZero();
+        assertThat(allocator.allocate()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.breakpoint;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class IdentityIndexTest {
+
+    private IdentityIndex index;
+
+    @Before
+    public void setup() {
+        index = new IdentityIndex();
+    }
+
+    @Test
+    public void add() {
+        index.add("key", 3);
+        index.add("key", 1);
+        index.add("key", 2);
+        index.add("key", 1);
+
+        assertThat(index.get("key")).containsExactly(1, 2, 3);
+        assertThat(index.get("another")).isNull();
+    }
+
+    @Test
+    public void remove() {
+        index.add("key", 1);
+        index.add("key", 2);
+
+        index.remove("key", 1);
+        assertThat(index.get("key")).containsExactly(2);
+
+        index.remove("another", 2);
+        index.remove("key", 2);
+        assertThat(index.get("key")).isNull();
+        assertThat(index.keyCount()).isZero();
+    }
+
+    @Test
+    public void generateKey() {
+        final String key = IdentityIndex.generateKey("url", new File("/p-path/"));
+
+        assertThat(key).isEqualTo(IdentityIndex.generateKey("url", new File("/p-path")));
+        assertThat(key).isNotEqualTo(IdentityIndex.generateKey("url", new File("/p-path/a")));
+        assertThat(key).isNotEqualTo(IdentityIndex.generateKey("url2", new File("/p-path")));
+    }
+}
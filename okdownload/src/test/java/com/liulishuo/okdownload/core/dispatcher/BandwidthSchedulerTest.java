@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.dispatcher;
+
+import com.liulishuo.okdownload.DownloadTask;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.data.Offset.offset;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BandwidthSchedulerTest {
+
+    private static final int READ_BYTES = 1024;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private FakeClock clock;
+
+    @Before
+    public void setup() {
+        clock = new FakeClock();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void construct_negative() {
+        new BandwidthScheduler(-1, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void construct_idle() {
+        new BandwidthScheduler(0, 0, 0);
+    }
+
+    @Test
+    public void reserve_unlimited() {
+        final BandwidthScheduler scheduler = clock.scheduler(0, 0);
+        final DownloadTask task = mockTask(1, 0);
+
+        assertThat(scheduler.reserve(task, READ_BYTES)).isZero();
+        assertThat(scheduler.reserve(task, READ_BYTES)).isZero();
+        assertThat(scheduler.getBytesPerSecond(task)).isZero();
+    }
+
+    @Test
+    public void reserve_paced() {
+        final BandwidthScheduler scheduler = clock.scheduler(1000, 0);
+        final DownloadTask task = mockTask(1, 0);
+
+        assertThat(scheduler.reserve(task, 500)).isEqualTo(SECOND / 2);
+        // the previous bytes aren't within the bucket yet.
+        assertThat(scheduler.reserve(task, 500)).isEqualTo(SECOND);
+
+        clock.nanos += SECOND;
+        assertThat(scheduler.reserve(task, 1000)).isEqualTo(SECOND);
+    }
+
+    @Test
+    public void consume() throws InterruptedException {
+        final BandwidthScheduler scheduler = clock.scheduler(1000, 0);
+        final DownloadTask task = mockTask(1, 0);
+
+        scheduler.consume(task, 250);
+        assertThat(clock.nanos).isEqualTo(SECOND / 4);
+        scheduler.consume(task, 250);
+        assertThat(clock.nanos).isEqualTo(SECOND / 2);
+    }
+
+    @Test
+    public void globalCap() {
+        final Simulation simulation = new Simulation(clock.scheduler(100 * 1024, 0),
+                mockTask(1, 0));
+
+        simulation.run(10 * SECOND);
+
+        assertThat(simulation.bytesPerSecond(0)).isCloseTo(100 * 1024, offset(1024L));
+    }
+
+    @Test
+    public void weightedShare() {
+        final BandwidthScheduler scheduler = clock.scheduler(100 * 1024, 0);
+        final DownloadTask background = mockTask(1, 0);
+        final DownloadTask foreground = mockTask(2, 3);
+        final Simulation simulation = new Simulation(scheduler, background, foreground);
+
+        simulation.run(10 * SECOND);
+
+        // weight 1 : 4
+        assertThat(simulation.bytesPerSecond(0)).isCloseTo(20 * 1024, offset(1024L));
+        assertThat(simulation.bytesPerSecond(1)).isCloseTo(80 * 1024, offset(1024L));
+        assertThat(scheduler.getBytesPerSecond(background)).isEqualTo(20 * 1024);
+        assertThat(scheduler.getActiveTaskCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void taskCap_redistributed() {
+        final BandwidthScheduler scheduler = clock.scheduler(100 * 1024, 0);
+        final DownloadTask background = mockTask(1, 0);
+        final DownloadTask foreground = mockTask(2, 3);
+        final Simulation simulation = new Simulation(scheduler, background, foreground);
+        // the foreground task can't fetch over 30KiB/s.
+        simulation.setTaskCap(foreground, 30 * 1024);
+
+        simulation.run(10 * SECOND);
+
+        assertThat(simulation.bytesPerSecond(0)).isCloseTo(70 * 1024, offset(1024L));
+        assertThat(simulation.bytesPerSecond(1)).isCloseTo(30 * 1024, offset(1024L));
+    }
+
+    @Test
+    public void taskCap_withoutGlobalCap() {
+        final Simulation simulation = new Simulation(clock.scheduler(0, 50 * 1024),
+                mockTask(1, 0), mockTask(2, 3));
+
+        simulation.run(10 * SECOND);
+
+        assertThat(simulation.bytesPerSecond(0)).isCloseTo(50 * 1024, offset(1024L));
+        assertThat(simulation.bytesPerSecond(1)).isCloseTo(50 * 1024, offset(1024L));
+    }
+
+    @Test
+    public void idleTask_redistributed() {
+        final BandwidthScheduler scheduler = clock.scheduler(100 * 1024, 0);
+        final DownloadTask background = mockTask(1, 0);
+        final DownloadTask foreground = mockTask(2, 3);
+        final Simulation simulation = new Simulation(scheduler, background, foreground);
+        simulation.run(5 * SECOND);
+
+        // the foreground task is idle, so the background task takes the whole bandwidth.
+        simulation.stop(foreground);
+        simulation.resetBytes();
+        simulation.run(10 * SECOND);
+
+        assertThat(simulation.bytesPerSecond(0)).isCloseTo(100 * 1024, offset(6 * 1024L));
+        assertThat(simulation.bytesPerSecond(1)).isZero();
+        assertThat(scheduler.getActiveTaskCount()).isEqualTo(1);
+    }
+
+    private static DownloadTask mockTask(int id, int priority) {
+        final DownloadTask task = mock(DownloadTask.class);
+        when(task.getId()).thenReturn(id);
+        when(task.getPriority()).thenReturn(priority);
+        return task;
+    }
+
+    private static class FakeClock {
+        long nanos;
+        final Map<DownloadTask, Long> taskCaps = new HashMap<>();
+
+        BandwidthScheduler scheduler(long maxBytesPerSecond, long taskMaxBytesPerSecond) {
+            return new BandwidthScheduler(maxBytesPerSecond, taskMaxBytesPerSecond) {
+                @Override long nowNanos() {
+                    return nanos;
+                }
+
+                @Override void sleep(long sleepNanos) {
+                    nanos += sleepNanos;
+                }
+
+                @Override protected long maxBytesPerSecondOf(DownloadTask task) {
+                    final Long cap = taskCaps.get(task);
+                    return cap != null ? cap : super.maxBytesPerSecondOf(task);
+                }
+            };
+        }
+    }
+
+    // the tasks fetch concurrently on the fake clock, the task which is ready first fetches the
+    // next bytes, then it's ready again once the scheduler releases it.
+    private class Simulation {
+        private final BandwidthScheduler scheduler;
+        private final DownloadTask[] tasks;
+        private final long[] readyNanos;
+        private final long[] fetchedBytes;
+        private final boolean[] stopped;
+        private long startNanos;
+
+        Simulation(BandwidthScheduler scheduler, DownloadTask... tasks) {
+            this.scheduler = scheduler;
+            this.tasks = tasks;
+            this.readyNanos = new long[tasks.length];
+            this.fetchedBytes = new long[tasks.length];
+            this.stopped = new boolean[tasks.length];
+            this.startNanos = clock.nanos;
+        }
+
+        void setTaskCap(DownloadTask task, long bytesPerSecond) {
+            clock.taskCaps.put(task, bytesPerSecond);
+        }
+
+        void stop(DownloadTask task) {
+            for (int i = 0; i < tasks.length; i++) {
+                if (tasks[i] == task) stopped[i] = true;
+            }
+        }
+
+        void resetBytes() {
+            for (int i = 0; i < tasks.length; i++) fetchedBytes[i] = 0;
+            startNanos = clock.nanos;
+        }
+
+        void run(long durationNanos) {
+            final long endNanos = clock.nanos + durationNanos;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < tasks.length; i++) {
+                    if (stopped[i]) continue;
+                    if (next < 0 || readyNanos[i] < readyNanos[next]) next = i;
+                }
+                if (next < 0 || readyNanos[next] >= endNanos) break;
+
+                clock.nanos = Math.max(clock.nanos, readyNanos[next]);
+                fetchedBytes[next] += READ_BYTES;
+                readyNanos[next] = clock.nanos + scheduler.reserve(tasks[next], READ_BYTES);
+            }
+            clock.nanos = endNanos;
+        }
+
+        long bytesPerSecond(int index) {
+            return fetchedBytes[index] * SECOND / (clock.nanos - startNanos);
+        }
+    }
+}
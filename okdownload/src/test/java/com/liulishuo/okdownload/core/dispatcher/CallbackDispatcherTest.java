@@ -30,6 +30,7 @@ import com.liulishuo.okdownload.core.cause.ResumeFailedCause;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -45,8 +46,10 @@ import java.util.Map;
 import static com.liulishuo.okdownload.TestUtils.mockOkDownload;
 import static org.assertj.core.api.Java6Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -128,6 +131,41 @@ public class CallbackDispatcherTest {
         verify(listener).taskEnd(eq(task), eq(endCause), eq(exception));
     }
 
+    @Test
+    public void dispatch_coalesceProgress() {
+        final List<Runnable> postedList = new ArrayList<>();
+        final Handler handler = mock(Handler.class);
+        final Answer<Boolean> collect = new Answer<Boolean>() {
+            @Override public Boolean answer(InvocationOnMock invocation) {
+                postedList.add((Runnable) invocation.getArgument(0));
+                return true;
+            }
+        };
+        when(handler.post(any(Runnable.class))).thenAnswer(collect);
+        when(handler.postDelayed(any(Runnable.class), anyLong())).thenAnswer(collect);
+        transmit = new CallbackDispatcher.DefaultTransmitListener(handler,
+                new ProgressCoalescer(handler, CallbackDispatcher.FRAME_INTERVAL_MILLIS));
+
+        final DownloadTask task = mock(DownloadTask.class);
+        final DownloadListener listener = mock(DownloadListener.class);
+        when(task.getListener()).thenReturn(listener);
+        when(task.isAutoCallbackToUIThread()).thenReturn(true);
+
+        for (int i = 0; i < 100; i++) {
+            transmit.fetchProgress(task, 0, 2L);
+        }
+        transmit.fetchEnd(task, 0, 200L);
+
+        // one drain message, one flush message and the fetch end.
+        assertThat(postedList).hasSize(3);
+        for (Runnable runnable : postedList) {
+            runnable.run();
+        }
+        final InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).fetchProgress(task, 0, 200L);
+        inOrder.verify(listener).fetchEnd(task, 0, 200L);
+    }
+
     @Test
     public void dispatch_nonUi() {
         final DownloadTask task = mock(DownloadTask.class);
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.dispatcher;
+
+import android.support.annotation.NonNull;
+
+import com.liulishuo.okdownload.DownloadTask;
+import com.liulishuo.okdownload.OkDownload;
+import com.liulishuo.okdownload.core.Util;
+import com.liulishuo.okdownload.core.breakpoint.DownloadStore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.liulishuo.okdownload.TestUtils.mockOkDownload;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The benchmark of enqueuing and canceling lots of tasks on the dispatcher, it's skipped unless
+ * running with {@code ./gradlew :okdownload:testDebugUnitTest -Pbenchmark}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DownloadDispatcherBenchmarkTest {
+
+    private static final int TASK_COUNT = 10000;
+
+    private DownloadDispatcher dispatcher;
+    private IndexedDownloadCalls readyAsyncCalls;
+    private IndexedDownloadCalls runningAsyncCalls;
+
+    @Before
+    public void setup() throws IOException {
+        assumeTrue(Boolean.getBoolean("okdownload.benchmark"));
+        mockOkDownload();
+        Util.setLogger(null);
+
+        readyAsyncCalls = IndexedDownloadCalls.prioritized();
+        runningAsyncCalls = IndexedDownloadCalls.ordered();
+        // not spy the dispatcher and the tasks, the mocked invocations are much slower than the
+        // dispatching itself.
+        final ExecutorService executorService = new AbstractExecutorService() {
+            @Override public void execute(@NonNull Runnable command) { }
+
+            @Override public void shutdown() { }
+
+            @NonNull @Override public List<Runnable> shutdownNow() {
+                return Collections.emptyList();
+            }
+
+            @Override public boolean isShutdown() {
+                return false;
+            }
+
+            @Override public boolean isTerminated() {
+                return false;
+            }
+
+            @Override public boolean awaitTermination(long timeout, @NonNull TimeUnit unit) {
+                return false;
+            }
+        };
+        dispatcher = new DownloadDispatcher(readyAsyncCalls, runningAsyncCalls,
+                IndexedDownloadCalls.ordered(), IndexedDownloadCalls.ordered()) {
+            @Override synchronized ExecutorService getExecutorService() {
+                return executorService;
+            }
+        };
+        dispatcher.setDownloadStore(mock(DownloadStore.class));
+    }
+
+    @Test
+    public void enqueue_cancel() {
+        final AtomicInteger id = new AtomicInteger();
+        when(OkDownload.with().breakpointStore().findOrCreateId(any(DownloadTask.class)))
+                .thenAnswer(new Answer<Integer>() {
+                    @Override public Integer answer(InvocationOnMock invocation) {
+                        return id.incrementAndGet();
+                    }
+                });
+        final DownloadTask[] tasks = new DownloadTask[TASK_COUNT];
+        for (int i = 0; i < TASK_COUNT; i++) {
+            tasks[i] = new DownloadTask.Builder("https://jacksgong.com/" + i, "p-path",
+                    "filename" + i)
+                    .setPriority(i % 10)
+                    .setPassIfAlreadyCompleted(false)
+                    .build();
+        }
+
+        long start = System.nanoTime();
+        for (DownloadTask task : tasks) {
+            dispatcher.enqueue(task);
+        }
+        final long enqueueNanos = System.nanoTime() - start;
+
+        assertThat(runningAsyncCalls).hasSize(dispatcher.maxParallelRunningCount);
+        assertThat(readyAsyncCalls).hasSize(TASK_COUNT - dispatcher.maxParallelRunningCount);
+
+        start = System.nanoTime();
+        for (int i = 0; i < TASK_COUNT; i++) {
+            dispatcher.isPending(tasks[i]);
+            dispatcher.isRunning(tasks[i]);
+        }
+        final long queryNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        // cancel from the tail of the ready queue.
+        for (int i = TASK_COUNT - 1; i >= 0; i--) {
+            dispatcher.cancel(tasks[i]);
+        }
+        final long cancelNanos = System.nanoTime() - start;
+
+        assertThat(readyAsyncCalls).isEmpty();
+
+        System.out.println("DownloadDispatcher: enqueue " + TASK_COUNT + " tasks in "
+                + enqueueNanos / 1000000 + "ms, query the status in " + queryNanos / 1000000
+                + "ms, cancel them in " + cancelNanos / 1000000 + "ms");
+    }
+}
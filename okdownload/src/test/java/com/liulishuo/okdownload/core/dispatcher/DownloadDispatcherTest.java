@@ -45,6 +45,7 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 
 import static com.liulishuo.okdownload.TestUtils.mockOkDownload;
@@ -71,11 +72,11 @@ public class DownloadDispatcherTest {
 
     private DownloadDispatcher dispatcher;
 
-    private List<DownloadCall> readyAsyncCalls;
+    private IndexedDownloadCalls readyAsyncCalls;
 
-    private List<DownloadCall> runningAsyncCalls;
-    private List<DownloadCall> runningSyncCalls;
-    private List<DownloadCall> finishingCalls;
+    private IndexedDownloadCalls runningAsyncCalls;
+    private IndexedDownloadCalls runningSyncCalls;
+    private IndexedDownloadCalls finishingCalls;
 
     @Mock
     private DownloadStore store;
@@ -91,10 +92,10 @@ public class DownloadDispatcherTest {
     public void setup() throws IOException {
         initMocks(this);
 
-        readyAsyncCalls = spy(new ArrayList<DownloadCall>());
-        runningAsyncCalls = spy(new ArrayList<DownloadCall>());
-        runningSyncCalls = spy(new ArrayList<DownloadCall>());
-        finishingCalls = spy(new ArrayList<DownloadCall>());
+        readyAsyncCalls = spy(IndexedDownloadCalls.prioritized());
+        runningAsyncCalls = spy(IndexedDownloadCalls.ordered());
+        runningSyncCalls = spy(IndexedDownloadCalls.ordered());
+        finishingCalls = spy(IndexedDownloadCalls.ordered());
 
         dispatcher = spy(
                 new DownloadDispatcher(readyAsyncCalls, runningAsyncCalls, runningSyncCalls,
@@ -182,7 +183,7 @@ public class DownloadDispatcherTest {
         dispatcher.enqueue(mockTask);
 
         assertThat(readyAsyncCalls).hasSize(1);
-        assertThat(readyAsyncCalls.get(0).task).isEqualTo(mockTask);
+        assertThat(readyAsyncCalls.iterator().next().task).isEqualTo(mockTask);
 
         assertThat(runningSyncCalls).isEmpty();
         assertThat(runningAsyncCalls).hasSize(dispatcher.maxParallelRunningCount);
@@ -195,7 +196,7 @@ public class DownloadDispatcherTest {
         assertThat(runningAsyncCalls).hasSize(dispatcher.maxParallelRunningCount);
 
         final DownloadTask task = mockTask();
-        final DownloadCall canceledCall = runningAsyncCalls.get(0);
+        final DownloadCall canceledCall = runningAsyncCalls.iterator().next();
         dispatcher.cancel(canceledCall.task);
         // maybe here is bad design, because of here relate to DownloadCall#cancel we have to invoke
         // flyingCanceled manually which does on DownloadCall#cancel
@@ -205,7 +206,7 @@ public class DownloadDispatcherTest {
 
         assertThat(readyAsyncCalls).hasSize(0);
         assertThat(runningAsyncCalls).hasSize(dispatcher.maxParallelRunningCount + 1);
-        assertThat(runningAsyncCalls.get(dispatcher.maxParallelRunningCount).task).isEqualTo(task);
+        assertThat(runningAsyncCalls).extracting("task").last().isEqualTo(task);
         assertThat(runningSyncCalls).isEmpty();
     }
 
@@ -226,9 +227,204 @@ public class DownloadDispatcherTest {
         dispatcher.enqueue(mockTask1);
         dispatcher.enqueue(mockTask3);
 
-        assertThat(readyAsyncCalls.get(0).task).isEqualTo(mockTask3);
-        assertThat(readyAsyncCalls.get(1).task).isEqualTo(mockTask2);
-        assertThat(readyAsyncCalls.get(2).task).isEqualTo(mockTask1);
+        assertThat(readyAsyncCalls).extracting("task")
+                .containsExactly(mockTask3, mockTask2, mockTask1);
+    }
+
+    @Test
+    public void enqueue_preempt() {
+        dispatcher.maxParallelRunningCount = 1;
+        dispatcher.setPreemptionPolicy(new DownloadDispatcher.PreemptionPolicy(1, 0, 3));
+        final DownloadTask lowTask = mockTask(1);
+        final DownloadTask urgentTask = mockTask(2);
+        when(urgentTask.getPriority()).thenReturn(5);
+
+        dispatcher.enqueue(lowTask);
+        final DownloadCall pausedCall = runningAsyncCalls.iterator().next();
+        dispatcher.enqueue(urgentTask);
+        // flyingCanceled is invoked on DownloadCall#cancel.
+        dispatcher.flyingCanceled(pausedCall);
+
+        assertThat(pausedCall.isCanceled()).isTrue();
+        assertThat(runningAsyncCalls).extracting("task").containsExactly(lowTask, urgentTask);
+        assertThat(readyAsyncCalls).isEmpty();
+        // the paused task is still pending.
+        assertThat(dispatcher.isPending(lowTask)).isTrue();
+        assertThat(dispatcher.isRunning(lowTask)).isFalse();
+        assertThat(dispatcher.findSameTask(lowTask)).isEqualTo(lowTask);
+        assertThat(dispatcher.getMetrics().getPreemptedCount()).isEqualTo(1);
+        verify(OkDownload.with().callbackDispatcher().dispatch(), never())
+                .taskEnd(eq(lowTask), any(EndCause.class), nullable(Exception.class));
+
+        // the paused call is enqueued again once it's finished.
+        dispatcher.finish(pausedCall);
+        assertThat(readyAsyncCalls).extracting("task").containsExactly(lowTask);
+        assertThat(readyAsyncCalls.iterator().next()).isNotEqualTo(pausedCall);
+        assertThat(dispatcher.getMetrics().getResumedCount()).isEqualTo(1);
+
+        // then it runs once the urgent one is finished.
+        dispatcher.finish(runningAsyncCalls.iterator().next());
+        assertThat(runningAsyncCalls).extracting("task").containsExactly(lowTask);
+        assertThat(readyAsyncCalls).isEmpty();
+    }
+
+    @Test
+    public void enqueue_preempt_lowestPriority() {
+        dispatcher.maxParallelRunningCount = 2;
+        dispatcher.setPreemptionPolicy(new DownloadDispatcher.PreemptionPolicy(1, 0, 3));
+        final DownloadTask task1 = mockTask(1);
+        when(task1.getPriority()).thenReturn(2);
+        final DownloadTask task2 = mockTask(2);
+        when(task2.getPriority()).thenReturn(1);
+        final DownloadTask urgentTask = mockTask(3);
+        when(urgentTask.getPriority()).thenReturn(3);
+
+        dispatcher.enqueue(task1);
+        dispatcher.enqueue(task2);
+        dispatcher.enqueue(urgentTask);
+
+        assertThat(runningAsyncCalls).extracting("canceled").containsExactly(false, true, false);
+    }
+
+    @Test
+    public void enqueue_preempt_hysteresis() {
+        dispatcher.maxParallelRunningCount = 1;
+        dispatcher.setPreemptionPolicy(new DownloadDispatcher.PreemptionPolicy(2, 1000, 1));
+        final DownloadTask lowTask = mockTask(1);
+        final DownloadTask task = mockTask(2);
+        when(task.getPriority()).thenReturn(1);
+        final DownloadTask urgentTask = mockTask(3);
+        when(urgentTask.getPriority()).thenReturn(5);
+
+        doReturn(0L).when(dispatcher).nowMillis();
+        dispatcher.enqueue(lowTask);
+        final DownloadCall lowCall = runningAsyncCalls.iterator().next();
+
+        // the low call just starts.
+        doReturn(500L).when(dispatcher).nowMillis();
+        dispatcher.enqueue(urgentTask);
+        assertThat(lowCall.isCanceled()).isFalse();
+        dispatcher.cancel(urgentTask);
+
+        // the gap of the priorities is too small.
+        doReturn(1000L).when(dispatcher).nowMillis();
+        dispatcher.enqueue(task);
+        assertThat(lowCall.isCanceled()).isFalse();
+        dispatcher.cancel(task);
+
+        dispatcher.enqueue(urgentTask);
+        assertThat(lowCall.isCanceled()).isTrue();
+        dispatcher.flyingCanceled(lowCall);
+        dispatcher.finish(lowCall);
+        final DownloadCall urgentCall = runningAsyncCalls.iterator().next();
+        dispatcher.finish(urgentCall);
+
+        // the low task has been paused for the max count.
+        final DownloadCall resumedCall = runningAsyncCalls.iterator().next();
+        assertThat(resumedCall.task).isEqualTo(lowTask);
+        doReturn(5000L).when(dispatcher).nowMillis();
+        dispatcher.enqueue(urgentTask);
+        assertThat(resumedCall.isCanceled()).isFalse();
+        assertThat(dispatcher.getMetrics().getPreemptedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void enqueue_preempt_onlyForReadyHead() {
+        dispatcher.maxParallelRunningCount = 1;
+        dispatcher.setPreemptionPolicy(new DownloadDispatcher.PreemptionPolicy(1, 1000, 3));
+        final DownloadTask lowTask = mockTask(1);
+        final DownloadTask urgentTask = mockTask(2);
+        when(urgentTask.getPriority()).thenReturn(5);
+        final DownloadTask task = mockTask(3);
+        when(task.getPriority()).thenReturn(3);
+        final DownloadTask moreUrgentTask = mockTask(4);
+        when(moreUrgentTask.getPriority()).thenReturn(8);
+
+        doReturn(0L).when(dispatcher).nowMillis();
+        dispatcher.enqueue(lowTask);
+        final DownloadCall lowCall = runningAsyncCalls.iterator().next();
+
+        // the urgent call is waiting because the low call just starts.
+        doReturn(500L).when(dispatcher).nowMillis();
+        dispatcher.enqueue(urgentTask);
+        assertThat(readyAsyncCalls).extracting("task").containsExactly(urgentTask);
+
+        // the call with the lower priority than the waiting urgent one doesn't preempt.
+        doReturn(1000L).when(dispatcher).nowMillis();
+        dispatcher.enqueue(task);
+        assertThat(lowCall.isCanceled()).isFalse();
+        assertThat(runningAsyncCalls).extracting("task").containsExactly(lowTask);
+        assertThat(readyAsyncCalls).extracting("task").containsExactly(urgentTask, task);
+        assertThat(dispatcher.getMetrics().getPreemptedCount()).isZero();
+
+        // the call with the higher priority than the head of the ready queue still preempts.
+        dispatcher.enqueue(moreUrgentTask);
+        assertThat(lowCall.isCanceled()).isTrue();
+        assertThat(runningAsyncCalls).extracting("task").containsExactly(lowTask, moreUrgentTask);
+        assertThat(readyAsyncCalls).extracting("task").containsExactly(urgentTask, task);
+        assertThat(dispatcher.getMetrics().getPreemptedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void enqueue_preempt_disabled() {
+        dispatcher.maxParallelRunningCount = 1;
+        final DownloadTask urgentTask = mockTask(2);
+        when(urgentTask.getPriority()).thenReturn(5);
+
+        dispatcher.enqueue(mockTask(1));
+        dispatcher.enqueue(urgentTask);
+
+        assertThat(runningAsyncCalls.iterator().next().isCanceled()).isFalse();
+        assertThat(readyAsyncCalls).extracting("task").containsExactly(urgentTask);
+        assertThat(dispatcher.getMetrics().getPreemptedCount()).isZero();
+    }
+
+    @Test
+    public void preempt_cancelPausedTask() {
+        dispatcher.maxParallelRunningCount = 1;
+        dispatcher.setPreemptionPolicy(new DownloadDispatcher.PreemptionPolicy(1, 0, 3));
+        final DownloadTask lowTask = mockTask(1);
+        final DownloadTask urgentTask = mockTask(2);
+        when(urgentTask.getPriority()).thenReturn(5);
+        dispatcher.enqueue(lowTask);
+        final DownloadCall pausedCall = runningAsyncCalls.iterator().next();
+        dispatcher.enqueue(urgentTask);
+        dispatcher.flyingCanceled(pausedCall);
+
+        // the same task is pending.
+        dispatcher.enqueue(lowTask);
+        verify(OkDownload.with().callbackDispatcher().dispatch())
+                .taskEnd(lowTask, SAME_TASK_BUSY, null);
+
+        assertThat(dispatcher.cancel(lowTask)).isTrue();
+        verify(OkDownload.with().callbackDispatcher().dispatch())
+                .taskEnd(lowTask, CANCELED, null);
+        assertThat(dispatcher.isPending(lowTask)).isFalse();
+
+        // the canceled task isn't enqueued again.
+        dispatcher.finish(pausedCall);
+        assertThat(readyAsyncCalls).isEmpty();
+    }
+
+    @Test
+    public void metrics_waitMillis() {
+        dispatcher.maxParallelRunningCount = 1;
+        doReturn(100L).when(dispatcher).nowMillis();
+        dispatcher.enqueue(mockTask(1));
+        dispatcher.enqueue(mockTask(2));
+
+        doReturn(600L).when(dispatcher).nowMillis();
+        dispatcher.finish(runningAsyncCalls.iterator().next());
+
+        final DownloadDispatcher.Metrics metrics = dispatcher.getMetrics();
+        assertThat(metrics.getAdmittedCount()).isEqualTo(2);
+        assertThat(metrics.getMaxWaitMillis()).isEqualTo(500);
+        assertThat(metrics.getAverageWaitMillis()).isEqualTo(250);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void preemptionPolicy_invalidGap() {
+        new DownloadDispatcher.PreemptionPolicy(0, 0, 0);
     }
 
     private void maxRunningTask() {
@@ -248,7 +444,7 @@ public class DownloadDispatcherTest {
         doReturn(true).when(dispatcher)
                 .inspectCompleted(any(DownloadTask.class), any(Collection.class));
         doReturn(true).when(dispatcher)
-                .inspectForConflict(any(DownloadTask.class), any(Collection.class),
+                .inspectForConflict(any(DownloadTask.class), any(IndexedDownloadCalls.class),
                         any(Collection.class), any(Collection.class));
 
         dispatcher.enqueue(tasks);
@@ -678,12 +874,11 @@ public class DownloadDispatcherTest {
         final DownloadListener listener = callbackDispatcher.dispatch();
 
         DownloadTask task = mock(DownloadTask.class);
-        final Collection<DownloadCall> calls = new ArrayList<>();
+        final IndexedDownloadCalls calls = IndexedDownloadCalls.ordered();
         final Collection<DownloadTask> sameTaskList = new ArrayList<>();
         final Collection<DownloadTask> fileBusyList = new ArrayList<>();
 
-        final DownloadCall call = mock(DownloadCall.class);
-        when(call.equalsTask(task)).thenReturn(true);
+        final DownloadCall call = DownloadCall.create(task, true, store);
         calls.add(call);
 
         assertThat(dispatcher.inspectForConflict(task, calls, sameTaskList, fileBusyList)).isTrue();
@@ -695,10 +890,9 @@ public class DownloadDispatcherTest {
     @Test
     public void inspectForConflict_sameTask_isFinishing() {
         final DownloadTask task = mock(DownloadTask.class);
-        final DownloadCall call = mock(DownloadCall.class);
-        when(call.equalsTask(task)).thenReturn(true);
+        final DownloadCall call = spy(DownloadCall.create(task, true, store));
         when(call.isFinishing()).thenReturn(true);
-        final Collection<DownloadCall> calls = new ArrayList<>();
+        final IndexedDownloadCalls calls = IndexedDownloadCalls.ordered();
         final Collection<DownloadTask> sameTaskList = new ArrayList<>();
         final Collection<DownloadTask> fileBusyList = new ArrayList<>();
         calls.add(call);
@@ -707,7 +901,8 @@ public class DownloadDispatcherTest {
                 .isFalse();
         assertThat(fileBusyList).isEmpty();
         assertThat(sameTaskList).isEmpty();
-        assertThat(finishingCalls).hasSize(1);
+        assertThat(finishingCalls).containsExactly(call);
+        assertThat(calls).isEmpty();
     }
 
     @Test
@@ -717,14 +912,15 @@ public class DownloadDispatcherTest {
         final DownloadListener listener = callbackDispatcher.dispatch();
 
         DownloadTask task = mock(DownloadTask.class);
-        final Collection<DownloadCall> calls = new ArrayList<>();
+        final IndexedDownloadCalls calls = IndexedDownloadCalls.ordered();
         final Collection<DownloadTask> sameTaskList = new ArrayList<>();
         final Collection<DownloadTask> fileBusyList = new ArrayList<>();
 
-        final DownloadCall call = mock(DownloadCall.class);
+        final DownloadTask otherTask = mock(DownloadTask.class);
+        final DownloadCall call = DownloadCall.create(otherTask, true, store);
         final File file = mock(File.class);
         when(task.getFile()).thenReturn(file);
-        when(call.getFile()).thenReturn(file);
+        when(otherTask.getFile()).thenReturn(file);
 
         calls.add(call);
 
@@ -908,6 +1104,41 @@ public class DownloadDispatcherTest {
         assertThat(result).isEqualTo(false);
     }
 
+    @Test
+    public void statusQuery_notBlockedByDispatcherLock() throws InterruptedException {
+        final DownloadCall pendingCall = spy(DownloadCall.create(mockTask(1), true, store));
+        readyAsyncCalls.add(pendingCall);
+        final DownloadCall runningCall = spy(DownloadCall.create(mockTask(2), true, store));
+        runningAsyncCalls.add(runningCall);
+
+        // the interrupted flag may be left on the test thread by the other tests.
+        Thread.interrupted();
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch queried = new CountDownLatch(1);
+        final Thread lockThread = new Thread(new Runnable() {
+            @Override public void run() {
+                synchronized (dispatcher) {
+                    locked.countDown();
+                    try {
+                        queried.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }
+        });
+        lockThread.start();
+        locked.await();
+
+        try {
+            assertThat(dispatcher.isPending(pendingCall.task)).isTrue();
+            assertThat(dispatcher.isRunning(runningCall.task)).isTrue();
+            assertThat(dispatcher.findSameTask(runningCall.task)).isEqualTo(runningCall.task);
+        } finally {
+            queried.countDown();
+            lockThread.join();
+        }
+    }
+
     private static class MockDownloadDispatcher extends DownloadDispatcher {
     }
 }
\ No newline at end of file
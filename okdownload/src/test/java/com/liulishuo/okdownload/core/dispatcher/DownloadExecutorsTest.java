@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.dispatcher;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class DownloadExecutorsTest {
+
+    private DownloadExecutors executors;
+
+    @After
+    public void tearDown() {
+        if (executors == null) return;
+        executors.dispatchExecutor().shutdownNow();
+        executors.blockExecutor().shutdownNow();
+        executors.fileIoExecutor().shutdownNow();
+    }
+
+    @Test
+    public void constructor_unbounded() {
+        executors = new DownloadExecutors();
+
+        final ThreadPoolExecutor block = (ThreadPoolExecutor) executors.blockExecutor();
+        assertThat(block.getMaximumPoolSize()).isEqualTo(Integer.MAX_VALUE);
+        assertThat(executors.getBlockThreadCount()).isZero();
+        assertThat(executors.getBlockQueueDepth()).isZero();
+    }
+
+    @Test
+    public void builder_bounded() {
+        executors = new DownloadExecutors.Builder()
+                .dispatchThreadCount(2)
+                .blockThreadCount(3)
+                .fileIoThreadCount(4)
+                .blockQueueCapacity(5)
+                .build();
+
+        final ThreadPoolExecutor dispatch = (ThreadPoolExecutor) executors.dispatchExecutor();
+        final ThreadPoolExecutor block = (ThreadPoolExecutor) executors.blockExecutor();
+        final ThreadPoolExecutor fileIo = (ThreadPoolExecutor) executors.fileIoExecutor();
+        assertThat(dispatch.getMaximumPoolSize()).isEqualTo(2);
+        assertThat(block.getMaximumPoolSize()).isEqualTo(3);
+        assertThat(block.getQueue().remainingCapacity()).isEqualTo(5);
+        assertThat(fileIo.getMaximumPoolSize()).isEqualTo(4);
+        assertThat(block.allowsCoreThreadTimeOut()).isTrue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void builder_invalidCount() {
+        new DownloadExecutors.Builder().blockThreadCount(0).build();
+    }
+
+    @Test
+    public void blockExecutor_queueFull_runOnCaller() {
+        executors = new DownloadExecutors.Builder()
+                .blockThreadCount(1)
+                .blockQueueCapacity(1)
+                .build();
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final Runnable blocking = new Runnable() {
+            @Override public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        // one running and one waiting on the queue.
+        executors.blockExecutor().execute(blocking);
+        executors.blockExecutor().execute(blocking);
+        assertThat(executors.getBlockThreadCount()).isEqualTo(1);
+        assertThat(executors.getBlockQueueDepth()).isEqualTo(1);
+
+        final AtomicReference<Thread> runThread = new AtomicReference<>();
+        executors.blockExecutor().execute(new Runnable() {
+            @Override public void run() {
+                runThread.set(Thread.currentThread());
+            }
+        });
+        assertThat(runThread.get()).isEqualTo(Thread.currentThread());
+
+        release.countDown();
+    }
+}
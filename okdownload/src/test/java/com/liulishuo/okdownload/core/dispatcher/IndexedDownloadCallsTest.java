@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.dispatcher;
+
+import com.liulishuo.okdownload.DownloadTask;
+import com.liulishuo.okdownload.OkDownload;
+import com.liulishuo.okdownload.core.breakpoint.DownloadStore;
+import com.liulishuo.okdownload.core.download.DownloadCall;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import static com.liulishuo.okdownload.TestUtils.mockOkDownload;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class IndexedDownloadCallsTest {
+
+    private DownloadStore store;
+
+    private DownloadCall call1;
+    private DownloadCall call2;
+    private DownloadCall call3;
+
+    @BeforeClass
+    public static void setupClass() throws IOException {
+        mockOkDownload();
+    }
+
+    @Before
+    public void setup() {
+        store = mock(DownloadStore.class);
+        when(OkDownload.with().breakpointStore().findOrCreateId(any(DownloadTask.class)))
+                .thenReturn(1, 2, 3);
+
+        final File parentFile = new File("p-path");
+        // task2 is the same task to task1 with the different id.
+        call1 = DownloadCall.create(new DownloadTask.Builder("url1", parentFile)
+                .setPriority(1).build(), true, store);
+        call2 = DownloadCall.create(new DownloadTask.Builder("url1", parentFile)
+                .setPriority(2).build(), true, store);
+        call3 = DownloadCall.create(new DownloadTask.Builder("url3", parentFile)
+                .setPriority(2).build(), true, store);
+    }
+
+    @Test
+    public void ordered() {
+        final IndexedDownloadCalls calls = IndexedDownloadCalls.ordered();
+        calls.add(call1);
+        calls.add(call2);
+        calls.add(call3);
+        assertThat(calls.add(call1)).isFalse();
+
+        assertThat(calls).containsExactly(call1, call2, call3);
+        assertThat(calls.peek()).isEqualTo(call1);
+        calls.remove(call1);
+        assertThat(calls).containsExactly(call2, call3);
+    }
+
+    @Test
+    public void prioritized() {
+        final IndexedDownloadCalls calls = IndexedDownloadCalls.prioritized();
+        calls.add(call1);
+        calls.add(call2);
+        calls.add(call3);
+        assertThat(calls.add(call3)).isFalse();
+
+        // the same priority calls are kept in the order of adding.
+        assertThat(calls).containsExactly(call2, call3, call1);
+        assertThat(calls.peek()).isEqualTo(call2);
+        calls.remove(call2);
+        assertThat(calls.peek()).isEqualTo(call3);
+        calls.remove(call3);
+        assertThat(calls.peek()).isEqualTo(call1);
+        calls.remove(call1);
+        assertThat(calls.peek()).isNull();
+    }
+
+    @Test
+    public void getSameTaskCalls() {
+        final IndexedDownloadCalls calls = IndexedDownloadCalls.prioritized();
+        calls.add(call1);
+        calls.add(call3);
+
+        // same id
+        assertThat(calls.getSameTaskCalls(call1.task)).containsExactly(call1);
+        // same url and file with the different id
+        assertThat(calls.getSameTaskCalls(call2.task)).containsExactly(call1);
+
+        calls.remove(call1);
+        assertThat(calls.getSameTaskCalls(call1.task)).isEmpty();
+        assertThat(calls.getSameTaskCalls(call2.task)).isEmpty();
+        assertThat(calls.getSameTaskCalls(call3.task)).containsExactly(call3);
+    }
+
+    @Test
+    public void getSameIdCalls() {
+        final IndexedDownloadCalls calls = IndexedDownloadCalls.ordered();
+        calls.add(call1);
+        calls.add(call2);
+
+        assertThat(calls.getSameIdCalls(1)).containsExactly(call1);
+        assertThat(calls.getSameIdCalls(2)).containsExactly(call2);
+        assertThat(calls.getSameIdCalls(3)).isEmpty();
+    }
+
+    @Test
+    public void getSameFileCalls() {
+        final IndexedDownloadCalls calls = IndexedDownloadCalls.ordered();
+        final File file = new File("p-path/filename");
+        final DownloadTask knownFileTask = mock(DownloadTask.class);
+        when(knownFileTask.getFile()).thenReturn(file);
+        final DownloadCall knownFileCall = DownloadCall.create(knownFileTask, true, store);
+        final DownloadTask unknownFileTask = mock(DownloadTask.class);
+        final DownloadCall unknownFileCall = DownloadCall.create(unknownFileTask, true, store);
+        calls.add(knownFileCall);
+        calls.add(unknownFileCall);
+
+        assertThat(calls.getSameFileCalls(file)).containsExactly(knownFileCall);
+
+        // the filename is got from the response.
+        when(unknownFileTask.getFile()).thenReturn(file);
+        assertThat(calls.getSameFileCalls(file)).containsExactly(knownFileCall, unknownFileCall);
+
+        calls.remove(knownFileCall);
+        assertThat(calls.getSameFileCalls(file)).containsExactly(unknownFileCall);
+    }
+
+    @Test
+    public void iteratorRemove() {
+        final IndexedDownloadCalls calls = IndexedDownloadCalls.prioritized();
+        calls.add(call1);
+        calls.add(call3);
+
+        final Iterator<DownloadCall> iterator = calls.iterator();
+        assertThat(iterator.next()).isEqualTo(call3);
+        iterator.remove();
+
+        assertThat(calls).containsExactly(call1);
+        assertThat(calls.contains(call3)).isFalse();
+        assertThat(calls.getSameIdCalls(3)).isEmpty();
+
+        // can be added back after removed.
+        assertThat(calls.add(call3)).isTrue();
+        assertThat(calls).containsExactly(call3, call1);
+    }
+
+    @Test
+    public void clear() {
+        final IndexedDownloadCalls calls = IndexedDownloadCalls.prioritized();
+        calls.add(call1);
+        calls.add(call3);
+
+        calls.clear();
+
+        assertThat(calls).isEmpty();
+        assertThat(calls.getSameTaskCalls(call1.task)).isEmpty();
+        assertThat(calls.getSameIdCalls(3)).isEmpty();
+    }
+}
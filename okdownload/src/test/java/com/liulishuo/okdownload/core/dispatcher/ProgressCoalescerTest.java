@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.dispatcher;
+
+import android.os.Handler;
+import android.util.SparseArray;
+
+import com.liulishuo.okdownload.DownloadListener;
+import com.liulishuo.okdownload.DownloadTask;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.invocation.Invocation;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.robolectric.annotation.Config.NONE;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE)
+public class ProgressCoalescerTest {
+
+    @Mock private Handler handler;
+    @Mock private DownloadListener listener;
+
+    private final List<Runnable> postedList = new ArrayList<>();
+    private ProgressCoalescer coalescer;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+
+        final Answer<Boolean> collect = new Answer<Boolean>() {
+            @Override public Boolean answer(InvocationOnMock invocation) {
+                synchronized (postedList) {
+                    postedList.add((Runnable) invocation.getArgument(0));
+                }
+                return true;
+            }
+        };
+        when(handler.post(any(Runnable.class))).thenAnswer(collect);
+        when(handler.postDelayed(any(Runnable.class), anyLong())).thenAnswer(collect);
+
+        coalescer = new ProgressCoalescer(handler, 16);
+    }
+
+    private DownloadTask mockTask(int id) {
+        final DownloadTask task = mock(DownloadTask.class);
+        when(task.getId()).thenReturn(id);
+        when(task.getListener()).thenReturn(listener);
+        return task;
+    }
+
+    private void runPosted() {
+        final List<Runnable> runnableList;
+        synchronized (postedList) {
+            runnableList = new ArrayList<>(postedList);
+            postedList.clear();
+        }
+        for (Runnable runnable : runnableList) {
+            runnable.run();
+        }
+    }
+
+    @Test
+    public void add_coalesced() {
+        final DownloadTask task1 = mockTask(1);
+        final DownloadTask task2 = mockTask(2);
+
+        coalescer.add(task1, 0, 10);
+        coalescer.add(task1, 0, 5);
+        coalescer.add(task1, 1, 3);
+        coalescer.add(task2, 0, 7);
+
+        // only one message is posted.
+        verify(handler).postDelayed(any(Runnable.class), eq(16L));
+        assertThat(postedList).hasSize(1);
+        verify(listener, never()).fetchProgress(any(DownloadTask.class), anyInt(), anyLong());
+
+        runPosted();
+        verify(listener).fetchProgress(task1, 0, 15);
+        verify(listener).fetchProgress(task1, 1, 3);
+        verify(listener).fetchProgress(task2, 0, 7);
+
+        // the next progress posts the next message.
+        coalescer.add(task1, 0, 1);
+        assertThat(postedList).hasSize(1);
+        runPosted();
+        verify(listener).fetchProgress(task1, 0, 1);
+    }
+
+    @Test
+    public void add_noCopyAfterFirstProgressOfBlock() {
+        // the id isn't cached as a boxed integer.
+        final DownloadTask task = mockTask(1000);
+        coalescer.add(task, 0, 10);
+        coalescer.add(task, 2, 10);
+        final SparseArray<ProgressCoalescer.TaskProgress> taskProgressMap =
+                coalescer.taskProgressMap;
+        final ProgressCoalescer.TaskProgress taskProgress = taskProgressMap.get(1000);
+        final Object blocks = taskProgress.blocks;
+
+        coalescer.add(task, 0, 5);
+        coalescer.add(task, 2, 5);
+
+        assertThat(coalescer.taskProgressMap).isSameAs(taskProgressMap);
+        assertThat(taskProgress.blocks).isSameAs(blocks);
+        assertThat(coalescer.pendingCount()).isEqualTo(2);
+
+        runPosted();
+        verify(listener).fetchProgress(task, 0, 15);
+        verify(listener).fetchProgress(task, 2, 15);
+    }
+
+    @Test
+    public void flush() {
+        final DownloadTask task1 = mockTask(1);
+        final DownloadTask task2 = mockTask(2);
+        coalescer.add(task1, 0, 10);
+        coalescer.add(task2, 0, 7);
+
+        coalescer.flush(task1, false);
+        assertThat(postedList).hasSize(2);
+        // the flushed bytes aren't delivered again on the drain message.
+        runPosted();
+        verify(listener).fetchProgress(task1, 0, 10);
+        verify(listener).fetchProgress(task2, 0, 7);
+        assertThat(coalescer.pendingCount()).isEqualTo(2);
+
+        // nothing to flush.
+        coalescer.flush(task1, false);
+        assertThat(postedList).isEmpty();
+
+        coalescer.flush(task1, true);
+        assertThat(coalescer.pendingCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void flush_beforeOtherCallbacks() {
+        final DownloadTask task = mockTask(1);
+        coalescer.add(task, 0, 10);
+        coalescer.flush(task, true);
+        handler.post(new Runnable() {
+            @Override public void run() {
+                listener.fetchEnd(task, 0, 10);
+            }
+        });
+
+        runPosted();
+        final InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).fetchProgress(task, 0, 10);
+        inOrder.verify(listener).fetchEnd(task, 0, 10);
+    }
+
+    @Test
+    public void add_concurrently() throws InterruptedException {
+        final DownloadTask task = mockTask(1);
+        final int threadCount = 4;
+        final int addCount = 2000;
+        final CountDownLatch latch = new CountDownLatch(threadCount);
+        final DownloadListener countListener = mock(DownloadListener.class);
+        when(task.getListener()).thenReturn(countListener);
+
+        for (int i = 0; i < threadCount; i++) {
+            final int blockIndex = i;
+            new Thread(new Runnable() {
+                @Override public void run() {
+                    for (int j = 0; j < addCount; j++) {
+                        coalescer.add(task, blockIndex, 1);
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+
+        // drain on this thread while the bytes are being added.
+        while (latch.getCount() > 0) {
+            runPosted();
+        }
+        coalescer.flush(task, true);
+        runPosted();
+
+        // the total bytes of each block are exact.
+        for (int i = 0; i < threadCount; i++) {
+            assertThat(sumDelivered(countListener, i)).isEqualTo(addCount);
+        }
+    }
+
+    private static long sumDelivered(DownloadListener listener, int blockIndex) {
+        long sum = 0;
+        for (Invocation invocation : mockingDetails(listener).getInvocations()) {
+            if (!invocation.getMethod().getName().equals("fetchProgress")) continue;
+            if ((int) invocation.getArgument(1) != blockIndex) continue;
+            sum += (long) invocation.getArgument(2);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.download;
+
+import com.liulishuo.okdownload.DownloadTask;
+import com.liulishuo.okdownload.core.connection.DownloadConnection;
+import com.liulishuo.okdownload.core.connection.DownloadUrlConnection;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.liulishuo.okdownload.core.Util.RANGE;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class AdaptiveDownloadStrategyTest {
+
+    private static final int KIB = 1024;
+
+    private AdaptiveDownloadStrategy strategy;
+    private DownloadTask task;
+
+    @Before
+    public void setup() {
+        strategy = new AdaptiveDownloadStrategy(2, 4, 100, 10, 0.1f);
+        task = mockTask("https://jacksgong.com/file");
+    }
+
+    private static DownloadTask mockTask(String url) {
+        final DownloadTask task = mock(DownloadTask.class);
+        when(task.getUrl()).thenReturn(url);
+        when(task.getSetConnectionCount()).thenReturn(null);
+        return task;
+    }
+
+    @Test
+    public void determineBlockCount_setConnectionCount() {
+        when(task.getSetConnectionCount()).thenReturn(6);
+        assertThat(strategy.determineBlockCount(task, 10000)).isEqualTo(6);
+    }
+
+    @Test
+    public void determineBlockCount_limitedByLength() {
+        assertThat(strategy.determineBlockCount(task, 10000)).isEqualTo(2);
+        assertThat(strategy.determineBlockCount(task, 150)).isEqualTo(1);
+        assertThat(strategy.determineBlockCount(task, 0)).isEqualTo(1);
+    }
+
+    @Test
+    public void inspectThroughput_scaleUntilPlateau() {
+        strategy.inspectThroughput(task, 2, 1000, 200);
+        assertThat(strategy.determineBlockCount(task, 10000)).isEqualTo(3);
+
+        strategy.inspectThroughput(task, 3, 1000, 300);
+        assertThat(strategy.determineBlockCount(task, 10000)).isEqualTo(4);
+
+        // plateau
+        strategy.inspectThroughput(task, 4, 1000, 310);
+        assertThat(strategy.getHostThroughput(task).isSettled()).isTrue();
+        assertThat(strategy.determineBlockCount(task, 10000)).isEqualTo(3);
+
+        // keep the learned one.
+        strategy.inspectThroughput(task, 3, 1000, 100);
+        assertThat(strategy.determineBlockCount(task, 10000)).isEqualTo(3);
+    }
+
+    @Test
+    public void inspectThroughput_maxBlockCount() {
+        strategy.inspectThroughput(task, 2, 1000, 200);
+        strategy.inspectThroughput(task, 3, 1000, 300);
+        strategy.inspectThroughput(task, 4, 1000, 400);
+
+        assertThat(strategy.getHostThroughput(task).isSettled()).isTrue();
+        assertThat(strategy.determineBlockCount(task, 10000)).isEqualTo(4);
+    }
+
+    @Test
+    public void inspectThroughput_ignoreNoise() {
+        // too few bytes
+        strategy.inspectThroughput(task, 2, 9, 200);
+        // not the block count on probing
+        strategy.inspectThroughput(task, 1, 1000, 200);
+
+        assertThat(strategy.determineBlockCount(task, 10000)).isEqualTo(2);
+    }
+
+    @Test
+    public void inspectThroughput_perHost() {
+        final DownloadTask anotherHostTask = mockTask("https://www.liulishuo.com/file");
+        strategy.inspectThroughput(task, 2, 1000, 200);
+
+        assertThat(strategy.determineBlockCount(task, 10000)).isEqualTo(3);
+        assertThat(strategy.determineBlockCount(mockTask("https://jacksgong.com/another"), 10000))
+                .isEqualTo(3);
+        assertThat(strategy.determineBlockCount(anotherHostTask, 10000)).isEqualTo(2);
+    }
+
+    @Test
+    public void getHostThroughput_evictLeastRecentlyUsedHost() {
+        final DownloadTask recentHostTask = mockTask("https://www.liulishuo.com/file");
+        strategy.inspectThroughput(task, 2, 1000, 200);
+        strategy.inspectThroughput(recentHostTask, 2, 1000, 200);
+
+        for (int i = 0; i < AdaptiveDownloadStrategy.MAX_HOST_COUNT - 1; i++) {
+            // keep the recent host used.
+            strategy.getHostThroughput(recentHostTask);
+            strategy.getHostThroughput(mockTask("https://host" + i + ".com/file"));
+        }
+
+        assertThat(strategy.determineBlockCount(recentHostTask, 10000)).isEqualTo(3);
+        // forgotten and learn again.
+        assertThat(strategy.determineBlockCount(task, 10000)).isEqualTo(2);
+    }
+
+    @Test
+    public void learnFromThrottledServer() throws IOException, InterruptedException {
+        // each connection is limited to 256KiB/s and all connections are limited to 768KiB/s,
+        // so the throughput stops scaling after 3 connections.
+        final long contentLength = 192 * KIB;
+        final ThrottledHttpServer server = new ThrottledHttpServer(contentLength, 256 * KIB,
+                768 * KIB);
+        strategy = new AdaptiveDownloadStrategy(1, 8, 16 * KIB, 1, 0.2f);
+        task = mockTask(server.url());
+
+        try {
+            for (int i = 0; i < 8 && !strategy.getHostThroughput(task).isSettled(); i++) {
+                final int blockCount = strategy.determineBlockCount(task, contentLength);
+                final long bytesPerSecond = download(server.url(), contentLength, blockCount);
+                strategy.inspectThroughput(task, blockCount, contentLength, bytesPerSecond);
+            }
+        } finally {
+            server.close();
+        }
+
+        assertThat(strategy.getHostThroughput(task).isSettled()).isTrue();
+        assertThat(strategy.determineBlockCount(task, contentLength)).isEqualTo(3);
+    }
+
+    private static long download(final String url, long contentLength, int blockCount)
+            throws InterruptedException {
+        final AtomicLong downloadedBytes = new AtomicLong();
+        final Thread[] threads = new Thread[blockCount];
+        final long eachLength = contentLength / blockCount;
+        final long start = System.nanoTime();
+        for (int i = 0; i < blockCount; i++) {
+            final long rangeLeft = i * eachLength;
+            final long rangeRight = i == blockCount - 1 ? contentLength - 1
+                    : rangeLeft + eachLength - 1;
+            threads[i] = new Thread(new Runnable() {
+                @Override public void run() {
+                    try {
+                        downloadedBytes.addAndGet(downloadRange(url, rangeLeft, rangeRight));
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final long durationNanos = System.nanoTime() - start;
+
+        assertThat(downloadedBytes.get()).isEqualTo(contentLength);
+        return downloadedBytes.get() * TimeUnit.SECONDS.toNanos(1) / durationNanos;
+    }
+
+    private static long downloadRange(String url, long rangeLeft, long rangeRight)
+            throws IOException {
+        final DownloadConnection connection = new DownloadUrlConnection(url);
+        connection.addHeader(RANGE, "bytes=" + rangeLeft + "-" + rangeRight);
+        try {
+            final InputStream inputStream = connection.execute().getInputStream();
+            final byte[] buffer = new byte[8192];
+            long length = 0;
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                length += read;
+            }
+            return length;
+        } finally {
+            connection.release();
+        }
+    }
+}
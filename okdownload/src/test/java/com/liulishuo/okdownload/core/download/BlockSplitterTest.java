@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.download;
+
+import com.liulishuo.okdownload.DownloadTask;
+import com.liulishuo.okdownload.core.breakpoint.BlockInfo;
+import com.liulishuo.okdownload.core.breakpoint.BreakpointInfo;
+import com.liulishuo.okdownload.core.breakpoint.DownloadStore;
+import com.liulishuo.okdownload.core.file.MultiPointOutputStream;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.io.File;
+import java.io.IOException;
+
+import static com.liulishuo.okdownload.TestUtils.mockOkDownload;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class BlockSplitterTest {
+
+    @Mock private DownloadTask task;
+    @Mock private DownloadCache cache;
+    @Mock private DownloadStore store;
+    @Mock private MultiPointOutputStream outputStream;
+
+    private BreakpointInfo info;
+    private DownloadChain chain0;
+    private DownloadChain chain1;
+    private BlockSplitter splitter;
+
+    @BeforeClass
+    public static void setupClass() throws IOException {
+        mockOkDownload();
+    }
+
+    @Before
+    public void setup() throws IOException {
+        initMocks(this);
+        when(cache.getOutputStream()).thenReturn(outputStream);
+        when(outputStream.canAddRequireStreamBlock(anyInt())).thenReturn(true);
+        when(outputStream.addRequireStreamBlock(anyInt())).thenReturn(true);
+
+        info = new BreakpointInfo(1, "url", new File("p-path"), "filename");
+        info.addBlock(new BlockInfo(0, 100));
+        info.addBlock(new BlockInfo(100, 200));
+        when(store.update(info)).thenReturn(true);
+
+        chain0 = fetchingChain(0, 50);
+        chain1 = fetchingChain(1, 20);
+
+        splitter = new BlockSplitter(task, info, cache, store, 10, 2);
+        splitter.register(chain0);
+        splitter.register(chain1);
+    }
+
+    private DownloadChain fetchingChain(int blockIndex, int fetchedLength) {
+        final BlockInfo blockInfo = info.getBlock(blockIndex);
+        final DownloadChain chain = DownloadChain.createChain(blockIndex, task, info, cache,
+                store);
+        chain.setResponseContentLength(blockInfo.getContentLength());
+        chain.startFetch(blockInfo.getRangeLeft());
+        chain.acceptFetchLength(fetchedLength);
+        return chain;
+    }
+
+    @Test
+    public void split_largestRemaining() throws IOException {
+        // block 1 remains [120, 300)
+        final DownloadChain stolenChain = splitter.split();
+
+        assertThat(stolenChain).isNotNull();
+        assertThat(stolenChain.getBlockIndex()).isEqualTo(2);
+        assertThat(info.getBlockCount()).isEqualTo(3);
+        assertThat(info.getBlock(1).getRangeRight()).isEqualTo(209);
+        assertThat(info.getBlock(2).getRangeLeft()).isEqualTo(210);
+        assertThat(info.getBlock(2).getRangeRight()).isEqualTo(299);
+        assertThat(chain1.getRemainingFetchLength()).isEqualTo(90);
+
+        verify(outputStream).addRequireStreamBlock(2);
+        verify(store).update(info);
+
+        // block 1 remains [120, 210) and block 0 remains [50, 100)
+        stolenChain.setResponseContentLength(90);
+        stolenChain.startFetch(210);
+        assertThat(splitter.split().getBlockIndex()).isEqualTo(3);
+        assertThat(info.getBlock(3).getRangeLeft()).isEqualTo(165);
+    }
+
+    @Test
+    public void split_maxSplitCount() {
+        assertThat(splitter.split()).isNotNull();
+        assertThat(splitter.split()).isNotNull();
+        assertThat(splitter.split()).isNull();
+        assertThat(info.getBlockCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void split_tooSmall() throws IOException {
+        splitter = new BlockSplitter(task, info, cache, store, 91, 2);
+        splitter.register(chain0);
+        splitter.register(chain1);
+
+        assertThat(splitter.split()).isNull();
+        assertThat(info.getBlockCount()).isEqualTo(2);
+        verify(outputStream, never()).addRequireStreamBlock(anyInt());
+        verify(store, never()).update(info);
+    }
+
+    @Test
+    public void split_noFetchingChain() {
+        chain0.endFetch();
+        chain1.endFetch();
+
+        assertThat(splitter.split()).isNull();
+        assertThat(info.getBlockCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void split_interrupted() {
+        when(cache.isInterrupt()).thenReturn(true);
+
+        assertThat(splitter.split()).isNull();
+        assertThat(info.getBlockCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void split_noRoomForSplitBlock() throws IOException {
+        when(outputStream.canAddRequireStreamBlock(2)).thenReturn(false);
+
+        assertThat(splitter.split()).isNull();
+        assertThat(info.getBlockCount()).isEqualTo(2);
+        assertThat(chain1.getRemainingFetchLength()).isEqualTo(180);
+        verify(outputStream, never()).addRequireStreamBlock(anyInt());
+        verify(store, never()).update(info);
+    }
+
+    @Test
+    public void split_addRequireStreamBlockRefused() throws IOException {
+        when(outputStream.addRequireStreamBlock(2)).thenReturn(false);
+
+        assertThat(splitter.split()).isNull();
+        verify(store, never()).update(info);
+    }
+
+    @Test
+    public void split_updateStoreFailed() throws IOException {
+        when(store.update(info)).thenThrow(IOException.class);
+
+        // the original layout on the store is still valid to resume.
+        assertThat(splitter.split()).isNotNull();
+        assertThat(info.getBlockCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void hedge_disabled() {
+        assertThat(splitter.isHedgeEnabled()).isFalse();
+        assertThat(splitter.getMaxAddedBlockCount()).isEqualTo(2);
+        assertThat(splitter.hedge()).isNull();
+    }
+
+    @Test
+    public void hedge_straggler() {
+        final DownloadChain straggler = hedgeSplitter(0.95f, 100);
+
+        final HedgedFetch hedgedFetch = splitter.hedge();
+        assertThat(hedgedFetch).isNotNull();
+        assertThat(hedgedFetch.getStragglerChain()).isEqualTo(straggler);
+        assertThat(hedgedFetch.getRangeLeft()).isEqualTo(285);
+        assertThat(hedgedFetch.getRangeRight()).isEqualTo(299);
+
+        // the max hedge count is 1.
+        assertThat(splitter.hedge()).isNull();
+    }
+
+    @Test
+    public void hedge_progressNotEnough() {
+        hedgeSplitter(0.96f, 100);
+        assertThat(splitter.hedge()).isNull();
+    }
+
+    @Test
+    public void hedge_notStraggler() {
+        hedgeSplitter(0.95f, 250);
+        assertThat(splitter.hedge()).isNull();
+    }
+
+    @Test
+    public void hedge_remainingTooLong() {
+        final DownloadChain straggler = hedgeSplitter(0.95f, 100);
+        when(straggler.getRemainingFetchLength()).thenReturn(101L);
+        assertThat(splitter.hedge()).isNull();
+    }
+
+    // block 1 is the straggler on [285, 300) with the given speed, its siblings are 1000B/s.
+    private DownloadChain hedgeSplitter(float minProgress, long stragglerBytesPerSecond) {
+        info.getBlock(0).increaseCurrentOffset(100);
+        info.getBlock(1).increaseCurrentOffset(185);
+
+        final DownloadChain sibling0 = mock(DownloadChain.class);
+        when(sibling0.getFetchBytesPerSecond()).thenReturn(1000L);
+        final DownloadChain sibling1 = mock(DownloadChain.class);
+        when(sibling1.getFetchBytesPerSecond()).thenReturn(1000L);
+        final DownloadChain straggler = mock(DownloadChain.class);
+        when(straggler.getFetchBytesPerSecond()).thenReturn(stragglerBytesPerSecond);
+        when(straggler.getRemainingFetchLength()).thenReturn(15L);
+        when(straggler.getFetchOffset()).thenReturn(285L);
+
+        splitter = new BlockSplitter(task, info, cache, store, 10, 2,
+                new DownloadStrategy.HedgePolicy(minProgress, 0.25f, 100, 1));
+        splitter.register(sibling0);
+        splitter.register(straggler);
+        splitter.register(sibling1);
+        assertThat(splitter.isHedgeEnabled()).isTrue();
+        assertThat(splitter.getMaxAddedBlockCount()).isEqualTo(3);
+        return straggler;
+    }
+
+    @Test
+    public void handOver() throws IOException {
+        when(outputStream.addRequireStreamBlock(2)).thenReturn(true);
+
+        // block 1 reaches 120.
+        assertThat(splitter.handOver(chain1, 120)).isEqualTo(-1);
+        verify(outputStream, never()).addRequireStreamBlock(anyInt());
+
+        assertThat(splitter.handOver(chain1, 130)).isEqualTo(2);
+        assertThat(info.getBlock(1).getRangeRight()).isEqualTo(119);
+        assertThat(info.getBlock(2).getRangeLeft()).isEqualTo(120);
+        assertThat(info.getBlock(2).getRangeRight()).isEqualTo(299);
+        assertThat(chain1.isHandedOver()).isTrue();
+        verify(outputStream).addRequireStreamBlock(2);
+        verify(store).update(info);
+    }
+
+    @Test
+    public void handOver_noRoomForHandOverBlock() throws IOException {
+        when(outputStream.canAddRequireStreamBlock(2)).thenReturn(false);
+
+        assertThat(splitter.handOver(chain1, 130)).isEqualTo(-1);
+        assertThat(info.getBlockCount()).isEqualTo(2);
+        assertThat(chain1.isHandedOver()).isFalse();
+        verify(store, never()).update(info);
+    }
+
+    @Test
+    public void handOver_canceled() {
+        when(outputStream.addRequireStreamBlock(2)).thenReturn(false);
+        assertThat(splitter.handOver(chain1, 130)).isEqualTo(-1);
+
+        when(cache.isInterrupt()).thenReturn(true);
+        assertThat(splitter.handOver(chain0, 130)).isEqualTo(-1);
+        assertThat(chain0.isHandedOver()).isFalse();
+    }
+}
@@ -20,6 +20,7 @@ import com.liulishuo.okdownload.DownloadTask;
 import com.liulishuo.okdownload.OkDownload;
 import com.liulishuo.okdownload.core.breakpoint.BreakpointInfo;
 import com.liulishuo.okdownload.core.cause.ResumeFailedCause;
+import com.liulishuo.okdownload.core.connection.DownloadConnection;
 import com.liulishuo.okdownload.core.exception.FileBusyAfterRunException;
 import com.liulishuo.okdownload.core.exception.ServerCanceledException;
 
@@ -36,9 +37,11 @@ import static org.assertj.core.api.Java6Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -100,15 +103,63 @@ public class BreakpointRemoteCheckTest {
         assertThat(check.getCause()).isNull();
         assertThat(check.getInstanceLength()).isEqualTo(1L);
         assertThat(check.isAcceptRange()).isTrue();
+        final DownloadStrategy strategy = OkDownload.with().downloadStrategy();
+        verify(strategy, never()).invalidateConnectTrial(anyString());
 
         final ResumeFailedCause cause = mock(ResumeFailedCause.class);
-        when(OkDownload.with().downloadStrategy()
-                .getPreconditionFailedCause(anyInt(), anyBoolean(), eq(info), eq(responseEtag)))
-                .thenReturn(cause);
+        when(strategy.getPreconditionFailedCause(anyInt(), anyBoolean(), eq(info),
+                eq(responseEtag))).thenReturn(cause);
+        when(task.getUrl()).thenReturn("url");
         check.check();
 
         assertThat(check.isResumable()).isFalse();
         assertThat(check.getCause()).isEqualTo(cause);
+        // the cached trial result is invalidated.
+        verify(strategy).invalidateConnectTrial("url");
+    }
+
+    @Test
+    public void check_trialFetchConnection() throws IOException {
+        mockOkDownload();
+        final DownloadConnection connection = mock(DownloadConnection.class);
+        when(connectTrial.takeTrialFetchConnection()).thenReturn(connection);
+
+        check.check();
+
+        assertThat(check.takeTrialFetchConnection()).isEqualTo(connection);
+        assertThat(check.takeTrialFetchConnection()).isNull();
+        verify(connection, never()).release();
+    }
+
+    @Test
+    public void check_trialFetchConnection_released() throws IOException {
+        mockOkDownload();
+        final DownloadConnection connection = mock(DownloadConnection.class);
+        when(connectTrial.takeTrialFetchConnection()).thenReturn(connection);
+        when(OkDownload.with().downloadStrategy().isServerCanceled(0, false)).thenReturn(true);
+
+        try {
+            check.check();
+        } catch (ServerCanceledException ignored) {
+        }
+
+        verify(connection).release();
+        assertThat(check.takeTrialFetchConnection()).isNull();
+    }
+
+    @Test
+    public void check_serverCanceled_invalidateConnectTrial() throws IOException {
+        mockOkDownload();
+        final DownloadStrategy strategy = OkDownload.with().downloadStrategy();
+        when(strategy.isServerCanceled(0, false)).thenReturn(true);
+        when(task.getUrl()).thenReturn("url");
+
+        try {
+            check.check();
+        } catch (ServerCanceledException ignored) {
+        }
+
+        verify(strategy).invalidateConnectTrial("url");
     }
 
     @Test(expected = ServerCanceledException.class)
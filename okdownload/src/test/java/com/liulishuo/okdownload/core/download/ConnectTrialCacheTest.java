@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.download;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class ConnectTrialCacheTest {
+
+    private long nowMillis;
+    private ConnectTrialCache cache;
+
+    @Before
+    public void setup() {
+        nowMillis = 0;
+        cache = new ConnectTrialCache(2, 1000) {
+            @Override long nowMillis() {
+                return nowMillis;
+            }
+        };
+    }
+
+    private static ConnectTrialCache.Result createResult() {
+        return new ConnectTrialCache.Result(206, true, 10, "etag", null, null);
+    }
+
+    @Test
+    public void get_expired() {
+        final ConnectTrialCache.Result result = createResult();
+        cache.put("url", result);
+
+        nowMillis = 999;
+        assertThat(cache.get("url")).isEqualTo(result);
+
+        nowMillis = 1000;
+        assertThat(cache.get("url")).isNull();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    public void put_leastRecentlyUsedEvicted() {
+        cache.put("url1", createResult());
+        cache.put("url2", createResult());
+        // url1 is used recently.
+        assertThat(cache.get("url1")).isNotNull();
+
+        cache.put("url3", createResult());
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get("url2")).isNull();
+        assertThat(cache.get("url1")).isNotNull();
+        assertThat(cache.get("url3")).isNotNull();
+    }
+
+    @Test
+    public void invalidate() {
+        cache.put("url1", createResult());
+        cache.put("url2", createResult());
+
+        cache.invalidate("url1");
+        assertThat(cache.get("url1")).isNull();
+        assertThat(cache.get("url2")).isNotNull();
+
+        cache.clear();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void construct_invalidMaxSize() {
+        new ConnectTrialCache(0, 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void construct_invalidTtl() {
+        new ConnectTrialCache(1, 0);
+    }
+}
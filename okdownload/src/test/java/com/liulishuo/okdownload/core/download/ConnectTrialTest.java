@@ -33,6 +33,7 @@ import org.mockito.Mock;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -112,6 +113,143 @@ public class ConnectTrialTest {
         verify(connection).release();
     }
 
+    private static ConnectTrialCache createTrialCache() {
+        return new ConnectTrialCache() {
+            @Override long nowMillis() {
+                return 0;
+            }
+        };
+    }
+
+    @Test
+    public void executeTrial_cacheResult() throws Exception {
+        final ConnectTrialCache cache = createTrialCache();
+        final DownloadStrategy downloadStrategy = OkDownload.with().downloadStrategy();
+        when(downloadStrategy.connectTrialCache()).thenReturn(cache);
+        when(connected.getResponseCode()).thenReturn(HttpURLConnection.HTTP_PARTIAL);
+        when(connected.getResponseHeaderField(CONTENT_RANGE)).thenReturn("bytes 0-0/10");
+        when(connected.getResponseHeaderField(ETAG)).thenReturn(etag);
+        when(connected.getRedirectLocation()).thenReturn("http://location");
+        when(task.getRedirectLocation()).thenReturn("http://location");
+
+        connectTrial.executeTrial();
+
+        final ConnectTrialCache.Result result = cache.get(url);
+        assertThat(result).isNotNull();
+        assertThat(result.getResponseCode()).isEqualTo(HttpURLConnection.HTTP_PARTIAL);
+        assertThat(result.isAcceptRange()).isTrue();
+        assertThat(result.getInstanceLength()).isEqualTo(10L);
+        assertThat(result.getResponseEtag()).isEqualTo(etag);
+        assertThat(result.getRedirectLocation()).isEqualTo("http://location");
+    }
+
+    @Test
+    public void executeTrial_userHeader_noCache() throws Exception {
+        final ConnectTrialCache cache = createTrialCache();
+        final DownloadStrategy downloadStrategy = OkDownload.with().downloadStrategy();
+        when(downloadStrategy.connectTrialCache()).thenReturn(cache);
+        cache.put(url, new ConnectTrialCache.Result(HttpURLConnection.HTTP_PARTIAL, true, 10L,
+                etag, "filename", "http://location"));
+        final Map<String, List<String>> userHeader = new HashMap<>();
+        userHeader.put("Authorization", Collections.singletonList("token"));
+        when(task.getHeaderMapFields()).thenReturn(userHeader);
+        when(connected.getResponseCode()).thenReturn(HttpURLConnection.HTTP_PARTIAL);
+        when(connected.getResponseHeaderField(CONTENT_RANGE)).thenReturn("bytes 0-0/20");
+
+        connectTrial.executeTrial();
+
+        // not restored from the cache shared by the tasks without the user headers.
+        verify(connection).execute();
+        assertThat(connectTrial.getInstanceLength()).isEqualTo(20L);
+        assertThat(cache.get(url).getInstanceLength()).isEqualTo(10L);
+    }
+
+    @Test
+    public void executeTrial_notCacheFailedResult() throws Exception {
+        final ConnectTrialCache cache = createTrialCache();
+        final DownloadStrategy downloadStrategy = OkDownload.with().downloadStrategy();
+        when(downloadStrategy.connectTrialCache()).thenReturn(cache);
+        when(connected.getResponseCode()).thenReturn(HttpURLConnection.HTTP_PRECON_FAILED);
+
+        connectTrial.executeTrial();
+
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    public void executeTrial_fromCache() throws Exception {
+        final ConnectTrialCache cache = createTrialCache();
+        final DownloadStrategy downloadStrategy = OkDownload.with().downloadStrategy();
+        when(downloadStrategy.connectTrialCache()).thenReturn(cache);
+        cache.put(url, new ConnectTrialCache.Result(HttpURLConnection.HTTP_PARTIAL, true, 10L,
+                etag, "filename", "http://location"));
+
+        connectTrial.executeTrial();
+
+        // the network is still inspected.
+        verify(downloadStrategy).inspectNetworkOnWifi(eq(task));
+        verify(downloadStrategy).inspectNetworkAvailable();
+        verify(connection, never()).execute();
+        verify(task).setRedirectLocation("http://location");
+
+        assertThat(connectTrial.getResponseCode()).isEqualTo(HttpURLConnection.HTTP_PARTIAL);
+        assertThat(connectTrial.isAcceptRange()).isTrue();
+        assertThat(connectTrial.getInstanceLength()).isEqualTo(10L);
+        assertThat(connectTrial.getResponseEtag()).isEqualTo(etag);
+        assertThat(connectTrial.getResponseFilename()).isEqualTo("filename");
+        assertThat(connectTrial.isEtagOverdue()).isFalse();
+    }
+
+    @Test
+    public void executeTrial_trialFetch() throws Exception {
+        final DownloadStrategy downloadStrategy = OkDownload.with().downloadStrategy();
+        when(downloadStrategy.trialFetchMaxLength(task)).thenReturn(100L);
+        when(connected.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        when(connected.getResponseHeaderField(CONTENT_LENGTH)).thenReturn("100");
+        when(connected.getResponseHeaderField(ETAG)).thenReturn(etag);
+
+        connectTrial.executeTrial();
+
+        verify(connection).addHeader(eq(RANGE), eq("bytes=0-"));
+        // the instance length is found on the Content-Length without the HEAD method.
+        assertThat(connectTrial.getInstanceLength()).isEqualTo(100L);
+        verify(connectTrial, never()).trialHeadMethodForInstanceLength();
+
+        verify(connection, never()).release();
+        final DownloadConnection trialFetchConnection = connectTrial.takeTrialFetchConnection();
+        assertThat(trialFetchConnection).isNotNull();
+        assertThat(trialFetchConnection.execute()).isEqualTo(connected);
+        assertThat(connectTrial.takeTrialFetchConnection()).isNull();
+    }
+
+    @Test
+    public void executeTrial_trialFetch_tooLarge() throws Exception {
+        final DownloadStrategy downloadStrategy = OkDownload.with().downloadStrategy();
+        when(downloadStrategy.trialFetchMaxLength(task)).thenReturn(100L);
+        when(connected.getResponseCode()).thenReturn(HttpURLConnection.HTTP_PARTIAL);
+        when(connected.getResponseHeaderField(CONTENT_RANGE)).thenReturn("bytes 0-100/101");
+        when(connected.getResponseHeaderField(ETAG)).thenReturn(etag);
+
+        connectTrial.executeTrial();
+
+        assertThat(connectTrial.getInstanceLength()).isEqualTo(101L);
+        verify(connection).release();
+        assertThat(connectTrial.takeTrialFetchConnection()).isNull();
+    }
+
+    @Test
+    public void executeTrial_trialFetch_fromBreakpoint() throws Exception {
+        final DownloadStrategy downloadStrategy = OkDownload.with().downloadStrategy();
+        when(downloadStrategy.trialFetchMaxLength(task)).thenReturn(100L);
+        when(info.getTotalOffset()).thenReturn(10L);
+
+        connectTrial.executeTrial();
+
+        verify(connection).addHeader(eq(RANGE), eq("bytes=0-0"));
+        verify(connection).release();
+        assertThat(connectTrial.takeTrialFetchConnection()).isNull();
+    }
+
     @Test
     public void executeTrial_userHeader() throws Exception {
         Map<String, List<String>> userHeader = new HashMap<>();
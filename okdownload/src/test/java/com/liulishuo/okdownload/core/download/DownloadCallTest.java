@@ -26,6 +26,7 @@ import com.liulishuo.okdownload.core.breakpoint.BreakpointInfo;
 import com.liulishuo.okdownload.core.breakpoint.DownloadStore;
 import com.liulishuo.okdownload.core.cause.EndCause;
 import com.liulishuo.okdownload.core.cause.ResumeFailedCause;
+import com.liulishuo.okdownload.core.connection.DownloadConnection;
 import com.liulishuo.okdownload.core.dispatcher.CallbackDispatcher;
 import com.liulishuo.okdownload.core.dispatcher.DownloadDispatcher;
 import com.liulishuo.okdownload.core.file.FileLock;
@@ -45,6 +46,7 @@ import org.robolectric.annotation.Config;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Future;
 
@@ -237,6 +239,64 @@ public class DownloadCallTest {
         verify(call).start(any(DownloadCache.class), eq(info));
     }
 
+    @Test
+    public void execute_trialFetchConnection() throws InterruptedException {
+        final DownloadConnection connection = mock(DownloadConnection.class);
+        final BreakpointRemoteCheck remoteCheck = mock(BreakpointRemoteCheck.class);
+        when(remoteCheck.takeTrialFetchConnection()).thenReturn(connection);
+        doReturn(remoteCheck).when(call).createRemoteCheck(eq(info));
+        doReturn(mock(BreakpointLocalCheck.class)).when(call).createLocalCheck(eq(info), anyLong());
+        final DownloadCache cache = mock(DownloadCache.class);
+        when(cache.getOutputStream()).thenReturn(mock(MultiPointOutputStream.class));
+        doReturn(cache).when(call).createCache(eq(info));
+        doNothing().when(call).startBlocks(ArgumentMatchers.<DownloadChain>anyList());
+        when(info.getBlockCount()).thenReturn(1);
+        when(info.getBlock(0)).thenReturn(new BlockInfo(0, 30));
+
+        call.execute();
+
+        // the only block fetches the response of the trial connection.
+        ArgumentCaptor<List<DownloadChain>> captor = ArgumentCaptor.forClass(List.class);
+        verify(call).startBlocks(captor.capture());
+        assertThat(captor.getValue()).hasSize(1);
+        assertThat(captor.getValue().get(0).getConnection()).isEqualTo(connection);
+        verify(connection, never()).release();
+    }
+
+    @Test
+    public void execute_trialFetchConnection_multiBlocks() throws InterruptedException {
+        final DownloadConnection connection = mock(DownloadConnection.class);
+        final BreakpointRemoteCheck remoteCheck = mock(BreakpointRemoteCheck.class);
+        when(remoteCheck.takeTrialFetchConnection()).thenReturn(connection);
+        doReturn(remoteCheck).when(call).createRemoteCheck(eq(info));
+        doReturn(mock(BreakpointLocalCheck.class)).when(call).createLocalCheck(eq(info), anyLong());
+        final DownloadCache cache = mock(DownloadCache.class);
+        when(cache.getOutputStream()).thenReturn(mock(MultiPointOutputStream.class));
+        doReturn(cache).when(call).createCache(eq(info));
+        doNothing().when(call).startBlocks(ArgumentMatchers.<DownloadChain>anyList());
+
+        call.execute();
+
+        ArgumentCaptor<List<DownloadChain>> captor = ArgumentCaptor.forClass(List.class);
+        verify(call).startBlocks(captor.capture());
+        assertThat(captor.getValue().get(0).getConnection()).isNull();
+        verify(connection).release();
+    }
+
+    @Test
+    public void execute_trialFetchConnection_notStarted() throws InterruptedException {
+        final DownloadConnection connection = mock(DownloadConnection.class);
+        final BreakpointRemoteCheck remoteCheck = mock(BreakpointRemoteCheck.class);
+        when(remoteCheck.takeTrialFetchConnection()).thenReturn(connection);
+        doReturn(remoteCheck).when(call).createRemoteCheck(eq(info));
+        doReturn(mock(BreakpointLocalCheck.class)).when(call).createLocalCheck(eq(info), anyLong());
+        doNothing().when(call).start(any(DownloadCache.class), eq(info));
+
+        call.execute();
+
+        verify(connection).release();
+    }
+
     @Test
     public void execute_preconditionFailed() throws InterruptedException, IOException {
         setupFileStrategy();
@@ -408,6 +468,118 @@ public class DownloadCallTest {
         assertThat(blockIndexList.get(2)).isEqualTo(2);
     }
 
+    @Test
+    public void start_inspectThroughput() throws IOException, InterruptedException {
+        mockOkDownload();
+        final DownloadStrategy strategy = OkDownload.with().downloadStrategy();
+        final DownloadCache cache = mock(DownloadCache.class);
+        when(cache.getOutputStream()).thenReturn(mock(MultiPointOutputStream.class));
+        doNothing().when(call).startBlocks(ArgumentMatchers.<DownloadChain>anyList());
+        when(info.getTotalOffset()).thenReturn(5L, 30L);
+
+        call.start(cache, info);
+        verify(strategy).inspectThroughput(eq(task), eq(3), eq(25L), anyLong());
+
+        // interrupted
+        when(cache.isInterrupt()).thenReturn(true);
+        call.start(cache, info);
+        verify(strategy).inspectThroughput(eq(task), anyInt(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void start_splitBlocks() throws IOException, InterruptedException {
+        mockOkDownload();
+        final DownloadStrategy strategy = OkDownload.with().downloadStrategy();
+        when(strategy.minSplitBlockLength(task)).thenReturn(1L);
+        when(strategy.maxSplitBlockCount(task)).thenReturn(2);
+        final DownloadCache cache = mock(DownloadCache.class);
+        final MultiPointOutputStream outputStream = mock(MultiPointOutputStream.class);
+        when(cache.getOutputStream()).thenReturn(outputStream);
+        doNothing().when(call).startBlocks(ArgumentMatchers.<DownloadChain>anyList());
+
+        call.start(cache, info);
+
+        verify(call).createBlockSplitter(eq(cache), eq(info), eq(3));
+        verify(outputStream).setRequireStreamBlocks(ArgumentMatchers.<Integer>anyList(), eq(2));
+        verify(outputStream, never())
+                .setRequireStreamBlocks(ArgumentMatchers.<Integer>anyList());
+    }
+
+    @Test
+    public void start_mirrorSelector() throws IOException, InterruptedException {
+        final DownloadCache cache = mock(DownloadCache.class);
+        when(cache.getOutputStream()).thenReturn(mock(MultiPointOutputStream.class));
+        final MirrorSelector selector = mock(MirrorSelector.class);
+        doReturn(selector).when(call).createMirrorSelector(eq(cache), eq(info), eq(3));
+        doNothing().when(call).startBlocks(ArgumentMatchers.<DownloadChain>anyList());
+
+        call.start(cache, info);
+
+        verify(cache).setMirrorSelector(selector);
+    }
+
+    @Test
+    public void createMirrorSelector() throws IOException {
+        mockOkDownload();
+        final DownloadCache cache = mock(DownloadCache.class);
+        when(info.getUrl()).thenReturn("url");
+        when(info.getTotalLength()).thenReturn(100L);
+        // no mirror
+        assertThat(call.createMirrorSelector(cache, info, 2)).isNull();
+
+        when(task.getMirrorUrls()).thenReturn(Collections.singletonList("mirror"));
+
+        // the only block fetches from the url of the task.
+        assertThat(call.createMirrorSelector(cache, info, 1)).isNull();
+        when(info.isChunked()).thenReturn(true);
+        assertThat(call.createMirrorSelector(cache, info, 2)).isNull();
+        when(info.isChunked()).thenReturn(false);
+
+        when(cache.getRedirectLocation()).thenReturn("location");
+        final MirrorSelector selector = call.createMirrorSelector(cache, info, 2);
+        assertThat(selector).isNotNull();
+        assertThat(selector.getSourceList()).hasSize(2);
+        assertThat(selector.getSourceList().get(0).getUrl()).isEqualTo("location");
+        assertThat(selector.getSourceList().get(1).getUrl()).isEqualTo("mirror");
+    }
+
+    @Test
+    public void createBlockSplitter() throws IOException {
+        mockOkDownload();
+        final DownloadStrategy strategy = OkDownload.with().downloadStrategy();
+        when(strategy.minSplitBlockLength(task)).thenReturn(1L);
+        when(strategy.maxSplitBlockCount(task)).thenReturn(2);
+        final DownloadCache cache = mock(DownloadCache.class);
+
+        assertThat(call.createBlockSplitter(cache, info, 2)).isNotNull();
+        // no other chain to steal
+        assertThat(call.createBlockSplitter(cache, info, 1)).isNull();
+
+        when(info.isChunked()).thenReturn(true);
+        assertThat(call.createBlockSplitter(cache, info, 2)).isNull();
+        when(info.isChunked()).thenReturn(false);
+
+        when(strategy.minSplitBlockLength(task)).thenReturn(0L);
+        assertThat(call.createBlockSplitter(cache, info, 2)).isNull();
+    }
+
+    @Test
+    public void createBlockSplitter_hedgeOnly() throws IOException {
+        mockOkDownload();
+        final DownloadStrategy strategy = OkDownload.with().downloadStrategy();
+        when(strategy.minSplitBlockLength(task)).thenReturn(0L);
+        when(strategy.maxSplitBlockCount(task)).thenReturn(2);
+        when(strategy.hedgePolicy(task))
+                .thenReturn(new DownloadStrategy.HedgePolicy(0.9f, 0.5f, 100, 3));
+        final DownloadCache cache = mock(DownloadCache.class);
+
+        final BlockSplitter blockSplitter = call.createBlockSplitter(cache, info, 2);
+        assertThat(blockSplitter).isNotNull();
+        assertThat(blockSplitter.isHedgeEnabled()).isTrue();
+        assertThat(blockSplitter.getMaxAddedBlockCount()).isEqualTo(3);
+        assertThat(blockSplitter.split()).isNull();
+    }
+
     @Test
     public void startBlocks() throws InterruptedException {
         ArrayList<DownloadChain> runningBlockList = spy(new ArrayList<DownloadChain>());
@@ -18,10 +18,15 @@ package com.liulishuo.okdownload.core.download;
 
 import com.liulishuo.okdownload.DownloadTask;
 import com.liulishuo.okdownload.OkDownload;
+import com.liulishuo.okdownload.core.breakpoint.BlockInfo;
 import com.liulishuo.okdownload.core.breakpoint.BreakpointInfo;
 import com.liulishuo.okdownload.core.breakpoint.DownloadStore;
 import com.liulishuo.okdownload.core.connection.DownloadConnection;
+import com.liulishuo.okdownload.core.dispatcher.DownloadExecutors;
+import com.liulishuo.okdownload.core.cause.ResumeFailedCause;
 import com.liulishuo.okdownload.core.exception.InterruptException;
+import com.liulishuo.okdownload.core.exception.ResumeFailedException;
+import com.liulishuo.okdownload.core.file.ByteArrayPool;
 import com.liulishuo.okdownload.core.interceptor.BreakpointInterceptor;
 import com.liulishuo.okdownload.core.interceptor.FetchDataInterceptor;
 import com.liulishuo.okdownload.core.interceptor.Interceptor;
@@ -34,11 +39,15 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.mockito.Mock;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import static com.liulishuo.okdownload.TestUtils.mockOkDownload;
 import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
@@ -104,6 +113,64 @@ public class DownloadChainTest {
         verify(connectionFactory).create(redirectLocation);
     }
 
+    @Test
+    public void getConnectionOrCreate_mirrorSelector() throws IOException {
+        final DownloadConnection.Factory connectionFactory = OkDownload.with().connectionFactory();
+        final MirrorSelector selector = mock(MirrorSelector.class);
+        final MirrorSelector.Source source = new MirrorSelector.Source("mirror", false);
+        when(cache.getMirrorSelector()).thenReturn(selector);
+        when(cache.getRedirectLocation()).thenReturn("redirectLocation");
+        when(selector.select()).thenReturn(source);
+        when(selector.nowMillis()).thenReturn(100L, 300L);
+
+        chain.getConnectionOrCreate();
+        verify(connectionFactory).create("mirror");
+
+        // the block keeps its source on reconnecting.
+        chain.releaseConnection();
+        chain.getConnectionOrCreate();
+        verify(selector).select();
+
+        chain.releaseSource();
+        verify(selector).release(source, 0, 200);
+
+        // released already.
+        chain.releaseSource();
+        verify(selector).release(eq(source), anyLong(), anyLong());
+    }
+
+    @Test
+    public void failoverSource() throws IOException {
+        final MirrorSelector selector = mock(MirrorSelector.class);
+        final MirrorSelector.Source primary = new MirrorSelector.Source("primary", true);
+        final MirrorSelector.Source mirror = new MirrorSelector.Source("anotherMirror", false);
+        when(selector.select()).thenReturn(primary, mirror);
+        when(selector.failover(primary)).thenReturn(true);
+
+        // there isn't any mirror.
+        assertThat(chain.failoverSource(new IOException())).isFalse();
+
+        when(cache.getMirrorSelector()).thenReturn(selector);
+        chain.getConnectionOrCreate();
+        assertThat(chain.failoverSource(InterruptException.SIGNAL)).isFalse();
+        assertThat(chain.failoverSource(
+                new ResumeFailedException(ResumeFailedCause.RESPONSE_ETAG_CHANGED))).isFalse();
+
+        assertThat(chain.failoverSource(new IOException())).isTrue();
+        verify(selector).failover(primary);
+
+        chain.releaseConnection();
+        chain.getConnectionOrCreate();
+        verify(OkDownload.with().connectionFactory()).create("anotherMirror");
+
+        // the mirror is expired too.
+        assertThat(chain.failoverSource(
+                new ResumeFailedException(ResumeFailedCause.RESPONSE_ETAG_CHANGED))).isFalse();
+        verify(selector).failover(mirror);
+        verify(selector, never()).release(any(MirrorSelector.Source.class), anyLong(),
+                anyLong());
+    }
+
     @Test(expected = InterruptException.class)
     public void start_interrupt() throws IOException {
         when(cache.isInterrupt()).thenReturn(true);
@@ -117,6 +184,7 @@ public class DownloadChainTest {
         final DownloadConnection.Connected connected = mock(DownloadConnection.Connected.class);
         doReturn(connected).when(chain).processConnect();
         doReturn(100L).when(chain).processFetch();
+        when(info.getBlock(0)).thenReturn(new BlockInfo(0, 100));
         chain.start();
 
         final List<Interceptor.Connect> connectInterceptorList = chain.connectInterceptorList;
@@ -136,6 +204,180 @@ public class DownloadChainTest {
         assertThat(fetchInterceptorList.get(2)).isInstanceOf(FetchDataInterceptor.class);
     }
 
+    @Test
+    public void start_releaseReadBuffer() throws IOException {
+        doReturn(mock(DownloadConnection.Connected.class)).when(chain).processConnect();
+        doReturn(100L).when(chain).processFetch();
+        when(info.getBlock(0)).thenReturn(new BlockInfo(0, 100));
+        when(chain.getTask().getReadBufferSize()).thenReturn(16);
+        final ByteArrayPool bufferPool = OkDownload.with().bufferPool();
+        bufferPool.clear();
+
+        chain.start();
+        assertThat(bufferPool.getPooledBytes()).isEqualTo(16);
+
+        // the next chain borrows the released one.
+        final long hitCount = bufferPool.getHitCount();
+        chain.start();
+        assertThat(bufferPool.getHitCount()).isEqualTo(hitCount + 1);
+        assertThat(bufferPool.getPooledBytes()).isEqualTo(16);
+    }
+
+    @Test
+    public void acceptFetchLength() {
+        final BreakpointInfo info = new BreakpointInfo(1, "url", new File("p-path"), "filename");
+        info.addBlock(new BlockInfo(0, 100));
+        final DownloadChain chain = DownloadChain.createChain(0, mock(DownloadTask.class), info,
+                cache, store);
+        chain.setResponseContentLength(100);
+
+        // not split, accept all.
+        chain.startFetch(0);
+        assertThat(chain.acceptFetchLength(60)).isEqualTo(60);
+        assertThat(chain.getRemainingFetchLength()).isEqualTo(40);
+
+        // split [80, 100) to the new block.
+        assertThat(chain.splitRemaining(10)).isEqualTo(1);
+        assertThat(chain.getResponseContentLength()).isEqualTo(80);
+        assertThat(chain.acceptFetchLength(30)).isEqualTo(20);
+        assertThat(chain.acceptFetchLength(30)).isZero();
+
+        chain.endFetch();
+        assertThat(chain.getRemainingFetchLength()).isZero();
+    }
+
+    @Test
+    public void splitRemaining() {
+        final BreakpointInfo info = new BreakpointInfo(1, "url", new File("p-path"), "filename");
+        info.addBlock(new BlockInfo(0, 100));
+        info.addBlock(new BlockInfo(100, 100, 10));
+        final DownloadChain chain = DownloadChain.createChain(1, mock(DownloadTask.class), info,
+                cache, store);
+
+        // not fetching
+        assertThat(chain.splitRemaining(1)).isEqualTo(-1);
+
+        chain.setResponseContentLength(90);
+        chain.startFetch(110);
+        chain.acceptFetchLength(30);
+
+        // the remaining [140, 200) is too small.
+        assertThat(chain.splitRemaining(31)).isEqualTo(-1);
+
+        assertThat(chain.splitRemaining(30)).isEqualTo(2);
+        assertThat(info.getBlockCount()).isEqualTo(3);
+        assertThat(info.getBlock(1).getRangeRight()).isEqualTo(169);
+        assertThat(info.getBlock(2).getStartOffset()).isEqualTo(170);
+        assertThat(info.getBlock(2).getRangeRight()).isEqualTo(199);
+        assertThat(info.getTotalLength()).isEqualTo(200);
+        assertThat(chain.getRemainingFetchLength()).isEqualTo(30);
+    }
+
+    @Test
+    public void splitRemaining_responseNotBlockRange() {
+        final BreakpointInfo info = new BreakpointInfo(1, "url", new File("p-path"), "filename");
+        info.addBlock(new BlockInfo(0, 100));
+        final DownloadChain chain = DownloadChain.createChain(0, mock(DownloadTask.class), info,
+                cache, store);
+        chain.setResponseContentLength(200);
+        chain.startFetch(0);
+
+        assertThat(chain.splitRemaining(1)).isEqualTo(-1);
+        assertThat(info.getBlockCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void stealBlocks() {
+        final BlockSplitter splitter = mock(BlockSplitter.class);
+        final DownloadChain stolenChain1 = mock(DownloadChain.class);
+        final DownloadChain stolenChain2 = mock(DownloadChain.class);
+        when(splitter.split()).thenReturn(stolenChain1, stolenChain2, null);
+        doNothing().when(chain).releaseConnection();
+
+        // no splitter
+        chain.stealBlocks();
+        verify(chain, never()).releaseConnection();
+
+        chain.setBlockSplitter(splitter);
+        chain.stealBlocks();
+
+        verify(stolenChain1).run();
+        verify(stolenChain2).run();
+        verify(chain, times(2)).releaseConnection();
+    }
+
+    @Test
+    public void handOverRemaining() {
+        final BreakpointInfo info = new BreakpointInfo(1, "url", new File("p-path"), "filename");
+        info.addBlock(new BlockInfo(0, 100));
+        info.addBlock(new BlockInfo(100, 100, 10));
+        final DownloadChain chain = DownloadChain.createChain(1, mock(DownloadTask.class), info,
+                cache, store);
+
+        // not fetching
+        assertThat(chain.handOverRemaining(150)).isEqualTo(-1);
+
+        chain.setResponseContentLength(90);
+        chain.startFetch(110);
+        // nothing fetched on this time, the block would be empty.
+        assertThat(chain.handOverRemaining(150)).isEqualTo(-1);
+
+        chain.acceptFetchLength(30);
+        assertThat(chain.getFetchOffset()).isEqualTo(140);
+        // this block reaches the delivered offset.
+        assertThat(chain.handOverRemaining(140)).isEqualTo(-1);
+        assertThat(chain.isHandedOver()).isFalse();
+
+        assertThat(chain.handOverRemaining(150)).isEqualTo(2);
+        assertThat(chain.isHandedOver()).isTrue();
+        assertThat(info.getBlock(1).getRangeRight()).isEqualTo(139);
+        assertThat(info.getBlock(2).getRangeLeft()).isEqualTo(140);
+        assertThat(info.getBlock(2).getRangeRight()).isEqualTo(199);
+        assertThat(chain.getRemainingFetchLength()).isZero();
+        assertThat(chain.acceptFetchLength(10)).isZero();
+    }
+
+    @Test
+    public void getFetchBytesPerSecond_notMeasured() {
+        chain.startFetch(0);
+        chain.acceptFetchLength(10);
+
+        assertThat(chain.getFetchBytesPerSecond()).isEqualTo(-1);
+    }
+
+    @Test
+    public void stealBlocks_hedge() {
+        final BlockSplitter splitter = mock(BlockSplitter.class);
+        final DownloadChain stolenChain = mock(DownloadChain.class);
+        final HedgedFetch hedgedFetch = mock(HedgedFetch.class);
+        when(splitter.split()).thenReturn(stolenChain, null, null);
+        when(splitter.hedge()).thenReturn(hedgedFetch, null);
+        doNothing().when(chain).releaseConnection();
+
+        chain.setBlockSplitter(splitter);
+        chain.stealBlocks();
+
+        verify(stolenChain).run();
+        verify(hedgedFetch).run();
+        verify(splitter, times(2)).hedge();
+        verify(chain, times(2)).releaseConnection();
+    }
+
+    @Test
+    public void stealBlocks_interrupted() {
+        final BlockSplitter splitter = mock(BlockSplitter.class);
+        final DownloadChain stolenChain = mock(DownloadChain.class);
+        when(splitter.split()).thenReturn(stolenChain);
+        when(cache.isInterrupt()).thenReturn(true);
+        doNothing().when(chain).releaseConnection();
+
+        chain.setBlockSplitter(splitter);
+        chain.stealBlocks();
+
+        verify(stolenChain).run();
+        verify(splitter).split();
+    }
+
     @Test
     public void processConnect() throws IOException {
         final Interceptor.Connect connect = mock(Interceptor.Connect.class);
@@ -197,6 +439,26 @@ public class DownloadChainTest {
         chain.run();
     }
 
+    @Test
+    public void releaseConnectionAsync_notOnBlockExecutor() {
+        final DownloadExecutors executors = OkDownload.with().downloadExecutors();
+        final DownloadExecutors mockExecutors = mock(DownloadExecutors.class);
+        final ExecutorService blockExecutor = mock(ExecutorService.class);
+        final ExecutorService fileIoExecutor = mock(ExecutorService.class);
+        when(mockExecutors.blockExecutor()).thenReturn(blockExecutor);
+        when(mockExecutors.fileIoExecutor()).thenReturn(fileIoExecutor);
+        when(OkDownload.with().downloadExecutors()).thenReturn(mockExecutors);
+
+        try {
+            chain.releaseConnectionAsync();
+
+            verify(fileIoExecutor).execute(any(Runnable.class));
+            verify(blockExecutor, never()).execute(any(Runnable.class));
+        } finally {
+            when(OkDownload.with().downloadExecutors()).thenReturn(executors);
+        }
+    }
+
     @Test
     public void flushNoCallbackIncreaseBytes() {
         chain.increaseCallbackBytes(10L);
@@ -63,6 +63,7 @@ import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -250,6 +251,91 @@ public class DownloadStrategyTest {
         assertThat(strategy.determineBlockCount(task, 500)).isEqualTo(100);
     }
 
+    @Test
+    public void minSplitBlockLength() {
+        // opt-in
+        assertThat(strategy.minSplitBlockLength(task)).isZero();
+        assertThat(strategy.maxSplitBlockCount(task)).isEqualTo(8);
+    }
+
+    @Test
+    public void hedgePolicy() {
+        // opt-in
+        assertThat(strategy.hedgePolicy(task)).isNull();
+    }
+
+    @Test
+    public void hedgePolicy_default() {
+        final DownloadStrategy.HedgePolicy policy = new DownloadStrategy.HedgePolicy();
+        assertThat(policy.getMinProgress()).isEqualTo(0.95f);
+        assertThat(policy.getMaxSpeedRatio()).isEqualTo(0.25f);
+        assertThat(policy.getMaxHedgeLength()).isEqualTo(2 * 1024 * 1024);
+        assertThat(policy.getMaxHedgeCount()).isEqualTo(2);
+
+        assertThat(policy.isProgressEnough(95, 100)).isTrue();
+        assertThat(policy.isProgressEnough(94, 100)).isFalse();
+        assertThat(policy.isProgressEnough(0, 0)).isFalse();
+
+        assertThat(policy.isStraggler(249, 1000)).isTrue();
+        assertThat(policy.isStraggler(250, 1000)).isFalse();
+
+        assertThat(policy.isHedgeable(2 * 1024 * 1024)).isTrue();
+        assertThat(policy.isHedgeable(2 * 1024 * 1024 + 1)).isFalse();
+        assertThat(policy.isHedgeable(0)).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hedgePolicy_invalidProgress() {
+        new DownloadStrategy.HedgePolicy(1.1f, 0.25f, 100, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hedgePolicy_invalidLength() {
+        new DownloadStrategy.HedgePolicy(0.95f, 0.25f, Integer.MAX_VALUE + 1L, 1);
+    }
+
+    @Test
+    public void trialFetchMaxLength() {
+        assertThat(strategy.trialFetchMaxLength(task)).isZero();
+    }
+
+    @Test
+    public void connectTrialCache() {
+        // opt-in
+        assertThat(strategy.connectTrialCache()).isNull();
+        strategy.invalidateConnectTrial("url");
+
+        final ConnectTrialCache cache = new ConnectTrialCache();
+        doReturn(cache).when(strategy).connectTrialCache();
+        cache.put("url", new ConnectTrialCache.Result(200, false, 1, null, null, null));
+
+        strategy.invalidateConnectTrial("url");
+        assertThat(cache.get("url")).isNull();
+    }
+
+    @Test
+    public void resumeAvailableResponseCheck_invalidateConnectTrial() throws IOException {
+        mockOkDownload();
+        final DownloadStrategy strategy = spy(DownloadStrategy.class);
+        doReturn(strategy).when(OkDownload.with()).downloadStrategy();
+        when(info.getUrl()).thenReturn("url");
+        when(info.getBlock(0)).thenReturn(mock(BlockInfo.class));
+        when(connected.getResponseCode()).thenReturn(HttpURLConnection.HTTP_PRECON_FAILED);
+
+        try {
+            resumeAvailableResponseCheck().inspect();
+        } catch (ResumeFailedException ignored) {
+        }
+        verify(strategy).invalidateConnectTrial("url");
+
+        when(connected.getResponseCode()).thenReturn(HttpURLConnection.HTTP_NOT_FOUND);
+        try {
+            resumeAvailableResponseCheck().inspect();
+        } catch (ServerCanceledException ignored) {
+        }
+        verify(strategy, times(2)).invalidateConnectTrial("url");
+    }
+
     @Test
     public void isUseMultiBlock() throws IOException {
         mockOkDownload();
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.download;
+
+import com.liulishuo.okdownload.DownloadTask;
+import com.liulishuo.okdownload.OkDownload;
+import com.liulishuo.okdownload.core.breakpoint.BlockInfo;
+import com.liulishuo.okdownload.core.breakpoint.BreakpointInfo;
+import com.liulishuo.okdownload.core.breakpoint.DownloadStore;
+import com.liulishuo.okdownload.core.connection.DownloadConnection;
+import com.liulishuo.okdownload.core.connection.DownloadUrlConnection;
+import com.liulishuo.okdownload.core.file.ByteArrayPool;
+import com.liulishuo.okdownload.core.file.MultiPointOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.liulishuo.okdownload.TestUtils.mockOkDownload;
+import static com.liulishuo.okdownload.core.Util.RANGE;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class HedgedFetchTest {
+
+    private static final int KIB = 1024;
+    private static final long CONTENT_LENGTH = 64 * KIB;
+
+    @Mock private DownloadTask task;
+    @Mock private DownloadCache cache;
+    @Mock private DownloadStore store;
+    @Mock private MultiPointOutputStream outputStream;
+    @Mock private DownloadConnection stragglerConnection;
+
+    private ThrottledHttpServer server;
+    private BreakpointInfo info;
+    private DownloadChain stragglerChain;
+    private BlockSplitter splitter;
+    private ByteArrayOutputStream handOverBytes;
+
+    @Before
+    public void setup() throws IOException {
+        initMocks(this);
+        mockOkDownload();
+        when(task.getReadBufferSize()).thenReturn(4 * KIB);
+
+        // the connection of the hedged fetch is limited to 256KiB/s.
+        server = new ThrottledHttpServer(CONTENT_LENGTH, 256 * KIB, 256 * KIB);
+        final DownloadConnection.Factory connectionFactory =
+                OkDownload.with().connectionFactory();
+        when(connectionFactory.create(anyString())).thenAnswer(new Answer<DownloadConnection>() {
+            @Override public DownloadConnection answer(InvocationOnMock invocation)
+                    throws IOException {
+                return new DownloadUrlConnection((String) invocation.getArgument(0));
+            }
+        });
+
+        info = new BreakpointInfo(1, server.url(), new File("p-path"), "filename");
+        info.addBlock(new BlockInfo(0, 32 * KIB));
+        info.addBlock(new BlockInfo(32 * KIB, 32 * KIB));
+
+        when(cache.getOutputStream()).thenReturn(outputStream);
+        when(outputStream.canAddRequireStreamBlock(2)).thenReturn(true);
+        when(outputStream.addRequireStreamBlock(2)).thenReturn(true);
+        handOverBytes = new ByteArrayOutputStream();
+        doAnswer(new Answer<Void>() {
+            @Override public Void answer(InvocationOnMock invocation) {
+                final byte[] bytes = invocation.getArgument(1);
+                final int offset = invocation.getArgument(2);
+                final int length = invocation.getArgument(3);
+                handOverBytes.write(bytes, offset, length);
+                return null;
+            }
+        }).when(outputStream).write(eq(2), any(byte[].class), anyInt(), anyInt());
+
+        splitter = new BlockSplitter(task, info, cache, store, 0, 0,
+                new DownloadStrategy.HedgePolicy());
+
+        // the straggler block is stalled on 40KiB.
+        stragglerChain = DownloadChain.createChain(1, task, info, cache, store);
+        stragglerChain.setConnection(stragglerConnection);
+        stragglerChain.setResponseContentLength(32 * KIB);
+        stragglerChain.startFetch(32 * KIB);
+        stragglerChain.acceptFetchLength(8 * KIB);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void run_hedgeWins() throws IOException {
+        // the hedged range starts before the straggler block reaches, those bytes are dropped.
+        final HedgedFetch hedgedFetch = new HedgedFetch(task, info, cache, splitter,
+                stragglerChain, 36 * KIB, CONTENT_LENGTH - 1);
+
+        hedgedFetch.run();
+
+        assertThat(info.getBlockCount()).isEqualTo(3);
+        assertThat(info.getBlock(1).getRangeRight()).isEqualTo(40 * KIB - 1);
+        assertThat(info.getBlock(2).getRangeLeft()).isEqualTo(40 * KIB);
+        assertThat(info.getBlock(2).getRangeRight()).isEqualTo(CONTENT_LENGTH - 1);
+        assertThat(info.getTotalLength()).isEqualTo(CONTENT_LENGTH);
+
+        final byte[] bytes = handOverBytes.toByteArray();
+        assertThat(bytes.length).isEqualTo(24 * KIB);
+        for (int i = 0; i < bytes.length; i++) {
+            assertThat(bytes[i]).isEqualTo(ThrottledHttpServer.contentByte(40 * KIB + i));
+        }
+
+        // the straggler block is cancelled.
+        assertThat(stragglerChain.isHandedOver()).isTrue();
+        assertThat(stragglerChain.acceptFetchLength(KIB)).isZero();
+        verify(stragglerConnection).release();
+
+        verify(outputStream).done(2);
+        verify(OkDownload.with().callbackDispatcher().dispatch())
+                .fetchEnd(task, 2, 24 * KIB);
+        verify(cache, never()).catchException(any(IOException.class));
+    }
+
+    @Test
+    public void run_readThroughPooledBuffer() throws IOException {
+        final ByteArrayPool bufferPool = OkDownload.with().bufferPool();
+        bufferPool.clear();
+        final byte[] buffer = new byte[4 * KIB];
+        bufferPool.release(buffer);
+        final List<byte[]> writtenBuffers = new ArrayList<>();
+        doAnswer(new Answer<Void>() {
+            @Override public Void answer(InvocationOnMock invocation) {
+                writtenBuffers.add((byte[]) invocation.getArgument(1));
+                return null;
+            }
+        }).when(outputStream).write(eq(2), any(byte[].class), anyInt(), anyInt());
+
+        new HedgedFetch(task, info, cache, splitter, stragglerChain, 36 * KIB,
+                CONTENT_LENGTH - 1).run();
+
+        // the hedged range isn't buffered on one array with its whole length.
+        assertThat(writtenBuffers).isNotEmpty();
+        for (byte[] writtenBuffer : writtenBuffers) assertThat(writtenBuffer).isSameAs(buffer);
+        // the buffer is returned once the fetch is finished.
+        assertThat(bufferPool.getPooledBytes()).isEqualTo(4 * KIB);
+    }
+
+    @Test
+    public void run_aheadButNotHandedOver_stop() throws IOException {
+        // the hedged fetch gets ahead of the straggler block, but can't take over it.
+        when(outputStream.canAddRequireStreamBlock(2)).thenReturn(false);
+
+        new HedgedFetch(task, info, cache, splitter, stragglerChain, 36 * KIB,
+                CONTENT_LENGTH - 1).run();
+
+        assertThat(info.getBlockCount()).isEqualTo(2);
+        assertThat(stragglerChain.isHandedOver()).isFalse();
+        verify(outputStream, never()).write(anyInt(), any(byte[].class), anyInt(), anyInt());
+        verify(cache, never()).catchException(any(IOException.class));
+    }
+
+    @Test
+    public void run_stragglerWins() throws IOException {
+        final HedgedFetch hedgedFetch = new HedgedFetch(task, info, cache, splitter,
+                stragglerChain, 40 * KIB, CONTENT_LENGTH - 1);
+        // the straggler block reaches its end before the hedged fetch delivers any byte.
+        stragglerChain.acceptFetchLength(24 * KIB);
+
+        hedgedFetch.run();
+
+        assertThat(info.getBlockCount()).isEqualTo(2);
+        assertThat(stragglerChain.isHandedOver()).isFalse();
+        verify(stragglerConnection, never()).release();
+        verify(outputStream, never()).write(anyInt(), any(byte[].class), anyInt(), anyInt());
+        verify(outputStream, never()).done(anyInt());
+        verify(cache, never()).catchException(any(IOException.class));
+    }
+
+    @Test
+    public void run_notPartialResponse() throws IOException {
+        final DownloadConnection connection = mock(DownloadConnection.class);
+        final DownloadConnection.Connected connected = mock(DownloadConnection.Connected.class);
+        when(connection.execute()).thenReturn(connected);
+        when(connected.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        final DownloadConnection.Factory connectionFactory =
+                OkDownload.with().connectionFactory();
+        doReturn(connection).when(connectionFactory).create(anyString());
+
+        new HedgedFetch(task, info, cache, splitter, stragglerChain, 40 * KIB,
+                CONTENT_LENGTH - 1).run();
+
+        verify(connection).addHeader(RANGE, "bytes=" + 40 * KIB + "-" + (CONTENT_LENGTH - 1));
+        verify(connection).release();
+        verify(connected, never()).getInputStream();
+        assertThat(info.getBlockCount()).isEqualTo(2);
+        assertThat(stragglerChain.isHandedOver()).isFalse();
+    }
+}
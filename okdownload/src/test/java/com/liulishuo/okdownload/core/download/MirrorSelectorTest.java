@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.download;
+
+import com.liulishuo.okdownload.DownloadTask;
+import com.liulishuo.okdownload.OkDownload;
+import com.liulishuo.okdownload.core.breakpoint.BreakpointInfo;
+import com.liulishuo.okdownload.core.connection.DownloadConnection;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.liulishuo.okdownload.TestUtils.mockOkDownload;
+import static com.liulishuo.okdownload.core.Util.CONTENT_RANGE;
+import static com.liulishuo.okdownload.core.Util.ETAG;
+import static com.liulishuo.okdownload.core.Util.IF_MATCH;
+import static com.liulishuo.okdownload.core.Util.RANGE;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MirrorSelectorTest {
+
+    @Mock private DownloadTask task;
+    @Mock private BreakpointInfo info;
+
+    private MirrorSelector selector;
+
+    @Before
+    public void setup() throws IOException {
+        initMocks(this);
+        mockOkDownload();
+
+        when(info.getTotalLength()).thenReturn(100L);
+        when(info.getEtag()).thenReturn("etag");
+        mockMirror("mirror1", HttpURLConnection.HTTP_PARTIAL, "bytes 0-0/100", "etag");
+        mockMirror("mirror2", HttpURLConnection.HTTP_PARTIAL, "bytes 0-0/100", "etag");
+
+        selector = new MirrorSelector(task, info, Arrays.asList("primary", "mirror1", "mirror2"));
+    }
+
+    @Test
+    public void construct() {
+        assertThat(selector.getSourceList()).hasSize(3);
+        assertThat(selector.getSourceList().get(0).isPrimary()).isTrue();
+        assertThat(selector.getSourceList().get(1).isPrimary()).isFalse();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void construct_empty() {
+        new MirrorSelector(task, info, Collections.<String>emptyList());
+    }
+
+    @Test
+    public void select_unmeasuredRoundRobin() {
+        assertThat(selector.select().getUrl()).isEqualTo("primary");
+        assertThat(selector.select().getUrl()).isEqualTo("mirror1");
+        assertThat(selector.select().getUrl()).isEqualTo("mirror2");
+        assertThat(selector.select().getUrl()).isEqualTo("primary");
+    }
+
+    @Test
+    public void select_sharedThroughput() {
+        final MirrorSelector.Source primary = selector.select();
+        final MirrorSelector.Source mirror1 = selector.select();
+        final MirrorSelector.Source mirror2 = selector.select();
+
+        // primary 100B/s, mirror1 400B/s, mirror2 300B/s
+        selector.release(primary, 100, 1000);
+        selector.release(mirror1, 400, 1000);
+        selector.release(mirror2, 300, 1000);
+        assertThat(mirror1.getBytesPerSecond()).isEqualTo(400);
+
+        assertThat(selector.select()).isEqualTo(mirror1);
+        // mirror1 is shared by 2 blocks as 200B/s.
+        assertThat(selector.select()).isEqualTo(mirror2);
+        assertThat(selector.select()).isEqualTo(mirror1);
+        assertThat(mirror1.activeCount).isEqualTo(2);
+    }
+
+    @Test
+    public void select_verifyMirrorOnFirstSelection() throws IOException {
+        final DownloadConnection connection =
+                mockMirror("mirror1", HttpURLConnection.HTTP_PARTIAL, "bytes 0-0/100", "etag");
+        when(connection.execute().getRedirectLocation()).thenReturn("location");
+        mockMirror("mirror2", HttpURLConnection.HTTP_PARTIAL, "bytes 0-0/99", "etag");
+        final MirrorSelector.Source primary = selector.getSourceList().get(0);
+        final MirrorSelector.Source mirror1 = selector.getSourceList().get(1);
+        final MirrorSelector.Source mirror2 = selector.getSourceList().get(2);
+        assertThat(primary.verified).isTrue();
+        assertThat(mirror1.verified).isFalse();
+
+        assertThat(selector.select()).isEqualTo(primary);
+        assertThat(selector.select()).isEqualTo(mirror1);
+        assertThat(mirror1.verified).isTrue();
+        assertThat(mirror1.getUrl()).isEqualTo("location");
+
+        // mirror2 isn't verified, so it's disabled and another source is selected.
+        assertThat(selector.select()).isNotEqualTo(mirror2);
+        assertThat(mirror2.failed).isTrue();
+        assertThat(mirror2.activeCount).isZero();
+
+        selector.select();
+        selector.select();
+        final DownloadConnection.Factory factory = OkDownload.with().connectionFactory();
+        verify(factory).create("mirror1");
+        verify(factory).create("mirror2");
+        verify(factory, never()).create("primary");
+    }
+
+    @Test
+    public void select_skipVerifyingMirror() {
+        final MirrorSelector selector = spy(this.selector);
+        final MirrorSelector.Source mirror1 = selector.getSourceList().get(1);
+        final MirrorSelector.Source mirror2 = selector.getSourceList().get(2);
+        final AtomicReference<MirrorSelector.Source> selectedOnVerifying =
+                new AtomicReference<>();
+        doAnswer(new Answer<String>() {
+            @Override public String answer(InvocationOnMock invocation) {
+                // another block selects while mirror1 is verifying.
+                selectedOnVerifying.set(selector.select());
+                return "mirror1";
+            }
+        }).when(selector).verify(mirror1);
+
+        selector.select();
+        assertThat(selector.select()).isEqualTo(mirror1);
+        assertThat(selectedOnVerifying.get()).isEqualTo(mirror2);
+        assertThat(mirror1.verifying).isFalse();
+    }
+
+    @Test
+    public void release_nothingFetched() {
+        final MirrorSelector.Source primary = selector.select();
+        selector.release(primary, 0, 1000);
+
+        assertThat(primary.activeCount).isZero();
+        assertThat(primary.getBytesPerSecond()).isEqualTo(-1);
+    }
+
+    @Test
+    public void failover() {
+        final MirrorSelector.Source primary = selector.select();
+        final MirrorSelector.Source mirror1 = selector.select();
+        final MirrorSelector.Source mirror2 = selector.select();
+
+        assertThat(selector.failover(mirror1)).isTrue();
+        assertThat(mirror1.activeCount).isZero();
+        assertThat(selector.failover(primary)).isTrue();
+
+        assertThat(selector.select()).isEqualTo(mirror2);
+        assertThat(selector.failover(mirror2)).isFalse();
+
+        // the url of the task is the last resort.
+        assertThat(selector.select()).isEqualTo(primary);
+    }
+
+    @Test
+    public void create_noMirror() {
+        assertThat(MirrorSelector.create(task, info, "primary")).isNull();
+
+        when(task.getMirrorUrls()).thenReturn(Collections.singletonList("primary"));
+        assertThat(MirrorSelector.create(task, info, "primary")).isNull();
+    }
+
+    @Test
+    public void create() throws IOException {
+        when(task.getMirrorUrls()).thenReturn(Arrays.asList("mirror1", "primary", "mirror1"));
+
+        final MirrorSelector selector = MirrorSelector.create(task, info, "primary");
+
+        assertThat(selector).isNotNull();
+        assertThat(selector.getSourceList()).hasSize(2);
+        assertThat(selector.getSourceList().get(0).getUrl()).isEqualTo("primary");
+        assertThat(selector.getSourceList().get(1).getUrl()).isEqualTo("mirror1");
+        // the mirrors are verified once they are selected.
+        verify(OkDownload.with().connectionFactory(), never()).create(anyString());
+    }
+
+    @Test
+    public void verifyMirror() throws IOException {
+        final DownloadConnection connection =
+                mockMirror("mirror", HttpURLConnection.HTTP_PARTIAL, "bytes 0-0/100", "etag");
+
+        assertThat(MirrorSelector.verifyMirror(task, info, "mirror")).isEqualTo("mirror");
+        verify(connection).addHeader(RANGE, "bytes=0-0");
+        verify(connection).addHeader(IF_MATCH, "etag");
+        verify(connection).release();
+    }
+
+    @Test
+    public void verifyMirror_redirect() throws IOException {
+        final DownloadConnection connection =
+                mockMirror("mirror", HttpURLConnection.HTTP_PARTIAL, "bytes 0-0/100", "etag");
+        when(connection.execute().getRedirectLocation()).thenReturn("location");
+
+        assertThat(MirrorSelector.verifyMirror(task, info, "mirror")).isEqualTo("location");
+    }
+
+    @Test
+    public void verifyMirror_notVerified() throws IOException {
+        mockMirror("mirror", HttpURLConnection.HTTP_OK, "bytes 0-0/100", "etag");
+        assertThat(MirrorSelector.verifyMirror(task, info, "mirror")).isNull();
+
+        mockMirror("mirror", HttpURLConnection.HTTP_PARTIAL, null, "etag");
+        assertThat(MirrorSelector.verifyMirror(task, info, "mirror")).isNull();
+
+        mockMirror("mirror", HttpURLConnection.HTTP_PARTIAL, "bytes 0-0/100", "another");
+        assertThat(MirrorSelector.verifyMirror(task, info, "mirror")).isNull();
+
+        // there isn't etag to compare.
+        when(info.getEtag()).thenReturn(null);
+        assertThat(MirrorSelector.verifyMirror(task, info, "mirror")).isEqualTo("mirror");
+    }
+
+    @Test
+    public void verifyMirror_failed() throws IOException {
+        final DownloadConnection connection = mock(DownloadConnection.class);
+        when(OkDownload.with().connectionFactory().create("mirror")).thenReturn(connection);
+        when(connection.execute()).thenThrow(IOException.class);
+
+        assertThat(MirrorSelector.verifyMirror(task, info, "mirror")).isNull();
+        verify(connection).release();
+    }
+
+    private DownloadConnection mockMirror(String url, int responseCode, String contentRange,
+                                          String etag) throws IOException {
+        final DownloadConnection connection = mock(DownloadConnection.class);
+        final DownloadConnection.Connected connected = mock(DownloadConnection.Connected.class);
+        when(OkDownload.with().connectionFactory().create(url)).thenReturn(connection);
+        when(connection.execute()).thenReturn(connected);
+        when(connected.getResponseCode()).thenReturn(responseCode);
+        when(connected.getResponseHeaderField(CONTENT_RANGE)).thenReturn(contentRange);
+        when(connected.getResponseHeaderField(ETAG)).thenReturn(etag);
+        return connection;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.download;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The local http server which serves a content with the range, and the speed of each connection
+ * and the speed of all connections are both limited, so the throughput stops scaling with the
+ * connection count once all connections reach the total limit.
+ * <p>
+ * Each byte of the content is {@link #contentByte(long)} of its offset, so the bytes downloaded
+ * on any range can be verified.
+ */
+class ThrottledHttpServer implements Closeable {
+
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final int CHUNK_SIZE = 4096;
+
+    private final long contentLength;
+    private final Throttle totalThrottle;
+    private final long connectionBytesPerSecond;
+
+    private final ServerSocket serverSocket;
+    private final Thread acceptThread;
+
+    ThrottledHttpServer(long contentLength, long connectionBytesPerSecond,
+                        long totalBytesPerSecond) throws IOException {
+        this.contentLength = contentLength;
+        this.connectionBytesPerSecond = connectionBytesPerSecond;
+        this.totalThrottle = new Throttle(totalBytesPerSecond);
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        this.acceptThread = new Thread(new Runnable() {
+            @Override public void run() {
+                accept();
+            }
+        }, "ThrottledHttpServer");
+        acceptThread.start();
+    }
+
+    static byte contentByte(long offset) {
+        return (byte) (offset % 251);
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/file";
+    }
+
+    @Override public void close() throws IOException {
+        serverSocket.close();
+        try {
+            acceptThread.join();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+
+            new Thread(new Runnable() {
+                @Override public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException ignored) {
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            }, "ThrottledHttpServer connection").start();
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        long start = 0;
+        long end = contentLength - 1;
+        boolean isRange = false;
+        String line = reader.readLine();
+        while (line != null && !line.isEmpty()) {
+            if (line.toLowerCase().startsWith("range:")) {
+                final Matcher m = RANGE_PATTERN.matcher(line.substring(6).trim());
+                if (m.find()) {
+                    isRange = true;
+                    start = Long.parseLong(m.group(1));
+                    if (!m.group(2).isEmpty()) end = Long.parseLong(m.group(2));
+                }
+            }
+            line = reader.readLine();
+        }
+
+        final long length = end - start + 1;
+        final OutputStream outputStream = socket.getOutputStream();
+        final StringBuilder header = new StringBuilder();
+        header.append(isRange ? "HTTP/1.1 206 Partial Content" : "HTTP/1.1 200 OK")
+                .append("\r\nAccept-Ranges: bytes\r\nContent-Length: ").append(length);
+        if (isRange) {
+            header.append("\r\nContent-Range: bytes ").append(start).append('-').append(end)
+                    .append('/').append(contentLength);
+        }
+        header.append("\r\nConnection: close\r\n\r\n");
+        outputStream.write(header.toString().getBytes("US-ASCII"));
+
+        final Throttle connectionThrottle = new Throttle(connectionBytesPerSecond);
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        long offset = start;
+        while (offset <= end) {
+            final int size = (int) Math.min(CHUNK_SIZE, end + 1 - offset);
+            for (int i = 0; i < size; i++) {
+                chunk[i] = contentByte(offset + i);
+            }
+            final long readyNanos = Math.max(connectionThrottle.reserve(size),
+                    totalThrottle.reserve(size));
+            sleepUntil(readyNanos);
+            outputStream.write(chunk, 0, size);
+            offset += size;
+        }
+        outputStream.flush();
+    }
+
+    private static void sleepUntil(long nanos) throws IOException {
+        long waitNanos = nanos - System.nanoTime();
+        while (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            waitNanos = nanos - System.nanoTime();
+        }
+    }
+
+    private static class Throttle {
+        private final long bytesPerSecond;
+        private long nextFreeNanos;
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        // reserve the bytes and return the time when they can be sent.
+        synchronized long reserve(int bytes) {
+            final long now = System.nanoTime();
+            nextFreeNanos = Math.max(nextFreeNanos, now)
+                    + TimeUnit.SECONDS.toNanos(bytes) / bytesPerSecond;
+            return nextFreeNanos;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.download;
+
+import com.liulishuo.okdownload.core.connection.DownloadConnection;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class TrialFetchConnectionTest {
+
+    @Mock private DownloadConnection connection;
+    @Mock private DownloadConnection.Connected connected;
+
+    private TrialFetchConnection trialFetchConnection;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+        trialFetchConnection = new TrialFetchConnection(connection, connected);
+    }
+
+    @Test
+    public void execute() throws IOException {
+        trialFetchConnection.addHeader("Range", "bytes=0-99");
+        assertThat(trialFetchConnection.setRequestMethod("HEAD")).isFalse();
+
+        assertThat(trialFetchConnection.execute()).isEqualTo(connected);
+        verify(connection, never()).addHeader(anyString(), anyString());
+        verify(connection, never()).setRequestMethod(anyString());
+        verify(connection, never()).execute();
+    }
+
+    @Test
+    public void delegate() {
+        trialFetchConnection.getRequestProperties();
+        verify(connection).getRequestProperties();
+
+        trialFetchConnection.getRequestProperty("Range");
+        verify(connection).getRequestProperty("Range");
+
+        trialFetchConnection.release();
+        verify(connection).release();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.file;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class AtomicBitSetTest {
+
+    @Test
+    public void set() {
+        final AtomicBitSet bitSet = new AtomicBitSet(130);
+        assertThat(bitSet.size()).isEqualTo(130);
+        assertThat(bitSet.cardinality()).isZero();
+
+        bitSet.set(0);
+        bitSet.set(64);
+        bitSet.set(129);
+        bitSet.set(64);
+
+        assertThat(bitSet.get(0)).isTrue();
+        assertThat(bitSet.get(1)).isFalse();
+        assertThat(bitSet.get(64)).isTrue();
+        assertThat(bitSet.get(129)).isTrue();
+        assertThat(bitSet.cardinality()).isEqualTo(3);
+    }
+
+    @Test
+    public void get_outOfRange() {
+        final AtomicBitSet bitSet = new AtomicBitSet(2);
+        assertThat(bitSet.get(-1)).isFalse();
+        assertThat(bitSet.get(2)).isFalse();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void set_outOfRange() {
+        new AtomicBitSet(2).set(2);
+    }
+
+    @Test
+    public void set_concurrent() throws InterruptedException {
+        final AtomicBitSet bitSet = new AtomicBitSet(64);
+        final int threadCount = 4;
+        final CountDownLatch latch = new CountDownLatch(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t;
+            new Thread(new Runnable() {
+                @Override public void run() {
+                    // all threads set the bits on the same word.
+                    for (int i = offset; i < 64; i += threadCount) {
+                        bitSet.set(i);
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+
+        assertThat(bitSet.cardinality()).isEqualTo(64);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.file;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class ByteArrayPoolTest {
+
+    @Test
+    public void acquire_release() {
+        final ByteArrayPool pool = new ByteArrayPool(1024);
+
+        final byte[] buffer = pool.acquire(256);
+        assertThat(buffer).hasSize(256);
+        assertThat(pool.getMissCount()).isEqualTo(1);
+        assertThat(pool.getHitCount()).isZero();
+
+        assertThat(pool.release(buffer)).isTrue();
+        assertThat(pool.getPooledBytes()).isEqualTo(256);
+
+        assertThat(pool.acquire(256)).isSameAs(buffer);
+        assertThat(pool.getHitCount()).isEqualTo(1);
+        assertThat(pool.getPooledBytes()).isZero();
+    }
+
+    @Test
+    public void acquire_exactSize() {
+        final ByteArrayPool pool = new ByteArrayPool(1024);
+        final byte[] buffer = pool.acquire(256);
+        pool.release(buffer);
+
+        // the pooled buffer is never borrowed for the other size.
+        final byte[] other = pool.acquire(128);
+        assertThat(other).hasSize(128);
+        assertThat(other).isNotSameAs(buffer);
+        assertThat(pool.getMissCount()).isEqualTo(2);
+        assertThat(pool.getPooledBytes()).isEqualTo(256);
+    }
+
+    @Test
+    public void release_full() {
+        final ByteArrayPool pool = new ByteArrayPool(512);
+
+        assertThat(pool.release(new byte[256])).isTrue();
+        assertThat(pool.release(new byte[256])).isTrue();
+        assertThat(pool.release(new byte[1])).isFalse();
+        assertThat(pool.release(new byte[0])).isFalse();
+        assertThat(pool.getPooledBytes()).isEqualTo(512);
+
+        pool.clear();
+        assertThat(pool.getPooledBytes()).isZero();
+        pool.acquire(256);
+        assertThat(pool.getHitCount()).isZero();
+    }
+
+    @Test
+    public void release_neverPool() {
+        final ByteArrayPool pool = new ByteArrayPool(0);
+        assertThat(pool.release(pool.acquire(8))).isFalse();
+        assertThat(pool.getPooledBytes()).isZero();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void construct_negative() {
+        new ByteArrayPool(-1);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.file;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static android.os.Build.VERSION_CODES.LOLLIPOP;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.robolectric.annotation.Config.NONE;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE, sdk = LOLLIPOP)
+public class DownloadFileChannelOutputStreamTest {
+
+    @Mock private FileChannel channel;
+    @Mock private ParcelFileDescriptor pdf;
+    @Mock private FileOutputStream fos;
+
+    private DownloadFileChannelOutputStream outputStream;
+
+    private final File file = new File("./file-channel-output");
+
+    @Before
+    public void setup() {
+        initMocks(this);
+
+        outputStream = new DownloadFileChannelOutputStream(channel, pdf, fos);
+    }
+
+    @After
+    public void tearDown() {
+        if (file.exists()) file.delete();
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void constructor_nullParcelFileDescriptor() throws FileNotFoundException {
+        final Context context = mock(Context.class);
+        final ContentResolver resolver = mock(ContentResolver.class);
+        final Uri uri = mock(Uri.class);
+
+        when(context.getContentResolver()).thenReturn(resolver);
+        when(resolver.openFileDescriptor(uri, "rw")).thenReturn(null);
+
+        new DownloadFileChannelOutputStream(context, uri);
+    }
+
+    @Test
+    public void write() throws IOException {
+        when(channel.write(any(ByteBuffer.class), anyLong())).thenAnswer(new Answer<Integer>() {
+            @Override public Integer answer(InvocationOnMock invocation) {
+                // write at most 2 bytes each time.
+                final ByteBuffer buffer = invocation.getArgument(0);
+                final int length = Math.min(2, buffer.remaining());
+                buffer.position(buffer.position() + length);
+                return length;
+            }
+        });
+
+        outputStream.seek(10);
+        outputStream.write(new byte[4], 1, 3);
+
+        verify(channel).write(any(ByteBuffer.class), eq(10L));
+        verify(channel).write(any(ByteBuffer.class), eq(12L));
+        assertThat(outputStream.getPosition()).isEqualTo(13L);
+    }
+
+    @Test
+    public void write_positional() throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        final FileChannel realChannel = randomAccessFile.getChannel();
+        final DownloadFileChannelOutputStream block0 =
+                new DownloadFileChannelOutputStream(realChannel, pdf, fos);
+        final DownloadFileChannelOutputStream block1 =
+                new DownloadFileChannelOutputStream(realChannel, pdf, fos);
+
+        block1.seek(3);
+        block1.write(new byte[]{4, 5, 6}, 0, 3);
+        block0.write(new byte[]{1, 2, 3}, 0, 3);
+
+        // the shared channel position is never moved.
+        assertThat(realChannel.position()).isZero();
+        final byte[] content = new byte[6];
+        randomAccessFile.readFully(content);
+        assertThat(content).containsExactly(1, 2, 3, 4, 5, 6);
+        randomAccessFile.close();
+    }
+
+    @Test
+    public void close() throws IOException {
+        outputStream.close();
+        verify(channel).close();
+        verify(fos).close();
+        verify(pdf).close();
+    }
+
+    @Test
+    public void flushAndSync() throws IOException {
+        outputStream.flushAndSync();
+        verify(channel).force(eq(false));
+    }
+
+    @Test
+    public void setLength() {
+        outputStream.setLength(1);
+        verify(pdf).getFileDescriptor();
+    }
+
+    @Test
+    public void factory() throws IOException {
+        assertThat(new DownloadFileChannelOutputStream.Factory().supportSeek()).isTrue();
+
+        final Context context = mock(Context.class);
+        final ContentResolver resolver = mock(ContentResolver.class);
+        final ParcelFileDescriptor pdf = mock(ParcelFileDescriptor.class);
+        final FileDescriptor fd = mock(FileDescriptor.class);
+        final Uri uri = mock(Uri.class);
+
+        when(context.getContentResolver()).thenReturn(resolver);
+        when(resolver.openFileDescriptor(any(Uri.class), eq("rw"))).thenReturn(pdf);
+        when(pdf.getFileDescriptor()).thenReturn(fd);
+
+        DownloadFileChannelOutputStream outputStream =
+                (DownloadFileChannelOutputStream) new DownloadFileChannelOutputStream.Factory()
+                        .create(context, new File("/test"), 1);
+        assertThat(outputStream.pdf).isEqualTo(pdf);
+        assertThat(outputStream.channel).isNotNull();
+        assertThat(outputStream.fos.getFD()).isEqualTo(fd);
+
+        outputStream = (DownloadFileChannelOutputStream) new DownloadFileChannelOutputStream
+                .Factory().create(context, uri, 1);
+        assertThat(outputStream.pdf).isEqualTo(pdf);
+        assertThat(outputStream.fos.getFD()).isEqualTo(fd);
+    }
+}
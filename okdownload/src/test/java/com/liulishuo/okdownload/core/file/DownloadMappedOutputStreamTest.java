@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.file;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.robolectric.annotation.Config.NONE;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE)
+public class DownloadMappedOutputStreamTest {
+
+    private final File file = new File("./mapped-output");
+
+    @Before
+    public void setup() throws IOException {
+        if (file.exists()) file.delete();
+        file.createNewFile();
+    }
+
+    @After
+    public void tearDown() {
+        if (file.exists()) file.delete();
+    }
+
+    @Test
+    public void write_allocated_mapped() throws IOException {
+        allocate(6);
+
+        final DownloadMappedOutputStream block0 = new DownloadMappedOutputStream(file, 2);
+        final DownloadMappedOutputStream block1 = new DownloadMappedOutputStream(file, 2);
+        block1.seek(3);
+
+        block1.write(new byte[]{4, 5, 6}, 0, 3);
+        assertThat(block1.window).isNotNull();
+        assertThat(block1.windowStart).isEqualTo(5L);
+        assertThat(block1.windowDirty).isTrue();
+        block0.write(new byte[]{0, 1, 2, 3}, 1, 3);
+        assertThat(block0.getPosition()).isEqualTo(3L);
+        assertThat(block1.getPosition()).isEqualTo(6L);
+
+        block0.close();
+        block1.close();
+
+        assertThat(file.length()).isEqualTo(6L);
+        assertThat(read(6)).containsExactly(1, 2, 3, 4, 5, 6);
+    }
+
+    @Test
+    public void write_notAllocated_throughChannel() throws IOException {
+        final DownloadMappedOutputStream outputStream = new DownloadMappedOutputStream(file, 2);
+
+        outputStream.write(new byte[]{1, 2, 3}, 0, 3);
+        assertThat(outputStream.window).isNull();
+        assertThat(outputStream.channelDirty).isTrue();
+
+        outputStream.flushAndSync();
+        assertThat(outputStream.channelDirty).isFalse();
+        outputStream.close();
+
+        assertThat(read(3)).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    public void write_overAllocated() throws IOException {
+        allocate(2);
+        final DownloadMappedOutputStream outputStream = new DownloadMappedOutputStream(file, 4);
+
+        outputStream.write(new byte[]{1, 2, 3}, 0, 3);
+        // the full window is forced before writing through the channel.
+        assertThat(outputStream.window).isNull();
+        assertThat(outputStream.windowDirty).isFalse();
+        assertThat(outputStream.channelDirty).isTrue();
+        outputStream.close();
+
+        assertThat(read(3)).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    public void windowOnPosition_seek_remap() throws IOException {
+        allocate(8);
+        final DownloadMappedOutputStream outputStream = new DownloadMappedOutputStream(file, 4);
+
+        final MappedByteBuffer first = outputStream.windowOnPosition();
+        assertThat(first).isNotNull();
+        assertThat(outputStream.windowOnPosition()).isSameAs(first);
+
+        outputStream.seek(6);
+        final MappedByteBuffer second = outputStream.windowOnPosition();
+        assertThat(second).isNotSameAs(first);
+        assertThat(outputStream.windowStart).isEqualTo(6L);
+        assertThat(second.capacity()).isEqualTo(2);
+        outputStream.close();
+    }
+
+    @Test
+    public void flushAndSync() throws IOException {
+        allocate(4);
+        final DownloadMappedOutputStream outputStream = new DownloadMappedOutputStream(file, 4);
+
+        outputStream.write(new byte[]{1}, 0, 1);
+        assertThat(outputStream.windowDirty).isTrue();
+        outputStream.flushAndSync();
+        assertThat(outputStream.windowDirty).isFalse();
+        outputStream.close();
+    }
+
+    @Test
+    public void factory() throws IOException {
+        final DownloadMappedOutputStream.Factory factory = new DownloadMappedOutputStream.Factory();
+        assertThat(factory.supportSeek()).isTrue();
+
+        final Context context = mock(Context.class);
+        DownloadOutputStream outputStream = factory.create(context, file, 1);
+        assertThat(outputStream).isInstanceOf(DownloadMappedOutputStream.class);
+        outputStream.close();
+
+        outputStream = factory.create(context, Uri.fromFile(file), 1);
+        assertThat(outputStream).isInstanceOf(DownloadMappedOutputStream.class);
+        outputStream.close();
+
+        // non-file scheme is fallback to the content resolver.
+        final Uri uri = mock(Uri.class);
+        final ContentResolver resolver = mock(ContentResolver.class);
+        when(uri.getScheme()).thenReturn("content");
+        when(context.getContentResolver()).thenReturn(resolver);
+        thrown.expect(FileNotFoundException.class);
+        factory.create(context, uri, 1);
+    }
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private void allocate(long length) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(length);
+        randomAccessFile.close();
+    }
+
+    private byte[] read(int length) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        final byte[] content = new byte[length];
+        randomAccessFile.readFully(content);
+        randomAccessFile.close();
+        return content;
+    }
+}
@@ -40,6 +40,7 @@ import java.io.SyncFailedException;
 import java.nio.channels.FileChannel;
 
 import static android.os.Build.VERSION_CODES.LOLLIPOP;
+import static com.liulishuo.okdownload.TestUtils.mockOkDownload;
 import static org.assertj.core.api.Java6Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
@@ -150,12 +151,13 @@ public class DownloadUriOutputStreamTest {
         when(context.getContentResolver()).thenReturn(resolver);
         when(resolver.openFileDescriptor(any(Uri.class), eq("rw"))).thenReturn(pdf);
         when(pdf.getFileDescriptor()).thenReturn(fd);
+        mockOkDownload();
 
         final File file = new File("/test");
         DownloadUriOutputStream outputStream = (DownloadUriOutputStream) new DownloadUriOutputStream
                 .Factory().create(context, file, 1);
         assertThat(outputStream.pdf).isEqualTo(pdf);
-        assertThat(outputStream.out).isNotNull();
+        assertThat(outputStream.out).isInstanceOf(PooledBufferedOutputStream.class);
         assertThat(outputStream.fos.getFD()).isEqualTo(fd);
 
         outputStream = (DownloadUriOutputStream) new DownloadUriOutputStream.Factory()
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.file;
+
+import com.liulishuo.okdownload.core.breakpoint.BatchSyncStore;
+import com.liulishuo.okdownload.core.breakpoint.DownloadStore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.robolectric.annotation.Config.NONE;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = NONE)
+public class FileSyncSchedulerTest {
+
+    private FileSyncScheduler scheduler;
+    private Set<MultiPointOutputStream> streams;
+
+    @Mock private MultiPointOutputStream stream0;
+    @Mock private MultiPointOutputStream stream1;
+
+    @Before
+    public void setup() {
+        initMocks(this);
+
+        streams = new LinkedHashSet<>();
+        scheduler = spy(new FileSyncScheduler(streams));
+        doNothing().when(scheduler).executeLoop();
+        doNothing().when(scheduler).parkThread(anyLong());
+        doNothing().when(scheduler).unparkThread(any(Thread.class));
+
+        when(stream0.getSyncIntervalMills()).thenReturn(100);
+        when(stream1.getSyncIntervalMills()).thenReturn(200);
+    }
+
+    @Test
+    public void schedule() {
+        scheduler.schedule(stream0);
+        scheduler.schedule(stream1);
+
+        assertThat(streams).containsExactly(stream0, stream1);
+        // only one loop.
+        verify(scheduler).executeLoop();
+    }
+
+    @Test
+    public void schedule_running_wakeUp() {
+        scheduler.schedule(stream0);
+        final Thread thread = new Thread();
+        scheduler.runThread = thread;
+
+        scheduler.schedule(stream1);
+
+        verify(scheduler).unparkThread(eq(thread));
+    }
+
+    @Test
+    public void remove() {
+        streams.add(stream0);
+
+        scheduler.remove(stream0);
+
+        assertThat(streams).isEmpty();
+        verify(stream0).onUnscheduled();
+    }
+
+    @Test
+    public void tick_noDue() {
+        streams.add(stream0);
+        streams.add(stream1);
+        when(stream0.getNextSyncDelay(10)).thenReturn(30L);
+        when(stream1.getNextSyncDelay(10)).thenReturn(20L);
+
+        assertThat(scheduler.tick(10)).isEqualTo(20L);
+
+        verify(stream0, never()).flushStreams();
+        verify(stream1, never()).flushStreams();
+    }
+
+    @Test
+    public void tick_flushAllBeforePersist() throws IOException {
+        streams.add(stream0);
+        streams.add(stream1);
+        when(stream0.getNextSyncDelay(10)).thenReturn(0L);
+        when(stream1.getNextSyncDelay(10)).thenReturn(-1L);
+
+        assertThat(scheduler.tick(10)).isEqualTo(100L);
+
+        final InOrder inOrder = inOrder(stream0, stream1);
+        inOrder.verify(stream0).prepareSync();
+        inOrder.verify(stream1).prepareSync();
+        inOrder.verify(stream0).flushStreams();
+        inOrder.verify(stream1).flushStreams();
+        inOrder.verify(stream0).persistSyncedLength();
+        inOrder.verify(stream1).persistSyncedLength();
+        inOrder.verify(stream0).completeSync();
+        inOrder.verify(stream1).completeSync();
+        assertThat(streams).containsExactly(stream0, stream1);
+    }
+
+    @Test
+    public void tick_noMoreStream_remove() {
+        streams.add(stream0);
+        when(stream0.getNextSyncDelay(10)).thenReturn(0L);
+        when(stream0.isNoMoreStreamOnSync()).thenReturn(true);
+
+        assertThat(scheduler.tick(10)).isEqualTo(Long.MAX_VALUE);
+
+        assertThat(streams).isEmpty();
+        verify(stream0).onUnscheduled();
+        verify(stream0).completeSync();
+    }
+
+    @Test
+    public void tick_persistFailed_remove() throws IOException {
+        streams.add(stream0);
+        streams.add(stream1);
+        when(stream0.getNextSyncDelay(10)).thenReturn(0L);
+        when(stream1.getNextSyncDelay(10)).thenReturn(0L);
+        final IOException exception = new IOException();
+        doThrow(exception).when(stream0).persistSyncedLength();
+
+        scheduler.tick(10);
+
+        assertThat(stream0.syncException).isEqualTo(exception);
+        assertThat(streams).containsExactly(stream1);
+        verify(stream0).completeSync();
+        verify(stream1).persistSyncedLength();
+    }
+
+    @Test
+    public void tick_storeThrowsRuntimeException_onlyRemoveThatStream() throws IOException {
+        streams.add(stream0);
+        streams.add(stream1);
+        when(stream0.getNextSyncDelay(10)).thenReturn(0L);
+        when(stream1.getNextSyncDelay(10)).thenReturn(0L);
+        // such as SQLiteFullException thrown by the store.
+        final RuntimeException exception = new IllegalStateException();
+        doThrow(exception).when(stream0).persistSyncedLength();
+
+        assertThat(scheduler.tick(10)).isEqualTo(200L);
+
+        assertThat(stream0.syncException.getCause()).isEqualTo(exception);
+        assertThat(stream1.syncException).isNull();
+        assertThat(streams).containsExactly(stream1);
+        verify(stream0).onUnscheduled();
+        verify(stream0).completeSync();
+        verify(stream1).persistSyncedLength();
+        verify(stream1).completeSync();
+    }
+
+    @Test
+    public void tick_flushThrowsRuntimeException_onlyRemoveThatStream() throws IOException {
+        streams.add(stream0);
+        streams.add(stream1);
+        when(stream0.getNextSyncDelay(10)).thenReturn(0L);
+        when(stream1.getNextSyncDelay(10)).thenReturn(0L);
+        final RuntimeException exception = new IllegalStateException();
+        doThrow(exception).when(stream0).flushStreams();
+
+        scheduler.tick(10);
+
+        assertThat(stream0.syncException.getCause()).isEqualTo(exception);
+        assertThat(streams).containsExactly(stream1);
+        verify(stream0, never()).persistSyncedLength();
+        verify(stream1).flushStreams();
+        verify(stream1).persistSyncedLength();
+    }
+
+    @Test
+    public void tick_batchSyncStore_persistInOneBatch() throws IOException {
+        final DownloadStore store = mock(DownloadStore.class,
+                withSettings().extraInterfaces(BatchSyncStore.class));
+        final BatchSyncStore batchStore = (BatchSyncStore) store;
+        streams.add(stream0);
+        streams.add(stream1);
+        when(stream0.getNextSyncDelay(10)).thenReturn(0L);
+        when(stream1.getNextSyncDelay(10)).thenReturn(0L);
+        when(stream0.getStore()).thenReturn(store);
+        when(stream1.getStore()).thenReturn(store);
+
+        scheduler.tick(10);
+
+        final InOrder inOrder = inOrder(batchStore, stream0, stream1);
+        inOrder.verify(batchStore).beginSyncBatch();
+        inOrder.verify(stream0).persistSyncedLength();
+        inOrder.verify(stream1).persistSyncedLength();
+        inOrder.verify(batchStore).endSyncBatch();
+        assertThat(streams).containsExactly(stream0, stream1);
+    }
+
+    @Test
+    public void tick_batchSyncStore_endFailed_removeStreamsInBatch() throws IOException {
+        final DownloadStore store = mock(DownloadStore.class,
+                withSettings().extraInterfaces(BatchSyncStore.class));
+        final BatchSyncStore batchStore = (BatchSyncStore) store;
+        streams.add(stream0);
+        streams.add(stream1);
+        when(stream0.getNextSyncDelay(10)).thenReturn(0L);
+        when(stream1.getNextSyncDelay(10)).thenReturn(0L);
+        when(stream0.getStore()).thenReturn(store);
+        when(stream1.getStore()).thenReturn(mock(DownloadStore.class));
+        final RuntimeException exception = new IllegalStateException();
+        doThrow(exception).when(batchStore).endSyncBatch();
+
+        scheduler.tick(10);
+
+        assertThat(stream0.syncException.getCause()).isEqualTo(exception);
+        assertThat(stream1.syncException).isNull();
+        assertThat(streams).containsExactly(stream1);
+    }
+
+    @Test
+    public void runLoop_tickFailed_keepRunning() throws IOException {
+        streams.add(stream0);
+        when(stream0.getNextSyncDelay(anyLong()))
+                .thenThrow(new IllegalStateException()).thenReturn(0L);
+        when(stream0.isNoMoreStreamOnSync()).thenReturn(true);
+        scheduler.schedule(stream0);
+
+        scheduler.runLoop();
+
+        verify(stream0).persistSyncedLength();
+        assertThat(streams).isEmpty();
+        assertThat(scheduler.runThread).isNull();
+    }
+
+    @Test
+    public void runLoop() {
+        streams.add(stream0);
+        when(stream0.getNextSyncDelay(anyLong())).thenReturn(0L);
+        when(stream0.isNoMoreStreamOnSync()).thenReturn(false, true);
+        scheduler.schedule(stream0);
+
+        scheduler.runLoop();
+
+        verify(scheduler).parkThread(eq(100L));
+        assertThat(streams).isEmpty();
+        assertThat(scheduler.runThread).isNull();
+
+        // start a new loop for the next one.
+        scheduler.schedule(stream1);
+        verify(scheduler, times(2)).executeLoop();
+    }
+}
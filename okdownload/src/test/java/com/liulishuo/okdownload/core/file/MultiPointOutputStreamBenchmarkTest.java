@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.file;
+
+import com.liulishuo.okdownload.DownloadTask;
+import com.liulishuo.okdownload.core.Util;
+import com.liulishuo.okdownload.core.breakpoint.BlockInfo;
+import com.liulishuo.okdownload.core.breakpoint.BreakpointInfo;
+import com.liulishuo.okdownload.core.breakpoint.BreakpointStoreOnCache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+import static com.liulishuo.okdownload.TestUtils.mockOkDownload;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The benchmark of the bytes allocated by the sync of the output stream, it's skipped unless
+ * running with {@code ./gradlew :okdownload:testDebugUnitTest -Pbenchmark}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class MultiPointOutputStreamBenchmarkTest {
+
+    private static final int BLOCK_COUNT = 5;
+    private static final int WARM_UP_COUNT = 10000;
+    private static final int SYNC_COUNT = 100000;
+    private static final long BLOCK_LENGTH = 1024 * 1024 * 1024;
+
+    private MultiPointOutputStream multiPointOutputStream;
+    private BreakpointInfo info;
+
+    @Before
+    public void setup() throws IOException {
+        assumeTrue(Boolean.getBoolean("okdownload.benchmark"));
+        assumeTrue(allocatedBytes() >= 0);
+        mockOkDownload();
+        Util.setLogger(new Util.EmptyLogger());
+
+        final DownloadTask task = new DownloadTask.Builder("https://jacksgong.com", "p-path",
+                "filename").build();
+        final BreakpointStoreOnCache store = new BreakpointStoreOnCache();
+        info = store.createAndInsert(task);
+        for (int blockIndex = 0; blockIndex < BLOCK_COUNT; blockIndex++) {
+            info.addBlock(new BlockInfo(blockIndex * BLOCK_LENGTH, BLOCK_LENGTH));
+        }
+
+        multiPointOutputStream = new MultiPointOutputStream(task, info, store,
+                new FileSyncScheduler());
+        final DownloadOutputStream outputStream = new DownloadOutputStream() {
+            @Override public void write(byte[] b, int off, int len) { }
+
+            @Override public void close() { }
+
+            @Override public void flushAndSync() { }
+
+            @Override public void seek(long offset) { }
+
+            @Override public void setLength(long newLength) { }
+        };
+        for (int blockIndex = 0; blockIndex < BLOCK_COUNT; blockIndex++) {
+            multiPointOutputStream.outputStreams.set(blockIndex, outputStream);
+        }
+    }
+
+    @Test
+    public void sync() throws IOException {
+        sync(WARM_UP_COUNT);
+
+        final long startBytes = allocatedBytes();
+        final long start = System.nanoTime();
+        sync(SYNC_COUNT);
+        final long syncNanos = System.nanoTime() - start;
+        final long syncBytes = allocatedBytes() - startBytes;
+
+        assertThat(info.getBlock(0).getCurrentOffset()).isEqualTo(WARM_UP_COUNT + SYNC_COUNT);
+        assertThat(multiPointOutputStream.allNoSyncLength.get()).isZero();
+
+        System.out.println("MultiPointOutputStream: sync " + SYNC_COUNT + " times with "
+                + BLOCK_COUNT + " blocks in " + syncNanos / 1000000 + "ms, allocate "
+                + syncBytes + " bytes (" + (double) syncBytes / SYNC_COUNT + " bytes per sync)");
+    }
+
+    private void sync(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            // the bytes written to each block since the last sync.
+            for (int blockIndex = 0; blockIndex < BLOCK_COUNT; blockIndex++) {
+                multiPointOutputStream.noSyncLengths.addAndGet(blockIndex, 1);
+            }
+            multiPointOutputStream.allNoSyncLength.addAndGet(BLOCK_COUNT);
+
+            multiPointOutputStream.flushProcess();
+        }
+    }
+
+    /**
+     * @return the bytes allocated on the current thread, or {@code -1} if it isn't supported on
+     * this JVM. The management API isn't on the android bootclasspath, so it's reached through
+     * the reflection.
+     */
+    private static long allocatedBytes() {
+        try {
+            final Object threadBean = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getThreadMXBean").invoke(null);
+            final Method method = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) method.invoke(threadBean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
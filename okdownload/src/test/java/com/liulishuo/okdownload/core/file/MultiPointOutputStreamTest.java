@@ -22,10 +22,13 @@ import android.os.StatFs;
 
 import com.liulishuo.okdownload.DownloadTask;
 import com.liulishuo.okdownload.OkDownload;
+import com.liulishuo.okdownload.core.breakpoint.BatchSyncStore;
 import com.liulishuo.okdownload.core.breakpoint.BlockInfo;
 import com.liulishuo.okdownload.core.breakpoint.BreakpointInfo;
 import com.liulishuo.okdownload.core.breakpoint.DownloadStore;
 import com.liulishuo.okdownload.core.cause.EndCause;
+import com.liulishuo.okdownload.core.connection.DownloadConnection;
+import com.liulishuo.okdownload.core.exception.InterruptException;
 import com.liulishuo.okdownload.core.exception.PreAllocateException;
 
 import org.junit.After;
@@ -36,26 +39,36 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.liulishuo.okdownload.TestUtils.mockOkDownload;
 import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
@@ -65,11 +78,12 @@ import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.robolectric.RuntimeEnvironment.application;
 import static org.robolectric.annotation.Config.NONE;
 
-@RunWith(RobolectricTestRunner.class) // for sparseArray.
+@RunWith(RobolectricTestRunner.class)
 @Config(manifest = NONE)
 public class MultiPointOutputStreamTest {
 
@@ -84,14 +98,10 @@ public class MultiPointOutputStreamTest {
     @Mock
     private DownloadStore store;
     @Mock
-    private Runnable syncRunnable;
+    private FileSyncScheduler syncScheduler;
 
     @Mock
     private DownloadOutputStream stream0;
-    @Mock
-    private Future syncFuture;
-    @Mock
-    private Thread runSyncThread;
 
     final byte[] bytes = new byte[6];
 
@@ -104,12 +114,11 @@ public class MultiPointOutputStreamTest {
     public void setup() {
         when(OkDownload.with().context()).thenReturn(application);
         initMocks(this);
+        when(info.getBlockCount()).thenReturn(3);
         when(task.getFile()).thenReturn(existFile);
         when(task.getParentFile()).thenReturn(new File(parentPath));
-        multiPointOutputStream = spy(new MultiPointOutputStream(task, info, store, syncRunnable));
-        doReturn(syncFuture).when(multiPointOutputStream).executeSyncRunnableAsync();
-        multiPointOutputStream.syncFuture = syncFuture;
-        multiPointOutputStream.runSyncThread = runSyncThread;
+        multiPointOutputStream = spy(new MultiPointOutputStream(task, info, store, syncScheduler));
+        multiPointOutputStream.scheduled.set(true);
     }
 
     @After
@@ -128,17 +137,38 @@ public class MultiPointOutputStreamTest {
         doReturn(stream0).when(multiPointOutputStream).outputStream(anyInt());
         doNothing().when(multiPointOutputStream).inspectAndPersist();
 
-        multiPointOutputStream.noSyncLengthMap.put(1, new AtomicLong());
-        multiPointOutputStream.noSyncLengthMap.put(2, new AtomicLong());
-
         multiPointOutputStream.write(2, bytes, 16);
 
         verify(stream0).write(eq(bytes), eq(0), eq(16));
 
         assertThat(multiPointOutputStream.allNoSyncLength.get()).isEqualTo(16);
-        assertThat(multiPointOutputStream.noSyncLengthMap.get(1).get()).isEqualTo(0);
-        assertThat(multiPointOutputStream.noSyncLengthMap.get(2).get()).isEqualTo(16);
+        assertThat(multiPointOutputStream.noSyncLengths.get(1)).isEqualTo(0);
+        assertThat(multiPointOutputStream.noSyncLengths.get(2)).isEqualTo(16);
+
+        verify(multiPointOutputStream).inspectAndPersist();
+    }
 
+    @Test
+    public void write_transferable() throws IOException {
+        doReturn(stream0).when(multiPointOutputStream).outputStream(anyInt());
+        doNothing().when(multiPointOutputStream).inspectAndPersist();
+        final DownloadConnection.Transferable transferable =
+                mock(DownloadConnection.Transferable.class);
+        doAnswer(new Answer<Void>() {
+            @Override public Void answer(InvocationOnMock invocation) throws IOException {
+                final OutputStream out = invocation.getArgument(0);
+                out.write(bytes, 0, 10);
+                out.write(bytes, 10, 6);
+                return null;
+            }
+        }).when(transferable).transferTo(any(OutputStream.class), eq(16));
+
+        multiPointOutputStream.write(2, transferable, 16);
+
+        verify(stream0).write(eq(bytes), eq(0), eq(10));
+        verify(stream0).write(eq(bytes), eq(10), eq(6));
+        assertThat(multiPointOutputStream.allNoSyncLength.get()).isEqualTo(16);
+        assertThat(multiPointOutputStream.noSyncLengths.get(2)).isEqualTo(16);
         verify(multiPointOutputStream).inspectAndPersist();
     }
 
@@ -153,42 +183,91 @@ public class MultiPointOutputStreamTest {
     }
 
     @Test
-    public void cancel_syncNotRun_withSyncFutureIsNull() throws IOException {
-        multiPointOutputStream.requireStreamBlocks = new ArrayList<Integer>() {{
-            add(0);
-            add(1);
-        }};
-        multiPointOutputStream.allNoSyncLength.set(1);
-        doNothing().when(multiPointOutputStream).close(anyInt());
-        doNothing().when(multiPointOutputStream).ensureSync(true, -1);
-        multiPointOutputStream.syncFuture = null;
-
+    public void write_raceWithSyncAndCancel_oneAccessAtATime() throws Exception {
+        final ExclusiveOutputStream outputStream = new ExclusiveOutputStream();
+        multiPointOutputStream.outputStreams.set(0, outputStream);
+        multiPointOutputStream.requireStreamBlocks = Collections.singletonList(0);
+        doNothing().when(multiPointOutputStream).inspectAndPersist();
+        doNothing().when(multiPointOutputStream).ensureSync();
         final ProcessFileStrategy strategy = OkDownload.with().processFileStrategy();
-        final FileLock fileLock = mock(FileLock.class);
-        when(strategy.getFileLock()).thenReturn(fileLock);
-
+        when(strategy.getFileLock()).thenReturn(mock(FileLock.class));
+
+        final CountDownLatch written = new CountDownLatch(1);
+        final AtomicReference<Throwable> writeError = new AtomicReference<>();
+        final Thread writer = new Thread(new Runnable() {
+            @Override public void run() {
+                try {
+                    while (!multiPointOutputStream.canceled) {
+                        multiPointOutputStream.write(0, bytes, bytes.length);
+                        written.countDown();
+                    }
+                } catch (Throwable e) {
+                    writeError.set(e);
+                }
+            }
+        });
+        writer.start();
+        written.await();
+
+        // the sync loop flushes the output stream while the block thread is writing.
+        for (int i = 0; i < 1000; i++) {
+            multiPointOutputStream.flushStreams();
+        }
         multiPointOutputStream.cancel();
+        writer.join();
+
+        assertThat(writeError.get()).isNull();
+        assertThat(outputStream.closed.get()).isTrue();
+        assertThat(outputStream.overlapped.get()).isFalse();
+        assertThat(outputStream.accessAfterClosed.get()).isFalse();
+    }
+
+    // records whether it's accessed by more than one thread at a time or after closed.
+    private static class ExclusiveOutputStream implements DownloadOutputStream {
+        final AtomicInteger accessing = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final AtomicBoolean closed = new AtomicBoolean();
+        final AtomicBoolean accessAfterClosed = new AtomicBoolean();
+
+        private void access() {
+            if (closed.get()) accessAfterClosed.set(true);
+            if (accessing.incrementAndGet() > 1) overlapped.set(true);
+            // widen the window for the other thread.
+            Thread.yield();
+            accessing.decrementAndGet();
+        }
 
-        assertThat(multiPointOutputStream.noMoreStreamList).containsExactly(0, 1);
-        verify(multiPointOutputStream, never()).ensureSync(eq(true), eq(-1));
-        verify(multiPointOutputStream).close(eq(0));
-        verify(multiPointOutputStream).close(eq(1));
-        verify(fileLock, never()).increaseLock(eq(existFile.getAbsolutePath()));
-        verify(fileLock, never()).decreaseLock(eq(existFile.getAbsolutePath()));
-        verify(store).onTaskEnd(eq(task.getId()), eq(EndCause.CANCELED), nullable(Exception.class));
+        @Override public void write(byte[] b, int off, int len) {
+            access();
+        }
+
+        @Override public void close() {
+            access();
+            closed.set(true);
+        }
+
+        @Override public void flushAndSync() {
+            access();
+        }
+
+        @Override public void seek(long offset) {
+            access();
+        }
+
+        @Override public void setLength(long newLength) {
+            access();
+        }
     }
 
     @Test
-    public void cancel_syncNotRun_withSyncFutureHasDone() throws IOException {
+    public void cancel_syncNotRun_notScheduled() throws IOException {
         multiPointOutputStream.requireStreamBlocks = new ArrayList<Integer>() {{
             add(0);
             add(1);
         }};
         multiPointOutputStream.allNoSyncLength.set(1);
+        multiPointOutputStream.scheduled.set(false);
         doNothing().when(multiPointOutputStream).close(anyInt());
-        doNothing().when(multiPointOutputStream).ensureSync(true, -1);
-        multiPointOutputStream.syncFuture = mock(Future.class);
-        when(multiPointOutputStream.syncFuture.isDone()).thenReturn(true);
 
         final ProcessFileStrategy strategy = OkDownload.with().processFileStrategy();
         final FileLock fileLock = mock(FileLock.class);
@@ -196,8 +275,10 @@ public class MultiPointOutputStreamTest {
 
         multiPointOutputStream.cancel();
 
-        assertThat(multiPointOutputStream.noMoreStreamList).containsExactly(0, 1);
-        verify(multiPointOutputStream, never()).ensureSync(eq(true), eq(-1));
+        assertThat(multiPointOutputStream.noMoreStreamBlocks.get(0)).isTrue();
+        assertThat(multiPointOutputStream.noMoreStreamBlocks.get(1)).isTrue();
+        verify(multiPointOutputStream, never()).ensureSync();
+        verify(syncScheduler).remove(eq(multiPointOutputStream));
         verify(multiPointOutputStream).close(eq(0));
         verify(multiPointOutputStream).close(eq(1));
         verify(fileLock, never()).increaseLock(eq(existFile.getAbsolutePath()));
@@ -214,10 +295,11 @@ public class MultiPointOutputStreamTest {
 
         multiPointOutputStream.cancel();
 
-        verify(multiPointOutputStream, never()).ensureSync(anyBoolean(), anyInt());
+        verify(multiPointOutputStream, never()).ensureSync();
         verify(fileLock, never()).increaseLock(eq(existFile.getAbsolutePath()));
         verify(fileLock, never()).decreaseLock(eq(existFile.getAbsolutePath()));
         verify(multiPointOutputStream, never()).close(anyInt());
+        verify(syncScheduler, never()).remove(any(MultiPointOutputStream.class));
         verify(store, never()).onTaskEnd(anyInt(), any(EndCause.class), any(Exception.class));
     }
 
@@ -231,8 +313,8 @@ public class MultiPointOutputStreamTest {
 
         multiPointOutputStream.cancel();
 
-        assertThat(multiPointOutputStream.noMoreStreamList).hasSize(0);
-        verify(multiPointOutputStream, never()).ensureSync(anyBoolean(), anyInt());
+        assertThat(multiPointOutputStream.noMoreStreamBlocks.cardinality()).isZero();
+        verify(multiPointOutputStream, never()).ensureSync();
         verify(fileLock, never()).increaseLock(eq(existFile.getAbsolutePath()));
         verify(fileLock, never()).decreaseLock(eq(existFile.getAbsolutePath()));
         verify(multiPointOutputStream, never()).close(anyInt());
@@ -245,8 +327,6 @@ public class MultiPointOutputStreamTest {
             add(0);
             add(1);
         }};
-        multiPointOutputStream.noSyncLengthMap.put(0, new AtomicLong());
-        multiPointOutputStream.noSyncLengthMap.put(1, new AtomicLong());
         multiPointOutputStream.allNoSyncLength.set(1);
 
         final ProcessFileStrategy strategy = OkDownload.with().processFileStrategy();
@@ -254,12 +334,14 @@ public class MultiPointOutputStreamTest {
         when(strategy.getFileLock()).thenReturn(fileLock);
 
         doNothing().when(multiPointOutputStream).close(anyInt());
-        doNothing().when(multiPointOutputStream).ensureSync(true, -1);
+        doNothing().when(multiPointOutputStream).ensureSync();
 
         multiPointOutputStream.cancel();
 
-        assertThat(multiPointOutputStream.noMoreStreamList).containsExactly(0, 1);
-        verify(multiPointOutputStream).ensureSync(eq(true), eq(-1));
+        assertThat(multiPointOutputStream.noMoreStreamBlocks.get(0)).isTrue();
+        assertThat(multiPointOutputStream.noMoreStreamBlocks.get(1)).isTrue();
+        verify(multiPointOutputStream).ensureSync();
+        verify(syncScheduler).remove(eq(multiPointOutputStream));
         verify(multiPointOutputStream).close(eq(0));
         verify(multiPointOutputStream).close(eq(1));
         verify(fileLock).increaseLock(eq(existFile.getAbsolutePath()));
@@ -268,93 +350,120 @@ public class MultiPointOutputStreamTest {
     }
 
     @Test
-    public void ensureSync_syncJobNotRunYet() {
-        multiPointOutputStream.syncFuture = null;
-        multiPointOutputStream.ensureSync(true, -1);
-        verify(multiPointOutputStream, never()).unparkThread(any(Thread.class));
-        verify(multiPointOutputStream, never()).parkThread();
-        assertThat(multiPointOutputStream.parkedRunBlockThreadMap.size()).isZero();
+    public void ensureSync() throws ExecutionException, InterruptedException {
+        final Future future = mock(Future.class);
+        doReturn(future).when(multiPointOutputStream).requestSync();
 
-        multiPointOutputStream.syncFuture = syncFuture;
-        when(syncFuture.isDone()).thenReturn(true);
-        multiPointOutputStream.ensureSync(true, -1);
-        verify(multiPointOutputStream, never()).unparkThread(any(Thread.class));
-        verify(multiPointOutputStream, never()).parkThread();
-        assertThat(multiPointOutputStream.parkedRunBlockThreadMap.size()).isZero();
+        multiPointOutputStream.ensureSync();
+
+        verify(future).get();
     }
 
     @Test
-    public void ensureSync_noMoreStream() throws ExecutionException, InterruptedException {
-        doNothing().when(multiPointOutputStream).unparkThread(nullable(Thread.class));
-        doNothing().when(multiPointOutputStream).parkThread();
-        doNothing().when(multiPointOutputStream).parkThread(25);
+    public void requestSync_scheduled() {
+        final Future future = multiPointOutputStream.requestSync();
 
-        multiPointOutputStream.ensureSync(true, -1);
+        assertThat(future.isDone()).isFalse();
+        assertThat(multiPointOutputStream.requestSync()).isSameAs(future);
+        verify(syncScheduler, times(2)).wakeUp();
 
-        verify(multiPointOutputStream, times(2)).unparkThread(eq(runSyncThread));
-        verify(syncFuture).get();
-        verify(multiPointOutputStream, never()).parkThread();
-        assertThat(multiPointOutputStream.parkedRunBlockThreadMap.size()).isZero();
+        // woken by the sync scheduler.
+        multiPointOutputStream.prepareSync();
+        multiPointOutputStream.completeSync();
+        assertThat(future.isDone()).isTrue();
+        assertThat(multiPointOutputStream.syncWaiter.get()).isNull();
     }
 
     @Test
-    public void ensureSync_notNoMoreStream() {
-        doNothing().when(multiPointOutputStream).unparkThread(nullable(Thread.class));
-        doNothing().when(multiPointOutputStream).parkThread();
-        doNothing().when(multiPointOutputStream).parkThread(25);
+    public void requestSync_notScheduled_completeDirectly() {
+        multiPointOutputStream.scheduled.set(false);
 
-        multiPointOutputStream.ensureSync(false, 1);
+        final Future future = multiPointOutputStream.requestSync();
 
-        verify(multiPointOutputStream).unparkThread(eq(runSyncThread));
-        verify(multiPointOutputStream).parkThread();
-        assertThat(multiPointOutputStream.parkedRunBlockThreadMap.size()).isOne();
-        assertThat(multiPointOutputStream.parkedRunBlockThreadMap.get(1))
-                .isEqualTo(Thread.currentThread());
+        assertThat(future.isDone()).isTrue();
+        assertThat(multiPointOutputStream.syncWaiter.get()).isNull();
+        verify(syncScheduler, never()).wakeUp();
     }
 
     @Test
-    public void ensureSync_loop() {
-        doNothing().when(multiPointOutputStream).unparkThread(nullable(Thread.class));
-        doNothing().when(multiPointOutputStream).parkThread();
-        doNothing().when(multiPointOutputStream).parkThread(25);
-        multiPointOutputStream.runSyncThread = null;
-        when(multiPointOutputStream.isRunSyncThreadValid()).thenReturn(false, true);
+    public void onUnscheduled() {
+        final Future future = multiPointOutputStream.requestSync();
+
+        multiPointOutputStream.onUnscheduled();
+
+        assertThat(multiPointOutputStream.scheduled.get()).isFalse();
+        assertThat(future.isDone()).isTrue();
+    }
+
+    @Test
+    public void prepareSync() {
+        multiPointOutputStream.requireStreamBlocks = new ArrayList<Integer>() {{
+            add(0);
+            add(1);
+        }};
+        final Future future = multiPointOutputStream.requestSync();
+        multiPointOutputStream.noMoreStreamBlocks.set(0);
+
+        multiPointOutputStream.prepareSync();
+        assertThat(multiPointOutputStream.isNoMoreStreamOnSync()).isFalse();
+        // the waiter comes after preparing is left to the next sync.
+        final Future nextFuture = multiPointOutputStream.requestSync();
+        multiPointOutputStream.noMoreStreamBlocks.set(1);
+        multiPointOutputStream.completeSync();
 
-        multiPointOutputStream.ensureSync(false, 1);
+        assertThat(future.isDone()).isTrue();
+        assertThat(nextFuture.isDone()).isFalse();
+        assertThat(multiPointOutputStream.isNoMoreStreamOnSync()).isFalse();
 
-        verify(multiPointOutputStream).parkThread(eq(25L));
-        verify(multiPointOutputStream).unparkThread(nullable(Thread.class));
+        multiPointOutputStream.prepareSync();
+        assertThat(multiPointOutputStream.isNoMoreStreamOnSync()).isTrue();
+        multiPointOutputStream.completeSync();
+        assertThat(nextFuture.isDone()).isTrue();
     }
 
     @Test
-    public void done_noMoreStream() throws IOException {
+    public void done_ensureSync() throws IOException {
         doNothing().when(multiPointOutputStream).close(1);
-        doNothing().when(multiPointOutputStream).ensureSync(true, 1);
-        doNothing().when(multiPointOutputStream)
-                .inspectStreamState(multiPointOutputStream.doneState);
-        multiPointOutputStream.noSyncLengthMap.put(1, new AtomicLong(10));
-        multiPointOutputStream.doneState.isNoMoreStream = true;
+        doNothing().when(multiPointOutputStream).ensureSync();
+        multiPointOutputStream.noSyncLengths.set(1, 10);
 
         multiPointOutputStream.done(1);
 
-        assertThat(multiPointOutputStream.noMoreStreamList).containsExactly(1);
-        verify(multiPointOutputStream).ensureSync(eq(true), eq(1));
+        assertThat(multiPointOutputStream.noMoreStreamBlocks.cardinality()).isOne();
+        assertThat(multiPointOutputStream.noMoreStreamBlocks.get(1)).isTrue();
+        verify(multiPointOutputStream).ensureSync();
         verify(multiPointOutputStream).close(eq(1));
     }
 
     @Test
-    public void done_notNoMoreStream() throws IOException {
+    public void done_noSyncLength_noEnsureSync() throws IOException {
         doNothing().when(multiPointOutputStream).close(1);
-        doNothing().when(multiPointOutputStream).ensureSync(false, 1);
-        doNothing().when(multiPointOutputStream)
-                .inspectStreamState(multiPointOutputStream.doneState);
-        multiPointOutputStream.noSyncLengthMap.put(1, new AtomicLong(10));
-        multiPointOutputStream.doneState.isNoMoreStream = false;
 
         multiPointOutputStream.done(1);
 
-        assertThat(multiPointOutputStream.noMoreStreamList).containsExactly(1);
-        verify(multiPointOutputStream).ensureSync(eq(false), eq(1));
+        assertThat(multiPointOutputStream.noMoreStreamBlocks.get(1)).isTrue();
+        verify(multiPointOutputStream, never()).ensureSync();
+        verify(multiPointOutputStream).close(eq(1));
+    }
+
+    @Test
+    public void done_ensureSyncFailed() throws IOException {
+        doNothing().when(multiPointOutputStream).close(1);
+        final IOException exception = new IOException();
+        doAnswer(new Answer() {
+            @Override public Object answer(InvocationOnMock invocation) {
+                multiPointOutputStream.syncException = exception;
+                return null;
+            }
+        }).when(multiPointOutputStream).ensureSync();
+        multiPointOutputStream.noSyncLengths.set(1, 10);
+
+        try {
+            multiPointOutputStream.done(1);
+            fail("the failure of the sync is raised");
+        } catch (IOException e) {
+            assertThat(e).isEqualTo(exception);
+        }
         verify(multiPointOutputStream).close(eq(1));
     }
 
@@ -367,108 +476,129 @@ public class MultiPointOutputStreamTest {
     @Test
     public void done_syncNotRun() throws IOException {
         doNothing().when(multiPointOutputStream).close(1);
-        multiPointOutputStream.noSyncLengthMap.put(1, new AtomicLong(10));
-        multiPointOutputStream.syncFuture = null;
+        multiPointOutputStream.noSyncLengths.set(1, 10);
+        multiPointOutputStream.scheduled.set(false);
 
         multiPointOutputStream.done(1);
 
-        assertThat(multiPointOutputStream.noMoreStreamList).containsExactly(1);
-        verify(multiPointOutputStream, never()).ensureSync(eq(false), eq(1));
+        assertThat(multiPointOutputStream.noMoreStreamBlocks.cardinality()).isOne();
+        assertThat(multiPointOutputStream.noMoreStreamBlocks.get(1)).isTrue();
+        verify(multiPointOutputStream, never()).ensureSync();
         verify(multiPointOutputStream).close(eq(1));
     }
 
     @Test
-    public void runSyncDelayException() throws IOException {
-        final IOException exception = mock(IOException.class);
-        doThrow(exception).when(multiPointOutputStream).runSync();
+    public void isNoMoreStream() {
+        assertThat(multiPointOutputStream.isNoMoreStream()).isFalse();
 
-        multiPointOutputStream.runSyncDelayException();
-        assertThat(multiPointOutputStream.syncException).isEqualTo(exception);
+        multiPointOutputStream.requireStreamBlocks = new ArrayList<Integer>() {{
+            add(0);
+            add(1);
+        }};
+        multiPointOutputStream.noMoreStreamBlocks.set(1);
+        assertThat(multiPointOutputStream.isNoMoreStream()).isFalse();
+
+        multiPointOutputStream.noMoreStreamBlocks.set(0);
+        assertThat(multiPointOutputStream.isNoMoreStream()).isTrue();
     }
 
     @Test
-    public void runSync() throws IOException {
-        final MultiPointOutputStream.StreamsState state =
-                spy(new MultiPointOutputStream.StreamsState());
-        multiPointOutputStream.state = state;
-
-        when(state.isStreamsEndOrChanged()).thenReturn(false, false, false, true);
-        doNothing().when(multiPointOutputStream).parkThread(anyLong());
-        doNothing().when(multiPointOutputStream).unparkThread(any(Thread.class));
-        doNothing().when(multiPointOutputStream).flushProcess();
-        doNothing().when(multiPointOutputStream).inspectStreamState(state);
-
-        final Thread thread0 = mock(Thread.class);
-        final Thread thread1 = mock(Thread.class);
-        multiPointOutputStream.parkedRunBlockThreadMap.put(0, thread0);
-        multiPointOutputStream.parkedRunBlockThreadMap.put(1, thread1);
-        multiPointOutputStream.allNoSyncLength.set(1);
-        state.newNoMoreStreamBlockList.add(0);
-        state.newNoMoreStreamBlockList.add(1);
-        state.isNoMoreStream = true;
+    public void getNextSyncDelay() {
+        when(task.getSyncBufferSize()).thenReturn(10);
+        when(task.getSyncBufferIntervalMills()).thenReturn(100);
+        multiPointOutputStream = spy(new MultiPointOutputStream(task, info, store, syncScheduler));
+        multiPointOutputStream.lastSyncTimestamp.set(1000);
 
-        when(multiPointOutputStream.isNoNeedFlushForLength()).thenReturn(true, false);
-        when(multiPointOutputStream.getNextParkMillisecond()).thenReturn(1L, -1L);
+        // not enough bytes.
+        multiPointOutputStream.allNoSyncLength.set(9);
+        assertThat(multiPointOutputStream.getNextSyncDelay(1050)).isEqualTo(100L);
 
-        multiPointOutputStream.runSync();
+        // enough bytes but not reach the interval.
+        multiPointOutputStream.allNoSyncLength.set(10);
+        assertThat(multiPointOutputStream.getNextSyncDelay(1050)).isEqualTo(50L);
+        assertThat(multiPointOutputStream.getNextSyncDelay(1100)).isZero();
 
-        // first default + scheduler one + last one.
-        verify(multiPointOutputStream, times(3)).flushProcess();
-        assertThat(multiPointOutputStream.parkedRunBlockThreadMap.size()).isZero();
-        verify(multiPointOutputStream).unparkThread(eq(thread0));
-        verify(multiPointOutputStream).unparkThread(eq(thread1));
+        // requested by the waiter.
+        multiPointOutputStream.allNoSyncLength.set(0);
+        multiPointOutputStream.scheduled.set(true);
+        multiPointOutputStream.requestSync();
+        assertThat(multiPointOutputStream.getNextSyncDelay(1050)).isZero();
     }
 
     @Test
-    public void isNoNeedFlushForLength() {
-        multiPointOutputStream.allNoSyncLength.set(0);
-        // syncBufferSize is 0.
-        assertThat(multiPointOutputStream.isNoNeedFlushForLength()).isFalse();
-        multiPointOutputStream.allNoSyncLength.set(-1);
-        assertThat(multiPointOutputStream.isNoNeedFlushForLength()).isTrue();
+    public void getNextSyncDelay_noMoreStream() {
+        doReturn(true).when(multiPointOutputStream).isNoMoreStream();
+        assertThat(multiPointOutputStream.getNextSyncDelay(0)).isZero();
     }
 
     @Test
-    public void getNextParkMillisecond() {
-        // syncBufferIntervalMills is 0.
-        when(multiPointOutputStream.now()).thenReturn(2L);
-        multiPointOutputStream.lastSyncTimestamp.set(1L);
+    public void flushProcess() throws IOException {
+        when(info.getBlock(1)).thenReturn(mock(BlockInfo.class));
+
+        multiPointOutputStream.allNoSyncLength.addAndGet(10);
+        multiPointOutputStream.noSyncLengths.set(1, 10);
+        final DownloadOutputStream outputStream = mock(DownloadOutputStream.class);
+        multiPointOutputStream.outputStreams.set(1, outputStream);
 
-        assertThat(multiPointOutputStream.getNextParkMillisecond()).isEqualTo(-1L);
+        multiPointOutputStream.flushProcess();
+
+        verify(outputStream).flushAndSync();
+        verify(store).onSyncToFilesystemSuccess(eq(info), eq(1), eq(10L));
+        assertThat(multiPointOutputStream.allNoSyncLength.get()).isZero();
+        assertThat(multiPointOutputStream.noSyncLengths.get(1)).isZero();
+
+        // only persist once for one flush.
+        multiPointOutputStream.persistSyncedLength();
+        verify(store).onSyncToFilesystemSuccess(any(BreakpointInfo.class), anyInt(), anyLong());
     }
 
     @Test
-    public void flushProcess() throws IOException {
-        final DownloadOutputStream outputStream = mock(DownloadOutputStream.class);
-        doReturn(outputStream).when(multiPointOutputStream).outputStream(1);
+    public void flushProcess_batchSyncStore() throws IOException {
+        final DownloadStore store = mock(DownloadStore.class,
+                withSettings().extraInterfaces(BatchSyncStore.class));
+        multiPointOutputStream = spy(new MultiPointOutputStream(task, info, store, syncScheduler));
         when(info.getBlock(1)).thenReturn(mock(BlockInfo.class));
 
         multiPointOutputStream.allNoSyncLength.addAndGet(10);
-        multiPointOutputStream.noSyncLengthMap.put(1, new AtomicLong(10));
-        multiPointOutputStream.outputStreamMap.put(1, mock(DownloadOutputStream.class));
-
+        multiPointOutputStream.noSyncLengths.set(1, 10);
+        final DownloadOutputStream outputStream = mock(DownloadOutputStream.class);
+        multiPointOutputStream.outputStreams.set(1, outputStream);
 
         multiPointOutputStream.flushProcess();
 
-        verify(store).onSyncToFilesystemSuccess(info, 1, 10);
+        verify((BatchSyncStore) store)
+                .onSyncToFilesystemSuccess(eq(info), aryEq(new long[]{0, 10, 0}));
+        verify(store, never()).onSyncToFilesystemSuccess(any(BreakpointInfo.class), anyInt(),
+                anyLong());
         assertThat(multiPointOutputStream.allNoSyncLength.get()).isZero();
-        assertThat(multiPointOutputStream.noSyncLengthMap.get(1).get()).isZero();
+        assertThat(multiPointOutputStream.noSyncLengths.get(1)).isZero();
+    }
+
+    @Test
+    public void flushProcess_flushFailed_noPersist() throws IOException {
+        multiPointOutputStream.allNoSyncLength.addAndGet(10);
+        multiPointOutputStream.noSyncLengths.set(1, 10);
+        final DownloadOutputStream outputStream = mock(DownloadOutputStream.class);
+        doThrow(IOException.class).when(outputStream).flushAndSync();
+        multiPointOutputStream.outputStreams.set(1, outputStream);
+
+        multiPointOutputStream.flushProcess();
+
+        verify(store, never()).onSyncToFilesystemSuccess(any(BreakpointInfo.class), anyInt(),
+                anyLong());
+        assertThat(multiPointOutputStream.allNoSyncLength.get()).isEqualTo(10);
+        assertThat(multiPointOutputStream.noSyncLengths.get(1)).isEqualTo(10);
     }
 
     @Test
     public void inspectAndPersist() throws IOException {
-        final Future newFuture = mock(Future.class);
-        doReturn(newFuture).when(multiPointOutputStream).executeSyncRunnableAsync();
+        multiPointOutputStream.scheduled.set(false);
 
-        multiPointOutputStream.syncFuture = syncFuture;
         multiPointOutputStream.inspectAndPersist();
-        // not change
-        assertThat(multiPointOutputStream.syncFuture).isEqualTo(syncFuture);
-
-        multiPointOutputStream.syncFuture = null;
         multiPointOutputStream.inspectAndPersist();
-        // changed
-        assertThat(multiPointOutputStream.syncFuture).isEqualTo(newFuture);
+
+        assertThat(multiPointOutputStream.scheduled.get()).isTrue();
+        verify(syncScheduler).schedule(eq(multiPointOutputStream));
     }
 
     @Test(expected = IOException.class)
@@ -504,11 +634,11 @@ public class MultiPointOutputStreamTest {
         when(info.getTotalLength()).thenReturn(20L);
         when(info.isChunked()).thenReturn(false);
 
-        assertThat(multiPointOutputStream.outputStreamMap.get(0)).isNull();
+        assertThat(multiPointOutputStream.outputStreams.get(0)).isNull();
         final DownloadOutputStream outputStream = multiPointOutputStream.outputStream(0);
 
         assertThat(outputStream).isNotNull();
-        assertThat(multiPointOutputStream.outputStreamMap.get(0)).isEqualTo(outputStream);
+        assertThat(multiPointOutputStream.outputStreams.get(0)).isEqualTo(outputStream);
         verify(outputStream).seek(eq(10L));
         verify(outputStream).setLength(eq(20L));
         final int id = task.getId();
@@ -520,90 +650,135 @@ public class MultiPointOutputStreamTest {
     public void close_noExist() throws IOException {
         final DownloadOutputStream stream0 = mock(DownloadOutputStream.class);
         final DownloadOutputStream stream1 = mock(DownloadOutputStream.class);
-        multiPointOutputStream.outputStreamMap.put(0, stream0);
-        multiPointOutputStream.outputStreamMap.put(1, stream1);
+        multiPointOutputStream.outputStreams.set(0, stream0);
+        multiPointOutputStream.outputStreams.set(1, stream1);
 
         multiPointOutputStream.close(2);
 
         verify(stream0, never()).close();
         verify(stream1, never()).close();
-        assertThat(multiPointOutputStream.outputStreamMap.size()).isEqualTo(2);
+        assertThat(multiPointOutputStream.outputStreams.get(0)).isEqualTo(stream0);
+        assertThat(multiPointOutputStream.outputStreams.get(1)).isEqualTo(stream1);
     }
 
     @Test
     public void close() throws IOException {
         final DownloadOutputStream stream0 = mock(DownloadOutputStream.class);
         final DownloadOutputStream stream1 = mock(DownloadOutputStream.class);
-        multiPointOutputStream.outputStreamMap.put(0, stream0);
-        multiPointOutputStream.outputStreamMap.put(1, stream1);
+        multiPointOutputStream.outputStreams.set(0, stream0);
+        multiPointOutputStream.outputStreams.set(1, stream1);
 
         multiPointOutputStream.close(1);
 
         verify(stream0, never()).close();
         verify(stream1).close();
-        assertThat(multiPointOutputStream.outputStreamMap.size()).isEqualTo(1);
-        assertThat(multiPointOutputStream.outputStreamMap.get(0)).isEqualTo(stream0);
+        assertThat(multiPointOutputStream.outputStreams.get(1)).isNull();
+        assertThat(multiPointOutputStream.outputStreams.get(0)).isEqualTo(stream0);
     }
 
     @Test
-    public void inspectStreamState() {
-        final MultiPointOutputStream.StreamsState state = new MultiPointOutputStream.StreamsState();
-        multiPointOutputStream.outputStreamMap.put(0, stream0);
-        multiPointOutputStream.outputStreamMap.put(0, stream0);
-        multiPointOutputStream.outputStreamMap.put(1, stream0);
-        multiPointOutputStream.outputStreamMap.put(1, stream0);
-        multiPointOutputStream.requireStreamBlocks = new ArrayList<Integer>() {{
+    public void setRequireStreamBlocks() {
+        assertThat(multiPointOutputStream.requireStreamBlocks).isEqualTo(null);
+        final List<Integer> requireStreamBlocks = new ArrayList<Integer>() {{
             add(0);
             add(1);
+            add(2);
         }};
+        multiPointOutputStream.setRequireStreamBlocks(requireStreamBlocks);
+        assertThat(multiPointOutputStream.requireStreamBlocks).isEqualTo(requireStreamBlocks);
+        assertThat(multiPointOutputStream.noSyncLengths.length()).isEqualTo(3);
+    }
 
-        // no noMoreStreamList
-        multiPointOutputStream.inspectStreamState(state);
-        assertThat(state.isNoMoreStream).isFalse();
-        assertThat(state.noMoreStreamBlockList).isEmpty();
-        assertThat(state.newNoMoreStreamBlockList).isEmpty();
+    @Test
+    public void setRequireStreamBlocks_moreThanBlockCount_resize() {
+        final List<Integer> requireStreamBlocks = new ArrayList<Integer>() {{
+            add(4);
+        }};
+        multiPointOutputStream.setRequireStreamBlocks(requireStreamBlocks);
 
-        // 1 noMoreStreamList
-        multiPointOutputStream.noMoreStreamList.add(1);
-        multiPointOutputStream.inspectStreamState(state);
-        assertThat(state.isNoMoreStream).isFalse();
-        assertThat(state.noMoreStreamBlockList).containsExactly(1);
-        assertThat(state.newNoMoreStreamBlockList).containsExactly(1);
+        assertThat(multiPointOutputStream.outputStreams.length()).isEqualTo(5);
+        assertThat(multiPointOutputStream.noSyncLengths.length()).isEqualTo(5);
+        assertThat(multiPointOutputStream.noMoreStreamBlocks.size()).isEqualTo(5);
+    }
 
-        // 1,0 noMoreStreamList
-        multiPointOutputStream.noMoreStreamList.add(0);
-        multiPointOutputStream.inspectStreamState(state);
-        assertThat(state.isNoMoreStream).isTrue();
-        assertThat(state.noMoreStreamBlockList).containsExactly(1, 0);
-        assertThat(state.newNoMoreStreamBlockList).containsExactly(0);
+    @Test
+    public void setRequireStreamBlocks_resizeAfterRequired_reject() {
+        multiPointOutputStream.setRequireStreamBlocks(new ArrayList<Integer>() {{
+            add(4);
+        }});
+        final AtomicLongArray noSyncLengths = multiPointOutputStream.noSyncLengths;
+
+        // no need to resize.
+        multiPointOutputStream.setRequireStreamBlocks(new ArrayList<Integer>() {{
+            add(3);
+        }});
+        assertThat(multiPointOutputStream.noSyncLengths).isSameAs(noSyncLengths);
 
-        // 1,0 noMoreStreamList again
-        multiPointOutputStream.inspectStreamState(state);
-        assertThat(state.isNoMoreStream).isTrue();
-        assertThat(state.noMoreStreamBlockList).containsExactly(1, 0);
-        assertThat(state.newNoMoreStreamBlockList).isEmpty();
+        thrown.expect(IllegalStateException.class);
+        multiPointOutputStream.setRequireStreamBlocks(new ArrayList<Integer>(), 3);
     }
 
     @Test
-    public void setRequireStreamBlocks() {
-        assertThat(multiPointOutputStream.requireStreamBlocks).isEqualTo(null);
+    public void setRequireStreamBlocks_resizeAfterWritten_reject() {
+        multiPointOutputStream.noSyncLengths.set(1, 10);
+        multiPointOutputStream.allNoSyncLength.set(10);
+
+        thrown.expect(IllegalStateException.class);
+        multiPointOutputStream.setRequireStreamBlocks(new ArrayList<Integer>() {{
+            add(4);
+        }});
+    }
+
+    @Test
+    public void addRequireStreamBlock() {
+        // block 0 has been completed.
         final List<Integer> requireStreamBlocks = new ArrayList<Integer>() {{
-            add(0);
             add(1);
             add(2);
         }};
-        multiPointOutputStream.setRequireStreamBlocks(requireStreamBlocks);
-        assertThat(multiPointOutputStream.requireStreamBlocks).isEqualTo(requireStreamBlocks);
+        multiPointOutputStream.setRequireStreamBlocks(requireStreamBlocks, 1);
+        assertThat(multiPointOutputStream.noSyncLengths.length()).isEqualTo(4);
+
+        multiPointOutputStream.noMoreStreamBlocks.set(1);
+        multiPointOutputStream.noMoreStreamBlocks.set(2);
+        assertThat(multiPointOutputStream.isNoMoreStream()).isTrue();
+
+        assertThat(multiPointOutputStream.addRequireStreamBlock(3)).isTrue();
+        assertThat(multiPointOutputStream.requireStreamBlocks).containsExactly(1, 2, 3);
+        assertThat(requireStreamBlocks).containsExactly(1, 2);
+        assertThat(multiPointOutputStream.isNoMoreStream()).isFalse();
+
+        // no room
+        assertThat(multiPointOutputStream.canAddRequireStreamBlock(4)).isFalse();
+        assertThat(multiPointOutputStream.addRequireStreamBlock(4)).isFalse();
+        assertThat(multiPointOutputStream.requireStreamBlocks).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    public void addRequireStreamBlock_canceled() {
+        multiPointOutputStream.setRequireStreamBlocks(new ArrayList<Integer>(), 1);
+        assertThat(multiPointOutputStream.canAddRequireStreamBlock(0)).isTrue();
+        multiPointOutputStream.canceled = true;
+
+        assertThat(multiPointOutputStream.canAddRequireStreamBlock(0)).isFalse();
+        assertThat(multiPointOutputStream.addRequireStreamBlock(0)).isFalse();
+        assertThat(multiPointOutputStream.requireStreamBlocks).isEmpty();
     }
 
 
     @Test
     public void outputStream_contain_returnDirectly() throws IOException {
         final DownloadOutputStream outputStream = mock(DownloadOutputStream.class);
-        multiPointOutputStream.outputStreamMap.put(1, outputStream);
+        multiPointOutputStream.outputStreams.set(1, outputStream);
         assertThat(multiPointOutputStream.outputStream(1)).isEqualTo(outputStream);
     }
 
+    @Test(expected = InterruptException.class)
+    public void outputStream_canceled_noCreate() throws IOException {
+        multiPointOutputStream.canceled = true;
+        multiPointOutputStream.outputStream(1);
+    }
+
     @Test
     public void outputStream_rangeLeft0_noSeek() throws IOException {
         prepareOutputStreamEnv();
@@ -678,8 +853,8 @@ public class MultiPointOutputStreamTest {
     @Test
     public void catchBlockConnectException() {
         multiPointOutputStream.catchBlockConnectException(2);
-        assertThat(multiPointOutputStream.noMoreStreamList).hasSize(1);
-        assertThat(multiPointOutputStream.noMoreStreamList).containsExactly(2);
+        assertThat(multiPointOutputStream.noMoreStreamBlocks.cardinality()).isOne();
+        assertThat(multiPointOutputStream.noMoreStreamBlocks.get(2)).isTrue();
     }
 
     private void prepareOutputStreamEnv() throws FileNotFoundException, PreAllocateException {
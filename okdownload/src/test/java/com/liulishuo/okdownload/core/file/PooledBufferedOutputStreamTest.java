@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2018 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.liulishuo.okdownload.core.file;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class PooledBufferedOutputStreamTest {
+
+    @Test
+    public void write_close() throws IOException {
+        final ByteArrayPool pool = new ByteArrayPool(1024);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PooledBufferedOutputStream bufferedOut = new PooledBufferedOutputStream(out, 4,
+                pool);
+        assertThat(pool.getMissCount()).isEqualTo(1);
+
+        bufferedOut.write(new byte[]{1, 2, 3}, 0, 3);
+        // buffered.
+        assertThat(out.size()).isZero();
+        // flush the buffered bytes once the buffer can't hold the new bytes.
+        bufferedOut.write(new byte[]{4, 5}, 0, 2);
+        assertThat(out.size()).isEqualTo(3);
+
+        bufferedOut.close();
+        assertThat(out.toByteArray()).containsExactly(1, 2, 3, 4, 5);
+        assertThat(pool.getPooledBytes()).isEqualTo(4);
+
+        // the buffer is returned only once.
+        bufferedOut.close();
+        assertThat(pool.getPooledBytes()).isEqualTo(4);
+
+        new PooledBufferedOutputStream(out, 4, pool);
+        assertThat(pool.getHitCount()).isEqualTo(1);
+    }
+}
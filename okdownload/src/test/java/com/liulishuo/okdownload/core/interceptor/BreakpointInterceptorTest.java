@@ -124,6 +124,17 @@ public class BreakpointInterceptorTest {
         assertThat(contentLength).isEqualTo(10);
     }
 
+    @Test
+    public void interceptFetch_splitOnFetching() throws IOException {
+        when(chain.getOutputStream()).thenReturn(mock(MultiPointOutputStream.class));
+        when(chain.getBlockIndex()).thenReturn(1);
+        // the response content length is shrunk after the block is split.
+        when(chain.getResponseContentLength()).thenReturn(20L, 10L);
+        when(chain.loopFetch()).thenReturn(4L, 6L, -1L);
+
+        assertThat(interceptor.interceptFetch(chain)).isEqualTo(10);
+    }
+
     @Test
     public void interceptFetch_chunked() throws IOException {
         final BlockInfo blockInfo = new BlockInfo(0, 0);
@@ -18,10 +18,13 @@ package com.liulishuo.okdownload.core.interceptor;
 
 import com.liulishuo.okdownload.DownloadTask;
 import com.liulishuo.okdownload.OkDownload;
+import com.liulishuo.okdownload.core.connection.DownloadConnection;
+import com.liulishuo.okdownload.core.dispatcher.BandwidthScheduler;
 import com.liulishuo.okdownload.core.dispatcher.CallbackDispatcher;
 import com.liulishuo.okdownload.core.download.DownloadCache;
 import com.liulishuo.okdownload.core.download.DownloadChain;
 import com.liulishuo.okdownload.core.download.DownloadStrategy;
+import com.liulishuo.okdownload.core.exception.InterruptException;
 import com.liulishuo.okdownload.core.file.MultiPointOutputStream;
 
 import org.junit.Before;
@@ -33,10 +36,15 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import static com.liulishuo.okdownload.TestUtils.mockOkDownload;
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -61,6 +69,7 @@ public class FetchDataInterceptorTest {
         interceptor = new FetchDataInterceptor(0, inputStream, outputStream, task);
         when(chain.getCache()).thenReturn(mock(DownloadCache.class));
         when(chain.getTask()).thenReturn(task);
+        when(chain.acceptFetchLength(anyInt())).then(returnsFirstArg());
     }
 
     @Test
@@ -78,4 +87,84 @@ public class FetchDataInterceptorTest {
         verify(chain).flushNoCallbackIncreaseBytes();
         verify(outputStream).write(eq(0), any(byte[].class), eq(10));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void interceptFetch_bandwidthScheduler() throws IOException, InterruptedException {
+        final OkDownload okDownload = OkDownload.with();
+        final BandwidthScheduler bandwidthScheduler = mock(BandwidthScheduler.class);
+        doReturn(bandwidthScheduler).when(okDownload).getBandwidthScheduler();
+        doReturn(10).when(inputStream).read(any(byte[].class));
+
+        try {
+            interceptor.interceptFetch(chain);
+            verify(bandwidthScheduler).consume(task, 10);
+            verify(outputStream).write(eq(0), any(byte[].class), eq(10));
+
+            // canceled while waiting for the bandwidth.
+            doThrow(InterruptedException.class).when(bandwidthScheduler).consume(task, 10);
+            IOException exception = null;
+            try {
+                interceptor.interceptFetch(chain);
+            } catch (IOException e) {
+                exception = e;
+            }
+            assertThat(exception).isEqualTo(InterruptException.SIGNAL);
+        } finally {
+            doReturn(null).when(okDownload).getBandwidthScheduler();
+        }
+    }
+
+    @Test
+    public void interceptFetch_limitedBySplitBlock() throws IOException {
+        doReturn(10).when(inputStream).read(any(byte[].class));
+        when(chain.acceptFetchLength(10)).thenReturn(4);
+
+        assertThat(interceptor.interceptFetch(chain)).isEqualTo(4);
+        verify(chain).increaseCallbackBytes(4L);
+        verify(outputStream).write(eq(0), any(byte[].class), eq(4));
+    }
+
+    @Test
+    public void interceptFetch_outOfSplitBlock() throws IOException {
+        doReturn(10).when(inputStream).read(any(byte[].class));
+        when(chain.acceptFetchLength(10)).thenReturn(0);
+
+        assertThat(interceptor.interceptFetch(chain)).isEqualTo(-1);
+        verify(outputStream, never()).write(anyInt(), any(byte[].class), anyInt());
+    }
+
+    @Test
+    public void interceptFetch_transferable() throws IOException {
+        final DownloadConnection.Transferable transferable =
+                mock(DownloadConnection.Transferable.class);
+        interceptor = new FetchDataInterceptor(0, inputStream, outputStream, task, new byte[16],
+                transferable);
+        when(transferable.request(16)).thenReturn(10);
+        when(chain.acceptFetchLength(10)).thenReturn(4);
+
+        assertThat(interceptor.interceptFetch(chain)).isEqualTo(4);
+        verify(chain).increaseCallbackBytes(4L);
+        verify(outputStream).write(0, transferable, 4);
+        verify(inputStream, never()).read(any(byte[].class));
+        verify(outputStream, never()).write(anyInt(), any(byte[].class), anyInt());
+
+        when(transferable.request(16)).thenReturn(-1);
+        assertThat(interceptor.interceptFetch(chain)).isEqualTo(-1);
+    }
+
+    @Test
+    public void interceptFetch_handedOver() throws IOException {
+        doThrow(IOException.class).when(inputStream).read(any(byte[].class));
+        when(chain.isHandedOver()).thenReturn(true);
+
+        assertThat(interceptor.interceptFetch(chain)).isEqualTo(-1);
+        verify(outputStream, never()).write(anyInt(), any(byte[].class), anyInt());
+    }
+
+    @Test(expected = IOException.class)
+    public void interceptFetch_readFailed() throws IOException {
+        doThrow(IOException.class).when(inputStream).read(any(byte[].class));
+
+        interceptor.interceptFetch(chain);
+    }
+}
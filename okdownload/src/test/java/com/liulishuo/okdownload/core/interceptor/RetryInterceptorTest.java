@@ -85,6 +85,20 @@ public class RetryInterceptorTest {
         verify(outputStream, never()).catchBlockConnectException(chain.getBlockIndex());
     }
 
+    @Test
+    public void interceptConnect_failoverSource() throws IOException {
+        final IOException exception = new IOException();
+        doThrow(exception).doReturn(connected).when(chain).processConnect();
+        when(chain.failoverSource(exception)).thenReturn(true);
+
+        interceptor.interceptConnect(chain);
+
+        verify(chain, times(2)).processConnect();
+        verify(chain).resetConnectForRetry();
+        verify(cache, never()).catchException(any(IOException.class));
+        verify(outputStream, never()).catchBlockConnectException(chain.getBlockIndex());
+    }
+
     @Test
     public void interceptConnect_userCanceled() throws IOException {
         doThrow(InterruptException.class).when(chain).processConnect();